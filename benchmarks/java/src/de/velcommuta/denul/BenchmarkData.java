@@ -0,0 +1,124 @@
+package de.velcommuta.denul;
+
+import de.velcommuta.denul.crypto.ECDHKeyExchange;
+import de.velcommuta.denul.crypto.RSA;
+import de.velcommuta.denul.data.GPSTrack;
+import de.velcommuta.denul.data.KeySet;
+import de.velcommuta.denul.data.Location;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.proto.DataContainer;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Helper functions to generate the input data for the benchmarks
+ */
+public class BenchmarkData {
+    // Fixed seed, so that all runs of a benchmark work on the same data
+    private static final Random sRandom = new Random(42);
+
+    /**
+     * Get a byte[] filled with random data
+     * @param size The length of the byte[]
+     * @return The byte[]
+     */
+    public static byte[] getRandomBytes(int size) {
+        byte[] rv = new byte[size];
+        sRandom.nextBytes(rv);
+        return rv;
+    }
+
+
+    /**
+     * Get a KeySet with random keys and counters
+     * @return The KeySet
+     */
+    public static KeySet getRandomKeySet() {
+        return new KeySet(getRandomBytes(32), getRandomBytes(32), getRandomBytes(32), getRandomBytes(32), true);
+    }
+
+
+    /**
+     * Get a StudyRequest with placeholder texts and fresh keys, ready to be inserted into a database
+     * @return The StudyRequest
+     */
+    public static StudyRequest getStudyRequest() {
+        StudyRequest req = new StudyRequest();
+        req.randomizeQueueIdentifier();
+        req.name = "Benchmark";
+        req.institution = "Benchmark";
+        req.webpage = "https://example.com";
+        req.description = "Benchmark";
+        req.purpose = "Benchmark";
+        req.procedures = "Benchmark";
+        req.risks = "Benchmark";
+        req.benefits = "Benchmark";
+        req.payment = "Benchmark";
+        req.conflicts = "Benchmark";
+        req.confidentiality = "Benchmark";
+        req.participationAndWithdrawal = "Benchmark";
+        req.rights = "Benchmark";
+        req.verification = StudyRequest.VERIFY_FILE;
+        KeyPair keys = RSA.generateRSAKeypair(1024);
+        req.pubkey = keys.getPublic();
+        req.privkey = keys.getPrivate();
+        req.exchange = new ECDHKeyExchange();
+        return req;
+    }
+
+
+    /**
+     * Get a GPSTrack consisting of a random walk with the specified number of points
+     * @param points The number of Locations in the track
+     * @return The GPSTrack
+     */
+    public static GPSTrack getRandomGPSTrack(int points) {
+        List<Location> locations = new ArrayList<>(points);
+        double lat = 49.877;
+        double lng = 8.654;
+        long time = 1450000000000L;
+        for (int i = 0; i < points; i++) {
+            Location loc = new Location();
+            loc.setLatitude(lat);
+            loc.setLongitude(lng);
+            loc.setTime(time);
+            locations.add(loc);
+            lat += (sRandom.nextDouble() - 0.5) * 0.0001;
+            lng += (sRandom.nextDouble() - 0.5) * 0.0001;
+            time += 1000;
+        }
+        GPSTrack track = new GPSTrack(locations, "Benchmark", GPSTrack.VALUE_RUNNING, 1450000000000L, time,
+                "Europe/Berlin", points * 5.0f);
+        track.setDescription("Generated benchmark track");
+        return track;
+    }
+
+
+    /**
+     * Get the serialized DataContainer representation of a GPSTrack with the specified number of points, as it is
+     * shared by the Android app
+     * @param points The number of Locations in the track
+     * @return The serialized DataContainer.Wrapper containing the track
+     */
+    public static byte[] getSerializedGPSTrack(int points) {
+        GPSTrack track = getRandomGPSTrack(points);
+        DataContainer.Track.Builder builder = DataContainer.Track.newBuilder();
+        for (Location loc : track.getPosition()) {
+            builder.addTrack(DataContainer.Track.Entry.newBuilder()
+                    .setLat(loc.getLatitude())
+                    .setLng(loc.getLongitude())
+                    .setTimestamp((long) loc.getTime()));
+        }
+        builder.setName(track.getSessionName());
+        builder.setMode(DataContainer.Track.ModeOfTransport.MODE_RUNNING);
+        builder.setTimestampStart(track.getTimestamp());
+        builder.setTimestampEnd(track.getTimestampEnd());
+        builder.setTimezone(track.getTimezone());
+        builder.setDistance(track.getDistance());
+        builder.setDescription(track.getDescription());
+        return DataContainer.Wrapper.newBuilder().setTrack(builder).build().toByteArray();
+    }
+}
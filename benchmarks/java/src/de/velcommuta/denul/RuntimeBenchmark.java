@@ -0,0 +1,89 @@
+package de.velcommuta.denul;
+
+import de.velcommuta.denul.crypto.AES;
+import de.velcommuta.denul.crypto.AESSharingEncryption;
+import de.velcommuta.denul.crypto.SharingEncryption;
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.GPSTrack;
+import de.velcommuta.denul.data.Location;
+import de.velcommuta.denul.data.Shareable;
+import de.velcommuta.denul.util.TrackSimplifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Regression benchmark for comparing JVMs, e.g. with "gradle :benchmarks:jmhRuntimes". Every operation processes a batch of
+ * shared tracks the way a poll does: decrypt and parse them, then compute the levels of detail of their points. The
+ * startup benchmark measures the first batch of a fresh JVM, before the JIT compiler has done its work, in many forks.
+ * The throughput benchmark measures the batches of a warmed-up JVM.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RuntimeBenchmark {
+    private static final int TRACKS = 64;
+    private static final int POINTS = 1000;
+
+    private SharingEncryption mEncryption;
+    private DataBlock[] mBlocks;
+
+    @Setup
+    public void setUp() {
+        mEncryption = new AESSharingEncryption();
+        mBlocks = new DataBlock[TRACKS];
+        for (int i = 0; i < TRACKS; i++) {
+            byte[] key = AES.generateAES256Key();
+            byte[] identifier = BenchmarkData.getRandomBytes(32);
+            byte[] ciphertext = AES.encryptAES(BenchmarkData.getSerializedGPSTrack(POINTS), key, identifier);
+            mBlocks[i] = new DataBlock(key, ciphertext, identifier);
+        }
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(20)
+    public int startup() {
+        return processBatch();
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 5)
+    @Fork(3)
+    public int throughput() {
+        return processBatch();
+    }
+
+
+    /**
+     * Decrypt all tracks and compute the levels of detail of their points
+     * @return The number of points of the tracks with a coarse level of detail, so that nothing is optimized away
+     */
+    private int processBatch() {
+        int rv = 0;
+        for (DataBlock block : mBlocks) {
+            GPSTrack track = (GPSTrack) mEncryption.decryptShareable(block);
+            List<Location> position = track.getPosition();
+            int count = position.size();
+            double[] time = new double[count];
+            double[] lat = new double[count];
+            double[] lon = new double[count];
+            for (int i = 0; i < count; i++) {
+                Location loc = position.get(i);
+                time[i] = loc.getTime();
+                lat[i] = loc.getLatitude();
+                lon[i] = loc.getLongitude();
+            }
+            for (byte level : TrackSimplifier.computeLevels(time, lat, lon, count)) {
+                if (level != Shareable.GRANULARITY_FINE) rv++;
+            }
+        }
+        return rv;
+    }
+}
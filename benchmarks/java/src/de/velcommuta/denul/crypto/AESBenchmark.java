@@ -0,0 +1,44 @@
+package de.velcommuta.denul.crypto;
+
+import de.velcommuta.denul.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.BadPaddingException;
+
+/**
+ * Benchmarks for the AES-GCM encryption and decryption
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AESBenchmark {
+    @Param({"64", "4096", "65536", "1048576"})
+    public int payloadSize;
+
+    private byte[] mKey;
+    private byte[] mAad;
+    private byte[] mPlaintext;
+    private byte[] mCiphertext;
+
+    @Setup
+    public void setUp() {
+        mKey = AES.generateAES256Key();
+        mAad = BenchmarkData.getRandomBytes(32);
+        mPlaintext = BenchmarkData.getRandomBytes(payloadSize);
+        mCiphertext = AES.encryptAES(mPlaintext, mKey, mAad);
+    }
+
+
+    @Benchmark
+    public byte[] encrypt() {
+        return AES.encryptAES(mPlaintext, mKey, mAad);
+    }
+
+
+    @Benchmark
+    public byte[] decrypt() throws BadPaddingException {
+        return AES.decryptAES(mCiphertext, mKey, mAad);
+    }
+}
@@ -0,0 +1,28 @@
+package de.velcommuta.denul.crypto;
+
+import de.velcommuta.denul.BenchmarkData;
+import de.velcommuta.denul.data.KeySet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the expansion of an agreed key into a KeySet
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HKDFKeyExpansionBenchmark {
+    private byte[] mSecret;
+
+    @Setup
+    public void setUp() {
+        mSecret = BenchmarkData.getRandomBytes(32);
+    }
+
+
+    @Benchmark
+    public KeySet expand() {
+        return new HKDFKeyExpansion(mSecret).expand(true);
+    }
+}
@@ -0,0 +1,43 @@
+package de.velcommuta.denul.crypto;
+
+import de.velcommuta.denul.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.BadPaddingException;
+
+/**
+ * Benchmarks for the hybrid RSA / AES encryption and decryption
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HybridBenchmark {
+    @Param({"64", "4096", "65536", "1048576"})
+    public int payloadSize;
+
+    private KeyPair mKeypair;
+    private byte[] mPlaintext;
+    private byte[] mCiphertext;
+
+    @Setup
+    public void setUp() {
+        mKeypair = RSA.generateRSAKeypair(4096);
+        mPlaintext = BenchmarkData.getRandomBytes(payloadSize);
+        mCiphertext = Hybrid.encryptHybrid(mPlaintext, mKeypair.getPublic(), 1);
+    }
+
+
+    @Benchmark
+    public byte[] encrypt() {
+        return Hybrid.encryptHybrid(mPlaintext, mKeypair.getPublic(), 1);
+    }
+
+
+    @Benchmark
+    public byte[] decrypt() throws BadPaddingException {
+        return Hybrid.decryptHybrid(mCiphertext, mKeypair.getPrivate(), 1);
+    }
+}
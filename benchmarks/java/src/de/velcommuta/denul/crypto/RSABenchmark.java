@@ -0,0 +1,45 @@
+package de.velcommuta.denul.crypto;
+
+import de.velcommuta.denul.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * Benchmarks for the RSA-OAEP encryption and decryption
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RSABenchmark {
+    @Param({"2048", "4096"})
+    public int bitness;
+
+    private KeyPair mKeypair;
+    private byte[] mPlaintext;
+    private byte[] mCiphertext;
+
+    @Setup
+    public void setUp() throws IllegalBlockSizeException {
+        mKeypair = RSA.generateRSAKeypair(bitness);
+        // Roughly the size of a StudyJoin message, which is the main use of RSA
+        mPlaintext = BenchmarkData.getRandomBytes(160);
+        mCiphertext = RSA.encryptRSA(mPlaintext, mKeypair.getPublic());
+    }
+
+
+    @Benchmark
+    public byte[] encrypt() throws IllegalBlockSizeException {
+        return RSA.encryptRSA(mPlaintext, mKeypair.getPublic());
+    }
+
+
+    @Benchmark
+    public byte[] decrypt() throws IllegalBlockSizeException, BadPaddingException {
+        return RSA.decryptRSA(mCiphertext, mKeypair.getPrivate());
+    }
+}
@@ -0,0 +1,37 @@
+package de.velcommuta.denul.crypto;
+
+import de.velcommuta.denul.BenchmarkData;
+import de.velcommuta.denul.data.KeySet;
+import de.velcommuta.denul.data.TokenPair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the derivation of identifiers and revocation tokens
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SHA256IdentifierDerivationBenchmark {
+    private IdentifierDerivation mDerivation;
+    private KeySet mKeys;
+
+    @Setup
+    public void setUp() {
+        mDerivation = new SHA256IdentifierDerivation();
+        mKeys = BenchmarkData.getRandomKeySet();
+    }
+
+
+    @Benchmark
+    public TokenPair generateInboundIdentifier() {
+        return mDerivation.generateInboundIdentifier(mKeys);
+    }
+
+
+    @Benchmark
+    public TokenPair generateOutboundIdentifier() {
+        return mDerivation.generateOutboundIdentifier(mKeys);
+    }
+}
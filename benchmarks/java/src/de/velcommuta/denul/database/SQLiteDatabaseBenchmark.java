@@ -0,0 +1,59 @@
+package de.velcommuta.denul.database;
+
+import de.velcommuta.denul.BenchmarkData;
+import de.velcommuta.denul.data.GPSTrack;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for inserting and selecting GPS tracks in the SQLite database
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SQLiteDatabaseBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int points;
+
+    private File mFile;
+    private SQLiteDatabase mDatabase;
+    private GPSTrack mTrack;
+    private long mParticipant;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("denul-benchmark", ".db");
+        mDatabase = new SQLiteDatabase(mFile.getAbsolutePath());
+        // Prepare a study with one participant
+        long study = mDatabase.addStudyRequest(BenchmarkData.getStudyRequest());
+        mParticipant = mDatabase.addParticipant(BenchmarkData.getRandomKeySet(), study);
+        // Insert one track to select
+        mTrack = BenchmarkData.getRandomGPSTrack(points);
+        mDatabase.addGPSTrack(mTrack, mParticipant);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        mDatabase.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+
+    @Benchmark
+    public void insertGPSTrack() {
+        mDatabase.addGPSTrack(mTrack, mParticipant);
+    }
+
+
+    @Benchmark
+    public List<GPSTrack> selectGPSTracks() {
+        return mDatabase.getGPSTracksByParticipantID(mParticipant);
+    }
+}
@@ -0,0 +1,110 @@
+package de.velcommuta.denul.database;
+
+import de.velcommuta.denul.BenchmarkData;
+import de.velcommuta.denul.data.GPSTrack;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for computing the number of tracks and the total distance per participant and day of a study, once with
+ * {@link SQLiteDatabase#aggregateSessions(long, long, long, int)} and once by loading all tracks of the study and
+ * grouping them in the JVM. The sessions have no coordinates, so the latter is not slowed down by loading them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SessionAggregateBenchmark {
+    private static final int PARTICIPANTS = 1000;
+    private static final int DAYS = 365;
+    private static final long START = 16800 * SessionAggregate.MILLIS_PER_DAY;
+
+    @Param({"10000", "1000000"})
+    public int sessions;
+
+    private File mFile;
+    private SQLiteDatabase mDatabase;
+    private long mStudy;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        mFile = File.createTempFile("denul-benchmark", ".db");
+        mDatabase = new SQLiteDatabase(mFile.getAbsolutePath());
+        mStudy = mDatabase.addStudyRequest(BenchmarkData.getStudyRequest());
+        List<Long> participants = new ArrayList<>(PARTICIPANTS);
+        for (int i = 0; i < PARTICIPANTS; i++) {
+            participants.add(mDatabase.addParticipant(BenchmarkData.getRandomKeySet(), mStudy));
+        }
+        // Inserting a million sessions through addGPSTrack takes one transaction each, so they are inserted directly
+        Random random = new Random(42);
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getAbsolutePath());
+        connection.setAutoCommit(false);
+        PreparedStatement stmt = connection.prepareStatement(SQLContract.Data.LocationSessions.INSERT);
+        for (int i = 0; i < sessions; i++) {
+            long start = START + (long) (random.nextDouble() * DAYS * SessionAggregate.MILLIS_PER_DAY);
+            stmt.setString(1, "Benchmark");
+            stmt.setLong(2, participants.get(random.nextInt(PARTICIPANTS)));
+            stmt.setLong(3, start);
+            stmt.setLong(4, start + random.nextInt(2 * 60 * 60 * 1000));
+            stmt.setString(5, "Europe/Berlin");
+            stmt.setFloat(6, random.nextFloat() * 20000);
+            stmt.setInt(7, random.nextBoolean() ? GPSTrack.VALUE_RUNNING : GPSTrack.VALUE_CYCLING);
+            stmt.setString(8, null);
+            stmt.setBytes(9, null);
+            stmt.addBatch();
+            if (i % 10000 == 9999) stmt.executeBatch();
+        }
+        stmt.executeBatch();
+        stmt.close();
+        connection.commit();
+        connection.close();
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        mDatabase.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+
+    @Benchmark
+    public List<SessionAggregate> aggregateInDatabase() {
+        return mDatabase.aggregateSessions(mStudy, 0, Long.MAX_VALUE,
+                SessionAggregate.BY_PARTICIPANT | SessionAggregate.BY_DAY);
+    }
+
+
+    @Benchmark
+    public Map<String, double[]> aggregateInJVM() {
+        // Key: participant and day, value: number of tracks and total distance
+        Map<String, double[]> rv = new HashMap<>();
+        for (GPSTrack track : mDatabase.getGPSTracksByStudyID(mStudy)) {
+            String key = track.getOwner() + "/" + track.getTimestamp() / SessionAggregate.MILLIS_PER_DAY;
+            double[] values = rv.get(key);
+            if (values == null) {
+                values = new double[2];
+                rv.put(key, values);
+            }
+            values[0]++;
+            values[1] += track.getDistance();
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,82 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.BenchmarkData;
+import de.velcommuta.denul.data.TokenPair;
+import de.velcommuta.denul.util.ThreadPools;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for retrieving many values from the {@link StandInServer} in parallel over a single
+ * {@link ResilientConnection}, like {@link de.velcommuta.denul.util.StudyManager} does, with and without a
+ * {@link PipelinedConnection} below it
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PipelinedConnectionBenchmark {
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    @Param({"100"})
+    public int values;
+
+    // Latency added by the server to every request, in milliseconds
+    @Param({"0", "5"})
+    public int latency;
+
+    private StandInServer mServer;
+    private ExecutorService mExecutor;
+    private AsyncProtocol mProtocol;
+    private List<TokenPair> mTokens;
+
+    @Setup
+    public void setUp() throws IOException {
+        mServer = new StandInServer(values * 10);
+        mTokens = new ArrayList<>(values);
+        for (int i = 0; i < values; i++) {
+            byte[] key = BenchmarkData.getRandomBytes(32);
+            mServer.put(key, BenchmarkData.getRandomBytes(1024));
+            mTokens.add(new TokenPair(key, BenchmarkData.getRandomBytes(32)));
+        }
+        mServer.setLatency(latency);
+        final ConnectionFactory factory = mServer.getConnectionFactory();
+        Connection connection = new ResilientConnection(new ConnectionFactory() {
+            @Override
+            public Connection openConnection() throws IOException {
+                Connection connection = factory.openConnection();
+                if (pipelined) {
+                    connection = new PipelinedConnection((FramedConnection) connection);
+                }
+                return new MeteredConnection(connection);
+            }
+        });
+        // The values are stored before connecting, so that they are contained in the VICBF of the handshake
+        Protocol protocol = new ProtobufProtocol();
+        if (protocol.connect(connection) != Protocol.CONNECT_OK) {
+            throw new IOException("Handshake failed");
+        }
+        mExecutor = ThreadPools.newTaskExecutor("PipelinedConnectionBenchmark", values);
+        mProtocol = new AsyncProtocolAdapter(protocol, mExecutor);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        mProtocol.disconnect();
+        mExecutor.shutdownNow();
+        mServer.shutdown();
+    }
+
+
+    @Benchmark
+    public Map<TokenPair, byte[]> getMany() {
+        return mProtocol.getMany(mTokens).join();
+    }
+}
@@ -0,0 +1,67 @@
+package de.velcommuta.denul.networking;
+
+import com.google.protobuf.ByteString;
+import de.velcommuta.denul.BenchmarkData;
+import de.velcommuta.denul.crypto.AES;
+import de.velcommuta.denul.crypto.AESSharingEncryption;
+import de.velcommuta.denul.crypto.SharingEncryption;
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.Shareable;
+import de.velcommuta.denul.networking.protobuf.c2s.C2S;
+import de.velcommuta.denul.networking.protobuf.meta.MetaMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building and parsing the protocol messages used to transfer shared GPS tracks, and for decrypting and
+ * deserializing the tracks contained in them
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProtobufProtocolBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int points;
+
+    private ProtobufProtocol mProtocol;
+    private SharingEncryption mEncryption;
+    private byte[] mKey;
+    private byte[] mIdentifier;
+    private byte[] mSymmetricKey;
+    private byte[] mCiphertext;
+    private byte[] mGetReply;
+
+    @Setup
+    public void setUp() {
+        mProtocol = new ProtobufProtocol();
+        mEncryption = new AESSharingEncryption();
+        mKey = BenchmarkData.getRandomBytes(32);
+        mIdentifier = BenchmarkData.getRandomBytes(32);
+        mSymmetricKey = AES.generateAES256Key();
+        mCiphertext = AES.encryptAES(BenchmarkData.getSerializedGPSTrack(points), mSymmetricKey, mIdentifier);
+        C2S.GetReply.Builder reply = C2S.GetReply.newBuilder();
+        reply.setOpcode(C2S.GetReply.GetReplyCode.GET_OK);
+        reply.setKey(ByteString.copyFrom(mKey));
+        reply.setValue(ByteString.copyFrom(mCiphertext));
+        mGetReply = MetaMessage.Wrapper.newBuilder().setGetReply(reply).build().toByteArray();
+    }
+
+
+    @Benchmark
+    public byte[] buildStoreMessage() {
+        return mProtocol.getStoreMsg(mKey, mCiphertext).toByteArray();
+    }
+
+
+    @Benchmark
+    public byte[] parseGetReply() {
+        return mProtocol.toGetReply(mProtocol.toWrapperMessage(mGetReply)).getValue().toByteArray();
+    }
+
+
+    @Benchmark
+    public Shareable decryptShareable() {
+        return mEncryption.decryptShareable(new DataBlock(mSymmetricKey, mCiphertext, mIdentifier));
+    }
+}
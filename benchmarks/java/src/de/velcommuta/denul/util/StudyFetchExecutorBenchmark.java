@@ -0,0 +1,97 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.database.SQLiteDatabase;
+import de.velcommuta.denul.networking.StandInServer;
+import de.velcommuta.denul.networking.SyntheticParticipant;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for polling many studies at once with the {@link StudyFetchExecutor}, comparing a fixed pool of platform
+ * threads with virtual threads under the same concurrency limit. Every study uses its own connection to the
+ * {@link StandInServer}, which adds a latency to every request, so the polls spend most of their time waiting. The
+ * virtual mode requires Java 21 or later; on older JVMs, its runs fail in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StudyFetchExecutorBenchmark {
+    private static final int PARTICIPANTS = 10;
+
+    @Param({"16", "64"})
+    public int studies;
+
+    // Maximum number of concurrent polls, i.e. the number of platform threads in the platform mode
+    @Param({"4", "64"})
+    public int concurrency;
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    private StandInServer mServer;
+    private File mFile;
+    private List<StudyRequest> mStudies;
+    private StudyFetchExecutor mExecutor;
+
+    @Setup
+    public void setUp() throws IOException, IllegalBlockSizeException {
+        boolean virtual = mode.equals("virtual");
+        if (virtual && !ThreadPools.hasVirtualThreads()) {
+            throw new IllegalStateException("Virtual threads are not supported by this JVM");
+        }
+        System.setProperty("denul." + Config.DAEMON_CONCURRENCY, String.valueOf(concurrency));
+        Config.reload();
+        mServer = new StandInServer(studies * PARTICIPANTS * 10);
+        StudyManager.setConnectionFactory(mServer.getConnectionFactory());
+        mFile = File.createTempFile("denul-benchmark", ".db");
+        SQLiteDatabase db = new SQLiteDatabase(mFile.getAbsolutePath());
+        mStudies = new ArrayList<>(studies);
+        for (int i = 0; i < studies; i++) {
+            StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+            StudyManager.registerStudy(req, db);
+            for (int j = 0; j < PARTICIPANTS; j++) {
+                new SyntheticParticipant(req).join(mServer);
+            }
+            mStudies.add(req);
+        }
+        db.close();
+        mExecutor = new StudyFetchExecutor(mFile.getAbsolutePath(), virtual);
+        // Receive the participants, so that every benchmarked poll queries the key blocks of all of them
+        try {
+            mExecutor.fetchAll(mStudies);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        mServer.setLatency(5);
+    }
+
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        mExecutor.shutdown();
+        mExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        mServer.shutdown();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+        System.clearProperty("denul." + Config.DAEMON_CONCURRENCY);
+        Config.reload();
+    }
+
+
+    @Benchmark
+    public List<Integer> pollAll() throws InterruptedException {
+        return mExecutor.fetchAll(mStudies);
+    }
+}
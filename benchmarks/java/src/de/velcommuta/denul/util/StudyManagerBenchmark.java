@@ -0,0 +1,92 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.database.SQLiteDatabase;
+import de.velcommuta.denul.networking.StandInServer;
+import de.velcommuta.denul.networking.SyntheticParticipant;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmarks for polling a study with many participants from the {@link StandInServer}
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StudyManagerBenchmark {
+    @Param({"100", "1000"})
+    public int participants;
+
+    // Latency added by the server to every request, in milliseconds
+    @Param({"0", "5"})
+    public int latency;
+
+    private StandInServer mServer;
+    private File mFile;
+    private SQLiteDatabase mDatabase;
+    private StudyRequest mStudy;
+    private List<SyntheticParticipant> mParticipants;
+
+    @Setup
+    public void setUp() throws IOException, IllegalBlockSizeException {
+        mServer = new StandInServer(participants * 10);
+        StudyManager.setConnectionFactory(mServer.getConnectionFactory());
+        mFile = File.createTempFile("denul-benchmark", ".db");
+        mDatabase = new SQLiteDatabase(mFile.getAbsolutePath());
+        // Register the study and let all participants join it
+        mStudy = StudyRequestTest.getRandomStudyRequest(4096);
+        StudyManager.registerStudy(mStudy, mDatabase);
+        mParticipants = new ArrayList<>(participants);
+        for (int i = 0; i < participants; i++) {
+            SyntheticParticipant participant = new SyntheticParticipant(mStudy);
+            participant.join(mServer);
+            mParticipants.add(participant);
+        }
+        StudyManager.updateStudyData(mDatabase, mStudy);
+        mServer.setLatency(latency);
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        mServer.shutdown();
+        mDatabase.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+
+    /**
+     * State that makes every participant share one track before each invocation
+     */
+    @State(Scope.Thread)
+    public static class PendingData {
+        @Setup(Level.Invocation)
+        public void share(StudyManagerBenchmark benchmark) {
+            byte[] track = SyntheticParticipant.getSerializedTrack(100);
+            for (SyntheticParticipant participant : benchmark.mParticipants) {
+                participant.share(benchmark.mServer, track);
+            }
+        }
+    }
+
+
+    @Benchmark
+    public void pollWithoutData() {
+        StudyManager.updateStudyData(mDatabase, mStudy);
+    }
+
+
+    @Benchmark
+    public void pollWithData(PendingData pending) {
+        StudyManager.updateStudyData(mDatabase, mStudy);
+    }
+}
@@ -0,0 +1,55 @@
+package de.velcommuta.denul;
+
+import de.velcommuta.denul.metrics.Gauge;
+import de.velcommuta.denul.metrics.MetricsExporter;
+import de.velcommuta.denul.metrics.MetricsRegistry;
+import de.velcommuta.denul.metrics.Tracer;
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.StudyPoller;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Main Class for running the client without user interaction, polling all studies for new data in the background
+ * until the process is terminated
+ */
+public class Daemon {
+    private static final Logger logger = Logger.getLogger(Daemon.class.getName());
+
+    /**
+     * Main function
+     * @param args Arguments
+     * @throws InterruptedException If interrupted while waiting for the shutdown
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final StudyPoller poller = new StudyPoller(Config.getDatabaseFile());
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                logger.info("main: Shutting down, waiting for running polls to finish");
+                try {
+                    if (!poller.shutdown(60, TimeUnit.SECONDS)) {
+                        logger.warning("main: Polls did not finish in time");
+                    }
+                } catch (InterruptedException e) {
+                    logger.warning("main: Interrupted while waiting for polls to finish");
+                }
+                Tracer.getDefault().close();
+                stopped.countDown();
+            }
+        }));
+        MetricsRegistry.getDefault().gauge("daemon.scheduled_studies", new Gauge() {
+            @Override
+            public long getValue() {
+                return poller.getScheduledStudyCount();
+            }
+        });
+        MetricsExporter.start();
+        poller.start();
+        logger.info("main: Polling studies in " + Config.getDatabaseFile());
+        stopped.await();
+    }
+}
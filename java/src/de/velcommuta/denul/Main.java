@@ -1,6 +1,11 @@
 package de.velcommuta.denul;
 
+import de.velcommuta.denul.metrics.MetricsExporter;
 import de.velcommuta.denul.ui.TextUI;
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.KeyPool;
+
+import java.io.File;
 
 /**
  * Main Class
@@ -11,6 +16,14 @@ public class Main {
      * @param args Arguments
      */
     public static void main(String[] args) {
+        MetricsExporter.start();
+        // Load pre-computed keys from the last run and start filling the key pool in the background
+        byte[] poolkey = KeyPool.getStorageKey(new File(Config.getKeyPoolKeyFile()));
+        if (poolkey != null) {
+            KeyPool.getDefault().persistTo(new File(Config.getKeyPoolFile()), poolkey);
+        } else {
+            KeyPool.getDefault().refill();
+        }
         new TextUI().mainMenu();
     }
 }
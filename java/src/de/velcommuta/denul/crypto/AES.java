@@ -1,11 +1,13 @@
 package de.velcommuta.denul.crypto;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.Security;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import javax.crypto.BadPaddingException;
@@ -14,6 +16,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -42,6 +45,12 @@ public class AES {
 
     private static final Logger logger = Logger.getLogger(AES.class.getName());
 
+    // Number of bytes of ciphertext fed to the cipher at once when decrypting a ByteBuffer
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Length of the IV prepended to the ciphertext, and of the GCM authentication tag appended to it, in bytes
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 16;
+
 
     ///// Key Generation
     /**
@@ -153,11 +162,7 @@ public class AES {
      * tampered with (i.e. the authentication failed)
      */
     public static byte[] decryptAES(byte[] datawithiv, byte[] keyenc) throws BadPaddingException {
-        byte[] iv = new byte[16];
-        byte[] encrypted = new byte[datawithiv.length -16];
-        System.arraycopy(datawithiv, 0, iv, 0, 16);
-        System.arraycopy(datawithiv, iv.length, encrypted, 0, datawithiv.length - 16);
-        return decryptAES(encrypted, keyenc, null, iv);
+        return decryptAES(ByteBuffer.wrap(datawithiv), keyenc, null);
     }
 
 
@@ -171,11 +176,57 @@ public class AES {
      * tampered with (i.e. the authentication failed)
      */
     public static byte[] decryptAES(byte[] datawithiv, byte[] keyenc, byte[] aad) throws BadPaddingException {
-        byte[] iv = new byte[16];
-        byte[] encrypted = new byte[datawithiv.length -16];
-        System.arraycopy(datawithiv, 0, iv, 0, 16);
-        System.arraycopy(datawithiv, iv.length, encrypted, 0, datawithiv.length - 16);
-        return decryptAES(encrypted, keyenc, aad, iv);
+        return decryptAES(ByteBuffer.wrap(datawithiv), keyenc, aad);
+    }
+
+
+    /**
+     * Decrypt a piece of AES256-encrypted data with its key. The ciphertext is fed to the cipher in chunks of
+     * {@link #CHUNK_SIZE} bytes, so that it is never copied as a whole, e.g. when it is a view of a received message.
+     * The plaintext is only returned once the authentication succeeded.
+     * @param datawithiv Data with first bytes representing the IV, from the position to the limit of the buffer. The
+     *                   position of the buffer is not changed.
+     * @param keyenc byte[]-encoded key
+     * @param aad Additional Authenticated Data to verify, or null
+     * @return Decrypted data as byte[]
+     * @throws BadPaddingException If the padding was bad, or the data is too short to contain the IV and the
+     * authentication tag. This indicates that the ciphertext was tampered with (i.e. the authentication failed)
+     */
+    public static byte[] decryptAES(ByteBuffer datawithiv, byte[] keyenc, byte[] aad) throws BadPaddingException {
+        ByteBuffer in = datawithiv.duplicate();
+        // A truncated message, e.g. a corrupted value from the server, cannot be authentic
+        if (in.remaining() < IV_LENGTH + MAC_LENGTH) {
+            throw new BadPaddingException("Ciphertext too short: " + in.remaining() + " bytes");
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        in.get(iv);
+        try {
+            // Get Cipher instance
+            Cipher aesCipher = Cipher.getInstance("AES/GCM/NoPadding", "BC");
+            // Create SecretKey object
+            SecretKey key = new SecretKeySpec(keyenc, "AES");
+            // Initialize cipher
+            aesCipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+            // Add header for AAD
+            if (aad != null) {
+                aesCipher.updateAAD(aad);
+            }
+            // Perform the decryption, one chunk at a time
+            byte[] plaintext = new byte[aesCipher.getOutputSize(in.remaining())];
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, in.remaining())];
+            int length = 0;
+            while (in.hasRemaining()) {
+                int n = Math.min(chunk.length, in.remaining());
+                in.get(chunk, 0, n);
+                length += aesCipher.update(chunk, 0, n, plaintext, length);
+            }
+            length += aesCipher.doFinal(plaintext, length);
+            return length == plaintext.length ? plaintext : Arrays.copyOf(plaintext, length);
+        } catch (NoSuchPaddingException | InvalidAlgorithmParameterException | NoSuchAlgorithmException
+                | IllegalBlockSizeException | NoSuchProviderException | InvalidKeyException | ShortBufferException e) {
+            logger.severe("decryptAES: An Exception occured during decryption: " + e.getMessage());
+        }
+        return null;
     }
 
 
@@ -9,7 +9,11 @@ import de.velcommuta.denul.data.KeySet;
 import de.velcommuta.denul.data.Shareable;
 import de.velcommuta.denul.data.ShareableUnwrapper;
 import de.velcommuta.denul.data.proto.DataContainer;
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.MetricsRegistry;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -21,6 +25,11 @@ public class AESSharingEncryption implements SharingEncryption {
 
     private static final int IVBYTES = 16;
 
+    private static final Counter sShareableOk = MetricsRegistry.getDefault().counter("crypto.decrypt_shareable.ok");
+    private static final Counter sShareableFail = MetricsRegistry.getDefault().counter("crypto.decrypt_shareable.fail");
+    private static final Counter sKeysOk = MetricsRegistry.getDefault().counter("crypto.decrypt_keys.ok");
+    private static final Counter sKeysFail = MetricsRegistry.getDefault().counter("crypto.decrypt_keys.fail");
+
     @Override
     public byte[] encryptKeysAndIdentifier(DataBlock data, KeySet keys) {
         // Assemble plaintext
@@ -52,30 +61,54 @@ public class AESSharingEncryption implements SharingEncryption {
     public Shareable decryptShareable(DataBlock encrypted) {
         // Prepare byte[] for decrypted data
         DataContainer.Wrapper wrapper;
+        byte[] decrypted;
         try {
             // Decrypt
-            byte[] decrypted = AES.decryptAES(encrypted.getCiphertext(), encrypted.getKey(), encrypted.getIdentifier());
+            decrypted = AES.decryptAES(encrypted.getCiphertext(), encrypted.getKey(), encrypted.getIdentifier());
             wrapper = DataContainer.Wrapper.parseFrom(decrypted);
         } catch (BadPaddingException e) {
             // Decryption failed - probably because of authentication issues
             logger.severe("decryptShareable: BadPaddingException - Authentication failed");
+            sShareableFail.inc();
             return null;
         } catch (InvalidProtocolBufferException e) {
             logger.severe("decryptShareable: InvalidProtocolBufferException");
+            sShareableFail.inc();
             return null;
         }
+        sShareableOk.inc();
         Shareable rv = ShareableUnwrapper.unwrap(wrapper);
         if (rv != null && encrypted.getOwner() != null && encrypted.getOwner().getID() != -1) rv.setOwner(encrypted.getOwner().getID());
+        // Remember what was received, so that a data block that is delivered again can be recognized
+        if (rv != null) rv.setContentHash(hash(decrypted));
         return rv;
     }
 
 
+    /**
+     * Calculate the SHA-256 hash of a serialized shareable
+     * @param serialized The serialized shareable
+     * @return The hash, or null if SHA-256 is not supported
+     */
+    private static byte[] hash(byte[] serialized) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(serialized);
+        } catch (NoSuchAlgorithmException e) {
+            logger.severe("hash: SHA256 not supported");
+            return null;
+        }
+    }
+
+
     @Override
     public DataBlock decryptKeysAndIdentifier(byte[] encrypted, KeySet keys) {
         byte[] decrypted;
         try {
             // Ensure input is sane
-            if (encrypted == null || encrypted.length <= IVBYTES) return null;
+            if (encrypted == null || encrypted.length <= IVBYTES) {
+                sKeysFail.inc();
+                return null;
+            }
             // Prepare IV
             byte[] iv = new byte[IVBYTES + keys.getInboundCtr().length];
             System.arraycopy(keys.getInboundCtr(), 0,  iv, 0,                           keys.getInboundCtr().length);
@@ -87,12 +120,15 @@ public class AESSharingEncryption implements SharingEncryption {
             decrypted = AES.decryptAES(ciphertext, keys.getInboundKey(), null, iv);
         } catch (BadPaddingException e) {
             logger.severe("decryptKeysAndIdentifier: BadPaddingException");
+            sKeysFail.inc();
             return null;
         }
         if (decrypted == null || decrypted.length != 64) {
             logger.severe("decryptKeysAndIdentifier: Bad decrypted data");
+            sKeysFail.inc();
             return null;
         }
+        sKeysOk.inc();
         byte[] identifier = new byte[32];
         byte[] key = new byte[32];
         System.arraycopy(decrypted, 0,  identifier, 0, 32);
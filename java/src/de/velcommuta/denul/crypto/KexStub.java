@@ -1,7 +1,5 @@
 package de.velcommuta.denul.crypto;
 
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
-
 import java.security.KeyPair;
 
 /**
@@ -26,19 +24,19 @@ public class KexStub implements KeyExchange {
     // Key Exchange functions do not work on this
     @Override
     public boolean putPartnerKexData(byte[] data) {
-        throw new NotImplementedException();
+        throw new UnsupportedOperationException();
     }
 
     @Override
     public byte[] getAgreedKey() {
-        throw new NotImplementedException();
+        throw new UnsupportedOperationException();
     }
 
     @Override
     public KeyPair getKeypair() {
-        throw new NotImplementedException();
+        throw new UnsupportedOperationException();
     }
 
     @Override
-    public void reset() {throw new NotImplementedException();}
+    public void reset() {throw new UnsupportedOperationException();}
 }
@@ -0,0 +1,185 @@
+package de.velcommuta.denul.crypto;
+
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Security;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.crypto.KeyAgreement;
+
+import de.velcommuta.denul.data.KeySet;
+import de.velcommuta.denul.util.ThreadPools;
+
+/**
+ * Thread-safe bulk version of the {@link ECDHKeyExchange}. Performs the Curve25519 key agreement and the HKDF key
+ * expansion for a batch of partner public keys on a pool of worker threads, using a single local {@link KeyPair}.
+ * Every worker thread keeps its own {@link KeyAgreement} and {@link KeyFactory}, so no JCE lookups are performed for
+ * individual key agreements.
+ */
+public class ParallelKeyAgreement {
+    private static final Logger logger = Logger.getLogger(ParallelKeyAgreement.class.getName());
+
+    // Insert BouncyCastle provider
+    static {
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+    }
+
+    private static ExecutorService sDefaultExecutor;
+
+    // KeyFactories do not depend on the local key, so they can be shared by all instances
+    private static final ThreadLocal<KeyFactory> sKeyFactory = new ThreadLocal<KeyFactory>() {
+        @Override
+        protected KeyFactory initialValue() {
+            try {
+                return KeyFactory.getInstance("ECDH", "BC");
+            } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+                logger.severe("initialValue: Could not get KeyFactory: " + e.getMessage());
+                throw new IllegalArgumentException(e);
+            }
+        }
+    };
+
+    private final KeyPair mKeypair;
+    private final ExecutorService mExecutor;
+    private final ThreadLocal<KeyAgreement> mKeyAgree = new ThreadLocal<KeyAgreement>() {
+        @Override
+        protected KeyAgreement initialValue() {
+            try {
+                return KeyAgreement.getInstance("ECDH", "BC");
+            } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
+                logger.severe("initialValue: Could not get KeyAgreement: " + e.getMessage());
+                throw new IllegalArgumentException(e);
+            }
+        }
+    };
+
+    /**
+     * Constructor using the shared default executor, which uses {@link de.velcommuta.denul.util.Config#getCryptoThreads()}
+     * daemon worker threads
+     * @param keypair The local ECDH KeyPair
+     */
+    public ParallelKeyAgreement(KeyPair keypair) {
+        this(keypair, getDefaultExecutor());
+    }
+
+
+    /**
+     * Constructor
+     * @param keypair The local ECDH KeyPair
+     * @param executor The {@link ExecutorService} to run the key agreements on
+     */
+    public ParallelKeyAgreement(KeyPair keypair, ExecutorService executor) {
+        assert keypair != null;
+        assert executor != null;
+        mKeypair = keypair;
+        mExecutor = executor;
+    }
+
+
+    /**
+     * Get the shared default executor
+     * @return The default ExecutorService
+     */
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            sDefaultExecutor = ThreadPools.newCryptoPool("ParallelKeyAgreement");
+        }
+        return sDefaultExecutor;
+    }
+
+
+    /**
+     * Perform key agreements with a List of partner public keys in parallel and expand the agreed keys into KeySets
+     * @param partnerKexData The public key exchange data of the partners
+     * @param isInitiatingParty true if this device initiated the key exchanges, false otherwise. See
+     *                          {@link KeyExpansion#expand(boolean)}
+     * @return A List of KeySets with the same size and order as the input. Entries for which the key agreement failed
+     * (e.g. due to invalid key data) are null.
+     */
+    public List<KeySet> agree(List<byte[]> partnerKexData, final boolean isInitiatingParty) {
+        assert partnerKexData != null;
+        // Submit all key agreements
+        List<Future<KeySet>> pending = new LinkedList<>();
+        for (final byte[] data : partnerKexData) {
+            pending.add(mExecutor.submit(new Callable<KeySet>() {
+                @Override
+                public KeySet call() throws Exception {
+                    return agree(data, isInitiatingParty);
+                }
+            }));
+        }
+        // Collect the results in order
+        List<KeySet> rv = new ArrayList<>(partnerKexData.size());
+        try {
+            while (!pending.isEmpty()) {
+                try {
+                    rv.add(pending.remove(0).get());
+                } catch (ExecutionException e) {
+                    logger.severe("agree: Key agreement task failed: " + e.getCause());
+                    rv.add(null);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warning("agree: Interrupted while waiting for key agreements, aborting");
+            Thread.currentThread().interrupt();
+            // Do not leave work queued up, and mark the missing results as failed
+            for (Future<KeySet> f : pending) {
+                f.cancel(true);
+                rv.add(null);
+            }
+        }
+        return rv;
+    }
+
+
+    /**
+     * Perform a single key agreement on the current thread and expand the agreed key into a KeySet
+     * @param partnerKexData The public key exchange data of the partner
+     * @param isInitiatingParty true if this device initiated the key exchange, false otherwise
+     * @return The KeySet, or null if the key agreement failed
+     */
+    public KeySet agree(byte[] partnerKexData, boolean isInitiatingParty) {
+        if (partnerKexData == null) {
+            logger.severe("agree: No key data provided");
+            return null;
+        }
+        ECPublicKey remotePubkey;
+        try {
+            // Parse the public key
+            remotePubkey = (ECPublicKey) sKeyFactory.get().generatePublic(new X509EncodedKeySpec(partnerKexData));
+        } catch (InvalidKeySpecException e) {
+            logger.severe("agree: Invalid data received! " + e.getMessage());
+            return null;
+        } catch (ClassCastException e) {
+            logger.severe("agree: Key data was valid, but no ECPublicKey. " + e.getMessage());
+            return null;
+        }
+        byte[] secret;
+        try {
+            KeyAgreement ka = mKeyAgree.get();
+            ka.init(mKeypair.getPrivate());
+            ka.doPhase(remotePubkey, true);
+            secret = ka.generateSecret();
+        } catch (InvalidKeyException e) {
+            logger.severe("agree: Invalid key: " + e.getMessage());
+            return null;
+        }
+        // Expand keys and return KeySet
+        return new HKDFKeyExpansion(secret).expand(isInitiatingParty);
+    }
+}
@@ -20,6 +20,9 @@ import javax.crypto.NoSuchPaddingException;
 public class RSA {
     private static final Logger logger = Logger.getLogger(RSA.class.getName());
 
+    // Per-thread cache of the OAEP decryption cipher
+    private static final ThreadLocal<Cipher> sDecryptionCipher = new ThreadLocal<>();
+
 
     // Insert provider
     static {
@@ -156,7 +159,7 @@ public class RSA {
      */
     public static byte[] decryptRSA(byte[] data, PrivateKey privkey) throws IllegalBlockSizeException, BadPaddingException {
         try {
-            Cipher rsaCipher = Cipher.getInstance("RSA/NONE/OAEPWithSHA256AndMGF1Padding", "BC");
+            Cipher rsaCipher = getDecryptionCipher();
             rsaCipher.init(Cipher.DECRYPT_MODE, privkey);
             return rsaCipher.doFinal(data);
         } catch (NoSuchPaddingException | NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException e) {
@@ -166,6 +169,24 @@ public class RSA {
     }
 
 
+    /**
+     * Get the OAEP Cipher instance of the current thread. Looking up a new Cipher from the provider is comparatively
+     * expensive, so every thread keeps its own instance, which is re-initialized for every operation.
+     * @return A Cipher instance for RSA-OAEP, which may only be used by the calling thread
+     * @throws NoSuchPaddingException If the provider throws it
+     * @throws NoSuchAlgorithmException If the provider throws it
+     * @throws NoSuchProviderException If the provider throws it
+     */
+    private static Cipher getDecryptionCipher() throws NoSuchPaddingException, NoSuchAlgorithmException, NoSuchProviderException {
+        Cipher rsaCipher = sDecryptionCipher.get();
+        if (rsaCipher == null) {
+            rsaCipher = Cipher.getInstance("RSA/NONE/OAEPWithSHA256AndMGF1Padding", "BC");
+            sDecryptionCipher.set(rsaCipher);
+        }
+        return rsaCipher;
+    }
+
+
     ///// Signatures
 
     /**
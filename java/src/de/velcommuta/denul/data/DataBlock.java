@@ -1,5 +1,6 @@
 package de.velcommuta.denul.data;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.logging.Logger;
 
@@ -69,6 +70,21 @@ public class DataBlock {
     }
 
 
+    /**
+     * Setter for the ciphertext, IF the ciphertext has not yet been set
+     * @param ciphertext The ciphertext, from the position to the limit of the buffer. The position of the buffer is
+     *                   not changed.
+     */
+    public void setCiphertext(ByteBuffer ciphertext) {
+        if (mCiphertext == null) {
+            mCiphertext = new byte[ciphertext.remaining()];
+            ciphertext.duplicate().get(mCiphertext);
+        } else {
+            logger.severe("setCiphertext: Ciphertext already set");
+        }
+    }
+
+
     /**
      * Getter for the encryption key
      * @return The encryption key
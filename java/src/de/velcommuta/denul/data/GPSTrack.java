@@ -1,10 +1,13 @@
 package de.velcommuta.denul.data;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Logger;
 
 import de.velcommuta.denul.data.proto.DataContainer;
+import de.velcommuta.denul.util.JsonWriter;
 
 /**
  * Event to indicate a finished track
@@ -24,6 +27,7 @@ public class GPSTrack implements Shareable {
     private int mId = -1;
     private int mOwner;
     private String mDescription;
+    private byte[] mContentHash;
 
     private float mDistance = 0.0f;
 
@@ -219,6 +223,18 @@ public class GPSTrack implements Shareable {
     }
 
 
+    @Override
+    public byte[] getContentHash() {
+        return mContentHash;
+    }
+
+
+    @Override
+    public void setContentHash(byte[] hash) {
+        mContentHash = hash;
+    }
+
+
     /**
      * Deserialization function to deserialize a {@link de.velcommuta.denul.data.proto.DataContainer.Track}
      * representing a GPSTrack into a GPSTrack
@@ -297,45 +313,47 @@ public class GPSTrack implements Shareable {
 
 
     @Override
-    public String toString() {
-        StringBuilder builder = new StringBuilder();
-        builder.append("{\n  \"Owner\": ");
-        builder.append(mOwner);
-        builder.append(",\n  \"Start\": ");
-        builder.append(mTimestampStart);
-        builder.append(",\n  \"End\": ");
-        builder.append(mTimestampEnd);
-        builder.append(",\n  \"Timezone\": \"");
-        builder.append(mTimezone);
-        builder.append("\",\n  \"Mode of Transportation\": \"");
+    public void writeJson(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("Owner").value(mOwner);
+        writer.name("Start").value(mTimestampStart);
+        writer.name("End").value(mTimestampEnd);
+        writer.name("Timezone").value(mTimezone);
+        writer.name("Mode of Transportation");
         switch (mModeOfTransportation) {
             case VALUE_RUNNING:
-                builder.append("running");
+                writer.value("running");
                 break;
             case VALUE_CYCLING:
-                builder.append("cycling");
+                writer.value("cycling");
                 break;
             default:
-                builder.append("unknown");
+                writer.value("unknown");
         }
-        builder.append("\",\n  \"Distance\": ");
-        builder.append(mDistance);
-        builder.append(",\n  \"Path\": [");
-        for (int i = 0; i < mPosition.size(); i++) {
-            Location loc = mPosition.get(i);
-            builder.append("\n    {\n      \"Latitude\": ");
-            builder.append(loc.getLatitude());
-            builder.append(",\n      \"Longitude\": ");
-            builder.append(loc.getLongitude());
-            builder.append(",\n      \"Timestamp\": ");
-            builder.append(loc.getTime());
-            builder.append("\n    }");
-            if (i != mPosition.size()-1) {
-                builder.append(",");
-            }
+        writer.name("Distance").value(mDistance);
+        writer.name("Path").beginArray();
+        for (Location loc : mPosition) {
+            writer.beginObject();
+            writer.name("Latitude").value(loc.getLatitude());
+            writer.name("Longitude").value(loc.getLongitude());
+            writer.name("Timestamp").value(loc.getTime());
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+
+    @Override
+    public String toString() {
+        // Large tracks should be written using writeJson instead, to avoid building the whole String in memory
+        StringWriter rv = new StringWriter();
+        try {
+            writeJson(new JsonWriter(rv, true));
+        } catch (IOException e) {
+            // StringWriter does not throw IOExceptions
+            throw new AssertionError(e);
         }
-        builder.append("\n  ]");
-        builder.append("\n}");
-        return builder.toString();
+        return rv.toString();
     }
 }
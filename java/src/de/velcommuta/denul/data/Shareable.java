@@ -1,5 +1,9 @@
 package de.velcommuta.denul.data;
 
+import de.velcommuta.denul.util.JsonWriter;
+
+import java.io.IOException;
+
 /**
  * Interface implemented by all sharable objects (e.g. run tracks, heart rates, ...).
  * Each implementing class SHOULD also have a static fromByteRepresentation function taking a byte[]
@@ -51,4 +55,25 @@ public interface Shareable {
      * @return The description as a String, or null if it is not set
      */
     String getDescription();
+
+    /**
+     * Getter for the content hash, which identifies the serialized form the shareable was received in. Used to
+     * recognize shareables that were delivered more than once.
+     * @return The SHA-256 hash of the serialized shareable, or null if it is not known
+     */
+    byte[] getContentHash();
+
+    /**
+     * Setter for the content hash
+     * @param hash The SHA-256 hash of the serialized shareable, or null
+     */
+    void setContentHash(byte[] hash);
+
+    /**
+     * Write a JSON representation of the shareable as one value to a {@link JsonWriter}. The representation is
+     * streamed, so it is never held in memory as a whole.
+     * @param writer The JsonWriter to write to
+     * @throws IOException If the JsonWriter throws it
+     */
+    void writeJson(JsonWriter writer) throws IOException;
 }
@@ -3,6 +3,8 @@ package de.velcommuta.denul.data;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import de.velcommuta.denul.crypto.*;
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.MetricsRegistry;
 import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
 
 import javax.crypto.BadPaddingException;
@@ -10,11 +12,16 @@ import javax.crypto.IllegalBlockSizeException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.*;
+import java.util.logging.Logger;
 
 /**
  * Data holder class for study requests
  */
 public class StudyRequest {
+    private static final Logger logger = Logger.getLogger(StudyRequest.class.getName());
+
+    private static final Counter sUnsupportedKex = MetricsRegistry.getDefault().counter("studyjoin.kex.unsupported");
+
     // Static constants
     public static final int VERIFY_UNKNOWN = 0;
     public static final int VERIFY_FILE = 1;
@@ -72,6 +79,9 @@ public class StudyRequest {
     public PrivateKey privkey;
     public KeyExchange exchange;
 
+    // Lazily initialized thread-safe key agreement for the exchange, see getKeyAgreement()
+    private ParallelKeyAgreement mKeyAgreement;
+
     // Queue identifier on the server
     public byte[] queue;
 
@@ -198,22 +208,51 @@ public class StudyRequest {
     /**
      * Perform a key exchange with the key exchange used for this StudyRequest and return the resulting KeySet
      * @param req The StudyJoinRequest with which to perform a kex
-     * @return The resulting KeySet
+     * @return The resulting KeySet, or null if the key exchange failed
      */
     public KeySet performKex(StudyJoinRequest req) {
+        assert req != null;
+        return performKex(Collections.singletonList(req)).get(0);
+    }
+
+
+    /**
+     * Perform key exchanges with a List of StudyJoinRequests in parallel. This method is thread-safe, unlike the
+     * underlying {@link KeyExchange}.
+     * @param requests The StudyJoinRequests with which to perform a kex
+     * @return A List of the resulting KeySets, in the same order as the input. Entries for which the key exchange
+     * failed, or which use another key exchange than {@link StudyJoinRequest.KEX_ALGO#KEX_ECDH_CURVE25519}, are null.
+     */
+    public List<KeySet> performKex(List<StudyJoinRequest> requests) {
         // Ensure sanity
         assert exchange != null;
-        assert req != null;
-        assert req.kexpub != null;
-        // TODO Ensure key exchange methods match
-        // Perform exchange
-        exchange.putPartnerKexData(req.kexpub);
-        byte[] key = exchange.getAgreedKey();
-        // Reset exchange
-        exchange.reset();
-        // Expand keys and return KeySet
-        KeyExpansion expansion = new HKDFKeyExpansion(key);
-        return expansion.expand(true);
+        assert requests != null;
+        List<byte[]> kexdata = new ArrayList<>(requests.size());
+        for (StudyJoinRequest req : requests) {
+            assert req != null;
+            if (req.kexalgo == StudyJoinRequest.KEX_ALGO.KEX_ECDH_CURVE25519) {
+                kexdata.add(req.kexpub);
+            } else {
+                // The study only offers Curve25519, a key agreed with other key data could not be used by the
+                // participant. ParallelKeyAgreement returns null for null key data, which marks the entry as failed.
+                logger.warning("performKex: Rejecting join with unsupported key exchange " + req.kexalgo);
+                sUnsupportedKex.inc();
+                kexdata.add(null);
+            }
+        }
+        return getKeyAgreement().agree(kexdata, true);
+    }
+
+
+    /**
+     * Get the {@link ParallelKeyAgreement} for the key exchange of this StudyRequest, creating it if necessary
+     * @return The ParallelKeyAgreement
+     */
+    private synchronized ParallelKeyAgreement getKeyAgreement() {
+        if (mKeyAgreement == null) {
+            mKeyAgreement = new ParallelKeyAgreement(exchange.getKeypair());
+        }
+        return mKeyAgreement;
     }
 
     /**
@@ -4,8 +4,12 @@ import de.velcommuta.denul.data.GPSTrack;
 import de.velcommuta.denul.data.KeySet;
 import de.velcommuta.denul.data.Shareable;
 import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.TokenPair;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface for database implementations - must be implemented by all database connectors
@@ -57,6 +61,14 @@ public interface Database {
      */
     long addParticipant(KeySet keys, long studyid);
 
+    /**
+     * Add a number of new participants to a study in a single transaction. Either all participants are added, or none.
+     * @param keys The keys that were negotiated with the participants
+     * @param studyid The ID of the study the participants are associated with
+     * @return The Database IDs of the inserted participants, in the order of the input
+     */
+    List<Long> addParticipants(List<KeySet> keys, long studyid);
+
     /**
      * Update the keys of a participant
      * @param keys The new KeySet to save for the participant. MUST NOT return -1 on a call to {@link KeySet#getID}.
@@ -69,6 +81,49 @@ public interface Database {
      */
     List<KeySet> getParticipants();
 
+    /**
+     * Update the keys of a number of participants and add entries to the poll journal, in a single transaction. The
+     * database IDs of the entries are set on the passed objects.
+     * @param keys The new KeySets to save for the participants. MUST NOT return -1 on a call to {@link KeySet#getID}.
+     * @param journal The new journal entries, in the {@link PollJournalEntry#STATE_PENDING} state
+     */
+    void updateParticipants(List<KeySet> keys, List<PollJournalEntry> journal);
+
+    /**
+     * Get the entries of the poll journal belonging to the participants of a study
+     * @param studyID The database ID of the study
+     * @return The entries, in the order they were added, or an empty list if the study has no unfinished entries
+     */
+    List<PollJournalEntry> getPollJournal(long studyID);
+
+    /**
+     * Save the state of a number of poll journal entries, together with the ciphertext of their data blocks, in a
+     * single transaction
+     * @param journal The entries
+     */
+    void updatePollJournal(List<PollJournalEntry> journal);
+
+    /**
+     * Remove a number of finished entries from the poll journal and queue the revocation of their key blocks, in a
+     * single transaction
+     * @param journal The entries, whose data blocks have been stored (or turned out to be missing or undecryptable)
+     */
+    void finishPollJournal(List<PollJournalEntry> journal);
+
+    /**
+     * Get the oldest queued revocations
+     * @param limit The maximum number of revocations to return
+     * @return A map from the database IDs of the revocations to the identifier and revocation token of the key
+     *         blocks, in the order they were queued
+     */
+    Map<Long, TokenPair> getQueuedRevocations(int limit);
+
+    /**
+     * Remove a number of revocations from the queue, in a single transaction
+     * @param ids The database IDs of the revocations
+     */
+    void removeQueuedRevocations(Collection<Long> ids);
+
     /**
      * Get a List of all participants in a particular study
      * @param studyID The ID of the study
@@ -87,8 +142,21 @@ public interface Database {
      * Add a Shareable to the database
      * @param sh A shareable, with the {@link KeySet} returned by {@link Shareable#getOwner()} not returning -1 on a
      *           call to {@link KeySet#getID()}.
+     * @return true if the shareable was added, false if the owner already has a shareable with the same
+     *         {@link Shareable#getContentHash() content hash}
+     */
+    boolean addShareable(Shareable sh);
+
+    /**
+     * Add a Shareable to the database, counting the size of the data block it was received in towards the statistics
+     * of its study
+     * @param sh A shareable, with the {@link KeySet} returned by {@link Shareable#getOwner()} not returning -1 on a
+     *           call to {@link KeySet#getID()}.
+     * @param bytes The size of the encrypted data block the shareable was received in
+     * @return true if the shareable was added, false if the owner already has a shareable with the same
+     *         {@link Shareable#getContentHash() content hash}
      */
-    void addShareable(Shareable sh);
+    boolean addShareable(Shareable sh, long bytes);
 
     /**
      * Add a GPS track to the database
@@ -110,6 +178,84 @@ public interface Database {
      */
     List<GPSTrack> getGPSTracksByParticipantID(long participantID);
 
+    /**
+     * Pass all GPS tracks shared by a specific participant to a {@link TrackSink}, one coordinate at a time. Unlike
+     * {@link #getGPSTracksByParticipantID(long)}, this does not hold the tracks in memory, so it can be used for
+     * arbitrarily large amounts of data.
+     * @param participantID The participants database ID
+     * @param sink The TrackSink
+     * @return The number of tracks passed to the sink
+     * @throws IOException If the TrackSink throws it
+     */
+    int streamGPSTracksByParticipantID(long participantID, TrackSink sink) throws IOException;
+
+    /**
+     * Pass the GPS tracks shared by a specific participant to a {@link TrackSink}, reduced to the coordinates that are
+     * part of the level of detail of a granularity. Tracks that were stored without levels of detail are passed on in
+     * full.
+     * @param participantID The participants database ID
+     * @param granularity One of the Shareable.GRANULARITY_* constants
+     * @param sink The TrackSink
+     * @return The number of tracks passed to the sink
+     * @throws IOException If the TrackSink throws it
+     */
+    int streamGPSTracksByParticipantID(long participantID, int granularity, TrackSink sink) throws IOException;
+
+    /**
+     * Get the statistics of a study. The statistics are kept up to date when participants and data are added, so this
+     * does not read the participants or data themselves.
+     * @param studyID The database ID of the study
+     * @return The statistics of the study. All counters are 0 if the study has no participants or does not exist.
+     */
+    StudyStatistics getStudyStatistics(long studyID);
+
+    /**
+     * Compute summary values (number of sessions, total distance, total, shortest and longest duration) over the GPS
+     * track sessions of a study, without loading the sessions. The values are computed by the database, grouped as
+     * requested, e.g. {@code SessionAggregate.BY_PARTICIPANT | SessionAggregate.BY_DAY} for the number of tracks per
+     * participant and day, or {@code SessionAggregate.BY_MODE} for the total distance per mode of transportation.
+     * @param studyID The database ID of the study
+     * @param startTime Only sessions starting at or after this time are included, in milliseconds since the epoch
+     * @param endTime Only sessions starting before this time are included, in milliseconds since the epoch
+     * @param grouping A combination of the SessionAggregate.BY_* flags, or 0 for a single group of all sessions
+     * @return One {@link SessionAggregate} per non-empty group, ordered by the grouping properties, or an empty List
+     *         if no sessions are in the time range
+     */
+    List<SessionAggregate> aggregateSessions(long studyID, long startTime, long endTime, int grouping);
+
+    /**
+     * Pass all coordinates of a study within a region and time range to a {@link TrackSink}, grouped by the tracks
+     * they belong to. Tracks without coordinates in the range are left out. The coordinates are looked up in a
+     * spatial index, so the time taken grows with the number of results rather than the amount of data in the study.
+     * @param studyID The database ID of the study
+     * @param minLat The southern border of the region, in degrees
+     * @param maxLat The northern border of the region, in degrees
+     * @param minLong The western border of the region, in degrees
+     * @param maxLong The eastern border of the region, in degrees
+     * @param startTime The start of the time range, inclusive
+     * @param endTime The end of the time range, inclusive
+     * @param sink The TrackSink
+     * @return The number of tracks passed to the sink
+     * @throws IOException If the TrackSink throws it
+     */
+    int streamGPSTracksInRegion(long studyID, double minLat, double maxLat, double minLong, double maxLong,
+                                double startTime, double endTime, TrackSink sink) throws IOException;
+
+    /**
+     * Get all coordinates of a study within a region and time range, as a List of tracks that only contain those
+     * coordinates. See {@link #streamGPSTracksInRegion(long, double, double, double, double, double, double, TrackSink)}.
+     * @param studyID The database ID of the study
+     * @param minLat The southern border of the region, in degrees
+     * @param maxLat The northern border of the region, in degrees
+     * @param minLong The western border of the region, in degrees
+     * @param maxLong The eastern border of the region, in degrees
+     * @param startTime The start of the time range, inclusive
+     * @param endTime The end of the time range, inclusive
+     * @return A List of GPSTracks, or an empty List if there are no coordinates in the range
+     */
+    List<GPSTrack> getGPSTracksInRegion(long studyID, double minLat, double maxLat, double minLong, double maxLong,
+                                        double startTime, double endTime);
+
     /**
      * Get all GPS tracks associated with a specific study
      * @param studyID The study ID
@@ -0,0 +1,113 @@
+package de.velcommuta.denul.database;
+
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.TokenPair;
+
+/**
+ * An entry of the poll journal: a data block announced by a key block, which has not been stored yet. Every entry
+ * passes through the states in the order of the STATE_* constants. Once the data block is stored, the entry is removed
+ * from the journal and the revocation of its key block is queued.
+ */
+public class PollJournalEntry {
+    // The data block has not been fetched yet
+    public static final int STATE_PENDING = 0;
+    // The data block has been fetched, its ciphertext is kept in the entry
+    public static final int STATE_FETCHED = 1;
+
+    private long mID = -1;
+    private final long mParticipant;
+    private final TokenPair mKeyBlock;
+    private final DataBlock mData;
+    private int mState;
+
+    /**
+     * Constructor for a new entry, in the {@link #STATE_PENDING} state
+     * @param participant The database ID of the participant the data block is from
+     * @param keyBlock Identifier and revocation token of the key block that announced the data block
+     * @param data The identifier and key of the data block
+     */
+    public PollJournalEntry(long participant, TokenPair keyBlock, DataBlock data) {
+        this(-1, participant, keyBlock, data, STATE_PENDING);
+    }
+
+
+    /**
+     * Constructor for an entry read from the database
+     * @param id The database ID of the entry
+     * @param participant The database ID of the participant the data block is from
+     * @param keyBlock Identifier and revocation token of the key block that announced the data block
+     * @param data The identifier and key of the data block, and its ciphertext if it has been fetched
+     * @param state One of the STATE_* constants
+     */
+    public PollJournalEntry(long id, long participant, TokenPair keyBlock, DataBlock data, int state) {
+        mID = id;
+        mParticipant = participant;
+        mKeyBlock = keyBlock;
+        mData = data;
+        mState = state;
+    }
+
+
+    /**
+     * Getter for the database ID
+     * @return The database ID of the entry, or -1 if it has not been added to the journal yet
+     */
+    public long getID() {
+        return mID;
+    }
+
+
+    /**
+     * Setter for the database ID
+     * @param id The database ID
+     */
+    public void setID(long id) {
+        mID = id;
+    }
+
+
+    /**
+     * Getter for the participant
+     * @return The database ID of the participant the data block is from
+     */
+    public long getParticipant() {
+        return mParticipant;
+    }
+
+
+    /**
+     * Getter for the key block
+     * @return Identifier and revocation token of the key block that announced the data block
+     */
+    public TokenPair getKeyBlock() {
+        return mKeyBlock;
+    }
+
+
+    /**
+     * Getter for the data block
+     * @return The data block. Its ciphertext is only set in the {@link #STATE_FETCHED} state.
+     */
+    public DataBlock getData() {
+        return mData;
+    }
+
+
+    /**
+     * Getter for the state
+     * @return One of the STATE_* constants
+     */
+    public int getState() {
+        return mState;
+    }
+
+
+    /**
+     * Setter for the state
+     * @param state One of the STATE_* constants
+     */
+    public void setState(int state) {
+        assert state >= mState;
+        mState = state;
+    }
+}
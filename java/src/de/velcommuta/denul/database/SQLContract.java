@@ -161,6 +161,10 @@ public class SQLContract {
 
         public static final String SELECT_ALL = "SELECT * FROM " + TABLE_NAME + ";";
 
+        // Index for looking up the participants of a study
+        public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" + COLUMN_STUDY +
+                " ON " + TABLE_NAME + " (" + COLUMN_STUDY + ");";
+
         public static final String SELECT_KEYS = "SELECT * FROM " + TABLE_NAME + " WHERE " +
                 COLUMN_KEY_OUT + " LIKE ? AND " +
                 COLUMN_CTR_OUT + " LIKE ? AND " +
@@ -175,6 +179,164 @@ public class SQLContract {
                 "WHERE " + COLUMN_ID + " LIKE ?;";
     }
 
+    /**
+     * Counters per study, maintained by the functions inserting participants and data, in the same transaction. A
+     * study without a row has no participants and no data.
+     */
+    public static class Statistics {
+        public static final String TABLE_NAME = "StudyStatistics";
+
+        // The study, also the primary key (Foreign key)
+        public static final String COLUMN_STUDY = "study";
+        public static final String COLUMN_PARTICIPANTS = "participants";
+        // Number of GPS track sessions and coordinates
+        public static final String COLUMN_SESSIONS = "sessions";
+        public static final String COLUMN_POINTS = "points";
+        // Size of the received encrypted data blocks
+        public static final String COLUMN_BYTES = "bytes";
+        // Time the last data was received, in milliseconds since the epoch
+        public static final String COLUMN_LAST_RECEIVED = "last_received";
+
+        public static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                COLUMN_STUDY + " INTEGER PRIMARY KEY, " +
+                COLUMN_PARTICIPANTS + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_SESSIONS + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_POINTS + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
+                COLUMN_LAST_RECEIVED + " INTEGER NOT NULL DEFAULT 0, " +
+                "FOREIGN KEY (" + COLUMN_STUDY + ") REFERENCES " + Studies.TABLE_NAME + "(" + Studies.COLUMN_ID + ") " +
+                "ON DELETE CASCADE);";
+
+        public static final String EXISTS = "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" +
+                TABLE_NAME + "';";
+
+        // Count the participants and data that were inserted before the table existed. The sizes and reception times
+        // of that data are unknown.
+        public static final String FILL = "INSERT INTO " + TABLE_NAME + " (" + COLUMN_STUDY + COMMA_SEP +
+                COLUMN_PARTICIPANTS + COMMA_SEP + COLUMN_SESSIONS + COMMA_SEP + COLUMN_POINTS + ") SELECT " +
+                Studies.TABLE_NAME + "." + Studies.COLUMN_ID + ", " +
+                "(SELECT COUNT(*) FROM " + StudyParticipants.TABLE_NAME + " WHERE " + StudyParticipants.TABLE_NAME +
+                "." + StudyParticipants.COLUMN_STUDY + " = " + Studies.TABLE_NAME + "." + Studies.COLUMN_ID + "), " +
+                "(SELECT COUNT(*) FROM " + StudyParticipants.TABLE_NAME + " JOIN " + Data.LocationSessions.TABLE_NAME +
+                " ON " + Data.LocationSessions.TABLE_NAME + "." + Data.LocationSessions.COLUMN_OWNER + " = " +
+                StudyParticipants.TABLE_NAME + "." + StudyParticipants.COLUMN_ID + " WHERE " +
+                StudyParticipants.TABLE_NAME + "." + StudyParticipants.COLUMN_STUDY + " = " + Studies.TABLE_NAME +
+                "." + Studies.COLUMN_ID + "), " +
+                "(SELECT COUNT(*) FROM " + StudyParticipants.TABLE_NAME + " JOIN " + Data.LocationSessions.TABLE_NAME +
+                " ON " + Data.LocationSessions.TABLE_NAME + "." + Data.LocationSessions.COLUMN_OWNER + " = " +
+                StudyParticipants.TABLE_NAME + "." + StudyParticipants.COLUMN_ID + " JOIN " +
+                Data.LocationLog.TABLE_NAME + " ON " + Data.LocationLog.TABLE_NAME + "." +
+                Data.LocationLog.COLUMN_SESSION + " = " + Data.LocationSessions.TABLE_NAME + "." +
+                Data.LocationSessions.COLUMN_ID + " WHERE " + StudyParticipants.TABLE_NAME + "." +
+                StudyParticipants.COLUMN_STUDY + " = " + Studies.TABLE_NAME + "." + Studies.COLUMN_ID + ") FROM " +
+                Studies.TABLE_NAME + ";";
+
+        // Make sure the row of a study exists before updating it
+        public static final String ENSURE_STUDY = "INSERT OR IGNORE INTO " + TABLE_NAME + " (" + COLUMN_STUDY +
+                ") VALUES (?);";
+
+        public static final String ENSURE_PARTICIPANT = "INSERT OR IGNORE INTO " + TABLE_NAME + " (" + COLUMN_STUDY +
+                ") SELECT " + StudyParticipants.COLUMN_STUDY + " FROM " + StudyParticipants.TABLE_NAME + " WHERE " +
+                StudyParticipants.COLUMN_ID + " = ?;";
+
+        // Parameters: number of new participants, study ID
+        public static final String ADD_PARTICIPANTS = "UPDATE " + TABLE_NAME + " SET " + COLUMN_PARTICIPANTS + " = " +
+                COLUMN_PARTICIPANTS + " + ? WHERE " + COLUMN_STUDY + " = ?;";
+
+        // Parameters: number of sessions, points and bytes, reception time, ID of the participant the data is from
+        public static final String ADD_DATA = "UPDATE " + TABLE_NAME + " SET " +
+                COLUMN_SESSIONS + " = " + COLUMN_SESSIONS + " + ?, " +
+                COLUMN_POINTS + " = " + COLUMN_POINTS + " + ?, " +
+                COLUMN_BYTES + " = " + COLUMN_BYTES + " + ?, " +
+                COLUMN_LAST_RECEIVED + " = MAX(" + COLUMN_LAST_RECEIVED + ", ?) WHERE " + COLUMN_STUDY + " = (" +
+                "SELECT " + StudyParticipants.COLUMN_STUDY + " FROM " + StudyParticipants.TABLE_NAME + " WHERE " +
+                StudyParticipants.COLUMN_ID + " = ?);";
+
+        public static final String SELECT_STUDY = "SELECT * FROM " + TABLE_NAME + " WHERE " + COLUMN_STUDY + " = ?;";
+    }
+
+    /**
+     * Write-ahead journal of the data blocks announced by key blocks during a poll. Entries are added in the same
+     * transaction as the counters of the participants, and moved to the {@link RevocationQueue} once the data block is
+     * stored, so a poll that was interrupted can be resumed without losing data or repeating finished network work.
+     */
+    public static class PollJournal {
+        public static final String TABLE_NAME = "PollJournal";
+
+        public static final String COLUMN_ID = "id";
+        // The participant the data block is from (Foreign key)
+        public static final String COLUMN_PARTICIPANT = "participant";
+        // Identifier and revocation token of the key block, to queue its revocation once the data block is stored
+        public static final String COLUMN_KEY_IDENTIFIER = "key_identifier";
+        public static final String COLUMN_KEY_REVOCATION = "key_revocation";
+        // Identifier and key of the data block, as contained in the key block
+        public static final String COLUMN_DATA_IDENTIFIER = "data_identifier";
+        public static final String COLUMN_DATA_KEY = "data_key";
+        // The ciphertext of the data block, once it was fetched and until it is stored
+        public static final String COLUMN_CIPHERTEXT = "ciphertext";
+        // One of the PollJournalEntry.STATE_* constants
+        public static final String COLUMN_STATE = "state";
+
+        public static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_PARTICIPANT + " INTEGER NOT NULL, " +
+                COLUMN_KEY_IDENTIFIER + " BLOB NOT NULL, " +
+                COLUMN_KEY_REVOCATION + " BLOB NOT NULL, " +
+                COLUMN_DATA_IDENTIFIER + " BLOB NOT NULL, " +
+                COLUMN_DATA_KEY + " BLOB NOT NULL, " +
+                COLUMN_CIPHERTEXT + " BLOB, " +
+                COLUMN_STATE + " INTEGER NOT NULL, " +
+                "FOREIGN KEY (" + COLUMN_PARTICIPANT + ") REFERENCES " + StudyParticipants.TABLE_NAME + "(" +
+                StudyParticipants.COLUMN_ID + ") ON DELETE CASCADE);";
+
+        public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" +
+                COLUMN_PARTICIPANT + " ON " + TABLE_NAME + " (" + COLUMN_PARTICIPANT + ");";
+
+        public static final String INSERT = "INSERT INTO " + TABLE_NAME + " (" + COLUMN_PARTICIPANT + COMMA_SEP +
+                COLUMN_KEY_IDENTIFIER + COMMA_SEP + COLUMN_KEY_REVOCATION + COMMA_SEP + COLUMN_DATA_IDENTIFIER +
+                COMMA_SEP + COLUMN_DATA_KEY + COMMA_SEP + COLUMN_CIPHERTEXT + COMMA_SEP + COLUMN_STATE +
+                ") VALUES (?,?,?,?,?,?,?);";
+
+        // Parameters: the state, the ciphertext and the ID of the entry
+        public static final String UPDATE_ID = "UPDATE " + TABLE_NAME + " SET " + COLUMN_STATE + " = ?, " +
+                COLUMN_CIPHERTEXT + " = ? WHERE " + COLUMN_ID + " = ?;";
+
+        public static final String DELETE_ID = "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = ?;";
+
+        public static final String SELECT_STUDY_ID = "SELECT " + TABLE_NAME + ".* FROM " + TABLE_NAME +
+                " CROSS JOIN " + StudyParticipants.TABLE_NAME + " ON " + StudyParticipants.TABLE_NAME + "." +
+                StudyParticipants.COLUMN_ID + " = " + TABLE_NAME + "." + COLUMN_PARTICIPANT + " WHERE " +
+                StudyParticipants.TABLE_NAME + "." + StudyParticipants.COLUMN_STUDY + " = ? ORDER BY " + TABLE_NAME +
+                "." + COLUMN_ID + ";";
+    }
+
+    /**
+     * Key blocks that are to be revoked on the server. The revocations are only queued once the data announced by the
+     * key blocks is stored, and the queue is drained in batches independently of the polls.
+     */
+    public static class RevocationQueue {
+        public static final String TABLE_NAME = "RevocationQueue";
+
+        public static final String COLUMN_ID = "id";
+        // Identifier and revocation token of the key block
+        public static final String COLUMN_IDENTIFIER = "identifier";
+        public static final String COLUMN_REVOCATION = "revocation";
+
+        public static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_IDENTIFIER + " BLOB NOT NULL, " +
+                COLUMN_REVOCATION + " BLOB NOT NULL);";
+
+        public static final String INSERT = "INSERT INTO " + TABLE_NAME + " (" + COLUMN_IDENTIFIER + COMMA_SEP +
+                COLUMN_REVOCATION + ") VALUES (?,?);";
+
+        // The oldest queued revocations. Parameter: the maximum number of revocations
+        public static final String SELECT_FIRST = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + COLUMN_ID +
+                " LIMIT ?;";
+
+        public static final String DELETE_ID = "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_ID + " = ?;";
+    }
+
     public static class Data {
         public static class LocationLog {
             // Name of the SQLite Table to be created
@@ -192,20 +354,103 @@ public class SQLContract {
             public static final String COLUMN_LAT = "latitude";
             public static final String COLUMN_LONG = "longitude";
 
+            // Coarsest granularity (Shareable.GRANULARITY_*) the coordinate is part of, or NULL if the levels of
+            // detail of the session were not computed
+            public static final String COLUMN_LOD = "lod";
+
             public static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY, " +
                     COLUMN_SESSION + " INTEGER NOT NULL, " + // FOREIGN KEY
                     COLUMN_TIMESTAMP + " DATETIME, " +
                     COLUMN_LAT + " REAL," +
                     COLUMN_LONG + " REAL, " +
+                    COLUMN_LOD + " INTEGER, " +
                     "FOREIGN KEY (" + COLUMN_SESSION + ") REFERENCES " + LocationSessions.TABLE_NAME + " (" +
                     LocationSessions.COLUMN_ID + ") ON DELETE CASCADE);";
 
+            // For databases created before the levels of detail were added
+            public static final String ADD_COLUMN_LOD = "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_LOD +
+                    " INTEGER;";
+
             public static final String INSERT = "INSERT INTO " + TABLE_NAME + " (" + COLUMN_SESSION + COMMA_SEP +
-                    COLUMN_TIMESTAMP + COMMA_SEP + COLUMN_LAT + COMMA_SEP + COLUMN_LONG + ") VALUES (?,?,?,?);";
+                    COLUMN_TIMESTAMP + COMMA_SEP + COLUMN_LAT + COMMA_SEP + COLUMN_LONG + COMMA_SEP + COLUMN_LOD +
+                    ") VALUES (?,?,?,?,?);";
 
             public static final String SELECT_ID = "SELECT * FROM " + TABLE_NAME + " WHERE " + COLUMN_SESSION +
                     " LIKE ?;";
+
+            // Index for looking up the coordinates of a session
+            public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" + COLUMN_SESSION +
+                    " ON " + TABLE_NAME + " (" + COLUMN_SESSION + ");";
+        }
+
+        /**
+         * R*Tree over the coordinates in {@link LocationLog}, for region and time range queries. Every coordinate is
+         * stored as a point (min == max) with the same ID as in LocationLog. The R*Tree stores 32 bit floats, rounding
+         * the bounds outwards, so queries have to check the exact values in LocationLog.
+         */
+        public static class LocationIndex {
+            public static final String TABLE_NAME = "LocationIndex";
+
+            public static final String COLUMN_ID = "id";
+            public static final String COLUMN_MIN_TIME = "min_time";
+            public static final String COLUMN_MAX_TIME = "max_time";
+            public static final String COLUMN_MIN_LAT = "min_lat";
+            public static final String COLUMN_MAX_LAT = "max_lat";
+            public static final String COLUMN_MIN_LONG = "min_long";
+            public static final String COLUMN_MAX_LONG = "max_long";
+
+            public static final String CREATE = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME + " USING rtree(" +
+                    COLUMN_ID + COMMA_SEP + COLUMN_MIN_TIME + COMMA_SEP + COLUMN_MAX_TIME + COMMA_SEP +
+                    COLUMN_MIN_LAT + COMMA_SEP + COLUMN_MAX_LAT + COMMA_SEP +
+                    COLUMN_MIN_LONG + COMMA_SEP + COLUMN_MAX_LONG + ");";
+
+            public static final String EXISTS = "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" +
+                    TABLE_NAME + "';";
+
+            // Index the coordinates that were inserted before the index existed
+            public static final String FILL = "INSERT INTO " + TABLE_NAME + " SELECT " + LocationLog.COLUMN_ID +
+                    COMMA_SEP + LocationLog.COLUMN_TIMESTAMP + COMMA_SEP + LocationLog.COLUMN_TIMESTAMP + COMMA_SEP +
+                    LocationLog.COLUMN_LAT + COMMA_SEP + LocationLog.COLUMN_LAT + COMMA_SEP +
+                    LocationLog.COLUMN_LONG + COMMA_SEP + LocationLog.COLUMN_LONG + " FROM " + LocationLog.TABLE_NAME +
+                    ";";
+
+            // Keep the index up to date with the coordinates. Coordinates are never updated, only inserted and deleted
+            // (the latter also by the cascading deletes of their sessions).
+            public static final String CREATE_INSERT_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME +
+                    "_insert AFTER INSERT ON " + LocationLog.TABLE_NAME + " BEGIN INSERT INTO " + TABLE_NAME +
+                    " VALUES (new." + LocationLog.COLUMN_ID + ", new." + LocationLog.COLUMN_TIMESTAMP + ", new." +
+                    LocationLog.COLUMN_TIMESTAMP + ", new." + LocationLog.COLUMN_LAT + ", new." + LocationLog.COLUMN_LAT +
+                    ", new." + LocationLog.COLUMN_LONG + ", new." + LocationLog.COLUMN_LONG + "); END;";
+
+            public static final String CREATE_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME +
+                    "_delete AFTER DELETE ON " + LocationLog.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME +
+                    " WHERE " + COLUMN_ID + " = old." + LocationLog.COLUMN_ID + "; END;";
+
+            // All coordinates of a study in a region and time range, with the columns of their sessions, in the same
+            // order as LocationSessions.SELECT_WITH_LOCATIONS_PARTICIPANT_ID. The CROSS JOINs make SQLite start with
+            // the R*Tree lookup instead of scanning the sessions of the study. Parameters: min and max time,
+            // latitude and longitude for the R*Tree, the same again for the exact check, and the study ID.
+            public static final String SELECT_REGION_STUDY_ID = "SELECT " + LocationSessions.TABLE_NAME + ".*, " +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_TIMESTAMP + COMMA_SEP +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_LAT + COMMA_SEP +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_LONG + " FROM " + TABLE_NAME +
+                    " CROSS JOIN " + LocationLog.TABLE_NAME + " ON " + LocationLog.TABLE_NAME + "." +
+                    LocationLog.COLUMN_ID + " = " + TABLE_NAME + "." + COLUMN_ID +
+                    " CROSS JOIN " + LocationSessions.TABLE_NAME + " ON " + LocationSessions.TABLE_NAME + "." +
+                    LocationSessions.COLUMN_ID + " = " + LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_SESSION +
+                    " CROSS JOIN " + StudyParticipants.TABLE_NAME + " ON " + StudyParticipants.TABLE_NAME + "." +
+                    StudyParticipants.COLUMN_ID + " = " + LocationSessions.TABLE_NAME + "." +
+                    LocationSessions.COLUMN_OWNER + " WHERE " +
+                    COLUMN_MAX_TIME + " >= ? AND " + COLUMN_MIN_TIME + " <= ? AND " +
+                    COLUMN_MAX_LAT + " >= ? AND " + COLUMN_MIN_LAT + " <= ? AND " +
+                    COLUMN_MAX_LONG + " >= ? AND " + COLUMN_MIN_LONG + " <= ? AND " +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_TIMESTAMP + " BETWEEN ? AND ? AND " +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_LAT + " BETWEEN ? AND ? AND " +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_LONG + " BETWEEN ? AND ? AND " +
+                    StudyParticipants.TABLE_NAME + "." + StudyParticipants.COLUMN_STUDY + " = ? ORDER BY " +
+                    LocationSessions.TABLE_NAME + "." + LocationSessions.COLUMN_ID + COMMA_SEP +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_ID + ";";
         }
 
         public static class LocationSessions {
@@ -233,6 +478,9 @@ public class SQLContract {
             // Description
             public static final String COLUMN_DESCRIPTION = "description";
 
+            // SHA-256 hash of the serialized shareable the session was received as, or NULL if it is not known
+            public static final String COLUMN_CONTENT_HASH = "content_hash";
+
             public static final String CREATE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY, " +
                     COLUMN_NAME + " TEXT, " +
@@ -243,13 +491,21 @@ public class SQLContract {
                     COLUMN_DISTANCE + " REAL, " +
                     COLUMN_MODE + " INTEGER, " +
                     COLUMN_DESCRIPTION + " TEXT, " +
+                    COLUMN_CONTENT_HASH + " BLOB, " +
                     "FOREIGN KEY (" + COLUMN_OWNER + ") REFERENCES " + StudyParticipants.TABLE_NAME + " (" +
                     StudyParticipants.COLUMN_ID + ") ON DELETE CASCADE);";
 
-            public static final String INSERT = "INSERT INTO " + TABLE_NAME + " (" +
+            // For databases created before the content hash was added
+            public static final String ADD_COLUMN_CONTENT_HASH = "ALTER TABLE " + TABLE_NAME + " ADD COLUMN " +
+                    COLUMN_CONTENT_HASH + " BLOB;";
+
+            // Inserts nothing if the owner already has a session with the same content hash. Sessions without a
+            // content hash are always inserted, as NULL values never conflict in a UNIQUE index.
+            public static final String INSERT = "INSERT OR IGNORE INTO " + TABLE_NAME + " (" +
                     COLUMN_NAME + COMMA_SEP + COLUMN_OWNER + COMMA_SEP + COLUMN_SESSION_START + COMMA_SEP +
                     COLUMN_SESSION_END + COMMA_SEP + COLUMN_TIMEZONE + COMMA_SEP + COLUMN_DISTANCE + COMMA_SEP +
-                    COLUMN_MODE + COMMA_SEP + COLUMN_DESCRIPTION + ") VALUES (?,?,?,?,?,?,?,?);";
+                    COLUMN_MODE + COMMA_SEP + COLUMN_DESCRIPTION + COMMA_SEP + COLUMN_CONTENT_HASH +
+                    ") VALUES (?,?,?,?,?,?,?,?,?);";
 
             public static final String SELECT_ALL = "SELECT * FROM " + TABLE_NAME + ";";
 
@@ -260,6 +516,51 @@ public class SQLContract {
                     StudyParticipants.TABLE_NAME + " WHERE " +
                     TABLE_NAME + "." + COLUMN_OWNER + " LIKE " + StudyParticipants.TABLE_NAME + "." + StudyParticipants.COLUMN_ID +
                     " AND " + StudyParticipants.TABLE_NAME + "." + StudyParticipants.COLUMN_STUDY + " LIKE ?;";
+
+            // Index for looking up the sessions of a participant, optionally in a time range. It also contains the
+            // columns used by the aggregate queries, so these do not have to read the table itself.
+            public static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_" + COLUMN_OWNER +
+                    "_" + COLUMN_SESSION_START + " ON " + TABLE_NAME + " (" + COLUMN_OWNER + COMMA_SEP +
+                    COLUMN_SESSION_START + COMMA_SEP + COLUMN_SESSION_END + COMMA_SEP + COLUMN_DISTANCE + COMMA_SEP +
+                    COLUMN_MODE + ");";
+
+            // Index ensuring that a re-delivered shareable is only stored once per participant
+            public static final String CREATE_CONTENT_HASH_INDEX = "CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE_NAME +
+                    "_" + COLUMN_OWNER + "_" + COLUMN_CONTENT_HASH + " ON " + TABLE_NAME + " (" + COLUMN_OWNER +
+                    COMMA_SEP + COLUMN_CONTENT_HASH + ");";
+
+            // Superseded by CREATE_INDEX
+            public static final String DROP_OWNER_INDEX = "DROP INDEX IF EXISTS " + TABLE_NAME + "_" + COLUMN_OWNER + ";";
+
+            // Aggregates over the sessions of a study that started in a time range. The grouping columns are added in
+            // front of AGGREGATE_COLUMNS, and the GROUP BY clause after AGGREGATE_FROM. Parameters: the study ID, the
+            // start (inclusive) and the end (exclusive) of the time range.
+            public static final String AGGREGATE_DURATION = "(" + TABLE_NAME + "." + COLUMN_SESSION_END + " - " +
+                    TABLE_NAME + "." + COLUMN_SESSION_START + ")";
+
+            public static final String AGGREGATE_COLUMNS = "COUNT(*), TOTAL(" + TABLE_NAME + "." + COLUMN_DISTANCE +
+                    "), SUM(" + AGGREGATE_DURATION + "), MIN(" + AGGREGATE_DURATION + "), MAX(" + AGGREGATE_DURATION + ")";
+
+            public static final String AGGREGATE_FROM = " FROM " + StudyParticipants.TABLE_NAME + " CROSS JOIN " +
+                    TABLE_NAME + " ON " + TABLE_NAME + "." + COLUMN_OWNER + " = " + StudyParticipants.TABLE_NAME + "." +
+                    StudyParticipants.COLUMN_ID + " WHERE " + StudyParticipants.TABLE_NAME + "." +
+                    StudyParticipants.COLUMN_STUDY + " = ? AND " + TABLE_NAME + "." + COLUMN_SESSION_START +
+                    " >= ? AND " + TABLE_NAME + "." + COLUMN_SESSION_START + " < ?";
+
+            // All sessions of a participant, joined with their coordinates, one row per coordinate (or one row with
+            // NULL coordinates for sessions without coordinates). The session columns are in the same order as in
+            // SELECT_ALL, followed by the timestamp, latitude and longitude of the coordinate. Parameters: the
+            // granularity (coordinates without levels of detail are always included) and the participant ID.
+            public static final String SELECT_WITH_LOCATIONS_PARTICIPANT_ID = "SELECT " + TABLE_NAME + ".*, " +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_TIMESTAMP + COMMA_SEP +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_LAT + COMMA_SEP +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_LONG + " FROM " + TABLE_NAME +
+                    " LEFT JOIN " + LocationLog.TABLE_NAME + " ON " + LocationLog.TABLE_NAME + "." +
+                    LocationLog.COLUMN_SESSION + " = " + TABLE_NAME + "." + COLUMN_ID + " AND (" +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_LOD + " IS NULL OR " + LocationLog.TABLE_NAME +
+                    "." + LocationLog.COLUMN_LOD + " >= ?) WHERE " + TABLE_NAME + "." +
+                    COLUMN_OWNER + " = ? ORDER BY " + TABLE_NAME + "." + COLUMN_ID + COMMA_SEP +
+                    LocationLog.TABLE_NAME + "." + LocationLog.COLUMN_ID + ";";
         }
     }
 
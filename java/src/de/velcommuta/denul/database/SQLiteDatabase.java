@@ -3,18 +3,31 @@ package de.velcommuta.denul.database;
 import de.velcommuta.denul.crypto.ECDHKeyExchange;
 import de.velcommuta.denul.crypto.RSA;
 import de.velcommuta.denul.data.*;
+import de.velcommuta.denul.metrics.Histogram;
+import de.velcommuta.denul.metrics.MetricsRegistry;
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.TrackSimplifier;
 
 import java.io.*;
 import java.security.KeyPair;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 // Static import contract classes
 import static de.velcommuta.denul.database.SQLContract.Studies;
 import static de.velcommuta.denul.database.SQLContract.Investigators;
 import static de.velcommuta.denul.database.SQLContract.DataRequests;
 import static de.velcommuta.denul.database.SQLContract.StudyParticipants;
+import static de.velcommuta.denul.database.SQLContract.Statistics;
+import static de.velcommuta.denul.database.SQLContract.PollJournal;
+import static de.velcommuta.denul.database.SQLContract.RevocationQueue;
+import static de.velcommuta.denul.database.SQLContract.Data.LocationIndex;
 import static de.velcommuta.denul.database.SQLContract.Data.LocationLog;
 import static de.velcommuta.denul.database.SQLContract.Data.LocationSessions;
 
@@ -24,14 +37,25 @@ import static de.velcommuta.denul.database.SQLContract.Data.LocationSessions;
  * (The library is licensed Apache v2)
  */
 public class SQLiteDatabase implements Database {
+    // Latencies of the statements executed while polling studies
+    private static final Histogram sStudyByQueueLatency = MetricsRegistry.getDefault().histogram("database.study_by_queue.latency");
+    private static final Histogram sStudiesLatency = MetricsRegistry.getDefault().histogram("database.studies.latency");
+    private static final Histogram sAddParticipantsLatency = MetricsRegistry.getDefault().histogram("database.add_participants.latency");
+    private static final Histogram sUpdateParticipantLatency = MetricsRegistry.getDefault().histogram("database.update_participant.latency");
+    private static final Histogram sUpdateParticipantsLatency = MetricsRegistry.getDefault().histogram("database.update_participants.latency");
+    private static final Histogram sParticipantsLatency = MetricsRegistry.getDefault().histogram("database.participants.latency");
+    private static final Histogram sAddTrackLatency = MetricsRegistry.getDefault().histogram("database.add_track.latency");
+    private static final Histogram sAggregateLatency = MetricsRegistry.getDefault().histogram("database.aggregate.latency");
+    private static final Histogram sRegionQueryLatency = MetricsRegistry.getDefault().histogram("database.region_query.latency");
+
     // Instance variables
     private Connection mConnection;
 
     /**
-     * Public constructor
+     * Public constructor, opening the database file configured in {@link Config#getDatabaseFile()}
      */
     public SQLiteDatabase() {
-        this("data.db");
+        this(Config.getDatabaseFile());
     }
 
     /**
@@ -47,12 +71,30 @@ public class SQLiteDatabase implements Database {
                 // Create a statement object
                 stmt = mConnection.createStatement();
                 stmt.execute("PRAGMA FOREIGN_KEYS = ON;");
+                // Wait for locks held by other connections instead of failing immediately
+                stmt.execute("PRAGMA busy_timeout = " + Config.getDatabaseBusyTimeout() + ";");
                 stmt.execute(Studies.CREATE);
                 stmt.execute(Investigators.CREATE);
                 stmt.execute(DataRequests.CREATE);
                 stmt.execute(StudyParticipants.CREATE);
                 stmt.execute(LocationSessions.CREATE);
                 stmt.execute(LocationLog.CREATE);
+                if (!hasColumn(stmt, LocationLog.TABLE_NAME, LocationLog.COLUMN_LOD)) {
+                    stmt.execute(LocationLog.ADD_COLUMN_LOD);
+                }
+                if (!hasColumn(stmt, LocationSessions.TABLE_NAME, LocationSessions.COLUMN_CONTENT_HASH)) {
+                    stmt.execute(LocationSessions.ADD_COLUMN_CONTENT_HASH);
+                }
+                stmt.execute(LocationSessions.DROP_OWNER_INDEX);
+                stmt.execute(LocationSessions.CREATE_INDEX);
+                stmt.execute(LocationSessions.CREATE_CONTENT_HASH_INDEX);
+                stmt.execute(StudyParticipants.CREATE_INDEX);
+                stmt.execute(LocationLog.CREATE_INDEX);
+                createLocationIndex(stmt);
+                createStatistics(stmt);
+                stmt.execute(PollJournal.CREATE);
+                stmt.execute(PollJournal.CREATE_INDEX);
+                stmt.execute(RevocationQueue.CREATE);
             } catch (SQLException e) {
                 // Something went wrong, print stacktrace
                 e.printStackTrace();
@@ -205,6 +247,7 @@ public class SQLiteDatabase implements Database {
         assert isOpen();
         assert identifier != null;
         long rv = -1;
+        long start = System.nanoTime();
         try {
             // Prepare statement
             PreparedStatement stmt = mConnection.prepareStatement(Studies.SELECT_BY_QUEUE);
@@ -221,6 +264,8 @@ public class SQLiteDatabase implements Database {
         } catch (SQLException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("SQL Exception: ", e);
+        } finally {
+            sStudyByQueueLatency.recordSince(start);
         }
         return rv;
     }
@@ -229,6 +274,7 @@ public class SQLiteDatabase implements Database {
     public List<StudyRequest> getStudyRequests() {
         assert isOpen();
         List<StudyRequest> rv = new LinkedList<>();
+        long start = System.nanoTime();
         try {
             PreparedStatement stmt = mConnection.prepareStatement(Studies.SELECT_ALL);
             ResultSet rs = stmt.executeQuery();
@@ -242,40 +288,75 @@ public class SQLiteDatabase implements Database {
         } catch (SQLException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("SQL Error: ", e);
+        } finally {
+            sStudiesLatency.recordSince(start);
         }
         return rv;
     }
 
     @Override
     public long addParticipant(KeySet keys, long studyid) {
+        assert keys != null;
+        // Inserting a single participant is a batch of one, so that the statistics are updated in the same transaction
+        return addParticipants(Collections.singletonList(keys), studyid).get(0);
+    }
+
+    @Override
+    public List<Long> addParticipants(List<KeySet> keys, long studyid) {
         assert isOpen();
         assert keys != null;
         assert studyid >= 0;
-        long rv = -1;
+        List<Long> rv = new ArrayList<>(keys.size());
+        long start = System.nanoTime();
         try {
-            // Prepare insert
-            PreparedStatement stmt = mConnection.prepareStatement(StudyParticipants.INSERT);
-            // Set parameters
-            stmt.setLong(1, studyid);
-            stmt.setBytes(2, keys.getOutboundKey());
-            stmt.setBytes(3, keys.getOutboundCtr());
-            stmt.setBytes(4, keys.getInboundKey());
-            stmt.setBytes(5, keys.getInboundCtr());
-            // Execute update
-            int affected_rows = stmt.executeUpdate();
-            // Ensure update worked
-            assert affected_rows > 0;
-            // Retrieve ID of inserted row
-            ResultSet generatedKeys = stmt.getGeneratedKeys();
-            if (generatedKeys.next()) {
-                rv = generatedKeys.getLong(1);
-            } else {
-                throw new IllegalArgumentException("Insert failed, no record created");
+            mConnection.setAutoCommit(false);
+            try {
+                // Prepare insert once and reuse it for all participants
+                PreparedStatement stmt = mConnection.prepareStatement(StudyParticipants.INSERT);
+                for (KeySet ks : keys) {
+                    assert ks != null;
+                    // Set parameters
+                    stmt.setLong(1, studyid);
+                    stmt.setBytes(2, ks.getOutboundKey());
+                    stmt.setBytes(3, ks.getOutboundCtr());
+                    stmt.setBytes(4, ks.getInboundKey());
+                    stmt.setBytes(5, ks.getInboundCtr());
+                    // Execute update
+                    int affected_rows = stmt.executeUpdate();
+                    // Ensure update worked
+                    assert affected_rows > 0;
+                    // Retrieve ID of inserted row
+                    ResultSet generatedKeys = stmt.getGeneratedKeys();
+                    if (generatedKeys.next()) {
+                        rv.add(generatedKeys.getLong(1));
+                    } else {
+                        throw new IllegalArgumentException("Insert failed, no record created");
+                    }
+                    generatedKeys.close();
+                }
+                stmt.close();
+                // Update the statistics of the study
+                stmt = mConnection.prepareStatement(Statistics.ENSURE_STUDY);
+                stmt.setLong(1, studyid);
+                stmt.executeUpdate();
+                stmt.close();
+                stmt = mConnection.prepareStatement(Statistics.ADD_PARTICIPANTS);
+                stmt.setLong(1, keys.size());
+                stmt.setLong(2, studyid);
+                stmt.executeUpdate();
+                stmt.close();
+                mConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                mConnection.rollback();
+                throw e;
+            } finally {
+                mConnection.setAutoCommit(true);
             }
-            stmt.close();
         } catch (SQLException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("SQL Error: ", e);
+        } finally {
+            sAddParticipantsLatency.recordSince(start);
         }
         return rv;
     }
@@ -285,6 +366,7 @@ public class SQLiteDatabase implements Database {
         assert isOpen();
         assert keys != null;
         assert keys.getID() >= 0;
+        long start = System.nanoTime();
         try {
             PreparedStatement stmt = mConnection.prepareStatement(StudyParticipants.UPDATE_ID);
             // Set parameters
@@ -299,6 +381,198 @@ public class SQLiteDatabase implements Database {
         } catch (SQLException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("SQL Error: ", e);
+        } finally {
+            sUpdateParticipantLatency.recordSince(start);
+        }
+    }
+
+    @Override
+    public void updateParticipants(List<KeySet> keys, List<PollJournalEntry> journal) {
+        assert isOpen();
+        assert keys != null && journal != null;
+        long start = System.nanoTime();
+        try {
+            mConnection.setAutoCommit(false);
+            try {
+                PreparedStatement stmt = mConnection.prepareStatement(StudyParticipants.UPDATE_ID);
+                for (KeySet ks : keys) {
+                    assert ks.getID() >= 0;
+                    stmt.setBytes(1, ks.getOutboundKey());
+                    stmt.setBytes(2, ks.getOutboundCtr());
+                    stmt.setBytes(3, ks.getInboundKey());
+                    stmt.setBytes(4, ks.getInboundCtr());
+                    stmt.setLong(5, ks.getID());
+                    int affected_rows = stmt.executeUpdate();
+                    assert affected_rows == 1;
+                }
+                stmt.close();
+                stmt = mConnection.prepareStatement(PollJournal.INSERT);
+                for (PollJournalEntry entry : journal) {
+                    assert entry.getState() == PollJournalEntry.STATE_PENDING;
+                    stmt.setLong(1, entry.getParticipant());
+                    stmt.setBytes(2, entry.getKeyBlock().getIdentifier());
+                    stmt.setBytes(3, entry.getKeyBlock().getRevocation());
+                    stmt.setBytes(4, entry.getData().getIdentifier());
+                    stmt.setBytes(5, entry.getData().getKey());
+                    stmt.setBytes(6, null);
+                    stmt.setInt(7, entry.getState());
+                    stmt.executeUpdate();
+                    ResultSet generatedKeys = stmt.getGeneratedKeys();
+                    if (generatedKeys.next()) {
+                        entry.setID(generatedKeys.getLong(1));
+                    } else {
+                        throw new IllegalArgumentException("Insert failed, no record created");
+                    }
+                    generatedKeys.close();
+                }
+                stmt.close();
+                mConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                mConnection.rollback();
+                throw e;
+            } finally {
+                mConnection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
+        } finally {
+            sUpdateParticipantsLatency.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<PollJournalEntry> getPollJournal(long studyID) {
+        assert isOpen();
+        List<PollJournalEntry> rv = new LinkedList<>();
+        try {
+            PreparedStatement stmt = mConnection.prepareStatement(PollJournal.SELECT_STUDY_ID);
+            stmt.setLong(1, studyID);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                TokenPair keyBlock = new TokenPair(rs.getBytes(3), rs.getBytes(4));
+                DataBlock data = new DataBlock(rs.getBytes(6), rs.getBytes(5));
+                byte[] ciphertext = rs.getBytes(7);
+                if (ciphertext != null) data.setCiphertext(ciphertext);
+                rv.add(new PollJournalEntry(rs.getLong(1), rs.getLong(2), keyBlock, data, rs.getInt(8)));
+            }
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Exception: ", e);
+        }
+        return rv;
+    }
+
+    @Override
+    public void updatePollJournal(List<PollJournalEntry> journal) {
+        assert isOpen();
+        assert journal != null;
+        if (journal.isEmpty()) return;
+        try {
+            mConnection.setAutoCommit(false);
+            try {
+                PreparedStatement stmt = mConnection.prepareStatement(PollJournal.UPDATE_ID);
+                for (PollJournalEntry entry : journal) {
+                    assert entry.getID() >= 0;
+                    stmt.setInt(1, entry.getState());
+                    stmt.setBytes(2, entry.getData().getCiphertext());
+                    stmt.setLong(3, entry.getID());
+                    stmt.executeUpdate();
+                }
+                stmt.close();
+                mConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                mConnection.rollback();
+                throw e;
+            } finally {
+                mConnection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
+        }
+    }
+
+    @Override
+    public void finishPollJournal(List<PollJournalEntry> journal) {
+        assert isOpen();
+        assert journal != null;
+        if (journal.isEmpty()) return;
+        try {
+            mConnection.setAutoCommit(false);
+            try {
+                PreparedStatement delete = mConnection.prepareStatement(PollJournal.DELETE_ID);
+                PreparedStatement queue = mConnection.prepareStatement(RevocationQueue.INSERT);
+                for (PollJournalEntry entry : journal) {
+                    assert entry.getID() >= 0;
+                    delete.setLong(1, entry.getID());
+                    delete.executeUpdate();
+                    queue.setBytes(1, entry.getKeyBlock().getIdentifier());
+                    queue.setBytes(2, entry.getKeyBlock().getRevocation());
+                    queue.executeUpdate();
+                }
+                delete.close();
+                queue.close();
+                mConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                mConnection.rollback();
+                throw e;
+            } finally {
+                mConnection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
+        }
+    }
+
+    @Override
+    public Map<Long, TokenPair> getQueuedRevocations(int limit) {
+        assert isOpen();
+        assert limit > 0;
+        Map<Long, TokenPair> rv = new LinkedHashMap<>();
+        try {
+            PreparedStatement stmt = mConnection.prepareStatement(RevocationQueue.SELECT_FIRST);
+            stmt.setInt(1, limit);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                rv.put(rs.getLong(1), new TokenPair(rs.getBytes(2), rs.getBytes(3)));
+            }
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Exception: ", e);
+        }
+        return rv;
+    }
+
+    @Override
+    public void removeQueuedRevocations(Collection<Long> ids) {
+        assert isOpen();
+        assert ids != null;
+        if (ids.isEmpty()) return;
+        try {
+            mConnection.setAutoCommit(false);
+            try {
+                PreparedStatement stmt = mConnection.prepareStatement(RevocationQueue.DELETE_ID);
+                for (long id : ids) {
+                    stmt.setLong(1, id);
+                    stmt.executeUpdate();
+                }
+                stmt.close();
+                mConnection.commit();
+            } catch (SQLException | RuntimeException e) {
+                mConnection.rollback();
+                throw e;
+            } finally {
+                mConnection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
         }
     }
 
@@ -326,6 +600,7 @@ public class SQLiteDatabase implements Database {
         assert isOpen();
         assert studyID >= 0;
         List<KeySet> rv = new LinkedList<>();
+        long start = System.nanoTime();
         try {
             PreparedStatement stmt = mConnection.prepareStatement(StudyParticipants.SELECT_PARTICIPANT_STUDY);
             stmt.setLong(1, studyID);
@@ -338,6 +613,8 @@ public class SQLiteDatabase implements Database {
         } catch (SQLException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("SQL Exception: ", e);
+        } finally {
+            sParticipantsLatency.recordSince(start);
         }
         return rv;
     }
@@ -366,9 +643,14 @@ public class SQLiteDatabase implements Database {
     }
 
     @Override
-    public void addShareable(Shareable sh) {
+    public boolean addShareable(Shareable sh) {
+        return addShareable(sh, 0);
+    }
+
+    @Override
+    public boolean addShareable(Shareable sh, long bytes) {
         if (sh.getType() == Shareable.SHAREABLE_TRACK) {
-            addGPSTrack((GPSTrack) sh, sh.getOwner());
+            return addGPSTrack((GPSTrack) sh, sh.getOwner(), bytes);
         } else {
             throw new IllegalArgumentException("Unknown shareable");
         }
@@ -376,45 +658,103 @@ public class SQLiteDatabase implements Database {
 
     @Override
     public void addGPSTrack(GPSTrack track, long ownerid) {
+        addGPSTrack(track, ownerid, 0);
+    }
+
+    /**
+     * Add a GPS track to the database and update the statistics of the study in the same transaction. If the owner
+     * already has a session with the same content hash, nothing is changed.
+     * @param track The GPS track
+     * @param ownerid The Database ID of the owner (i.e. participant)
+     * @param bytes The size of the encrypted data block the track was received in, or 0 if unknown
+     * @return true if the track was added, false if it was a duplicate
+     */
+    private boolean addGPSTrack(GPSTrack track, long ownerid, long bytes) {
         assert isOpen();
         assert track != null;
         assert ownerid >= 0;
+        long start = System.nanoTime();
         try {
-            long rv;
-            // Prepare insert
-            PreparedStatement stmt = mConnection.prepareStatement(LocationSessions.INSERT);
-            // Set parameters
-            stmt.setString(1, track.getSessionName());
-            stmt.setLong(2, ownerid);
-            stmt.setLong(3, track.getTimestamp());
-            stmt.setLong(4, track.getTimestampEnd());
-            stmt.setString(5, track.getTimezone());
-            stmt.setFloat(6, track.getDistance());
-            stmt.setInt(7, track.getModeOfTransportation());
-            stmt.setString(8, track.getDescription());
-            // Execute
-            int changed = stmt.executeUpdate();
-            assert changed > 0;
-            ResultSet generatedKeys = stmt.getGeneratedKeys();
-            if (generatedKeys.next()) {
-                rv = generatedKeys.getLong(1);
-            } else {
-                throw new IllegalArgumentException("Insert failed, no record created");
-            }
-            stmt.close();
-            PreparedStatement innerstmt = mConnection.prepareStatement(LocationLog.INSERT);
-            for (Location loc : track.getPosition()) {
-                innerstmt.setLong(1, rv);
-                innerstmt.setDouble(2, loc.getTime());
-                innerstmt.setDouble(3, loc.getLatitude());
-                innerstmt.setDouble(4, loc.getLongitude());
-                changed = innerstmt.executeUpdate();
-                assert changed > 0;
+            // Insert the session and all of its points in one transaction
+            mConnection.setAutoCommit(false);
+            try {
+                long rv;
+                // Prepare insert
+                PreparedStatement stmt = mConnection.prepareStatement(LocationSessions.INSERT);
+                // Set parameters
+                stmt.setString(1, track.getSessionName());
+                stmt.setLong(2, ownerid);
+                stmt.setLong(3, track.getTimestamp());
+                stmt.setLong(4, track.getTimestampEnd());
+                stmt.setString(5, track.getTimezone());
+                stmt.setFloat(6, track.getDistance());
+                stmt.setInt(7, track.getModeOfTransportation());
+                stmt.setString(8, track.getDescription());
+                stmt.setBytes(9, track.getContentHash());
+                // Execute
+                if (stmt.executeUpdate() == 0) {
+                    // Ignored by the unique index, so the track was already stored before
+                    stmt.close();
+                    mConnection.commit();
+                    return false;
+                }
+                ResultSet generatedKeys = stmt.getGeneratedKeys();
+                if (generatedKeys.next()) {
+                    rv = generatedKeys.getLong(1);
+                } else {
+                    throw new IllegalArgumentException("Insert failed, no record created");
+                }
+                stmt.close();
+                // Insert the points in batches
+                int batchSize = Config.getDatabaseBatchSize();
+                int batched = 0;
+                byte[] levels = Config.getDatabaseLevelsOfDetail() ? computeLevels(track.getPosition()) : null;
+                int index = 0;
+                PreparedStatement innerstmt = mConnection.prepareStatement(LocationLog.INSERT);
+                for (Location loc : track.getPosition()) {
+                    innerstmt.setLong(1, rv);
+                    innerstmt.setDouble(2, loc.getTime());
+                    innerstmt.setDouble(3, loc.getLatitude());
+                    innerstmt.setDouble(4, loc.getLongitude());
+                    if (levels != null) {
+                        innerstmt.setInt(5, levels[index++]);
+                    } else {
+                        innerstmt.setNull(5, Types.INTEGER);
+                    }
+                    innerstmt.addBatch();
+                    if (++batched >= batchSize) {
+                        innerstmt.executeBatch();
+                        batched = 0;
+                    }
+                }
+                if (batched > 0) innerstmt.executeBatch();
+                innerstmt.close();
+                // Update the statistics of the study the participant belongs to
+                stmt = mConnection.prepareStatement(Statistics.ENSURE_PARTICIPANT);
+                stmt.setLong(1, ownerid);
+                stmt.executeUpdate();
+                stmt.close();
+                stmt = mConnection.prepareStatement(Statistics.ADD_DATA);
+                stmt.setLong(1, 1);
+                stmt.setLong(2, track.getPosition().size());
+                stmt.setLong(3, bytes);
+                stmt.setLong(4, System.currentTimeMillis());
+                stmt.setLong(5, ownerid);
+                stmt.executeUpdate();
+                stmt.close();
+                mConnection.commit();
+                return true;
+            } catch (SQLException | RuntimeException e) {
+                mConnection.rollback();
+                throw e;
+            } finally {
+                mConnection.setAutoCommit(true);
             }
-            innerstmt.close();
         } catch (SQLException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("SQL Error: ", e);
+        } finally {
+            sAddTrackLatency.recordSince(start);
         }
     }
 
@@ -468,6 +808,187 @@ public class SQLiteDatabase implements Database {
         return rv;
     }
 
+    @Override
+    public int streamGPSTracksByParticipantID(long participantID, TrackSink sink) throws IOException {
+        return streamGPSTracksByParticipantID(participantID, Shareable.GRANULARITY_FINE, sink);
+    }
+
+    @Override
+    public int streamGPSTracksByParticipantID(long participantID, int granularity, TrackSink sink) throws IOException {
+        assert isOpen();
+        assert participantID >= 0;
+        assert sink != null;
+        int tracks = 0;
+        try {
+            PreparedStatement stmt = mConnection.prepareStatement(LocationSessions.SELECT_WITH_LOCATIONS_PARTICIPANT_ID);
+            stmt.setInt(1, granularity);
+            stmt.setLong(2, participantID);
+            // The rows are read one at a time, so only the current row is held in memory
+            ResultSet rs = stmt.executeQuery();
+            try {
+                tracks = streamTracks(rs, sink);
+            } finally {
+                rs.close();
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
+        }
+        return tracks;
+    }
+
+    @Override
+    public int streamGPSTracksInRegion(long studyID, double minLat, double maxLat, double minLong, double maxLong,
+                                       double startTime, double endTime, TrackSink sink) throws IOException {
+        assert isOpen();
+        assert studyID >= 0;
+        assert minLat <= maxLat && minLong <= maxLong && startTime <= endTime;
+        assert sink != null;
+        long start = System.nanoTime();
+        int tracks;
+        try {
+            PreparedStatement stmt = mConnection.prepareStatement(LocationIndex.SELECT_REGION_STUDY_ID);
+            // Bounds for the R*Tree, followed by the same bounds for the exact check
+            double[] bounds = {startTime, endTime, minLat, maxLat, minLong, maxLong};
+            for (int i = 0; i < bounds.length; i++) {
+                stmt.setDouble(i + 1, bounds[i]);
+                stmt.setDouble(i + 1 + bounds.length, bounds[i]);
+            }
+            stmt.setLong(2 * bounds.length + 1, studyID);
+            ResultSet rs = stmt.executeQuery();
+            try {
+                tracks = streamTracks(rs, sink);
+            } finally {
+                rs.close();
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
+        } finally {
+            sRegionQueryLatency.recordSince(start);
+        }
+        return tracks;
+    }
+
+    @Override
+    public List<GPSTrack> getGPSTracksInRegion(long studyID, double minLat, double maxLat, double minLong,
+                                               double maxLong, double startTime, double endTime) {
+        final List<GPSTrack> rv = new LinkedList<>();
+        try {
+            streamGPSTracksInRegion(studyID, minLat, maxLat, minLong, maxLong, startTime, endTime, new TrackSink() {
+                @Override
+                public void beginTrack(GPSTrack track) {
+                    rv.add(track);
+                }
+
+                @Override
+                public void location(double time, double latitude, double longitude) {
+                    Location loc = new Location();
+                    loc.setTime(time);
+                    loc.setLatitude(latitude);
+                    loc.setLongitude(longitude);
+                    rv.get(rv.size() - 1).getPosition().add(loc);
+                }
+
+                @Override
+                public void endTrack() {
+                }
+            });
+        } catch (IOException e) {
+            // The sink does not throw IOExceptions
+            throw new AssertionError(e);
+        }
+        return rv;
+    }
+
+    @Override
+    public StudyStatistics getStudyStatistics(long studyID) {
+        assert isOpen();
+        assert studyID >= 0;
+        StudyStatistics rv = new StudyStatistics(studyID, 0, 0, 0, 0, 0);
+        try {
+            PreparedStatement stmt = mConnection.prepareStatement(Statistics.SELECT_STUDY);
+            stmt.setLong(1, studyID);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                rv = new StudyStatistics(studyID,
+                        rs.getLong(2), // Participants
+                        rs.getLong(3), // Sessions
+                        rs.getLong(4), // Points
+                        rs.getLong(5), // Bytes
+                        rs.getLong(6)); // Last received
+            }
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
+        }
+        return rv;
+    }
+
+    @Override
+    public List<SessionAggregate> aggregateSessions(long studyID, long startTime, long endTime, int grouping) {
+        assert isOpen();
+        assert studyID >= 0;
+        assert (grouping & ~(SessionAggregate.BY_PARTICIPANT | SessionAggregate.BY_DAY | SessionAggregate.BY_MODE)) == 0;
+        long start = System.nanoTime();
+        // Build the grouping columns, using -1 for the properties that are not grouped by
+        String participant = "-1";
+        String day = "-1";
+        String mode = "-1";
+        List<String> groups = new LinkedList<>();
+        if ((grouping & SessionAggregate.BY_PARTICIPANT) != 0) {
+            participant = LocationSessions.TABLE_NAME + "." + LocationSessions.COLUMN_OWNER;
+            groups.add(participant);
+        }
+        if ((grouping & SessionAggregate.BY_DAY) != 0) {
+            day = LocationSessions.TABLE_NAME + "." + LocationSessions.COLUMN_SESSION_START + " / " +
+                    SessionAggregate.MILLIS_PER_DAY;
+            groups.add(day);
+        }
+        if ((grouping & SessionAggregate.BY_MODE) != 0) {
+            mode = LocationSessions.TABLE_NAME + "." + LocationSessions.COLUMN_MODE;
+            groups.add(mode);
+        }
+        StringBuilder query = new StringBuilder("SELECT ");
+        query.append(participant).append(", ").append(day).append(", ").append(mode).append(", ");
+        query.append(LocationSessions.AGGREGATE_COLUMNS).append(LocationSessions.AGGREGATE_FROM);
+        if (!groups.isEmpty()) {
+            StringBuilder columns = new StringBuilder();
+            for (String group : groups) {
+                if (columns.length() > 0) columns.append(", ");
+                columns.append(group);
+            }
+            query.append(" GROUP BY ").append(columns).append(" ORDER BY ").append(columns);
+        }
+        query.append(";");
+        List<SessionAggregate> rv = new LinkedList<>();
+        try {
+            PreparedStatement stmt = mConnection.prepareStatement(query.toString());
+            stmt.setLong(1, studyID);
+            stmt.setLong(2, startTime);
+            stmt.setLong(3, endTime);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                // Without grouping, there is exactly one row, even if no sessions match
+                if (rs.getLong(4) == 0) continue;
+                rv.add(new SessionAggregate(rs.getLong(1), rs.getLong(2), rs.getInt(3), rs.getLong(4),
+                        rs.getDouble(5), rs.getLong(6), rs.getLong(7), rs.getLong(8)));
+            }
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("SQL Error: ", e);
+        } finally {
+            sAggregateLatency.recordSince(start);
+        }
+        return rv;
+    }
+
     @Override
     public List<GPSTrack> getGPSTracksByStudyID(long studyID) {
         assert isOpen();
@@ -528,6 +1049,138 @@ public class SQLiteDatabase implements Database {
 
     ///// Helper function
 
+    /**
+     * Check if a table has a column
+     * @param stmt A Statement to execute the query with
+     * @param table The name of the table
+     * @param column The name of the column
+     * @return true if the column exists, false otherwise
+     * @throws SQLException If the query fails
+     */
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ");");
+        try {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) return true;
+            }
+            return false;
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Compute the levels of detail of the coordinates of a track, see {@link TrackSimplifier#computeLevels}
+     * @param positions The coordinates of the track
+     * @return The level of each coordinate
+     */
+    private static byte[] computeLevels(List<Location> positions) {
+        int count = positions.size();
+        double[] time = new double[count];
+        double[] lat = new double[count];
+        double[] lon = new double[count];
+        int i = 0;
+        for (Location loc : positions) {
+            time[i] = loc.getTime();
+            lat[i] = loc.getLatitude();
+            lon[i] = loc.getLongitude();
+            i++;
+        }
+        return TrackSimplifier.computeLevels(time, lat, lon, count);
+    }
+
+    /**
+     * Create the table holding the statistics of the studies. If the table did not exist yet, the statistics are
+     * computed from the participants and data that are already in the database.
+     * @param stmt A Statement to execute the queries with
+     * @throws SQLException If the table cannot be created
+     */
+    private void createStatistics(Statement stmt) throws SQLException {
+        ResultSet rs = stmt.executeQuery(Statistics.EXISTS);
+        boolean exists = rs.next();
+        rs.close();
+        if (exists) return;
+        mConnection.setAutoCommit(false);
+        try {
+            stmt.execute(Statistics.CREATE);
+            stmt.execute(Statistics.FILL);
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Create the R*Tree index over the coordinates and the triggers maintaining it. If the index did not exist yet,
+     * it is filled with the coordinates that are already in the database.
+     * @param stmt A Statement to execute the queries with
+     * @throws SQLException If the index cannot be created
+     */
+    private void createLocationIndex(Statement stmt) throws SQLException {
+        ResultSet rs = stmt.executeQuery(LocationIndex.EXISTS);
+        boolean exists = rs.next();
+        rs.close();
+        if (exists) return;
+        mConnection.setAutoCommit(false);
+        try {
+            stmt.execute(LocationIndex.CREATE);
+            stmt.execute(LocationIndex.FILL);
+            stmt.execute(LocationIndex.CREATE_INSERT_TRIGGER);
+            stmt.execute(LocationIndex.CREATE_DELETE_TRIGGER);
+            mConnection.commit();
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Pass the tracks and coordinates from a ResultSet to a {@link TrackSink}. The ResultSet has to contain the
+     * columns of {@link LocationSessions#SELECT_WITH_LOCATIONS_PARTICIPANT_ID}, ordered by session.
+     * @param rs The ResultSet
+     * @param sink The TrackSink
+     * @return The number of tracks passed to the sink
+     * @throws SQLException If reading the ResultSet fails
+     * @throws IOException If the TrackSink throws it
+     */
+    private int streamTracks(ResultSet rs, TrackSink sink) throws SQLException, IOException {
+        int tracks = 0;
+        long current = -1;
+        while (rs.next()) {
+            long session = rs.getLong(1);
+            if (session != current) {
+                // First row of a new session
+                if (current != -1) sink.endTrack();
+                GPSTrack track = new GPSTrack(new LinkedList<Location>(), // locations
+                        rs.getString(2), // Name
+                        rs.getInt(8), // Mode
+                        rs.getLong(4),  // Timestamp start
+                        rs.getLong(5),  // Timestamp end
+                        rs.getString(6),  // Timezone
+                        rs.getFloat(7)); // Distance
+                track.setDescription(rs.getString(9)); // Description
+                track.setID((int) session); // ID
+                track.setOwner(rs.getInt(3));
+                sink.beginTrack(track);
+                current = session;
+                tracks++;
+            }
+            // The coordinate columns follow the content hash. Sessions without coordinates have a single row with
+            // NULL coordinate columns.
+            double time = rs.getDouble(11);
+            if (!rs.wasNull()) {
+                sink.location(time, rs.getDouble(12), rs.getDouble(13));
+            }
+        }
+        if (current != -1) sink.endTrack();
+        return tracks;
+    }
+
     /**
      * Retrieve all {@link de.velcommuta.denul.data.StudyRequest.Investigator}s for a specific study ID
      * @param id The Study ID
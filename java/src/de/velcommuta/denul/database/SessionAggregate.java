@@ -0,0 +1,158 @@
+package de.velcommuta.denul.database;
+
+/**
+ * One row of the result of {@link Database#aggregateSessions(long, long, long, int)}: summary values over a group of
+ * GPS track sessions. Depending on the grouping, the sessions are grouped by participant, by (UTC) day and / or by mode
+ * of transportation. Properties that are not part of the grouping are -1.
+ */
+public class SessionAggregate {
+    // Grouping flags, may be combined with |
+    public static final int BY_PARTICIPANT = 1;
+    public static final int BY_DAY         = 2;
+    public static final int BY_MODE        = 4;
+
+    public static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final long mParticipant;
+    private final long mDay;
+    private final int mMode;
+    private final long mCount;
+    private final double mDistance;
+    private final long mDuration;
+    private final long mMinDuration;
+    private final long mMaxDuration;
+
+    /**
+     * Constructor
+     * @param participant The database ID of the participant, or -1
+     * @param day The day, in days since the epoch (UTC), or -1
+     * @param mode The mode of transportation, one of the GPSTrack.VALUE_* constants, or -1
+     * @param count The number of sessions in the group
+     * @param distance The total distance of the sessions
+     * @param duration The total duration of the sessions, in milliseconds
+     * @param minDuration The duration of the shortest session, in milliseconds
+     * @param maxDuration The duration of the longest session, in milliseconds
+     */
+    public SessionAggregate(long participant, long day, int mode, long count, double distance, long duration,
+                            long minDuration, long maxDuration) {
+        mParticipant = participant;
+        mDay = day;
+        mMode = mode;
+        mCount = count;
+        mDistance = distance;
+        mDuration = duration;
+        mMinDuration = minDuration;
+        mMaxDuration = maxDuration;
+    }
+
+
+    /**
+     * Getter for the participant of the group
+     * @return The database ID of the participant, or -1 if the sessions were not grouped by participant
+     */
+    public long getParticipant() {
+        return mParticipant;
+    }
+
+
+    /**
+     * Getter for the day of the group. Sessions belong to the (UTC) day they started on.
+     * @return The day, in days since the epoch, or -1 if the sessions were not grouped by day
+     */
+    public long getDay() {
+        return mDay;
+    }
+
+
+    /**
+     * Getter for the mode of transportation of the group
+     * @return One of the GPSTrack.VALUE_* constants, or -1 if the sessions were not grouped by mode
+     */
+    public int getMode() {
+        return mMode;
+    }
+
+
+    /**
+     * Getter for the number of sessions in the group
+     * @return The number of sessions
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+
+    /**
+     * Getter for the total distance of the sessions in the group
+     * @return The total distance
+     */
+    public double getDistance() {
+        return mDistance;
+    }
+
+
+    /**
+     * Getter for the total duration of the sessions in the group
+     * @return The total duration, in milliseconds
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+
+    /**
+     * Getter for the mean duration of the sessions in the group
+     * @return The mean duration, in milliseconds
+     */
+    public long getMeanDuration() {
+        return mCount == 0 ? 0 : mDuration / mCount;
+    }
+
+
+    /**
+     * Getter for the duration of the shortest session in the group
+     * @return The duration, in milliseconds
+     */
+    public long getMinDuration() {
+        return mMinDuration;
+    }
+
+
+    /**
+     * Getter for the duration of the longest session in the group
+     * @return The duration, in milliseconds
+     */
+    public long getMaxDuration() {
+        return mMaxDuration;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null) return false;
+        if (!(o instanceof SessionAggregate)) return false;
+        SessionAggregate other = (SessionAggregate) o;
+        return other.getParticipant() == mParticipant &&
+                other.getDay() == mDay &&
+                other.getMode() == mMode &&
+                other.getCount() == mCount &&
+                other.getDistance() == mDistance &&
+                other.getDuration() == mDuration &&
+                other.getMinDuration() == mMinDuration &&
+                other.getMaxDuration() == mMaxDuration;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return (int) (mParticipant * 31 * 31 + mDay * 31 + mMode);
+    }
+
+
+    @Override
+    public String toString() {
+        return "SessionAggregate(participant=" + mParticipant + ", day=" + mDay + ", mode=" + mMode + ", count=" +
+                mCount + ", distance=" + mDistance + ", duration=" + mDuration + ", min=" + mMinDuration + ", max=" +
+                mMaxDuration + ")";
+    }
+}
@@ -0,0 +1,87 @@
+package de.velcommuta.denul.database;
+
+/**
+ * Counters of the participants and data of a study, as returned by {@link Database#getStudyStatistics(long)}
+ */
+public class StudyStatistics {
+    private final long mStudy;
+    private final long mParticipants;
+    private final long mSessions;
+    private final long mPoints;
+    private final long mBytes;
+    private final long mLastReceived;
+
+    /**
+     * Constructor
+     * @param study The database ID of the study
+     * @param participants The number of participants
+     * @param sessions The number of GPS track sessions
+     * @param points The number of coordinates in the sessions
+     * @param bytes The total size of the received encrypted data
+     * @param lastReceived The time the last data was received, in milliseconds since the epoch, or 0
+     */
+    public StudyStatistics(long study, long participants, long sessions, long points, long bytes, long lastReceived) {
+        mStudy = study;
+        mParticipants = participants;
+        mSessions = sessions;
+        mPoints = points;
+        mBytes = bytes;
+        mLastReceived = lastReceived;
+    }
+
+
+    /**
+     * Getter for the study
+     * @return The database ID of the study
+     */
+    public long getStudy() {
+        return mStudy;
+    }
+
+
+    /**
+     * Getter for the number of participants of the study
+     * @return The number of participants
+     */
+    public long getParticipants() {
+        return mParticipants;
+    }
+
+
+    /**
+     * Getter for the number of GPS track sessions received in the study
+     * @return The number of sessions
+     */
+    public long getSessions() {
+        return mSessions;
+    }
+
+
+    /**
+     * Getter for the number of coordinates received in the study
+     * @return The number of coordinates
+     */
+    public long getPoints() {
+        return mPoints;
+    }
+
+
+    /**
+     * Getter for the total size of the encrypted data blocks received in the study. Data that was received before the
+     * statistics were introduced is not included.
+     * @return The size, in bytes
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+
+    /**
+     * Getter for the time the last data was received
+     * @return The time, in milliseconds since the epoch, or 0 if no data was received since the statistics were
+     *         introduced
+     */
+    public long getLastReceived() {
+        return mLastReceived;
+    }
+}
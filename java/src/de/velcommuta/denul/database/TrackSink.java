@@ -0,0 +1,35 @@
+package de.velcommuta.denul.database;
+
+import de.velcommuta.denul.data.GPSTrack;
+
+import java.io.IOException;
+
+/**
+ * Receiver for GPS tracks that are streamed from the database, one coordinate at a time, instead of being loaded into
+ * memory as a whole. For every track, {@link #beginTrack(GPSTrack)} is called once, followed by one call to
+ * {@link #location(double, double, double)} per coordinate, in the order in which they were recorded, and a final call
+ * to {@link #endTrack()}.
+ */
+public interface TrackSink {
+    /**
+     * Called at the start of a track
+     * @param track The track, with all fields except for the positions set. The List of positions is empty.
+     * @throws IOException If the sink fails to process the track
+     */
+    void beginTrack(GPSTrack track) throws IOException;
+
+    /**
+     * Called for every coordinate of the current track
+     * @param time The timestamp of the coordinate
+     * @param latitude The latitude
+     * @param longitude The longitude
+     * @throws IOException If the sink fails to process the coordinate
+     */
+    void location(double time, double latitude, double longitude) throws IOException;
+
+    /**
+     * Called at the end of the current track
+     * @throws IOException If the sink fails to process the track
+     */
+    void endTrack() throws IOException;
+}
@@ -0,0 +1,265 @@
+package de.velcommuta.denul.export;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads files written by {@link ColumnarTrackWriter} block by block. After a successful call to {@link #next()}, the
+ * columns of the current block can be read using the getters for its type; the arrays are only valid until the next
+ * call.
+ */
+public class ColumnarTrackReader implements Closeable {
+    private final DataInputStream mIn;
+    private byte mType = -1;
+    private int mRows;
+
+    // Track columns
+    private long[] mTrackIds;
+    private long[] mOwners;
+    private long[] mStarts;
+    private long[] mEnds;
+    private float[] mDistances;
+    private int[] mModes;
+    private int[] mPointCounts;
+    private String[] mNames;
+    private String[] mTimezones;
+    private String[] mDescriptions;
+
+    // Coordinate columns
+    private long[] mPointTracks;
+    private double[] mTimes;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+
+    /**
+     * Constructor
+     * @param in The gzip-compressed InputStream to read from, as written by {@link ExportFormat#COLUMNAR}
+     * @throws IOException If the header cannot be read or is invalid
+     */
+    public ColumnarTrackReader(InputStream in) throws IOException {
+        mIn = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+        byte[] magic = new byte[ColumnarTrackWriter.MAGIC.length];
+        mIn.readFully(magic);
+        if (!Arrays.equals(magic, ColumnarTrackWriter.MAGIC)) throw new IOException("Not a columnar track file");
+        int version = mIn.readInt();
+        if (version != ColumnarTrackWriter.VERSION) throw new IOException("Unsupported version " + version);
+    }
+
+
+    /**
+     * Read the next block
+     * @return true if a block was read, false if the end of the file was reached
+     * @throws IOException If the file is truncated or corrupt
+     */
+    public boolean next() throws IOException {
+        mType = mIn.readByte();
+        if (mType == ColumnarTrackWriter.BLOCK_END) return false;
+        mRows = mIn.readInt();
+        if (mRows < 0) throw new IOException("Invalid row count " + mRows);
+        if (mType == ColumnarTrackWriter.BLOCK_TRACKS) {
+            mTrackIds = readLongs();
+            mOwners = readLongs();
+            mStarts = readLongs();
+            mEnds = readLongs();
+            mDistances = new float[mRows];
+            for (int i = 0; i < mRows; i++) mDistances[i] = mIn.readFloat();
+            mModes = readInts();
+            mPointCounts = readInts();
+            mNames = readStrings();
+            mTimezones = readStrings();
+            mDescriptions = readStrings();
+        } else if (mType == ColumnarTrackWriter.BLOCK_POINTS) {
+            mPointTracks = readLongs();
+            mTimes = readDoubles();
+            mLatitudes = readDoubles();
+            mLongitudes = readDoubles();
+        } else {
+            throw new IOException("Unknown block type " + mType);
+        }
+        return true;
+    }
+
+
+    /**
+     * Getter for the type of the current block
+     * @return One of the BLOCK_* constants defined in {@link ColumnarTrackWriter}
+     */
+    public byte getType() {
+        return mType;
+    }
+
+
+    /**
+     * Getter for the number of rows in the current block
+     * @return The number of rows
+     */
+    public int getRows() {
+        return mRows;
+    }
+
+
+    /**
+     * @return The IDs of the tracks in the current track block
+     */
+    public long[] getTrackIds() {
+        return mTrackIds;
+    }
+
+    /**
+     * @return The owners of the tracks in the current track block
+     */
+    public long[] getOwners() {
+        return mOwners;
+    }
+
+    /**
+     * @return The session start timestamps of the tracks in the current track block
+     */
+    public long[] getSessionStarts() {
+        return mStarts;
+    }
+
+    /**
+     * @return The session end timestamps of the tracks in the current track block
+     */
+    public long[] getSessionEnds() {
+        return mEnds;
+    }
+
+    /**
+     * @return The distances of the tracks in the current track block
+     */
+    public float[] getDistances() {
+        return mDistances;
+    }
+
+    /**
+     * @return The modes of transportation of the tracks in the current track block
+     */
+    public int[] getModes() {
+        return mModes;
+    }
+
+    /**
+     * @return The number of coordinates of the tracks in the current track block
+     */
+    public int[] getPointCounts() {
+        return mPointCounts;
+    }
+
+    /**
+     * @return The names of the tracks in the current track block
+     */
+    public String[] getNames() {
+        return mNames;
+    }
+
+    /**
+     * @return The timezones of the tracks in the current track block
+     */
+    public String[] getTimezones() {
+        return mTimezones;
+    }
+
+    /**
+     * @return The descriptions of the tracks in the current track block
+     */
+    public String[] getDescriptions() {
+        return mDescriptions;
+    }
+
+    /**
+     * @return The track IDs of the coordinates in the current coordinate block
+     */
+    public long[] getPointTracks() {
+        return mPointTracks;
+    }
+
+    /**
+     * @return The timestamps of the coordinates in the current coordinate block
+     */
+    public double[] getTimes() {
+        return mTimes;
+    }
+
+    /**
+     * @return The latitudes of the coordinates in the current coordinate block
+     */
+    public double[] getLatitudes() {
+        return mLatitudes;
+    }
+
+    /**
+     * @return The longitudes of the coordinates in the current coordinate block
+     */
+    public double[] getLongitudes() {
+        return mLongitudes;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+
+    /**
+     * Read a column of longs
+     * @return The column
+     * @throws IOException If the stream ends prematurely
+     */
+    private long[] readLongs() throws IOException {
+        long[] rv = new long[mRows];
+        for (int i = 0; i < mRows; i++) rv[i] = mIn.readLong();
+        return rv;
+    }
+
+
+    /**
+     * Read a column of ints
+     * @return The column
+     * @throws IOException If the stream ends prematurely
+     */
+    private int[] readInts() throws IOException {
+        int[] rv = new int[mRows];
+        for (int i = 0; i < mRows; i++) rv[i] = mIn.readInt();
+        return rv;
+    }
+
+
+    /**
+     * Read a column of doubles
+     * @return The column
+     * @throws IOException If the stream ends prematurely
+     */
+    private double[] readDoubles() throws IOException {
+        double[] rv = new double[mRows];
+        for (int i = 0; i < mRows; i++) rv[i] = mIn.readDouble();
+        return rv;
+    }
+
+
+    /**
+     * Read a column of strings
+     * @return The column
+     * @throws IOException If the stream ends prematurely or contains an invalid length
+     */
+    private String[] readStrings() throws IOException {
+        String[] rv = new String[mRows];
+        for (int i = 0; i < mRows; i++) {
+            int length = mIn.readInt();
+            if (length < -1) throw new IOException("Invalid string length " + length);
+            if (length == -1) continue;
+            byte[] bytes = new byte[length];
+            mIn.readFully(bytes);
+            rv[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return rv;
+    }
+}
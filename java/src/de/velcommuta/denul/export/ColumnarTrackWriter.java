@@ -0,0 +1,183 @@
+package de.velcommuta.denul.export;
+
+import de.velcommuta.denul.data.GPSTrack;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes tracks in a simple column-oriented binary format. The file consists of the magic bytes "DNLC", a version
+ * number, and a sequence of blocks, each starting with a type byte and the number of rows in the block. All values are
+ * big-endian, as written by {@link DataOutputStream}.
+ *
+ * Track blocks ({@link #BLOCK_TRACKS}) contain the columns id, owner, session start and end (longs), distance
+ * (floats), mode and number of coordinates (ints), followed by the columns name, timezone and description (strings,
+ * each an int byte length, or -1 for null, followed by the UTF-8 bytes). Coordinate blocks ({@link #BLOCK_POINTS})
+ * contain the columns track id (longs), time, latitude and longitude (doubles). The coordinates of a track may be split
+ * across several coordinate blocks and appear before the track block describing the track. The file ends with a block
+ * of type {@link #BLOCK_END} without a row count.
+ *
+ * Storing each column contiguously allows reading single columns efficiently and makes the data compress well. At most
+ * one block of each type is buffered, so the memory use is constant. Files can be read using
+ * {@link ColumnarTrackReader}.
+ */
+public class ColumnarTrackWriter implements TrackWriter {
+    public static final byte[] MAGIC = {'D', 'N', 'L', 'C'};
+    public static final int VERSION = 1;
+
+    public static final byte BLOCK_END = 0;
+    public static final byte BLOCK_TRACKS = 1;
+    public static final byte BLOCK_POINTS = 2;
+
+    // Maximum number of rows per block
+    static final int TRACK_BLOCK_SIZE = 1024;
+    static final int POINT_BLOCK_SIZE = 16 * 1024;
+
+    private final DataOutputStream mOut;
+
+    // Buffered track columns
+    private final long[] mTrackIds = new long[TRACK_BLOCK_SIZE];
+    private final long[] mOwners = new long[TRACK_BLOCK_SIZE];
+    private final long[] mStarts = new long[TRACK_BLOCK_SIZE];
+    private final long[] mEnds = new long[TRACK_BLOCK_SIZE];
+    private final float[] mDistances = new float[TRACK_BLOCK_SIZE];
+    private final int[] mModes = new int[TRACK_BLOCK_SIZE];
+    private final int[] mPointCounts = new int[TRACK_BLOCK_SIZE];
+    private final String[] mNames = new String[TRACK_BLOCK_SIZE];
+    private final String[] mTimezones = new String[TRACK_BLOCK_SIZE];
+    private final String[] mDescriptions = new String[TRACK_BLOCK_SIZE];
+    private int mTracks = 0;
+
+    // Buffered coordinate columns
+    private final long[] mPointTracks = new long[POINT_BLOCK_SIZE];
+    private final double[] mTimes = new double[POINT_BLOCK_SIZE];
+    private final double[] mLatitudes = new double[POINT_BLOCK_SIZE];
+    private final double[] mLongitudes = new double[POINT_BLOCK_SIZE];
+    private int mPoints = 0;
+
+    // The track whose coordinates are currently being written
+    private GPSTrack mCurrent;
+    private int mCurrentPoints;
+
+    /**
+     * Constructor
+     * @param out The OutputStream to write to
+     * @throws IOException If writing the header fails
+     */
+    public ColumnarTrackWriter(OutputStream out) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        mOut.write(MAGIC);
+        mOut.writeInt(VERSION);
+    }
+
+
+    @Override
+    public void beginTrack(GPSTrack track) throws IOException {
+        assert mCurrent == null;
+        mCurrent = track;
+        mCurrentPoints = 0;
+    }
+
+
+    @Override
+    public void location(double time, double latitude, double longitude) throws IOException {
+        assert mCurrent != null;
+        mPointTracks[mPoints] = mCurrent.getID();
+        mTimes[mPoints] = time;
+        mLatitudes[mPoints] = latitude;
+        mLongitudes[mPoints] = longitude;
+        mCurrentPoints++;
+        if (++mPoints == POINT_BLOCK_SIZE) flushPoints();
+    }
+
+
+    @Override
+    public void endTrack() throws IOException {
+        assert mCurrent != null;
+        // The track is buffered only now, as the number of coordinates is part of the track block
+        mTrackIds[mTracks] = mCurrent.getID();
+        mOwners[mTracks] = mCurrent.getOwner();
+        mStarts[mTracks] = mCurrent.getTimestamp();
+        mEnds[mTracks] = mCurrent.getTimestampEnd();
+        mDistances[mTracks] = mCurrent.getDistance();
+        mModes[mTracks] = mCurrent.getModeOfTransportation();
+        mPointCounts[mTracks] = mCurrentPoints;
+        mNames[mTracks] = mCurrent.getSessionName();
+        mTimezones[mTracks] = mCurrent.getTimezone();
+        mDescriptions[mTracks] = mCurrent.getDescription();
+        mCurrent = null;
+        if (++mTracks == TRACK_BLOCK_SIZE) flushTracks();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        flushPoints();
+        flushTracks();
+        mOut.writeByte(BLOCK_END);
+        mOut.close();
+    }
+
+
+    /**
+     * Write the buffered coordinates as a block, if there are any
+     * @throws IOException If the underlying stream throws it
+     */
+    private void flushPoints() throws IOException {
+        if (mPoints == 0) return;
+        mOut.writeByte(BLOCK_POINTS);
+        mOut.writeInt(mPoints);
+        for (int i = 0; i < mPoints; i++) mOut.writeLong(mPointTracks[i]);
+        for (int i = 0; i < mPoints; i++) mOut.writeDouble(mTimes[i]);
+        for (int i = 0; i < mPoints; i++) mOut.writeDouble(mLatitudes[i]);
+        for (int i = 0; i < mPoints; i++) mOut.writeDouble(mLongitudes[i]);
+        mPoints = 0;
+    }
+
+
+    /**
+     * Write the buffered tracks as a block, if there are any
+     * @throws IOException If the underlying stream throws it
+     */
+    private void flushTracks() throws IOException {
+        if (mTracks == 0) return;
+        mOut.writeByte(BLOCK_TRACKS);
+        mOut.writeInt(mTracks);
+        for (int i = 0; i < mTracks; i++) mOut.writeLong(mTrackIds[i]);
+        for (int i = 0; i < mTracks; i++) mOut.writeLong(mOwners[i]);
+        for (int i = 0; i < mTracks; i++) mOut.writeLong(mStarts[i]);
+        for (int i = 0; i < mTracks; i++) mOut.writeLong(mEnds[i]);
+        for (int i = 0; i < mTracks; i++) mOut.writeFloat(mDistances[i]);
+        for (int i = 0; i < mTracks; i++) mOut.writeInt(mModes[i]);
+        for (int i = 0; i < mTracks; i++) mOut.writeInt(mPointCounts[i]);
+        for (int i = 0; i < mTracks; i++) writeString(mNames[i]);
+        for (int i = 0; i < mTracks; i++) writeString(mTimezones[i]);
+        for (int i = 0; i < mTracks; i++) writeString(mDescriptions[i]);
+        // Release the references to the strings
+        for (int i = 0; i < mTracks; i++) {
+            mNames[i] = null;
+            mTimezones[i] = null;
+            mDescriptions[i] = null;
+        }
+        mTracks = 0;
+    }
+
+
+    /**
+     * Write a string value
+     * @param value The string, may be null
+     * @throws IOException If the underlying stream throws it
+     */
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            mOut.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        mOut.writeInt(bytes.length);
+        mOut.write(bytes);
+    }
+}
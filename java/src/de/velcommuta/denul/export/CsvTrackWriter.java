@@ -0,0 +1,99 @@
+package de.velcommuta.denul.export;
+
+import de.velcommuta.denul.data.GPSTrack;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes tracks as comma-separated values (RFC 4180), with one row per coordinate. The columns of the track are
+ * repeated in every row, so the file can be loaded into a data frame without further processing. Tracks without
+ * coordinates are written as a single row with empty coordinate columns.
+ */
+public class CsvTrackWriter implements TrackWriter {
+    /**
+     * The header row of the file
+     */
+    public static final String HEADER = "track,owner,name,mode,session_start,session_end,timezone,distance,time,latitude,longitude";
+
+    private final Writer mWriter;
+    // Columns of the current track, ending with a separator
+    private String mTrackColumns;
+    private boolean mHasLocations;
+
+    /**
+     * Constructor
+     * @param out The OutputStream to write to
+     * @throws IOException If writing the header fails
+     */
+    public CsvTrackWriter(OutputStream out) throws IOException {
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        mWriter.write(HEADER);
+        mWriter.write("\r\n");
+    }
+
+
+    @Override
+    public void beginTrack(GPSTrack track) throws IOException {
+        // The track columns are formatted once per track instead of once per row
+        StringBuilder sb = new StringBuilder();
+        sb.append(track.getID()).append(',')
+                .append(track.getOwner()).append(',');
+        appendField(sb, track.getSessionName());
+        sb.append(',').append(track.getModeOfTransportation())
+                .append(',').append(track.getTimestamp())
+                .append(',').append(track.getTimestampEnd()).append(',');
+        appendField(sb, track.getTimezone());
+        sb.append(',').append(track.getDistance()).append(',');
+        mTrackColumns = sb.toString();
+        mHasLocations = false;
+    }
+
+
+    @Override
+    public void location(double time, double latitude, double longitude) throws IOException {
+        mHasLocations = true;
+        mWriter.write(mTrackColumns);
+        mWriter.write(Double.toString(time));
+        mWriter.write(',');
+        mWriter.write(Double.toString(latitude));
+        mWriter.write(',');
+        mWriter.write(Double.toString(longitude));
+        mWriter.write("\r\n");
+    }
+
+
+    @Override
+    public void endTrack() throws IOException {
+        if (!mHasLocations) {
+            mWriter.write(mTrackColumns);
+            mWriter.write(",,\r\n");
+        }
+        mTrackColumns = null;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+
+    /**
+     * Append a text field, quoting it if necessary
+     * @param sb The StringBuilder to append to
+     * @param value The value of the field, may be null
+     */
+    private static void appendField(StringBuilder sb, String value) {
+        if (value == null) return;
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            sb.append(value);
+        } else {
+            sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+        }
+    }
+}
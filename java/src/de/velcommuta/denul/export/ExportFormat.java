@@ -0,0 +1,66 @@
+package de.velcommuta.denul.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The file formats study data can be exported to. All formats are gzip-compressed.
+ */
+public enum ExportFormat {
+    /**
+     * Comma-separated values, one row per coordinate, see {@link CsvTrackWriter}
+     */
+    CSV("csv.gz"),
+    /**
+     * Newline-delimited JSON, one object per track, see {@link NdjsonTrackWriter}
+     */
+    NDJSON("ndjson.gz"),
+    /**
+     * Column-oriented binary format, see {@link ColumnarTrackWriter}
+     */
+    COLUMNAR("dnlc.gz");
+
+    // Size of the buffer of the compressor
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String mExtension;
+
+    /**
+     * Constructor
+     * @param extension The file extension of the format
+     */
+    ExportFormat(String extension) {
+        mExtension = extension;
+    }
+
+
+    /**
+     * Getter for the file extension of the format, without the leading dot
+     * @return The file extension
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+
+    /**
+     * Create a writer for this format
+     * @param out The OutputStream to write the compressed data to. It is closed when the writer is closed.
+     * @return The TrackWriter
+     * @throws IOException If writing the header fails
+     */
+    public TrackWriter open(OutputStream out) throws IOException {
+        OutputStream compressed = new GZIPOutputStream(out, BUFFER_SIZE);
+        switch (this) {
+            case CSV:
+                return new CsvTrackWriter(compressed);
+            case NDJSON:
+                return new NdjsonTrackWriter(compressed);
+            case COLUMNAR:
+                return new ColumnarTrackWriter(compressed);
+            default:
+                throw new IllegalArgumentException("Unknown format");
+        }
+    }
+}
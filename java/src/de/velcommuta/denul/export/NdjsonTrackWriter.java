@@ -0,0 +1,58 @@
+package de.velcommuta.denul.export;
+
+import de.velcommuta.denul.data.GPSTrack;
+import de.velcommuta.denul.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes tracks as newline-delimited JSON, with one object per line and track. The coordinates are written as an
+ * array of [time, latitude, longitude] arrays in the "path" field. Every line is written as the coordinates arrive, so
+ * no track is held in memory as a whole.
+ */
+public class NdjsonTrackWriter implements TrackWriter {
+    private final JsonWriter mWriter;
+
+    /**
+     * Constructor
+     * @param out The OutputStream to write to
+     */
+    public NdjsonTrackWriter(OutputStream out) {
+        mWriter = new JsonWriter(out);
+    }
+
+
+    @Override
+    public void beginTrack(GPSTrack track) throws IOException {
+        mWriter.beginObject();
+        mWriter.name("track").value(track.getID());
+        mWriter.name("owner").value(track.getOwner());
+        mWriter.name("name").value(track.getSessionName());
+        mWriter.name("mode").value(track.getModeOfTransportation());
+        mWriter.name("session_start").value(track.getTimestamp());
+        mWriter.name("session_end").value(track.getTimestampEnd());
+        mWriter.name("timezone").value(track.getTimezone());
+        mWriter.name("distance").value(track.getDistance());
+        mWriter.name("description").value(track.getDescription());
+        mWriter.name("path").beginArray();
+    }
+
+
+    @Override
+    public void location(double time, double latitude, double longitude) throws IOException {
+        mWriter.beginArray().value(time).value(latitude).value(longitude).endArray();
+    }
+
+
+    @Override
+    public void endTrack() throws IOException {
+        mWriter.endArray().endObject().lineBreak();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
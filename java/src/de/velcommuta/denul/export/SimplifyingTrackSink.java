@@ -0,0 +1,64 @@
+package de.velcommuta.denul.export;
+
+import de.velcommuta.denul.data.GPSTrack;
+import de.velcommuta.denul.database.TrackSink;
+import de.velcommuta.denul.util.TrackSimplifier;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link TrackSink} simplifying the tracks passed to it with a {@link TrackSimplifier} before passing them on to
+ * another TrackSink. The coordinates of the current track are buffered in primitive arrays, which are reused for all
+ * tracks, so memory use is bounded by the largest track rather than the amount of data.
+ */
+public class SimplifyingTrackSink implements TrackSink {
+    private final TrackSink mSink;
+    private final TrackSimplifier mSimplifier;
+    private double[] mTime = new double[1024];
+    private double[] mLat = new double[1024];
+    private double[] mLon = new double[1024];
+    private int mCount;
+
+    /**
+     * Constructor
+     * @param sink The TrackSink to pass the simplified tracks to
+     * @param simplifier The simplifier
+     */
+    public SimplifyingTrackSink(TrackSink sink, TrackSimplifier simplifier) {
+        assert sink != null && simplifier != null;
+        mSink = sink;
+        mSimplifier = simplifier;
+    }
+
+
+    @Override
+    public void beginTrack(GPSTrack track) throws IOException {
+        mCount = 0;
+        mSink.beginTrack(track);
+    }
+
+
+    @Override
+    public void location(double time, double latitude, double longitude) throws IOException {
+        if (mCount == mTime.length) {
+            mTime = Arrays.copyOf(mTime, mCount * 2);
+            mLat = Arrays.copyOf(mLat, mCount * 2);
+            mLon = Arrays.copyOf(mLon, mCount * 2);
+        }
+        mTime[mCount] = time;
+        mLat[mCount] = latitude;
+        mLon[mCount] = longitude;
+        mCount++;
+    }
+
+
+    @Override
+    public void endTrack() throws IOException {
+        int count = mSimplifier.simplify(mTime, mLat, mLon, mCount);
+        for (int i = 0; i < count; i++) {
+            mSink.location(mTime[i], mLat[i], mLon[i]);
+        }
+        mSink.endTrack();
+    }
+}
@@ -0,0 +1,143 @@
+package de.velcommuta.denul.export;
+
+import de.velcommuta.denul.data.KeySet;
+import de.velcommuta.denul.data.Shareable;
+import de.velcommuta.denul.database.Database;
+import de.velcommuta.denul.database.SQLiteDatabase;
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.DaemonThreadFactory;
+import de.velcommuta.denul.util.TrackSimplifier;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports the GPS tracks of a study into one file per participant, named "participant-&lt;id&gt;.&lt;extension&gt;".
+ * The tracks are streamed from the database into the file, so the memory use does not depend on the amount of data.
+ * Participants are exported in parallel on {@link Config#getExportThreads()} threads, each using its own connection to
+ * the database.
+ */
+public class TrackExporter {
+    private final String mDatabaseFile;
+    private final ExportFormat mFormat;
+    private final int mGranularity;
+
+    /**
+     * Constructor for an export of all coordinates
+     * @param databaseFile The file of the SQLite database containing the study
+     * @param format The format to export to
+     */
+    public TrackExporter(String databaseFile, ExportFormat format) {
+        this(databaseFile, format, Shareable.GRANULARITY_FINE);
+    }
+
+
+    /**
+     * Constructor
+     * @param databaseFile The file of the SQLite database containing the study
+     * @param format The format to export to
+     * @param granularity The level of detail of the exported tracks, one of the Shareable.GRANULARITY_* constants.
+     *                    Coarser granularities only export the coordinates of the tracks simplified by the
+     *                    {@link TrackSimplifier} for that granularity.
+     */
+    public TrackExporter(String databaseFile, ExportFormat format, int granularity) {
+        assert databaseFile != null && format != null;
+        mDatabaseFile = databaseFile;
+        mFormat = format;
+        mGranularity = granularity;
+    }
+
+
+    /**
+     * Export the data of all participants of a study
+     * @param studyID The database ID of the study
+     * @param directory The directory to write the files to. It is created if it does not exist.
+     * @return The number of exported tracks
+     * @throws IOException If the directory cannot be created or a file cannot be written
+     */
+    public int exportStudy(long studyID, final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        List<KeySet> participants;
+        Database db = new SQLiteDatabase(mDatabaseFile);
+        try {
+            participants = db.getParticipantsForStudy(studyID);
+        } finally {
+            db.close();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(Config.getExportThreads(), participants.size())),
+                new DaemonThreadFactory("TrackExporter"));
+        try {
+            List<Future<Integer>> results = new ArrayList<>(participants.size());
+            for (final KeySet participant : participants) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        Database db = new SQLiteDatabase(mDatabaseFile);
+                        try {
+                            return exportParticipant(db, participant.getID(), getFile(directory, participant.getID()));
+                        } finally {
+                            db.close();
+                        }
+                    }
+                }));
+            }
+            int tracks = 0;
+            for (Future<Integer> result : results) {
+                tracks += result.get();
+            }
+            return tracks;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Export failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Export the data of a single participant
+     * @param db The database to read from
+     * @param participantID The database ID of the participant
+     * @param file The file to write to
+     * @return The number of exported tracks
+     * @throws IOException If the file cannot be written
+     */
+    public int exportParticipant(Database db, long participantID, File file) throws IOException {
+        try (TrackWriter writer = mFormat.open(new BufferedOutputStream(new FileOutputStream(file)))) {
+            if (mGranularity == Shareable.GRANULARITY_FINE) {
+                return db.streamGPSTracksByParticipantID(participantID, writer);
+            }
+            // The database only returns the coordinates of the level of detail, if it was computed when the track was
+            // stored. Simplifying again makes sure that tracks stored without levels of detail are simplified as well.
+            return db.streamGPSTracksByParticipantID(participantID, mGranularity,
+                    new SimplifyingTrackSink(writer, TrackSimplifier.forGranularity(mGranularity)));
+        }
+    }
+
+
+    /**
+     * Get the file the data of a participant is exported to
+     * @param directory The export directory
+     * @param participantID The database ID of the participant
+     * @return The file
+     */
+    public File getFile(File directory, long participantID) {
+        return new File(directory, "participant-" + participantID + "." + mFormat.getExtension());
+    }
+}
@@ -0,0 +1,19 @@
+package de.velcommuta.denul.export;
+
+import de.velcommuta.denul.database.TrackSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A {@link TrackSink} serializing the tracks into a file format. Writers buffer at most a fixed amount of data, so
+ * tracks of any size can be exported in constant memory.
+ */
+public interface TrackWriter extends TrackSink, Closeable {
+    /**
+     * Write any buffered data and close the underlying stream
+     * @throws IOException If the underlying stream throws it
+     */
+    @Override
+    void close() throws IOException;
+}
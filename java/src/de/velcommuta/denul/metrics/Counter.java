@@ -0,0 +1,35 @@
+package de.velcommuta.denul.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing, thread-safe counter
+ */
+public class Counter {
+    private final AtomicLong mCount = new AtomicLong();
+
+    /**
+     * Increment the counter by one
+     */
+    public void inc() {
+        mCount.incrementAndGet();
+    }
+
+
+    /**
+     * Increment the counter
+     * @param n The amount to increment the counter by
+     */
+    public void inc(long n) {
+        mCount.addAndGet(n);
+    }
+
+
+    /**
+     * Getter for the current value of the counter
+     * @return The value
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+}
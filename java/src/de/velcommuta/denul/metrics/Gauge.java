@@ -0,0 +1,12 @@
+package de.velcommuta.denul.metrics;
+
+/**
+ * A metric whose value is computed when it is read, e.g. the size of a queue
+ */
+public interface Gauge {
+    /**
+     * Getter for the current value
+     * @return The value
+     */
+    long getValue();
+}
@@ -0,0 +1,134 @@
+package de.velcommuta.denul.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe, lock-free histogram of non-negative long values, e.g. latencies in nanoseconds. Values are counted in
+ * logarithmic buckets with 16 linear sub-buckets each (similar to an HDR histogram), so percentiles are accurate to
+ * within 1/16 of the value, using a fixed amount of memory regardless of the number or range of recorded values.
+ */
+public class Histogram {
+    // Number of bits used for the linear sub-buckets
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Values below SUB_COUNT have their own bucket, every further power of two gets SUB_COUNT buckets
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Record a value
+     * @param value The value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        mBuckets.incrementAndGet(getBucket(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+
+    /**
+     * Record the time elapsed since a start time
+     * @param startNanos The start time, as returned by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+
+    /**
+     * Getter for the number of recorded values
+     * @return The number of values
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+
+    /**
+     * Getter for the sum of all recorded values
+     * @return The sum
+     */
+    public long getSum() {
+        return mSum.get();
+    }
+
+
+    /**
+     * Getter for the largest recorded value
+     * @return The maximum, or 0 if no values have been recorded
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+
+    /**
+     * Getter for the mean of the recorded values
+     * @return The mean, or 0 if no values have been recorded
+     */
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+
+    /**
+     * Get a percentile of the recorded values
+     * @param quantile The quantile, between 0 and 1 (e.g. 0.99 for the 99th percentile)
+     * @return The highest value of the bucket containing the percentile, or 0 if no values have been recorded
+     */
+    public long getPercentile(double quantile) {
+        assert quantile >= 0 && quantile <= 1;
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= target) {
+                return Math.min(getUpperBound(i), getMax());
+            }
+        }
+        // Concurrent updates may have increased the count after the buckets were read
+        return getMax();
+    }
+
+
+    /**
+     * Compute the bucket of a value
+     * @param value The value
+     * @return The index of the bucket
+     */
+    static int getBucket(long value) {
+        if (value < SUB_COUNT) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        int sub = (int) ((value >>> shift) & (SUB_COUNT - 1));
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+
+    /**
+     * Compute the highest value contained in a bucket
+     * @param bucket The index of the bucket
+     * @return The highest value
+     */
+    static long getUpperBound(int bucket) {
+        if (bucket < SUB_COUNT) return bucket;
+        int shift = bucket / SUB_COUNT - 1;
+        long sub = bucket % SUB_COUNT;
+        long upper = ((SUB_COUNT + sub + 1) << shift) - 1;
+        // The last bucket extends to the largest long
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
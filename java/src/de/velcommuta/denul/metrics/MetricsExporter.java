@@ -0,0 +1,163 @@
+package de.velcommuta.denul.metrics;
+
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exports the values of a {@link MetricsRegistry}, periodically to the file configured in
+ * {@link Config#getMetricsFile()}, and as read-only attributes of the JMX MBean "de.velcommuta.denul:type=Metrics" if
+ * {@link Config#getMetricsJMX()} is enabled.
+ */
+public class MetricsExporter {
+    private static final Logger logger = Logger.getLogger(MetricsExporter.class.getName());
+
+    private static final String MBEAN_NAME = "de.velcommuta.denul:type=Metrics";
+
+    private static ScheduledExecutorService sExecutor;
+
+    /**
+     * Start exporting the default registry according to the configuration. Calling this function more than once has
+     * no effect.
+     */
+    public static synchronized void start() {
+        if (sExecutor != null) return;
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        sExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("MetricsExporter"));
+        sExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                // The configured file is read on every run, so exporting can be enabled by reloading the configuration
+                String file = Config.getMetricsFile();
+                if (file.isEmpty()) return;
+                try {
+                    writeFile(registry, new File(file));
+                } catch (IOException e) {
+                    logger.severe("run: Could not write metrics to " + file + ": " + e);
+                }
+            }
+        }, Config.getMetricsInterval(), Config.getMetricsInterval(), TimeUnit.SECONDS);
+        if (Config.getMetricsJMX()) {
+            try {
+                registerMBean(registry);
+            } catch (JMException e) {
+                logger.severe("start: Could not register metrics MBean: " + e);
+            }
+        }
+    }
+
+
+    /**
+     * Write the current values of a registry to a file. The file is replaced atomically, so readers never see a
+     * partially written file.
+     * @param registry The registry
+     * @param file The file
+     * @throws IOException If writing the file fails
+     */
+    public static void writeFile(MetricsRegistry registry, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer w = new FileWriter(tmp)) {
+            registry.writeTo(w);
+        }
+        if (!tmp.renameTo(file)) {
+            // Renaming over an existing file fails on some platforms
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+
+    /**
+     * Register an MBean exposing the values of a registry on the platform MBean server
+     * @param registry The registry
+     * @throws JMException If the registration fails
+     */
+    public static void registerMBean(MetricsRegistry registry) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MBEAN_NAME);
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(new MetricsMBean(registry), name);
+    }
+
+
+    /**
+     * Dynamic MBean with one read-only attribute per metric value
+     */
+    private static class MetricsMBean implements DynamicMBean {
+        private final MetricsRegistry mRegistry;
+
+        /**
+         * Constructor
+         * @param registry The registry to expose
+         */
+        MetricsMBean(MetricsRegistry registry) {
+            mRegistry = registry;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = mRegistry.snapshot().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> snapshot = mRegistry.snapshot();
+            AttributeList rv = new AttributeList();
+            for (String name : attributes) {
+                if (snapshot.containsKey(name)) rv.add(new Attribute(name, snapshot.get(name)));
+            }
+            return rv;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations available");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            // The attributes are computed on every call, so that metrics created later are visible
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : mRegistry.snapshot().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            return new MBeanInfo(MetricsMBean.class.getName(), "Denul client metrics",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.velcommuta.denul.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of named {@link Counter}s, {@link Histogram}s and {@link Gauge}s. Metrics are created on first use and can
+ * be looked up from any thread without locking. Names are dot-separated, starting with the component, e.g.
+ * "protocol.get.latency".
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry sDefault = new MetricsRegistry();
+
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+
+    /**
+     * Get the registry used by the instrumented components of the application
+     * @return The default registry
+     */
+    public static MetricsRegistry getDefault() {
+        return sDefault;
+    }
+
+
+    /**
+     * Get a counter, creating it if it does not exist
+     * @param name The name of the counter
+     * @return The counter
+     */
+    public Counter counter(String name) {
+        Counter c = mCounters.get(name);
+        if (c == null) {
+            Counter created = new Counter();
+            c = mCounters.putIfAbsent(name, created);
+            if (c == null) c = created;
+        }
+        return c;
+    }
+
+
+    /**
+     * Get a histogram, creating it if it does not exist
+     * @param name The name of the histogram
+     * @return The histogram
+     */
+    public Histogram histogram(String name) {
+        Histogram h = mHistograms.get(name);
+        if (h == null) {
+            Histogram created = new Histogram();
+            h = mHistograms.putIfAbsent(name, created);
+            if (h == null) h = created;
+        }
+        return h;
+    }
+
+
+    /**
+     * Register a gauge, replacing any existing gauge with the same name
+     * @param name The name of the gauge
+     * @param gauge The gauge
+     */
+    public void gauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+
+    /**
+     * Get the current values of all metrics. Counters and gauges are reported under their name, histograms as
+     * name.count, name.mean, name.p50, name.p90, name.p99 and name.max.
+     * @return A Map from the names to the values, sorted by name
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> rv = new TreeMap<>();
+        for (Map.Entry<String, Counter> e : mCounters.entrySet()) {
+            rv.put(e.getKey(), e.getValue().getCount());
+        }
+        for (Map.Entry<String, Gauge> e : mGauges.entrySet()) {
+            rv.put(e.getKey(), e.getValue().getValue());
+        }
+        for (Map.Entry<String, Histogram> e : mHistograms.entrySet()) {
+            Histogram h = e.getValue();
+            rv.put(e.getKey() + ".count", h.getCount());
+            rv.put(e.getKey() + ".mean", h.getMean());
+            rv.put(e.getKey() + ".p50", h.getPercentile(0.5));
+            rv.put(e.getKey() + ".p90", h.getPercentile(0.9));
+            rv.put(e.getKey() + ".p99", h.getPercentile(0.99));
+            rv.put(e.getKey() + ".max", h.getMax());
+        }
+        return rv;
+    }
+
+
+    /**
+     * Write the current values of all metrics, one "name value" pair per line
+     * @param writer The Writer to write to
+     * @throws IOException If the Writer throws it
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (Map.Entry<String, Long> e : snapshot().entrySet()) {
+            writer.write(e.getKey());
+            writer.write(' ');
+            writer.write(String.valueOf(e.getValue()));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
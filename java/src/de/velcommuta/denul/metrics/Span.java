@@ -0,0 +1,124 @@
+package de.velcommuta.denul.metrics;
+
+/**
+ * A timed phase of an operation, e.g. the key exchanges for a batch of participants. Spans are created using
+ * {@link Tracer#start(String)} and written to the trace when they are closed, so they are best used in a
+ * try-with-resources statement. Spans of the same thread that are opened while another span is open are shown nested
+ * inside it by the trace viewer.
+ */
+public class Span implements AutoCloseable {
+    // Span returned while tracing is disabled. Ignores all arguments and is never written.
+    static final Span NOOP = new Span(null, null);
+
+    private final Tracer mTracer;
+    private final String mName;
+    private final long mThread;
+    private final long mStart;
+    private StringBuilder mArgs;
+
+    /**
+     * Constructor, starting the span
+     * @param tracer The Tracer to write the span to when it is closed
+     * @param name The name of the span
+     */
+    Span(Tracer tracer, String name) {
+        mTracer = tracer;
+        mName = name;
+        mThread = Thread.currentThread().getId();
+        mStart = System.nanoTime();
+    }
+
+
+    /**
+     * Attach a numeric argument to the span
+     * @param key The name of the argument
+     * @param value The value
+     * @return This span, to allow chaining
+     */
+    public Span arg(String key, long value) {
+        if (mTracer == null) return this;
+        appendKey(key).append(value);
+        return this;
+    }
+
+
+    /**
+     * Attach a string argument to the span
+     * @param key The name of the argument
+     * @param value The value
+     * @return This span, to allow chaining
+     */
+    public Span arg(String key, String value) {
+        if (mTracer == null) return this;
+        appendString(appendKey(key), value);
+        return this;
+    }
+
+
+    /**
+     * End the span and write it to the trace
+     */
+    @Override
+    public void close() {
+        if (mTracer == null) return;
+        mTracer.write(this, System.nanoTime());
+    }
+
+
+    /**
+     * Serialize the span as a complete event ("ph":"X") of the Chrome trace event format
+     * @param sb The StringBuilder to append the event to
+     * @param pid The process ID to use
+     * @param timeOrigin The wall clock time corresponding to a {@link System#nanoTime()} of 0, in microseconds
+     * @param end The end time of the span, as returned by {@link System#nanoTime()}
+     */
+    void appendEvent(StringBuilder sb, long pid, long timeOrigin, long end) {
+        sb.append("{\"name\":");
+        appendString(sb, mName);
+        sb.append(",\"cat\":\"denul\",\"ph\":\"X\",\"ts\":").append(timeOrigin + mStart / 1000)
+                .append(",\"dur\":").append((end - mStart) / 1000)
+                .append(",\"pid\":").append(pid)
+                .append(",\"tid\":").append(mThread);
+        if (mArgs != null) {
+            sb.append(",\"args\":{").append(mArgs).append('}');
+        }
+        sb.append('}');
+    }
+
+
+    /**
+     * Start a new argument
+     * @param key The name of the argument
+     * @return The StringBuilder holding the arguments, to append the value to
+     */
+    private StringBuilder appendKey(String key) {
+        if (mArgs == null) {
+            mArgs = new StringBuilder();
+        } else {
+            mArgs.append(',');
+        }
+        appendString(mArgs, key);
+        return mArgs.append(':');
+    }
+
+
+    /**
+     * Append a String as a quoted and escaped JSON string
+     * @param sb The StringBuilder to append to
+     * @param s The String
+     */
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
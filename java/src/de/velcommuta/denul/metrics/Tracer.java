@@ -0,0 +1,192 @@
+package de.velcommuta.denul.metrics;
+
+import de.velcommuta.denul.util.Config;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Writes {@link Span}s to a trace file in the JSON array format of the Chrome trace event format, which can be loaded
+ * into chrome://tracing or Perfetto. Every span is written when it is closed. The file is rotated when it grows beyond
+ * a maximum size, keeping a configurable number of old files with the suffixes .1, .2, ... (.1 being the newest). The
+ * trace of a previous run is rotated in the same way when the first span is written.
+ *
+ * The default Tracer is configured by {@link Config#getTraceFile()}, {@link Config#getTraceMaxSize()} and
+ * {@link Config#getTraceFiles()}, and does nothing if no trace file is configured.
+ */
+public class Tracer {
+    private static final Logger logger = Logger.getLogger(Tracer.class.getName());
+
+    private static Tracer sDefault;
+
+    private final long mPid;
+    private final long mTimeOrigin;
+    private volatile String mFile;
+    private volatile long mMaxSize;
+    private volatile int mFiles;
+
+    // Guarded by this
+    private Writer mWriter;
+    private long mWritten;
+
+    /**
+     * Constructor
+     * @param file The trace file, or an empty String to disable tracing
+     * @param maxSize The size at which the file is rotated, in bytes
+     * @param files The number of rotated files to keep
+     */
+    public Tracer(String file, long maxSize, int files) {
+        assert file != null && maxSize > 0 && files >= 0;
+        mFile = file;
+        mMaxSize = maxSize;
+        mFiles = files;
+        mPid = getPid();
+        mTimeOrigin = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+    }
+
+
+    /**
+     * Get the Tracer configured by {@link Config}. It follows changes of the configuration.
+     * @return The default Tracer
+     */
+    public static synchronized Tracer getDefault() {
+        if (sDefault == null) {
+            final Tracer tracer = new Tracer(Config.getTraceFile(), Config.getTraceMaxSize() * 1024L,
+                    Config.getTraceFiles());
+            Config.addListener(new Config.Listener() {
+                @Override
+                public void onConfigReloaded() {
+                    tracer.configure(Config.getTraceFile(), Config.getTraceMaxSize() * 1024L, Config.getTraceFiles());
+                }
+            });
+            sDefault = tracer;
+        }
+        return sDefault;
+    }
+
+
+    /**
+     * Start a span on the current thread
+     * @param name The name of the span
+     * @return The span, which must be closed at the end of the phase
+     */
+    public Span start(String name) {
+        if (mFile.isEmpty()) return Span.NOOP;
+        return new Span(this, name);
+    }
+
+
+    /**
+     * Change the settings of the Tracer. If the file changes, the old file is closed and the new one is started.
+     * @param file The trace file, or an empty String to disable tracing
+     * @param maxSize The size at which the file is rotated, in bytes
+     * @param files The number of rotated files to keep
+     */
+    public synchronized void configure(String file, long maxSize, int files) {
+        assert file != null && maxSize > 0 && files >= 0;
+        if (!file.equals(mFile)) close();
+        mFile = file;
+        mMaxSize = maxSize;
+        mFiles = files;
+    }
+
+
+    /**
+     * Finish and close the current trace file. Spans that end later are written to a new file.
+     */
+    public synchronized void close() {
+        if (mWriter == null) return;
+        try {
+            mWriter.write("\n]\n");
+            mWriter.close();
+        } catch (IOException e) {
+            logger.severe("close: Could not close trace file: " + e);
+        }
+        mWriter = null;
+    }
+
+
+    /**
+     * Write a finished span to the trace file
+     * @param span The span
+     * @param end The end time of the span, as returned by {@link System#nanoTime()}
+     */
+    void write(Span span, long end) {
+        // Serialize outside of the lock
+        StringBuilder sb = new StringBuilder(128);
+        span.appendEvent(sb, mPid, mTimeOrigin, end);
+        synchronized (this) {
+            String file = mFile;
+            if (file.isEmpty()) return;
+            try {
+                if (mWriter == null) {
+                    open(file);
+                } else if (mWritten >= mMaxSize) {
+                    close();
+                    open(file);
+                } else {
+                    mWriter.write(",\n");
+                }
+                mWriter.write(sb.toString());
+                // Flush every span, so the trace is complete up to the last finished phase if the process dies
+                mWriter.flush();
+                mWritten += sb.length() + 2;
+            } catch (IOException e) {
+                logger.severe("write: Could not write to trace file, disabling tracing: " + e);
+                close();
+                mFile = "";
+            }
+        }
+    }
+
+
+    /**
+     * Start a new trace file. An existing file, e.g. the trace of the previous run or the file that just reached the
+     * maximum size, is rotated first instead of being overwritten.
+     * @param file The name of the file
+     * @throws IOException If the file cannot be created
+     */
+    private void open(String file) throws IOException {
+        if (new File(file).length() > 0) rotate(file);
+        mWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        mWriter.write("[\n");
+        mWritten = 2;
+    }
+
+
+    /**
+     * Shift the rotated trace files by one, discarding the oldest file, and move the current file to suffix .1
+     * @param file The name of the current file
+     */
+    private void rotate(String file) {
+        new File(file + "." + mFiles).delete();
+        for (int i = mFiles - 1; i >= 1; i--) {
+            new File(file + "." + i).renameTo(new File(file + "." + (i + 1)));
+        }
+        if (mFiles > 0) {
+            new File(file).renameTo(new File(file + ".1"));
+        }
+    }
+
+
+    /**
+     * Determine the ID of the current process
+     * @return The process ID, or 0 if it cannot be determined
+     */
+    private static long getPid() {
+        // The name of the runtime is "pid@hostname" on all common JVMs
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('@')));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+}
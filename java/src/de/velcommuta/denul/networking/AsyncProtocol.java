@@ -0,0 +1,115 @@
+package de.velcommuta.denul.networking;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.StudyJoinRequest;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.TokenPair;
+
+/**
+ * Asynchronous variant of the {@link Protocol} interface. Every operation returns immediately with a future, which is
+ * completed with the value the corresponding operation of the {@link Protocol} interface returns (including its
+ * error constants), so that the caller can continue working while the request is in flight.
+ */
+public interface AsyncProtocol {
+    /**
+     * Disconnect from the server. Operations that are still in flight may fail.
+     */
+    void disconnect();
+
+    /**
+     * Retrieve a key saved under a specific value from the server.
+     * @param tokens The {@link TokenPair} with the Identifier that should be retrieved
+     * @return A future for the result of {@link Protocol#get(TokenPair)}
+     */
+    CompletableFuture<byte[]> get(TokenPair tokens);
+
+    /**
+     * Retrieve a value without copying it out of the reply of the server
+     * @param tokens The {@link TokenPair} with the Identifier that should be retrieved
+     * @return A future for the result of {@link Protocol#getValue(TokenPair)}
+     */
+    CompletableFuture<Value> getValue(TokenPair tokens);
+
+    /**
+     * Retrieve all values stored under a List of keys from the server. The requests are sent without waiting for
+     * each other.
+     * @param tokens The List of {@link TokenPair}s that should be retrieved
+     * @return A future for the result of {@link Protocol#getMany(List)}
+     */
+    CompletableFuture<Map<TokenPair, byte[]>> getMany(List<TokenPair> tokens);
+
+    /**
+     * Insert a value into the database of the server
+     * @param data A {@link DataBlock} representing the identifier and value that should be saved
+     * @return A future for the result of {@link Protocol#put(DataBlock)}
+     */
+    CompletableFuture<Integer> put(DataBlock data);
+
+    /**
+     * Insert a number of key-value-pairs into the database of the server. The requests are sent without waiting for
+     * each other.
+     * @param values A List of {@link DataBlock} objects mapping Identifiers and values that should
+     *               be saved on the server
+     * @return A future for the result of {@link Protocol#putMany(List)}
+     */
+    CompletableFuture<Map<DataBlock, Integer>> putMany(List<DataBlock> values);
+
+    /**
+     * Delete a key from the database of the server
+     * @param tokens A {@link TokenPair} containing the identifier and the revocation token
+     * @return A future for the result of {@link Protocol#del(TokenPair)}
+     */
+    CompletableFuture<Integer> del(TokenPair tokens);
+
+    /**
+     * Delete a number of keys from the database of the server. The requests are sent without waiting for each other.
+     * @param records A List of {@link TokenPair}s containing identifier and revocation tokens
+     * @return A future for the result of {@link Protocol#delMany(List)}
+     */
+    CompletableFuture<Map<TokenPair, Integer>> delMany(List<TokenPair> records);
+
+    /**
+     * Revoke a share identified by the TokenPair
+     * @param pair The {@link TokenPair} containing identifier and revocation authenticator
+     * @return A future for the result of {@link Protocol#revoke(TokenPair)}
+     */
+    CompletableFuture<Integer> revoke(TokenPair pair);
+
+    /**
+     * Revoke a number of shares. The revocations are sent without waiting for each other.
+     * @param pairs A List of {@link TokenPair}s containing identifiers and revocation authenticators
+     * @return A future for the result of {@link Protocol#revokeMany(List)}
+     */
+    CompletableFuture<Map<TokenPair, Integer>> revokeMany(List<TokenPair> pairs);
+
+    /**
+     * Register a new study with the server
+     * @param req The {@link StudyRequest} that should be registered
+     * @return A future for the result of {@link Protocol#registerStudy(StudyRequest)}
+     */
+    CompletableFuture<Integer> registerStudy(StudyRequest req);
+
+    /**
+     * Retrieve all registered studies from the server
+     * @return A future for the result of {@link Protocol#listRegisteredStudies()}
+     */
+    CompletableFuture<List<StudyRequest>> listRegisteredStudies();
+
+    /**
+     * Retrieve all available StudyJoinRequests associated with a specific StudyRequest
+     * @param req The StudyRequest
+     * @return A future for the result of {@link Protocol#getStudyJoinRequests(StudyRequest)}
+     */
+    CompletableFuture<List<StudyJoinRequest>> getStudyJoinRequests(StudyRequest req);
+
+    /**
+     * Delete a study from the server
+     * @param req The study request
+     * @return A future for the result of {@link Protocol#deleteStudy(StudyRequest)}
+     */
+    CompletableFuture<Integer> deleteStudy(StudyRequest req);
+}
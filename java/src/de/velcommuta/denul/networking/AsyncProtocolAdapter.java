@@ -0,0 +1,221 @@
+package de.velcommuta.denul.networking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.StudyJoinRequest;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.TokenPair;
+
+/**
+ * {@link AsyncProtocol} running the operations of a connected {@link Protocol} on an {@link Executor}. The operations
+ * run concurrently, so the Connection of the Protocol has to support concurrent calls to
+ * {@link Connection#transceive(byte[])}. Over a {@link PipelinedConnection}, the requests of concurrent operations are
+ * pipelined, so that an operation on many keys takes little more than a single round trip. Over other connections,
+ * e.g. a {@link ResilientConnection}, the requests are sent one after the other, but the caller can still do other
+ * work while they are in flight.
+ *
+ * Every operation occupies a task of the executor while it waits for its reply, so an executor running its tasks on
+ * virtual threads (see {@link de.velcommuta.denul.util.ThreadPools#newTaskExecutor(String, int)}) is a good fit.
+ */
+public class AsyncProtocolAdapter implements AsyncProtocol {
+    private final Protocol mProtocol;
+    private final Executor mExecutor;
+
+    /**
+     * Constructor
+     * @param protocol The connected Protocol. It has to support being used by several threads at once, like the
+     *                 {@link ProtobufProtocol}.
+     * @param executor The Executor to run the operations on
+     */
+    public AsyncProtocolAdapter(Protocol protocol, Executor executor) {
+        assert protocol != null;
+        assert executor != null;
+        mProtocol = protocol;
+        mExecutor = executor;
+    }
+
+
+    @Override
+    public void disconnect() {
+        mProtocol.disconnect();
+    }
+
+
+    @Override
+    public CompletableFuture<byte[]> get(final TokenPair tokens) {
+        return CompletableFuture.supplyAsync(new Supplier<byte[]>() {
+            @Override
+            public byte[] get() {
+                return mProtocol.get(tokens);
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<Value> getValue(final TokenPair tokens) {
+        return CompletableFuture.supplyAsync(new Supplier<Value>() {
+            @Override
+            public Value get() {
+                return mProtocol.getValue(tokens);
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<Map<TokenPair, byte[]>> getMany(List<TokenPair> tokens) {
+        return all(tokens, new Function<TokenPair, CompletableFuture<byte[]>>() {
+            @Override
+            public CompletableFuture<byte[]> apply(TokenPair pair) {
+                return get(pair);
+            }
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<Integer> put(final DataBlock data) {
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return mProtocol.put(data);
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<Map<DataBlock, Integer>> putMany(List<DataBlock> values) {
+        return all(values, new Function<DataBlock, CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> apply(DataBlock data) {
+                return put(data);
+            }
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<Integer> del(final TokenPair tokens) {
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return mProtocol.del(tokens);
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<Map<TokenPair, Integer>> delMany(List<TokenPair> records) {
+        return all(records, new Function<TokenPair, CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> apply(TokenPair pair) {
+                return del(pair);
+            }
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<Integer> revoke(final TokenPair pair) {
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return mProtocol.revoke(pair);
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<Map<TokenPair, Integer>> revokeMany(List<TokenPair> pairs) {
+        return all(pairs, new Function<TokenPair, CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> apply(TokenPair pair) {
+                return revoke(pair);
+            }
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<Integer> registerStudy(final StudyRequest req) {
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return mProtocol.registerStudy(req);
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<List<StudyRequest>> listRegisteredStudies() {
+        return CompletableFuture.supplyAsync(new Supplier<List<StudyRequest>>() {
+            @Override
+            public List<StudyRequest> get() {
+                return mProtocol.listRegisteredStudies();
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<List<StudyJoinRequest>> getStudyJoinRequests(final StudyRequest req) {
+        return CompletableFuture.supplyAsync(new Supplier<List<StudyJoinRequest>>() {
+            @Override
+            public List<StudyJoinRequest> get() {
+                return mProtocol.getStudyJoinRequests(req);
+            }
+        }, mExecutor);
+    }
+
+
+    @Override
+    public CompletableFuture<Integer> deleteStudy(final StudyRequest req) {
+        return CompletableFuture.supplyAsync(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return mProtocol.deleteStudy(req);
+            }
+        }, mExecutor);
+    }
+
+
+    /**
+     * Start an operation for every key of a List and collect the results into a Map once all of them are done
+     * @param keys The keys
+     * @param operation The operation to start for every key
+     * @param <K> The type of the keys
+     * @param <V> The type of the results
+     * @return A future for the Map from the keys to the results
+     */
+    private static <K, V> CompletableFuture<Map<K, V>> all(final List<K> keys,
+                                                           Function<K, CompletableFuture<V>> operation) {
+        final List<CompletableFuture<V>> futures = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            futures.add(operation.apply(key));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+                .thenApply(new Function<Void, Map<K, V>>() {
+                    @Override
+                    public Map<K, V> apply(Void ignored) {
+                        Map<K, V> rv = new HashMap<>();
+                        for (int i = 0; i < keys.size(); i++) {
+                            rv.put(keys.get(i), futures.get(i).join());
+                        }
+                        return rv;
+                    }
+                });
+    }
+}
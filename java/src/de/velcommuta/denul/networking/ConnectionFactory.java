@@ -0,0 +1,16 @@
+package de.velcommuta.denul.networking;
+
+import java.io.IOException;
+
+/**
+ * Factory interface for {@link Connection}s to the server. Used to decouple the code talking to the server from the
+ * type of connection and the server address, e.g. to run against a local server during testing.
+ */
+public interface ConnectionFactory {
+    /**
+     * Open a new connection to the server
+     * @return The connected Connection
+     * @throws IOException If the connection could not be established
+     */
+    Connection openConnection() throws IOException;
+}
@@ -0,0 +1,26 @@
+package de.velcommuta.denul.networking;
+
+import java.io.IOException;
+
+/**
+ * {@link Connection} exchanging length-prefixed frames, whose requests and replies can be sent and received separately.
+ * This allows sending further requests before the replies to the earlier ones have arrived, see
+ * {@link PipelinedConnection}. The server answers requests in the order in which it received them.
+ */
+public interface FramedConnection extends Connection {
+    /**
+     * Send a message without waiting for the reply. May be called concurrently to {@link #receive()}, but not to
+     * other calls of itself.
+     * @param message the byte[] to be sent
+     * @throws IOException if the underlying socket throws it
+     */
+    void send(byte[] message) throws IOException;
+
+    /**
+     * Receive the reply to the oldest request that has not been answered yet. May be called concurrently to
+     * {@link #send(byte[])}, but not to other calls of itself.
+     * @return The byte[] that was returned
+     * @throws IOException if the underlying socket throws it
+     */
+    byte[] receive() throws IOException;
+}
@@ -0,0 +1,58 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.Histogram;
+import de.velcommuta.denul.metrics.MetricsRegistry;
+
+import java.io.IOException;
+
+/**
+ * {@link Connection} wrapper recording the latency of every {@link #transceive(byte[])} call, the number of bytes sent
+ * and received and the number of failed calls in the default {@link MetricsRegistry}
+ */
+public class MeteredConnection implements Connection {
+    private static final Histogram sLatency = MetricsRegistry.getDefault().histogram("connection.transceive.latency");
+    private static final Counter sBytesSent = MetricsRegistry.getDefault().counter("connection.bytes_sent");
+    private static final Counter sBytesReceived = MetricsRegistry.getDefault().counter("connection.bytes_received");
+    private static final Counter sErrors = MetricsRegistry.getDefault().counter("connection.transceive.errors");
+
+    private final Connection mConnection;
+
+    /**
+     * Constructor
+     * @param connection The Connection to wrap
+     */
+    public MeteredConnection(Connection connection) {
+        assert connection != null;
+        mConnection = connection;
+    }
+
+
+    @Override
+    public byte[] transceive(byte[] message) throws IOException {
+        long start = System.nanoTime();
+        try {
+            byte[] reply = mConnection.transceive(message);
+            sBytesSent.inc(message.length);
+            if (reply != null) sBytesReceived.inc(reply.length);
+            return reply;
+        } catch (IOException e) {
+            sErrors.inc();
+            throw e;
+        } finally {
+            sLatency.recordSince(start);
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        mConnection.close();
+    }
+
+
+    @Override
+    public boolean isOpen() {
+        return mConnection.isOpen();
+    }
+}
@@ -0,0 +1,248 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.StudyJoinRequest;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.TokenPair;
+import de.velcommuta.denul.metrics.Histogram;
+import de.velcommuta.denul.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Protocol} wrapper recording the latency and the result codes of every operation in the default
+ * {@link MetricsRegistry}. The latency of an operation is recorded as "protocol.&lt;operation&gt;.latency", its results
+ * are counted as "protocol.&lt;operation&gt;.result.&lt;code&gt;". For the operations on multiple keys, every individual
+ * result is counted.
+ */
+public class MeteredProtocol implements Protocol {
+    private static final MetricsRegistry sRegistry = MetricsRegistry.getDefault();
+
+    private final Protocol mProtocol;
+
+    /**
+     * Constructor
+     * @param protocol The Protocol to wrap
+     */
+    public MeteredProtocol(Protocol protocol) {
+        assert protocol != null;
+        mProtocol = protocol;
+    }
+
+
+    @Override
+    public int connect(Connection conn) {
+        long start = System.nanoTime();
+        int rv = mProtocol.connect(conn);
+        record("connect", start, rv);
+        return rv;
+    }
+
+
+    @Override
+    public void disconnect() {
+        mProtocol.disconnect();
+    }
+
+
+    @Override
+    public byte[] get(TokenPair tokens) {
+        long start = System.nanoTime();
+        byte[] rv = mProtocol.get(tokens);
+        record("get", start, getResultName(rv));
+        return rv;
+    }
+
+
+    @Override
+    public Value getValue(TokenPair tokens) {
+        long start = System.nanoTime();
+        Value rv = mProtocol.getValue(tokens);
+        record("get", start, rv.isPresent() ? "ok" : getResultName(rv.getStatus()));
+        return rv;
+    }
+
+
+    @Override
+    public Map<TokenPair, byte[]> getMany(List<TokenPair> tokens) {
+        long start = System.nanoTime();
+        Map<TokenPair, byte[]> rv = mProtocol.getMany(tokens);
+        latency("getMany").recordSince(start);
+        for (byte[] value : rv.values()) {
+            count("getMany", getResultName(value));
+        }
+        return rv;
+    }
+
+
+    @Override
+    public int put(DataBlock data) {
+        long start = System.nanoTime();
+        int rv = mProtocol.put(data);
+        record("put", start, rv);
+        return rv;
+    }
+
+
+    @Override
+    public Map<DataBlock, Integer> putMany(List<DataBlock> values) {
+        long start = System.nanoTime();
+        Map<DataBlock, Integer> rv = mProtocol.putMany(values);
+        latency("putMany").recordSince(start);
+        for (Integer code : rv.values()) {
+            count("putMany", String.valueOf(code));
+        }
+        return rv;
+    }
+
+
+    @Override
+    public int del(TokenPair tokens) {
+        long start = System.nanoTime();
+        int rv = mProtocol.del(tokens);
+        record("del", start, rv);
+        return rv;
+    }
+
+
+    @Override
+    public Map<TokenPair, Integer> delMany(List<TokenPair> records) {
+        long start = System.nanoTime();
+        Map<TokenPair, Integer> rv = mProtocol.delMany(records);
+        latency("delMany").recordSince(start);
+        for (Integer code : rv.values()) {
+            count("delMany", String.valueOf(code));
+        }
+        return rv;
+    }
+
+
+    @Override
+    public int revoke(TokenPair pair) {
+        long start = System.nanoTime();
+        int rv = mProtocol.revoke(pair);
+        record("revoke", start, rv);
+        return rv;
+    }
+
+
+    @Override
+    public Map<TokenPair, Integer> revokeMany(List<TokenPair> pairs) {
+        long start = System.nanoTime();
+        Map<TokenPair, Integer> rv = mProtocol.revokeMany(pairs);
+        latency("revokeMany").recordSince(start);
+        for (Integer code : rv.values()) {
+            count("revokeMany", String.valueOf(code));
+        }
+        return rv;
+    }
+
+
+    @Override
+    public int registerStudy(StudyRequest req) {
+        long start = System.nanoTime();
+        int rv = mProtocol.registerStudy(req);
+        record("registerStudy", start, rv);
+        return rv;
+    }
+
+
+    @Override
+    public List<StudyRequest> listRegisteredStudies() {
+        long start = System.nanoTime();
+        List<StudyRequest> rv = mProtocol.listRegisteredStudies();
+        record("listRegisteredStudies", start, rv == null ? "fail" : "ok");
+        return rv;
+    }
+
+
+    @Override
+    public List<StudyJoinRequest> getStudyJoinRequests(StudyRequest req) {
+        long start = System.nanoTime();
+        List<StudyJoinRequest> rv = mProtocol.getStudyJoinRequests(req);
+        record("getStudyJoinRequests", start, rv == null ? "fail" : "ok");
+        return rv;
+    }
+
+
+    @Override
+    public int getStudyJoinRequests(StudyRequest req, StudyJoinCallback callback) {
+        long start = System.nanoTime();
+        int rv = mProtocol.getStudyJoinRequests(req, callback);
+        record("getStudyJoinRequests", start, rv < 0 ? "fail" : "ok");
+        return rv;
+    }
+
+
+    @Override
+    public int deleteStudy(StudyRequest req) {
+        long start = System.nanoTime();
+        int rv = mProtocol.deleteStudy(req);
+        record("deleteStudy", start, rv);
+        return rv;
+    }
+
+
+    /**
+     * Map the return value of a get operation to a name for its result counter
+     * @param value The return value
+     * @return The name of the result
+     */
+    private static String getResultName(byte[] value) {
+        if (value == GET_FAIL_KEY_NOT_TAKEN) {
+            return "key_not_taken";
+        } else if (Arrays.equals(value, GET_FAIL_NO_CONNECTION)) {
+            return "no_connection";
+        } else if (Arrays.equals(value, GET_FAIL_PROTOCOL_ERROR)) {
+            return "protocol_error";
+        } else if (Arrays.equals(value, GET_FAIL_KEY_FMT)) {
+            return "key_fmt";
+        }
+        return "ok";
+    }
+
+
+    /**
+     * Record the latency and the result code of an operation
+     * @param operation The name of the operation
+     * @param start The start time of the operation, as returned by {@link System#nanoTime()}
+     * @param code The result code
+     */
+    private static void record(String operation, long start, int code) {
+        record(operation, start, String.valueOf(code));
+    }
+
+
+    /**
+     * Record the latency and the result of an operation
+     * @param operation The name of the operation
+     * @param start The start time of the operation, as returned by {@link System#nanoTime()}
+     * @param result The name of the result
+     */
+    private static void record(String operation, long start, String result) {
+        latency(operation).recordSince(start);
+        count(operation, result);
+    }
+
+
+    /**
+     * Get the latency histogram of an operation
+     * @param operation The name of the operation
+     * @return The histogram
+     */
+    private static Histogram latency(String operation) {
+        return sRegistry.histogram("protocol." + operation + ".latency");
+    }
+
+
+    /**
+     * Increment the result counter of an operation
+     * @param operation The name of the operation
+     * @param result The name of the result
+     */
+    private static void count(String operation, String result) {
+        sRegistry.counter("protocol." + operation + ".result." + result).inc();
+    }
+}
@@ -0,0 +1,187 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.Log;
+import de.velcommuta.denul.util.ResizableSemaphore;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link Connection} wrapper that sends requests without waiting for the replies to earlier requests. Requests can be
+ * submitted from any number of threads at once, and up to {@link Config#getPipelineDepth()} of them are in flight at
+ * any time. The depth follows reloads of the configuration. A reader thread receives the replies in the order the
+ * requests were sent and completes their futures.
+ *
+ * If sending or receiving fails, the underlying connection is closed and all requests that are in flight or submitted
+ * later fail with the IOException.
+ */
+public class PipelinedConnection implements Connection {
+    private static final Log log = Log.getLog(PipelinedConnection.class);
+
+    private final FramedConnection mConnection;
+    private final ResizableSemaphore mDepth;
+    private final Config.Listener mListener;
+    // Held while sending, so that the requests are sent in the order their futures are queued
+    private final Object mSendLock = new Object();
+    // Futures of the requests that were sent, in the order they were sent
+    private final BlockingQueue<CompletableFuture<byte[]>> mInFlight = new LinkedBlockingQueue<>();
+    private final Thread mReader;
+    // The reason why the connection can no longer be used, or null if it is working
+    private volatile IOException mFailure;
+
+    /**
+     * Constructor. Starts the reader thread.
+     * @param connection The connection to send the requests over
+     */
+    public PipelinedConnection(FramedConnection connection) {
+        assert connection != null;
+        mConnection = connection;
+        mDepth = new ResizableSemaphore(Config.getPipelineDepth());
+        mListener = new Config.Listener() {
+            @Override
+            public void onConfigReloaded() {
+                mDepth.resize(Config.getPipelineDepth());
+            }
+        };
+        Config.addListener(mListener);
+        mReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "PipelinedConnection-Reader");
+        mReader.setDaemon(true);
+        mReader.start();
+    }
+
+
+    /**
+     * Send a message without waiting for the reply. Blocks while {@link Config#getPipelineDepth()} requests are in
+     * flight.
+     * @param message the byte[] to be sent
+     * @return A future for the reply, completed exceptionally with an IOException if the request failed
+     */
+    public CompletableFuture<byte[]> submit(byte[] message) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        try {
+            mDepth.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new IOException("Interrupted while waiting to send", e));
+            return future;
+        }
+        future.whenComplete(new BiConsumer<byte[], Throwable>() {
+            @Override
+            public void accept(byte[] reply, Throwable throwable) {
+                mDepth.release();
+            }
+        });
+        // The order of the queue has to match the order of the requests on the wire. The queue itself is only locked
+        // while adding the future, so that a slow send does not hold up the reader thread if the connection fails.
+        synchronized (mSendLock) {
+            synchronized (mInFlight) {
+                if (mFailure != null) {
+                    future.completeExceptionally(mFailure);
+                    return future;
+                }
+                mInFlight.add(future);
+            }
+            try {
+                mConnection.send(message);
+            } catch (IOException e) {
+                // Also fails the future, unless the connection already failed and did that
+                fail(e);
+            }
+        }
+        return future;
+    }
+
+
+    @Override
+    public byte[] transceive(byte[] message) throws IOException {
+        try {
+            return submit(message).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the reply", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        shutdown(new IOException("Connection closed"));
+        mReader.interrupt();
+    }
+
+
+    @Override
+    public boolean isOpen() {
+        return mFailure == null && mConnection.isOpen();
+    }
+
+
+    /**
+     * Receive the replies and complete the futures of their requests, until the connection fails
+     */
+    private void readLoop() {
+        while (mFailure == null) {
+            CompletableFuture<byte[]> future;
+            try {
+                // Only read if a reply is expected, so that an idle connection does not run into the read timeout
+                future = mInFlight.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                future.complete(mConnection.receive());
+            } catch (IOException e) {
+                // Fail the connection first, so that it is no longer open once the caller sees the failure
+                fail(e);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+
+    /**
+     * Mark the connection as failed: Close it and fail all requests that are still in flight
+     * @param e The reason
+     */
+    private void fail(IOException e) {
+        if (mFailure == null) {
+            log.warning("fail", "Connection failed, failing {0} requests in flight: {1}", mInFlight.size(), e);
+        }
+        shutdown(e);
+    }
+
+
+    /**
+     * Close the underlying connection and fail all requests that are still in flight, unless this already happened
+     * @param e The exception to fail the requests with
+     */
+    private void shutdown(IOException e) {
+        synchronized (mInFlight) {
+            if (mFailure != null) return;
+            mFailure = e;
+            Config.removeListener(mListener);
+            try {
+                mConnection.close();
+            } catch (IOException e2) {
+                log.fine("shutdown", "IOException while closing connection, ignoring: {0}", e2);
+            }
+            CompletableFuture<byte[]> future;
+            while ((future = mInFlight.poll()) != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
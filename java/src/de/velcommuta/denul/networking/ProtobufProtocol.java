@@ -1,14 +1,16 @@
 package de.velcommuta.denul.networking;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -16,44 +18,89 @@ import de.velcommuta.denul.data.DataBlock;
 import de.velcommuta.denul.data.StudyJoinRequest;
 import de.velcommuta.denul.data.StudyRequest;
 import de.velcommuta.denul.data.TokenPair;
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.MetricsRegistry;
 import de.velcommuta.denul.networking.protobuf.c2s.C2S;
 import de.velcommuta.denul.networking.protobuf.meta.MetaMessage;
 import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
 import de.velcommuta.denul.util.FormatHelper;
+import de.velcommuta.denul.util.Log;
 import de.velcommuta.libvicbf.VICBF;
 import org.jetbrains.annotations.Nullable;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-
 /**
- * Protocol employing Protobuf for message generation and parsing.
+ * Protocol employing Protobuf for message generation and parsing. An instance may be used by several threads at once,
+ * e.g. through an {@link AsyncProtocolAdapter}.
  */
 public class ProtobufProtocol implements Protocol {
-    private static final Logger logger = Logger.getLogger(ProtobufProtocol.class.getName());
+    private static final Log log = Log.getLog(ProtobufProtocol.class);
 
+    // Outcomes of the local VICBF check in get. A false positive is a key in the VICBF the server does not know.
+    private static final Counter sVICBFHit = MetricsRegistry.getDefault().counter("vicbf.hit");
+    private static final Counter sVICBFMiss = MetricsRegistry.getDefault().counter("vicbf.miss");
+    private static final Counter sVICBFFalsePositive = MetricsRegistry.getDefault().counter("vicbf.false_positive");
 
     // Connection object
     Connection mConnection;
 
+    // The VICBF is shared by all threads using this instance, see the *VICBF methods
     VICBF mVICBF;
 
+    // Worker pool for the decryption of StudyJoin messages
+    StudyJoinDecryptor mDecryptor;
+
+    /**
+     * Constructor, using the shared default {@link StudyJoinDecryptor}
+     */
+    public ProtobufProtocol() {
+        this(StudyJoinDecryptor.getDefault());
+    }
+
+    /**
+     * Constructor
+     * @param decryptor The {@link StudyJoinDecryptor} to use for decrypting StudyJoin messages
+     */
+    public ProtobufProtocol(StudyJoinDecryptor decryptor) {
+        mDecryptor = decryptor;
+    }
+
     @Override
     public int connect(Connection conn) {
         // Store the connection object
         mConnection = conn;
         if (!mConnection.isOpen()) {
-            logger.severe("connect: Connection is not connected");
+            log.severe("connect", "Connection is not connected");
             return CONNECT_FAIL_NO_CONNECTION;
         }
+        if (conn instanceof ResilientConnection) {
+            // Repeat the handshake whenever the connection is re-established, refreshing the VICBF
+            ((ResilientConnection) conn).setReconnectListener(new ResilientConnection.ReconnectListener() {
+                @Override
+                public void onReconnect(Connection connection) throws IOException {
+                    if (handshake(connection) != CONNECT_OK) {
+                        throw new IOException("Handshake failed after reconnecting");
+                    }
+                }
+            });
+        }
+        return handshake(conn);
+    }
+
+
+    /**
+     * Send a ClientHello over a connection and load the VICBF from the ServerHello sent in reply
+     * @param conn The connection to use
+     * @return One of the CONNECT_* constants
+     */
+    private int handshake(Connection conn) {
         // Get a clientHello message
         MetaMessage.Wrapper ch = getClientHelloMsg();
 
         // Transceive and get reply wrapper message
-        logger.fine("connect: Sending ClientHello");
-        MetaMessage.Wrapper reply = transceiveWrapper(ch);
+        log.fine("handshake", "Sending ClientHello");
+        MetaMessage.Wrapper reply = transceiveWrapper(conn, ch, true);
         if (reply == null) {
-            logger.severe("connect: Wrapper parsing failed, aborting");
+            log.severe("handshake", "Wrapper parsing failed, aborting");
             return CONNECT_FAIL_PROTOCOL_ERROR;
         }
         // Extract the ServerHello from the wrapper
@@ -64,21 +111,24 @@ public class ProtobufProtocol implements Protocol {
             // dial itself back to our protocol version if it also knows later protocol versions
             if (serverHello.hasData()) {
                 try {
-                    logger.fine("connect: Compressed: " + FormatHelper.bytesToHex(serverHello.getData().toByteArray()));
                     byte[] decompressed = decompress_data(serverHello.getData().toByteArray());
-                    logger.fine("connect: Decompressed: " + FormatHelper.bytesToHex(decompressed));
-                    mVICBF = VICBF.deserialize(decompressed);
-                    logger.fine("connect: Deserialized VICBF");
+                    // Hex-encoding the VICBF is expensive, only do it if the result is logged
+                    if (log.isFineEnabled()) {
+                        log.fine("handshake", "Compressed: {0}", FormatHelper.bytesToHex(serverHello.getData().toByteArray()));
+                        log.fine("handshake", "Decompressed: {0}", FormatHelper.bytesToHex(decompressed));
+                    }
+                    setVICBF(VICBF.deserialize(decompressed));
+                    log.fine("handshake", "Deserialized VICBF");
                 } catch (IOException e) {
-                    logger.severe("connect: IOException while parsing VICBF. Aborting");
+                    log.severe("handshake", "IOException while parsing VICBF. Aborting");
                     return CONNECT_FAIL_PROTOCOL_ERROR;
                 }
             } else {
-                logger.severe("connect: ServerHello did not contain VICBF data");
+                log.severe("handshake", "ServerHello did not contain VICBF data");
                 return CONNECT_FAIL_PROTOCOL_ERROR;
             }
         } else {
-            logger.severe("connect: ServerHello parsing failed");
+            log.severe("handshake", "ServerHello parsing failed");
             return CONNECT_FAIL_PROTOCOL_ERROR;
         }
         return CONNECT_OK;
@@ -90,7 +140,7 @@ public class ProtobufProtocol implements Protocol {
         try {
             mConnection.close();
         } catch (IOException e) {
-            logger.warning("disconnect: IOException, ignoring");
+            log.warning("disconnect", "IOException, ignoring");
         }
     }
 
@@ -98,67 +148,76 @@ public class ProtobufProtocol implements Protocol {
     @Nullable
     @Override
     public byte[] get(TokenPair token) {
+        return getValue(token).toByteArray();
+    }
+
+
+    @Override
+    public Value getValue(TokenPair token) {
         // Check if the Connection is still open
         byte[] key = token.getIdentifier();
         if (!mConnection.isOpen()) {
-            logger.severe("get: Underlying Connection not connected");
-            return GET_FAIL_NO_CONNECTION;
+            log.severe("get", "Underlying Connection not connected");
+            return Value.failed(GET_FAIL_NO_CONNECTION);
         } else if (!checkKeyFormat(key)) {
-            logger.severe("get: Bad key format");
-            return GET_FAIL_KEY_FMT;
+            log.severe("get", "Bad key format");
+            return Value.failed(GET_FAIL_KEY_FMT);
         }
         // Check if the key is in the VICBF
-        if (mVICBF.query(key)) {
+        if (queryVICBF(key)) {
+            sVICBFHit.inc();
             // Create a Get message for the key
             MetaMessage.Wrapper get = getGetMsg(key);
             // Query the server
-            MetaMessage.Wrapper getReplyWrapper = transceiveWrapper(get);
+            byte[] reply = transceive(mConnection, get, true);
             // Check if the server replied
-            if (getReplyWrapper == null) {
-                logger.severe("get: TransceiveWrapper failed, aborting");
-                return GET_FAIL_NO_CONNECTION;
+            if (reply == null) {
+                log.severe("get", "Transceive failed, aborting");
+                return Value.failed(GET_FAIL_NO_CONNECTION);
             }
 
-            // Get the GetReply message from the Wrapper
-            C2S.GetReply getReply = toGetReply(getReplyWrapper);
+            // Get the GetReply message from the reply, without copying the value
+            RawGetReply getReply = toRawGetReply(reply);
             // Ensure that we actually got something
             if (getReply == null) {
-                logger.severe("get: Wrapper did not contain a GetReply, aborting");
-                return GET_FAIL_PROTOCOL_ERROR;
-            } else if (!Arrays.equals(getReply.getKey().toByteArray(), key)) {
+                log.severe("get", "Reply did not contain a GetReply, aborting");
+                return Value.failed(GET_FAIL_PROTOCOL_ERROR);
+            } else if (!Arrays.equals(getReply.key, key)) {
                 // The Keys do not match
-                logger.warning("get: Server replied for different key, aborting");
-                return GET_FAIL_PROTOCOL_ERROR;
-            } else if (getReply.getOpcode() == C2S.GetReply.GetReplyCode.GET_FAIL_UNKNOWN_KEY) {
+                log.warning("get", "Server replied for different key, aborting");
+                return Value.failed(GET_FAIL_PROTOCOL_ERROR);
+            } else if (getReply.opcode == C2S.GetReply.GetReplyCode.GET_FAIL_UNKNOWN_KEY) {
                 // The server does not know about this key
-                logger.warning("get: Get failed, server does not hold a value for the key");
-                return GET_FAIL_KEY_NOT_TAKEN;
-            } else if (getReply.getOpcode() == C2S.GetReply.GetReplyCode.GET_FAIL_UNKNOWN) {
+                log.fine("get", "Get failed, server does not hold a value for the key");
+                sVICBFFalsePositive.inc();
+                return Value.failed(GET_FAIL_KEY_NOT_TAKEN);
+            } else if (getReply.opcode == C2S.GetReply.GetReplyCode.GET_FAIL_UNKNOWN) {
                 // The server has encountered an unknown error
-                logger.severe("get: Get failed, server error");
-                return GET_FAIL_PROTOCOL_ERROR;
-            } else if (getReply.getOpcode() == C2S.GetReply.GetReplyCode.GET_FAIL_KEY_FMT) {
+                log.severe("get", "Get failed, server error");
+                return Value.failed(GET_FAIL_PROTOCOL_ERROR);
+            } else if (getReply.opcode == C2S.GetReply.GetReplyCode.GET_FAIL_KEY_FMT) {
                 // The server complained about the key format
-                logger.severe("get: Get failed, bad key format");
-                return GET_FAIL_KEY_FMT;
-            } else if (getReply.getOpcode() == C2S.GetReply.GetReplyCode.GET_OK) {
+                log.severe("get", "Get failed, bad key format");
+                return Value.failed(GET_FAIL_KEY_FMT);
+            } else if (getReply.opcode == C2S.GetReply.GetReplyCode.GET_OK) {
                 // The server retrieved the value for us
                 // Check if the Value field is set
-                if (getReply.hasValue()) {
+                if (getReply.value != null) {
                     // Return the value
-                    return getReply.getValue().toByteArray();
+                    return Value.of(getReply.value);
                 } else {
                     // The server did not send the value - this should not happen :(
-                    logger.severe("get: Server reply did not contain data even though it should have");
-                    return GET_FAIL_PROTOCOL_ERROR;
+                    log.severe("get", "Server reply did not contain data even though it should have");
+                    return Value.failed(GET_FAIL_PROTOCOL_ERROR);
                 }
             } else {
                 // This condition should never occur if the protocol is used correctly
-                logger.severe("get: No conditional held, something is wrong");
-                return GET_FAIL_PROTOCOL_ERROR;
+                log.severe("get", "No conditional held, something is wrong");
+                return Value.failed(GET_FAIL_PROTOCOL_ERROR);
             }
         } else {
-            return GET_FAIL_KEY_NOT_TAKEN;
+            sVICBFMiss.inc();
+            return Value.failed(GET_FAIL_KEY_NOT_TAKEN);
         }
     }
 
@@ -179,10 +238,10 @@ public class ProtobufProtocol implements Protocol {
         byte[] value = data.getCiphertext();
         // Check if the Connection is still open
         if (!mConnection.isOpen()) {
-            logger.severe("put: Underlying Connection not connected");
+            log.severe("put", "Underlying Connection not connected");
             return PUT_FAIL_NO_CONNECTION;
         } else if (!checkKeyFormat(key) || value == null) {
-            logger.severe("put: Bad key or value format");
+            log.severe("put", "Bad key or value format");
             return PUT_FAIL_KEY_FMT;
         }
         // Get a wrapper message with the key-value-pair
@@ -191,35 +250,35 @@ public class ProtobufProtocol implements Protocol {
         MetaMessage.Wrapper storeReplyWrapper = transceiveWrapper(store);
         // Check if the reply is null
         if (storeReplyWrapper == null) {
-            logger.severe("put: Transceive failed, reply is null");
+            log.severe("put", "Transceive failed, reply is null");
             return PUT_FAIL_NO_CONNECTION;
         }
         // Extract the StoreReply
         C2S.StoreReply storeReply = toStoreReply(storeReplyWrapper);
         // Check if extraction went well
         if (storeReply == null) {
-            logger.severe("put: Reply did not contain a StoreReply");
+            log.severe("put", "Reply did not contain a StoreReply");
             return PUT_FAIL_PROTOCOL_ERROR;
         } else if (!Arrays.equals(storeReply.getKey().toByteArray(), key)) {
             // Server did not reply with the correct key
-            logger.severe("put: Reply contained incorrect key");
+            log.severe("put", "Reply contained incorrect key");
             return PUT_FAIL_PROTOCOL_ERROR;
         } else if (storeReply.getOpcode() == C2S.StoreReply.StoreReplyCode.STORE_FAIL_KEY_TAKEN) {
             // Server replied that the key was already taken
-            logger.severe("put: Put failed, key was already taken");
+            log.fine("put", "Put failed, key was already taken");
             return PUT_FAIL_KEY_TAKEN;
         } else if (storeReply.getOpcode() == C2S.StoreReply.StoreReplyCode.STORE_FAIL_KEY_FMT) {
             // Server complained about the key format
-            logger.severe("put: Put failed, bad key format");
+            log.severe("put", "Put failed, bad key format");
             return PUT_FAIL_KEY_FMT;
         } else if (storeReply.getOpcode() == C2S.StoreReply.StoreReplyCode.STORE_FAIL_UNKNOWN) {
             // Server experienced unknown error :(
-            logger.severe("put: Server got unknown error");
+            log.severe("put", "Server got unknown error");
             return PUT_FAIL_PROTOCOL_ERROR;
         } else if (storeReply.getOpcode() == C2S.StoreReply.StoreReplyCode.STORE_OK) {
             // Success
             // Put the key into the local VICBF
-            mVICBF.insert(key);
+            insertVICBF(key);
             // Return success
             return PUT_OK;
         }
@@ -246,15 +305,15 @@ public class ProtobufProtocol implements Protocol {
         byte[] auth = token.getRevocation();
         // Check if the Connection is still open
         if (!mConnection.isOpen()) {
-            logger.severe("del: Underlying Connection not connected");
+            log.severe("del", "Underlying Connection not connected");
             return DEL_FAIL_NO_CONNECTION;
         } else if (!checkKeyFormat(key) || auth == null || !checkAuthenticator(key, auth)) {
-            logger.severe("del: Bad key or authenticator format");
+            log.severe("del", "Bad key or authenticator format");
             return DEL_FAIL_KEY_FMT;
         }
-        if (!mVICBF.query(token.getIdentifier())) {
+        if (!queryVICBF(token.getIdentifier())) {
             // Key is not on the server
-            logger.info("del: Deletion failed, key not on the server");
+            log.fine("del", "Deletion failed, key not on the server");
             return DEL_FAIL_KEY_NOT_TAKEN;
         }
         // Get a wrapper message with the key-value-pair
@@ -263,45 +322,47 @@ public class ProtobufProtocol implements Protocol {
         MetaMessage.Wrapper deleteReplyWrapper = transceiveWrapper(delete);
         // Check if the reply is null
         if (deleteReplyWrapper == null) {
-            logger.severe("del: Transceive failed, reply is null");
+            log.severe("del", "Transceive failed, reply is null");
             return PUT_FAIL_NO_CONNECTION;
         }
         // Extract the DeleteReply
         C2S.DeleteReply deleteReply = toDeleteReply(deleteReplyWrapper);
         // Check if extraction went well
         if (deleteReply == null) {
-            logger.severe("del: Reply did not contain a DeleteReply");
+            log.severe("del", "Reply did not contain a DeleteReply");
             return DEL_FAIL_PROTOCOL_ERROR;
         } else if (!Arrays.equals(deleteReply.getKey().toByteArray(), key)) {
             // Server did not reply with the correct key
-            logger.severe("del: Reply contained incorrect key");
+            log.severe("del", "Reply contained incorrect key");
             return DEL_FAIL_PROTOCOL_ERROR;
         } else if (deleteReply.getOpcode() == C2S.DeleteReply.DeleteReplyCode.DELETE_OK) {
             // Success
             // Remove the key from the VICBF
             try {
-                mVICBF.remove(key);
+                removeVICBF(key);
             } catch (Exception e) {
-                logger.severe("del: Exception while trying to delete key from VICBF: " + e);
-                // TODO Update if the VICBF retrieval code moves
-                connect(mConnection);
+                // The local VICBF is out of sync with the server, fetch the current one
+                log.severe("del", "Exception while trying to delete key from VICBF: {0}", e);
+                if (handshake(mConnection) != CONNECT_OK) {
+                    log.warning("del", "Refreshing the VICBF failed, keeping the old one");
+                }
             }
             return DEL_OK;
         } else if (deleteReply.getOpcode() == C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_NOT_FOUND) {
             // Server replied that no such key is stored on it
-            logger.warning("del: Deletion failed, no such key");
+            log.fine("del", "Deletion failed, no such key");
             return DEL_FAIL_KEY_NOT_TAKEN;
         } else if (deleteReply.getOpcode() == C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_KEY_FMT) {
             // Server complained about the key format
-            logger.severe("del: Deletion failed, bad key format");
+            log.severe("del", "Deletion failed, bad key format");
             return DEL_FAIL_KEY_FMT;
         } else if (deleteReply.getOpcode() == C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_UNKNOWN) {
             // Server experienced unknown error :(
-            logger.severe("del: Server got unknown error");
+            log.severe("del", "Server got unknown error");
             return DEL_FAIL_PROTOCOL_ERROR;
         } else if (deleteReply.getOpcode() == C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_AUTH) {
             // Authentication token was not accepted by the server
-            logger.severe("del: Authentication failed");
+            log.severe("del", "Authentication failed");
             return DEL_FAIL_AUTH_INCORRECT;
         }
         // This statement should be unreachable if nothing went completely wrong
@@ -354,16 +415,16 @@ public class ProtobufProtocol implements Protocol {
         MetaMessage.Wrapper reply = transceiveWrapper(wrapper.build());
         // Read reply
         if (reply == null) {
-            logger.severe("registerStudy: Reply is null, something is wrong");
+            log.severe("registerStudy", "Reply is null, something is wrong");
             return REG_FAIL_NO_CONNECTION;
         }
         // Parse into StudyCreateReply
         StudyMessage.StudyCreateReply scr = toStudyCreateReply(reply);
         if (scr == null) {
-            logger.severe("registerStudy: Reply did not contain StudyCreateReply, something is wrong");
+            log.severe("registerStudy", "Reply did not contain StudyCreateReply, something is wrong");
             return REG_FAIL_PROTOCOL_ERROR;
         } else if (!Arrays.equals(scr.getQueueIdentifier().toByteArray(), req.queue)) {
-            logger.severe("registerStudy: Reply for different queue identifier");
+            log.severe("registerStudy", "Reply for different queue identifier");
             return REG_FAIL_PROTOCOL_ERROR;
         } else if (scr.getStatus() == StudyMessage.StudyCreateReply.CreateStatus.CREATE_OK) {
             // Everything is fine
@@ -373,17 +434,17 @@ public class ProtobufProtocol implements Protocol {
             req.randomizeQueueIdentifier();
             return registerStudy(req);
         } else if (scr.getStatus() == StudyMessage.StudyCreateReply.CreateStatus.CREATE_FAIL_BAD_IDENTIFIER) {
-            logger.warning("registerStudy: Bad identifier");
+            log.warning("registerStudy", "Bad identifier");
             return REG_FAIL_IDENTIFIER;
         } else if (scr.getStatus() == StudyMessage.StudyCreateReply.CreateStatus.CREATE_FAIL_SIGNATURE) {
-            logger.warning("registerStudy: Bad signature");
+            log.warning("registerStudy", "Bad signature");
             return REG_FAIL_SIGNATURE;
         } else if (scr.getStatus() == StudyMessage.StudyCreateReply.CreateStatus.CREATE_FAIL_VERIFICATION) {
-            logger.warning("registerStudy: Verification data incorrect / verification failed");
+            log.warning("registerStudy", "Verification data incorrect / verification failed");
             return REG_FAIL_VERIFICATION;
         } else {
             // Unknown value
-            logger.severe("registerStudy: Unknown value for status code");
+            log.severe("registerStudy", "Unknown value for status code");
             return REG_FAIL_PROTOCOL_ERROR;
         }
     }
@@ -399,14 +460,14 @@ public class ProtobufProtocol implements Protocol {
         // Add the query to the wrapper
         wrapper.setStudyListQuery(query);
         // Transceive
-        MetaMessage.Wrapper reply = transceiveWrapper(wrapper.build());
+        MetaMessage.Wrapper reply = transceiveWrapper(mConnection, wrapper.build(), true);
         if (reply == null) {
-            logger.severe("listRegisteredStudies: Reply is null, something is wrong");
+            log.severe("listRegisteredStudies", "Reply is null, something is wrong");
             return null;
         }
         StudyMessage.StudyListReply slr = toStudyListReply(reply);
         if (slr == null) {
-            logger.severe("listRegisteredStudies: Reply did not contain a StudyListReply");
+            log.severe("listRegisteredStudies", "Reply did not contain a StudyListReply");
             return null;
         }
         // Read in the provided studies
@@ -419,79 +480,18 @@ public class ProtobufProtocol implements Protocol {
 
     @Override
     public List<StudyJoinRequest> getStudyJoinRequests(StudyRequest req) {
-        assert req != null;
-        assert req.queue != null;
-        assert req.privkey != null;
-
-        List<StudyJoinRequest> rv = new LinkedList<>();
-        // Get StudyJoinQuery builder
-        StudyMessage.StudyJoinQuery.Builder sjq = StudyMessage.StudyJoinQuery.newBuilder();
-        sjq.setQueueIdentifier(ByteString.copyFrom(req.queue));
-        // Build
-        byte[] query = sjq.build().toByteArray();
-        // Prepare StudyMessageWrapper
-        StudyMessage.StudyWrapper.Builder sw = StudyMessage.StudyWrapper.newBuilder();
-        sw.setMessage(ByteString.copyFrom(query));
-        sw.setType(StudyMessage.StudyWrapper.MessageType.MSG_STUDYJOINQUERY);
-        // Authenticate
-        sw.setSignature(ByteString.copyFrom(req.authenticate(query)));
-        // Prepare wrapper
-        MetaMessage.Wrapper.Builder wrapper = MetaMessage.Wrapper.newBuilder();
-        wrapper.setStudyWrapper(sw);
+        List<byte[]> messages = queryStudyJoinMessages(req);
+        if (messages == null) return null;
+        // Decrypt and parse the messages in parallel
+        return mDecryptor.decrypt(req, messages);
+    }
 
-        MetaMessage.Wrapper reply = transceiveWrapper(wrapper.build());
-        if (reply == null) {
-            logger.severe("getStudyJoinRequests: reply == null, something's fishy");
-            return null;
-        }
-        StudyMessage.StudyJoinQueryReply sjqr = toStudyJoinQueryReply(reply);
-        if (sjqr == null) {
-            logger.severe("getStudyJoinRequests: wrapper did not contain SJQR :(");
-            return null;
-        }
-        // We have a valid StudyJoinQueryReply, check response code
-        if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_OK) {
-            for (ByteString bs : sjqr.getMessageList()) {
-                try {
-                    // Decrypt data
-                    byte[] decrypted = req.decrypt(bs.toByteArray());
-                    // Deserialize into Protobuf StudyJoin
-                    StudyMessage.StudyJoin sj = StudyMessage.StudyJoin.parseFrom(decrypted);
-                    // Create data container object
-                    StudyJoinRequest request = new StudyJoinRequest();
-                    // Set fields
-                    request.kexpub = sj.getKexData().toByteArray();
-                    request.queue = sj.getQueueIdentifier().toByteArray();
-                    if (!Arrays.equals(request.queue, req.queue)) {
-                        logger.severe("getStudyJoinRequest: Got StudyJoin for incorrect queue identifier, ignoring");
-                        continue;
-                    }
-                    if (sj.getKexAlgorithm() == StudyMessage.StudyJoin.KexAlgo.KEX_ECDH_CURVE25519) {
-                        request.kexalgo = StudyJoinRequest.KEX_ALGO.KEX_ECDH_CURVE25519;
-                    } else {
-                        request.kexalgo = StudyJoinRequest.KEX_ALGO.KEX_UNKNOWN;
-                    }
-                    // Add to return list
-                    rv.add(request);
-                } catch (IllegalBlockSizeException | BadPaddingException e) {
-                    e.printStackTrace();
-                    logger.severe("getStudyJoinRequests: Exception during decryption, skipping");
-                } catch (InvalidProtocolBufferException e) {
-                    e.printStackTrace();
-                    logger.severe("getStudyJoinRequests: Data did not contain StudyJoin message, skipping");
-                }
-            }
-        } else if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_FAIL_SIGNATURE) {
-            logger.severe("getStudyJoinRequests: Server claims wrong signature!");
-            return null;
-        } else if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_FAIL_NOT_FOUND) {
-            logger.severe("getStudyJoinRequests: Server claims queue identifier not found");
-            return null;
-        } else if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_UNKNOWN) {
-            logger.severe("getStudyJoinRequests: Server experienced unknown error");
-            return null;
-        }
-        return rv;
+    @Override
+    public int getStudyJoinRequests(StudyRequest req, StudyJoinCallback callback) {
+        List<byte[]> messages = queryStudyJoinMessages(req);
+        if (messages == null) return -1;
+        // Decrypt and parse the messages in parallel, passing them to the callback in order
+        return mDecryptor.decrypt(req, messages, callback);
     }
 
     @Override
@@ -516,47 +516,166 @@ public class ProtobufProtocol implements Protocol {
         // Transceive
         MetaMessage.Wrapper reply = transceiveWrapper(wrapper.build());
         if (reply == null) {
-            logger.severe("deleteStudy: Transceive error - No connection?");
+            log.severe("deleteStudy", "Transceive error - No connection?");
             return SDEL_FAIL_NO_CONNECTION;
         }
         StudyMessage.StudyDeleteReply sdr = toStudyDeleteReply(reply);
         if (sdr == null) {
-            logger.severe("deleteStudy: Reply did not contain a StudyDeleteReply");
+            log.severe("deleteStudy", "Reply did not contain a StudyDeleteReply");
             return SDEL_FAIL_PROTOCOL_ERROR;
         }
         // We have received a studyDeleteReply
         if (sdr.getStatus() == StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_OK) {
             return SDEL_OK;
         } else if (sdr.getStatus() == StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_FAIL_BAD_IDENT) {
-            logger.severe("deleteStudy: Server complained about bad identifier");
+            log.severe("deleteStudy", "Server complained about bad identifier");
             return SDEL_FAIL_IDENTIFIER;
         } else if (sdr.getStatus() == StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_FAIL_BAD_SIG) {
-            logger.severe("deleteStudy: Server complained about bad signature");
+            log.severe("deleteStudy", "Server complained about bad signature");
             return SDEL_FAIL_SIGNATURE;
         } else {
-            logger.severe("deleteStudy: Protocol error");
+            log.severe("deleteStudy", "Protocol error");
             return SDEL_FAIL_PROTOCOL_ERROR;
         }
     }
 
     // Helper functions
     /**
-     * Send a wrapper message to the server and receive and parse a wrapper message in return
+     * Send a wrapper message to the server and receive and parse a wrapper message in return. The message is not
+     * retried if it fails.
      * @param wrapper The wrapper to send to the server
      * @return The Wrapper that was received in return, or null, if an error occured
      */
     private MetaMessage.Wrapper transceiveWrapper(MetaMessage.Wrapper wrapper) {
-        // prepare a byte[] for the reply
-        byte[] reply;
+        return transceiveWrapper(mConnection, wrapper, false);
+    }
+
+
+    /**
+     * Send a wrapper message over a connection and receive and parse a wrapper message in return
+     * @param conn The connection to use
+     * @param wrapper The wrapper to send to the server
+     * @param idempotent true if the message may be retried by a {@link ResilientConnection}
+     * @return The Wrapper that was received in return, or null, if an error occured
+     */
+    private MetaMessage.Wrapper transceiveWrapper(Connection conn, MetaMessage.Wrapper wrapper, boolean idempotent) {
+        byte[] reply = transceive(conn, wrapper, idempotent);
+        if (reply == null) return null;
+        // Convert byte[] into Wrapper and return it
+        return toWrapperMessage(reply);
+    }
+
+
+    /**
+     * Send a wrapper message over a connection and receive the serialized reply
+     * @param conn The connection to use
+     * @param wrapper The wrapper to send to the server
+     * @param idempotent true if the message may be retried by a {@link ResilientConnection}
+     * @return The reply, or null, if an error occured
+     */
+    private byte[] transceive(Connection conn, MetaMessage.Wrapper wrapper, boolean idempotent) {
         try {
-            // Transceive, saving the result into the byte[]
-            reply = mConnection.transceive(wrapper.toByteArray());
+            if (idempotent && conn instanceof ResilientConnection) {
+                return ((ResilientConnection) conn).transceive(wrapper.toByteArray(), true);
+            } else {
+                return conn.transceive(wrapper.toByteArray());
+            }
         } catch (IOException e) {
-            logger.severe("connect: IOException during communcation: " + e.toString());
+            log.severe("transceive", "IOException during communcation: {0}", e);
             return null;
         }
-        // Convert byte[] into Wrapper and return it
-        return toWrapperMessage(reply);
+    }
+
+
+    /**
+     * Replace the VICBF
+     * @param vicbf The new VICBF
+     */
+    private synchronized void setVICBF(VICBF vicbf) {
+        mVICBF = vicbf;
+    }
+
+
+    /**
+     * Check if a key may be stored on the server
+     * @param key The key
+     * @return false if the key is certainly not stored on the server, true if it may be
+     */
+    private synchronized boolean queryVICBF(byte[] key) {
+        return mVICBF.query(key);
+    }
+
+
+    /**
+     * Add a key that was stored on the server to the VICBF
+     * @param key The key
+     */
+    private synchronized void insertVICBF(byte[] key) {
+        mVICBF.insert(key);
+    }
+
+
+    /**
+     * Remove a key that was deleted from the server from the VICBF
+     * @param key The key
+     * @throws Exception If the VICBF throws it, e.g. because the key was not inserted into it
+     */
+    private synchronized void removeVICBF(byte[] key) throws Exception {
+        mVICBF.remove(key);
+    }
+
+
+    /**
+     * Send a StudyJoinQuery for a StudyRequest and return the encrypted StudyJoin messages contained in the reply
+     * @param req The StudyRequest
+     * @return A List of encrypted StudyJoin messages, or null if an error occured
+     */
+    private List<byte[]> queryStudyJoinMessages(StudyRequest req) {
+        assert req != null;
+        assert req.queue != null;
+        assert req.privkey != null;
+
+        // Get StudyJoinQuery builder
+        StudyMessage.StudyJoinQuery.Builder sjq = StudyMessage.StudyJoinQuery.newBuilder();
+        sjq.setQueueIdentifier(ByteString.copyFrom(req.queue));
+        // Build
+        byte[] query = sjq.build().toByteArray();
+        // Prepare StudyMessageWrapper
+        StudyMessage.StudyWrapper.Builder sw = StudyMessage.StudyWrapper.newBuilder();
+        sw.setMessage(ByteString.copyFrom(query));
+        sw.setType(StudyMessage.StudyWrapper.MessageType.MSG_STUDYJOINQUERY);
+        // Authenticate
+        sw.setSignature(ByteString.copyFrom(req.authenticate(query)));
+        // Prepare wrapper
+        MetaMessage.Wrapper.Builder wrapper = MetaMessage.Wrapper.newBuilder();
+        wrapper.setStudyWrapper(sw);
+
+        // Retrying is safe: Messages the server removed for a lost reply would be lost without the retry as well
+        MetaMessage.Wrapper reply = transceiveWrapper(mConnection, wrapper.build(), true);
+        if (reply == null) {
+            log.severe("queryStudyJoinMessages", "reply == null, something's fishy");
+            return null;
+        }
+        StudyMessage.StudyJoinQueryReply sjqr = toStudyJoinQueryReply(reply);
+        if (sjqr == null) {
+            log.severe("queryStudyJoinMessages", "wrapper did not contain SJQR :(");
+            return null;
+        }
+        // We have a valid StudyJoinQueryReply, check response code
+        if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_OK) {
+            List<byte[]> rv = new ArrayList<>(sjqr.getMessageCount());
+            for (ByteString bs : sjqr.getMessageList()) {
+                rv.add(bs.toByteArray());
+            }
+            return rv;
+        } else if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_FAIL_SIGNATURE) {
+            log.severe("queryStudyJoinMessages", "Server claims wrong signature!");
+        } else if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_FAIL_NOT_FOUND) {
+            log.severe("queryStudyJoinMessages", "Server claims queue identifier not found");
+        } else if (sjqr.getStatus() == StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_UNKNOWN) {
+            log.severe("queryStudyJoinMessages", "Server experienced unknown error");
+        }
+        return null;
     }
 
 
@@ -582,7 +701,7 @@ public class ProtobufProtocol implements Protocol {
      * @param key The key to get the value for
      * @return A Get message wrapped in a Wrapper message
      */
-    private MetaMessage.Wrapper getGetMsg(byte[] key) {
+    protected MetaMessage.Wrapper getGetMsg(byte[] key) {
         // Get a Get builder and a wrapper builder
         C2S.Get.Builder get = C2S.Get.newBuilder();
         MetaMessage.Wrapper.Builder wrapper = MetaMessage.Wrapper.newBuilder();
@@ -601,7 +720,7 @@ public class ProtobufProtocol implements Protocol {
      * @param values The value
      * @return A Wrapper containing a Store message for the Key-Value-Pair
      */
-    private MetaMessage.Wrapper getStoreMsg(byte[] key, byte[] values) {
+    protected MetaMessage.Wrapper getStoreMsg(byte[] key, byte[] values) {
         // Get a Put builder and a wrapper builder
         C2S.Store.Builder store = C2S.Store.newBuilder();
         MetaMessage.Wrapper.Builder wrapper = MetaMessage.Wrapper.newBuilder();
@@ -647,7 +766,7 @@ public class ProtobufProtocol implements Protocol {
         if (wrapper.hasServerHello()) {
             return wrapper.getServerHello();
         } else {
-            logger.severe("toServerHello: Wrapper message did not contain a ServerHello message");
+            log.severe("toServerHello", "Wrapper message did not contain a ServerHello message");
             return null;
         }
     }
@@ -658,11 +777,11 @@ public class ProtobufProtocol implements Protocol {
      * @param wrapper The wrapper containing a GetReply message
      * @return The GetReply, or null, if the bytes did not represent a GetReply message
      */
-    private C2S.GetReply toGetReply(MetaMessage.Wrapper wrapper) {
+    protected C2S.GetReply toGetReply(MetaMessage.Wrapper wrapper) {
         if (wrapper.hasGetReply()) {
             return wrapper.getGetReply();
         } else {
-            logger.severe("toGetReply: Wrapper message did not contain a GetReply message");
+            log.severe("toGetReply", "Wrapper message did not contain a GetReply message");
             return null;
         }
     }
@@ -677,7 +796,7 @@ public class ProtobufProtocol implements Protocol {
         if (wrapper.hasStoreReply()) {
             return wrapper.getStoreReply();
         } else {
-            logger.severe("toStoreReply: Wrapper message did not contain a StoreReply message");
+            log.severe("toStoreReply", "Wrapper message did not contain a StoreReply message");
             return null;
         }
     }
@@ -692,7 +811,7 @@ public class ProtobufProtocol implements Protocol {
         if (wrapper.hasDeleteReply()) {
             return wrapper.getDeleteReply();
         } else {
-            logger.severe("toDeleteReply: Wrapper message did not contain a StoreReply message");
+            log.severe("toDeleteReply", "Wrapper message did not contain a StoreReply message");
             return null;
         }
     }
@@ -707,7 +826,7 @@ public class ProtobufProtocol implements Protocol {
         if (wrapper.hasStudyCreateReply()) {
             return wrapper.getStudyCreateReply();
         } else {
-            logger.severe("toStudyCreateReply: Wrapper message did not contain a StudyCreateReply message");
+            log.severe("toStudyCreateReply", "Wrapper message did not contain a StudyCreateReply message");
             return null;
         }
     }
@@ -722,7 +841,7 @@ public class ProtobufProtocol implements Protocol {
         if (wrapper.hasStudyListReply()) {
             return wrapper.getStudyListReply();
         } else {
-            logger.severe("toStudyListReply: Wrapper message did not contain a StudyListReply message");
+            log.severe("toStudyListReply", "Wrapper message did not contain a StudyListReply message");
             return null;
         }
     }
@@ -737,7 +856,7 @@ public class ProtobufProtocol implements Protocol {
         if (wrapper.hasStudyDeleteReply()) {
             return wrapper.getStudyDeleteReply();
         } else {
-            logger.severe("toStudyDeleteReply: Wrapper message did not contain a StudyDeleteReply message");
+            log.severe("toStudyDeleteReply", "Wrapper message did not contain a StudyDeleteReply message");
             return null;
         }
     }
@@ -752,7 +871,7 @@ public class ProtobufProtocol implements Protocol {
         if (wrapper.hasStudyJoinQueryReply()) {
             return wrapper.getStudyJoinQueryReply();
         } else {
-            logger.severe("toStudyJoinQueryReply: Wrapper message did not contain a StudyJoinQuery reply");
+            log.severe("toStudyJoinQueryReply", "Wrapper message did not contain a StudyJoinQuery reply");
             return null;
         }
     }
@@ -763,16 +882,79 @@ public class ProtobufProtocol implements Protocol {
      * @param bytes The byte[]-representation of a Wrapper message
      * @return The Wrapper message, or null, if the bytes did not represent a wrapper message
      */
-    private MetaMessage.Wrapper toWrapperMessage(byte[] bytes) {
+    protected MetaMessage.Wrapper toWrapperMessage(byte[] bytes) {
         try {
             return MetaMessage.Wrapper.parseFrom(bytes);
         } catch (InvalidProtocolBufferException e) {
-            logger.severe("toWrapperMessage: Message was no wrapper message.");
+            log.severe("toWrapperMessage", "Message was no wrapper message.");
             return null;
         }
     }
 
 
+    /**
+     * Parse the GetReply message contained in a serialized wrapper message. The value is not copied, but returned as a
+     * view of the serialized message: parsing the wrapper with protobuf would copy it out of the message, which is
+     * expensive for large values.
+     * @param bytes The serialized wrapper message
+     * @return The GetReply, or null, if the bytes did not represent a wrapper message containing a valid GetReply
+     */
+    private RawGetReply toRawGetReply(byte[] bytes) {
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        // The length of the message is already limited by the Connection
+        in.setSizeLimit(Integer.MAX_VALUE);
+        RawGetReply rv = null;
+        try {
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                if (tag == makeTag(MetaMessage.Wrapper.GETREPLY_FIELD_NUMBER,
+                        WireFormat.WIRETYPE_LENGTH_DELIMITED)) {
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    rv = new RawGetReply();
+                    while ((tag = in.readTag()) != 0) {
+                        if (tag == makeTag(C2S.GetReply.OPCODE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT)) {
+                            rv.opcode = C2S.GetReply.GetReplyCode.valueOf(in.readEnum());
+                        } else if (tag == makeTag(C2S.GetReply.KEY_FIELD_NUMBER,
+                                WireFormat.WIRETYPE_LENGTH_DELIMITED)) {
+                            rv.key = in.readBytes().toByteArray();
+                        } else if (tag == makeTag(C2S.GetReply.VALUE_FIELD_NUMBER,
+                                WireFormat.WIRETYPE_LENGTH_DELIMITED)) {
+                            int length = in.readRawVarint32();
+                            int offset = in.getTotalBytesRead();
+                            in.skipRawBytes(length);
+                            rv.value = ByteBuffer.wrap(bytes, offset, length);
+                        } else if (!in.skipField(tag)) {
+                            break;
+                        }
+                    }
+                    in.popLimit(limit);
+                } else if (!in.skipField(tag)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.severe("toRawGetReply", "Message was no wrapper message.");
+            return null;
+        }
+        if (rv == null || rv.opcode == null || rv.key == null) {
+            log.severe("toRawGetReply", "Wrapper message did not contain a GetReply message");
+            return null;
+        }
+        return rv;
+    }
+
+
+    /**
+     * Compute the tag of a field, as returned by {@link CodedInputStream#readTag()}
+     * @param field The number of the field
+     * @param wireType The wire type of the field, one of the WireFormat.WIRETYPE_* constants
+     * @return The tag
+     */
+    private static int makeTag(int field, int wireType) {
+        return (field << 3) | wireType;
+    }
+
+
     /**
      * Uncompress a gzip'ed byte array into an uncompressed byte array
      * @param compressed The compressed byte array
@@ -796,7 +978,7 @@ public class ProtobufProtocol implements Protocol {
             // The data has been decompressed. Return the byte array
             return out.toByteArray();
         } catch (DataFormatException e) {
-            logger.severe("decompress_data: Invalid data format, aborting");
+            log.severe("decompress_data", "Invalid data format, aborting");
             e.printStackTrace();
             return null;
         }
@@ -825,10 +1007,22 @@ public class ProtobufProtocol implements Protocol {
         try {
             md = MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
-            logger.severe("checkAuthenticator: SHA256 not supported");
+            log.severe("checkAuthenticator", "SHA256 not supported");
             return false;
         }
         md.update(auth);
         return Arrays.equals(md.digest(), key);
     }
+
+
+    /**
+     * The fields of a GetReply message, see {@link #toRawGetReply(byte[])}
+     */
+    private static class RawGetReply {
+        // The result code, or null if it is missing or unknown
+        C2S.GetReply.GetReplyCode opcode;
+        byte[] key;
+        // A view of the value inside the serialized message, or null if it is missing
+        ByteBuffer value;
+    }
 }
@@ -118,6 +118,15 @@ public interface Protocol {
      */
     byte[] get(TokenPair tokens);
 
+    /**
+     * Retrieve a value like {@link #get(TokenPair)}, but without copying it out of the reply of the server. Use this
+     * for large values, like data blocks containing GPS tracks.
+     * @param tokens The {@link TokenPair} with the Identifier that should be retrieved
+     * @return The {@link Value}, holding a read-only view of the value, or one of the GET_* constants if the
+     *         identifier is not used on the server or an error occured
+     */
+    Value getValue(TokenPair tokens);
+
     /**
      * Retrieve all values stored under a List of keys from the server
      * @param tokens The List of {@link TokenPair}s that should be retrieved
@@ -201,6 +210,16 @@ public interface Protocol {
      */
     List<StudyJoinRequest> getStudyJoinRequests(StudyRequest req);
 
+    /**
+     * Retrieve all available StudyJoinRequests associated with a specific StudyRequest, passing each of them to the
+     * callback as soon as it is available. The callback is invoked on the calling thread, in the order in which the
+     * server returned the requests.
+     * @param req The StudyRequest
+     * @param callback The {@link StudyJoinCallback} to pass the {@link StudyJoinRequest}s to
+     * @return The number of StudyJoinRequests passed to the callback, or -1 if an error occured
+     */
+    int getStudyJoinRequests(StudyRequest req, StudyJoinCallback callback);
+
     /**
      * Delete a study from the server
      * @param req The study request
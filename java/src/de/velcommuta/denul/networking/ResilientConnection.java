@@ -0,0 +1,272 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.MetricsRegistry;
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link Connection} wrapper that survives failures of the underlying connection. A connection that failed is closed
+ * and replaced by a new one from a {@link ConnectionFactory} before the next request is sent, notifying the
+ * {@link ReconnectListener} so that it can repeat its handshake. Requests marked as idempotent are retried up to
+ * {@link Config#getConnectRetries()} times with jittered exponential backoff. Requests of several threads are sent
+ * concurrently, so wrapping a {@link PipelinedConnection} keeps them in flight at the same time.
+ *
+ * After {@link Config#getBreakerThreshold()} consecutive failures, the circuit breaker opens: For the next
+ * {@link Config#getBreakerCooldown()} milliseconds, every request fails immediately instead of waiting for the
+ * server. After that, the breaker is half-open: A single request is let through, closing the breaker again if it
+ * succeeds, while the requests of other threads are rejected until it has finished.
+ */
+public class ResilientConnection implements Connection {
+    private static final Log log = Log.getLog(ResilientConnection.class);
+
+    private static final Counter sReconnects = MetricsRegistry.getDefault().counter("connection.reconnects");
+    private static final Counter sRetries = MetricsRegistry.getDefault().counter("connection.retries");
+    private static final Counter sBreakerOpened = MetricsRegistry.getDefault().counter("connection.breaker.opened");
+    private static final Counter sBreakerRejected = MetricsRegistry.getDefault().counter("connection.breaker.rejected");
+
+    /**
+     * Listener that is notified whenever the underlying connection was replaced
+     */
+    public interface ReconnectListener {
+        /**
+         * Called after a new underlying connection was established, before any request is sent over it
+         * @param connection The new underlying connection
+         * @throws IOException If the connection cannot be used, e.g. because a handshake failed
+         */
+        void onReconnect(Connection connection) throws IOException;
+    }
+
+    private final ConnectionFactory mFactory;
+    private final int mRetries;
+    private final long mBackoff;
+    private final int mThreshold;
+    private final long mCooldown;
+
+    // The underlying connection, or null if it failed and has not been replaced yet
+    private Connection mConnection;
+    private ReconnectListener mListener;
+    private boolean mClosed = false;
+    // Number of failures since the last successful request
+    private int mFailures = 0;
+    // Time (in System.nanoTime) until which the circuit breaker is open
+    private long mOpenUntil = 0;
+    // true while the single request let through by the half-open circuit breaker is in flight
+    private boolean mProbing = false;
+
+    /**
+     * Constructor. Establishes the first connection, retrying it like an idempotent request.
+     * @param factory The factory used to open the underlying connections
+     * @throws IOException If no connection could be established
+     */
+    public ResilientConnection(ConnectionFactory factory) throws IOException {
+        assert factory != null;
+        mFactory = factory;
+        mRetries = Config.getConnectRetries();
+        mBackoff = Config.getRetryBackoff();
+        mThreshold = Config.getBreakerThreshold();
+        mCooldown = Config.getBreakerCooldown() * 1000000L;
+        long backoff = mBackoff;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                mConnection = mFactory.openConnection();
+                return;
+            } catch (IOException e) {
+                if (attempt >= mRetries) throw e;
+                log.warning("ResilientConnection", "Connection failed, retrying: {0}", e);
+            }
+            backoff = sleep(backoff);
+        }
+    }
+
+
+    /**
+     * Set the listener that is notified whenever the underlying connection was replaced
+     * @param listener The {@link ReconnectListener}, or null to remove the listener
+     */
+    public synchronized void setReconnectListener(ReconnectListener listener) {
+        mListener = listener;
+    }
+
+
+    /**
+     * Send a message that must not be sent twice. If sending fails, the request is not retried, but the connection is
+     * re-established before the next request.
+     * @param message the byte[] to be sent
+     * @return The byte[] that was returned
+     * @throws IOException If the request failed or the circuit breaker is open
+     */
+    @Override
+    public byte[] transceive(byte[] message) throws IOException {
+        return transceive(message, false);
+    }
+
+
+    /**
+     * Send a message, retrying it on a new connection if it fails and is idempotent
+     * @param message the byte[] to be sent
+     * @param idempotent true if sending the message several times has the same effect as sending it once
+     * @return The byte[] that was returned
+     * @throws IOException If the last attempt failed or the circuit breaker is open
+     */
+    public byte[] transceive(byte[] message, boolean idempotent) throws IOException {
+        int retries = idempotent ? mRetries : 0;
+        long backoff = mBackoff;
+        for (int attempt = 0; ; attempt++) {
+            boolean probe = checkBreaker();
+            Connection connection = null;
+            try {
+                connection = getConnection();
+                // Not synchronized, so that requests of several threads can be in flight at once if the underlying
+                // connection supports it, like a PipelinedConnection
+                byte[] reply = connection.transceive(message);
+                succeed();
+                return reply;
+            } catch (IOException e) {
+                fail(connection, probe);
+                if (attempt >= retries) throw e;
+                log.warning("transceive", "Request failed, retrying: {0}", e);
+                sRetries.inc();
+            } catch (RuntimeException e) {
+                // Do not leave the breaker half-open forever
+                fail(connection, probe);
+                throw e;
+            }
+            backoff = sleep(backoff);
+        }
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        mClosed = true;
+        if (mConnection != null) {
+            mConnection.close();
+            mConnection = null;
+        }
+    }
+
+
+    /**
+     * Check if the connection is open. A connection whose underlying connection failed is still open, as it is
+     * re-established on the next request.
+     * @return true if the connection has not been closed, false otherwise
+     */
+    @Override
+    public synchronized boolean isOpen() {
+        return !mClosed;
+    }
+
+
+    /**
+     * Check if the circuit breaker is open, i.e. if requests are currently rejected without contacting the server
+     * @return true if the circuit breaker is open, false otherwise
+     */
+    public synchronized boolean isBreakerOpen() {
+        return mFailures >= mThreshold && (mProbing || System.nanoTime() - mOpenUntil < 0);
+    }
+
+
+    /**
+     * Reject the request if the connection was closed or the circuit breaker is open. If the cooldown of the breaker
+     * has passed, the request becomes the single request let through to test the server.
+     * @return true if the request is the one let through by the half-open breaker, false otherwise
+     * @throws IOException If the connection was closed or the circuit breaker is open
+     */
+    private synchronized boolean checkBreaker() throws IOException {
+        if (mClosed) throw new IOException("Connection closed");
+        if (isBreakerOpen()) {
+            sBreakerRejected.inc();
+            throw new IOException("Circuit breaker open after " + mFailures + " failures");
+        }
+        if (mFailures < mThreshold) return false;
+        mProbing = true;
+        return true;
+    }
+
+
+    /**
+     * Get the underlying connection, re-establishing it if it failed
+     * @return The underlying connection
+     * @throws IOException If the connection could not be established, or the listener threw it
+     */
+    private synchronized Connection getConnection() throws IOException {
+        if (mConnection == null) reconnect();
+        return mConnection;
+    }
+
+
+    /**
+     * Record a successful request, resetting the number of failures
+     */
+    private synchronized void succeed() {
+        mFailures = 0;
+        mProbing = false;
+    }
+
+
+    /**
+     * Record a failed request: Drop the underlying connection, which can no longer be trusted to be in sync with the
+     * server, and open the circuit breaker if too many requests failed in a row. If the requests of several threads
+     * fail because the same underlying connection failed, only the first one is counted.
+     * @param failed The underlying connection the request was sent over, or null if it could not be established
+     * @param probe true if the request was the one let through by the half-open breaker
+     */
+    private synchronized void fail(Connection failed, boolean probe) {
+        if (probe) mProbing = false;
+        if (failed != null && failed != mConnection) {
+            // Already recorded and replaced by another thread, or closed
+            return;
+        }
+        if (mConnection != null) {
+            try {
+                mConnection.close();
+            } catch (IOException e) {
+                log.fine("fail", "IOException while closing failed connection, ignoring: {0}", e);
+            }
+            mConnection = null;
+        }
+        mFailures++;
+        if (mFailures >= mThreshold) {
+            // Also re-opens the breaker if the single request let through after the cooldown failed
+            log.warning("fail", "{0} failures in a row, rejecting requests for {1,number,#}ms", mFailures,
+                    mCooldown / 1000000L);
+            mOpenUntil = System.nanoTime() + mCooldown;
+            sBreakerOpened.inc();
+        }
+    }
+
+
+    /**
+     * Replace the failed underlying connection and notify the listener
+     * @throws IOException If the connection could not be established, or the listener threw it
+     */
+    private void reconnect() throws IOException {
+        log.fine("reconnect", "Re-establishing connection");
+        mConnection = mFactory.openConnection();
+        sReconnects.inc();
+        if (mListener != null) mListener.onReconnect(mConnection);
+    }
+
+
+    /**
+     * Wait before the next attempt. The delay is chosen randomly between half and all of the backoff, so that clients
+     * that failed at the same time do not retry at the same time.
+     * @param backoff The current backoff, in milliseconds
+     * @return The backoff for the next attempt
+     * @throws IOException If interrupted while waiting
+     */
+    private static long sleep(long backoff) throws IOException {
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry", e);
+        }
+        return backoff * 2;
+    }
+}
@@ -0,0 +1,15 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.data.StudyJoinRequest;
+
+/**
+ * Callback interface used to receive {@link StudyJoinRequest}s as soon as they have been decrypted, instead of waiting
+ * for the full List to be assembled
+ */
+public interface StudyJoinCallback {
+    /**
+     * Called once for every successfully decrypted and parsed {@link StudyJoinRequest}
+     * @param request The StudyJoinRequest
+     */
+    void onStudyJoinRequest(StudyJoinRequest request);
+}
@@ -0,0 +1,198 @@
+package de.velcommuta.denul.networking;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import de.velcommuta.denul.data.StudyJoinRequest;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.Histogram;
+import de.velcommuta.denul.metrics.MetricsRegistry;
+import de.velcommuta.denul.metrics.Span;
+import de.velcommuta.denul.metrics.Tracer;
+import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
+import de.velcommuta.denul.util.Log;
+import de.velcommuta.denul.util.ThreadPools;
+
+/**
+ * Decrypts and parses the RSA-encrypted StudyJoin messages contained in a StudyJoinQueryReply on a pool of worker
+ * threads. RSA private key operations are expensive, so this is where most of the time goes if a study receives a large
+ * number of join requests at once. Results are always returned (or passed to the callback) in the order in which the
+ * server sent the messages.
+ */
+public class StudyJoinDecryptor {
+    private static final Log log = Log.getLog(StudyJoinDecryptor.class);
+
+    private static final Histogram sLatency = MetricsRegistry.getDefault().histogram("studyjoin.decrypt.latency");
+    private static final Counter sOk = MetricsRegistry.getDefault().counter("studyjoin.decrypt.ok");
+    private static final Counter sFail = MetricsRegistry.getDefault().counter("studyjoin.decrypt.fail");
+
+    private static StudyJoinDecryptor sDefault;
+
+    private ExecutorService mExecutor;
+
+    /**
+     * Constructor
+     * @param executor The {@link ExecutorService} to run the decryption operations on
+     */
+    public StudyJoinDecryptor(ExecutorService executor) {
+        assert executor != null;
+        mExecutor = executor;
+    }
+
+
+    /**
+     * Get the shared default instance, which uses {@link de.velcommuta.denul.util.Config#getCryptoThreads()} daemon worker
+     * threads
+     * @return The default StudyJoinDecryptor
+     */
+    public static synchronized StudyJoinDecryptor getDefault() {
+        if (sDefault == null) {
+            sDefault = new StudyJoinDecryptor(ThreadPools.newCryptoPool("StudyJoinDecryptor"));
+        }
+        return sDefault;
+    }
+
+
+    /**
+     * Decrypt and parse a List of encrypted StudyJoin messages in parallel
+     * @param req The StudyRequest the messages were sent to (used for the private key)
+     * @param messages The encrypted messages
+     * @return A List of the successfully decrypted {@link StudyJoinRequest}s, in the order of the input messages.
+     * Messages that could not be decrypted or parsed are skipped.
+     */
+    public List<StudyJoinRequest> decrypt(StudyRequest req, List<byte[]> messages) {
+        final List<StudyJoinRequest> rv = new ArrayList<>(messages.size());
+        decrypt(req, messages, new StudyJoinCallback() {
+            @Override
+            public void onStudyJoinRequest(StudyJoinRequest request) {
+                rv.add(request);
+            }
+        });
+        return rv;
+    }
+
+
+    /**
+     * Decrypt and parse a List of encrypted StudyJoin messages in parallel, passing each result to the callback as soon
+     * as it and all of its predecessors are available. The callback is always invoked on the calling thread, so it is
+     * safe to access non-threadsafe resources (like the database) from it.
+     * @param req The StudyRequest the messages were sent to (used for the private key)
+     * @param messages The encrypted messages
+     * @param callback The callback to pass the decrypted {@link StudyJoinRequest}s to
+     * @return The number of StudyJoinRequests that were passed to the callback
+     */
+    public int decrypt(final StudyRequest req, List<byte[]> messages, StudyJoinCallback callback) {
+        assert req != null;
+        assert callback != null;
+        // Submit all decryption operations
+        List<Future<StudyJoinRequest>> pending = new LinkedList<>();
+        for (final byte[] message : messages) {
+            pending.add(mExecutor.submit(new Callable<StudyJoinRequest>() {
+                @Override
+                public StudyJoinRequest call() throws Exception {
+                    return decryptStudyJoin(req, message);
+                }
+            }));
+        }
+        // Collect the results in order
+        int count = 0;
+        try {
+            while (!pending.isEmpty()) {
+                StudyJoinRequest request;
+                try {
+                    request = pending.remove(0).get();
+                } catch (ExecutionException e) {
+                    log.severe("decrypt", "Decryption task failed, skipping: {0}", e.getCause());
+                    continue;
+                }
+                if (request != null) {
+                    callback.onStudyJoinRequest(request);
+                    count++;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warning("decrypt", "Interrupted while waiting for decryption, aborting");
+            Thread.currentThread().interrupt();
+        } finally {
+            // Do not leave work queued up if we aborted early
+            for (Future<StudyJoinRequest> f : pending) {
+                f.cancel(true);
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Decrypt and parse a single encrypted StudyJoin message
+     * @param req The StudyRequest the message was sent to
+     * @param message The encrypted message
+     * @return The StudyJoinRequest, or null if the message could not be decrypted or parsed, or was meant for a
+     * different queue
+     */
+    // The span times the decryption, it is not needed inside the block
+    @SuppressWarnings("try")
+    protected static StudyJoinRequest decryptStudyJoin(StudyRequest req, byte[] message) {
+        long start = System.nanoTime();
+        StudyJoinRequest rv;
+        try (Span span = Tracer.getDefault().start("decrypt.join").arg("study", req.id)) {
+            rv = parseStudyJoin(req, message);
+        }
+        sLatency.recordSince(start);
+        if (rv != null) {
+            sOk.inc();
+        } else {
+            sFail.inc();
+        }
+        return rv;
+    }
+
+
+    /**
+     * Helper function to decrypt and parse a single encrypted StudyJoin message
+     * @param req The StudyRequest the message was sent to
+     * @param message The encrypted message
+     * @return The StudyJoinRequest, or null if the message could not be decrypted or parsed, or was meant for a
+     * different queue
+     */
+    private static StudyJoinRequest parseStudyJoin(StudyRequest req, byte[] message) {
+        try {
+            // Decrypt data
+            byte[] decrypted = req.decrypt(message);
+            // Deserialize into Protobuf StudyJoin
+            StudyMessage.StudyJoin sj = StudyMessage.StudyJoin.parseFrom(decrypted);
+            // Create data container object
+            StudyJoinRequest request = new StudyJoinRequest();
+            // Set fields
+            request.kexpub = sj.getKexData().toByteArray();
+            request.queue = sj.getQueueIdentifier().toByteArray();
+            if (!Arrays.equals(request.queue, req.queue)) {
+                log.severe("parseStudyJoin", "Got StudyJoin for incorrect queue identifier, ignoring");
+                return null;
+            }
+            if (sj.getKexAlgorithm() == StudyMessage.StudyJoin.KexAlgo.KEX_ECDH_CURVE25519) {
+                request.kexalgo = StudyJoinRequest.KEX_ALGO.KEX_ECDH_CURVE25519;
+            } else {
+                request.kexalgo = StudyJoinRequest.KEX_ALGO.KEX_UNKNOWN;
+            }
+            return request;
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            log.severe("parseStudyJoin", "Exception during decryption, skipping");
+        } catch (InvalidProtocolBufferException e) {
+            log.severe("parseStudyJoin", "Data did not contain StudyJoin message, skipping");
+        }
+        return null;
+    }
+}
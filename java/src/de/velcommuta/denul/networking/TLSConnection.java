@@ -1,9 +1,13 @@
 package de.velcommuta.denul.networking;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.IOError;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.security.KeyManagementException;
@@ -11,32 +15,37 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.logging.Logger;
 
-import javax.net.SocketFactory;
 import javax.net.ssl.*;
 
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.Log;
+
 /**
  * A TCP connection using TLS to communicate with the server.
  */
-public class TLSConnection implements Connection {
+public class TLSConnection implements FramedConnection {
 
-    private static final Logger logger = Logger.getLogger(TLSConnection.class.getName());
+    private static final Log log = Log.getLog(TLSConnection.class);
 
 
     SSLSocket mSocket;
+    // Buffered for the whole connection, as a buffer may already hold the start of the next reply
+    private InputStream mIn;
+    private OutputStream mOut;
 
     /**
      * Establish a TCP connection protected by TLS.
      * @param host Either the IP or the FQDN of the server to connect to
      * @param port The port number to connect to
-     * @throws IOException If the underlying socket throws it
+     * @throws IOException If the underlying socket throws it, e.g. because the connection could not be established
+     *                     within {@link Config#getConnectTimeout()}
      * @throws UnknownHostException If the underlying socket throws it
      * @throws SSLHandshakeException If the certificate hostname validation fails
      * Code partially based on https://docs.fedoraproject.org/en-US/Fedora_Security_Team/1/html/Defensive_Coding/sect-Defensive_Coding-TLS-Client-OpenJDK.html
      */
     public TLSConnection(String host, int port) throws IOException, UnknownHostException, SSLHandshakeException {
-        logger.fine("TLSConnection: Establishing connection to " + host + ":" + port);
+        log.fine("TLSConnection", "Establishing connection to {0}:{1,number,#}", host, port);
         // Get SSL context
         SSLContext ctx;
         try {
@@ -88,26 +97,45 @@ public class TLSConnection implements Connection {
         // Enable verification
         params.setEndpointIdentificationAlgorithm("HTTPS");
         // Get SSL Socket factory
-        SocketFactory factory = SSLSocketFactory.getDefault();
-        // Create a socket and connect to the host and port, throwing an exception if anything
-        // goes wrong
-        mSocket = (SSLSocket) factory.createSocket(host, port);
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        // Connect to the host and port, giving up after the configured connect timeout, and layer TLS on top of the
+        // connection, throwing an exception if anything goes wrong
+        Socket plain = new Socket();
+        try {
+            plain.connect(new InetSocketAddress(host, port), Config.getConnectTimeout());
+            mSocket = (SSLSocket) factory.createSocket(plain, host, port, true);
+        } catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+        // Do not block forever if the server stops responding
+        mSocket.setSoTimeout(Config.getReadTimeout());
         // Set the parameters
         mSocket.setSSLParameters(params);
         // Start the handshake
         mSocket.startHandshake();
         // Get an SSLSession object
         SSLSession s = mSocket.getSession();
-        logger.fine("TLSConnection: Connection established using " + s.getProtocol() + " (" +  s.getCipherSuite() + ")");
+        mIn = new BufferedInputStream(mSocket.getInputStream());
+        mOut = mSocket.getOutputStream();
+        log.fine("TLSConnection", "Connection established using {0} ({1})", s.getProtocol(), s.getCipherSuite());
     }
 
+    /**
+     * Send a message and wait for its reply. Synchronized, so that the requests of several threads sharing the
+     * connection are not interleaved. Use a {@link PipelinedConnection} to have them in flight at the same time.
+     * @param message the byte[] to be sent
+     * @return The byte[] that was returned
+     * @throws IOException If the underlying socket throws it
+     */
     @Override
-    public byte[] transceive(byte[] message) throws IOException {
-        // Get an output stream from the socket (to send data over)
-        OutputStream out = mSocket.getOutputStream();
-        // Get an input stream from the socket (to receive data with)
-        BufferedInputStream in = new BufferedInputStream(mSocket.getInputStream());
+    public synchronized byte[] transceive(byte[] message) throws IOException {
+        send(message);
+        return receive();
+    }
 
+    @Override
+    public void send(byte[] message) throws IOException {
         // Prepare the byte[] with the length information of the message
         byte[] len = ByteBuffer.allocate(4).putInt(message.length).array();
         // Combine length and message into one byte[]
@@ -116,45 +144,84 @@ public class TLSConnection implements Connection {
         System.arraycopy(message, 0, fullmsg, len.length, message.length);
 
         // Send the message over the socket
-        out.write(fullmsg);
-        out.flush();
-        logger.fine("transceive: Message sent");
+        mOut.write(fullmsg);
+        mOut.flush();
+        log.fine("send", "Message sent");
+    }
 
+    @Override
+    public byte[] receive() throws IOException {
         // Receive the reply - Receive the length of the reply
         byte[] lenbytes = new byte[4];
         // Read 4 bytes from the wire (in a loop to make sure that we actually get 4 bytes)
-        int rcvlen = 0;
-        do {
-            rcvlen += in.read(lenbytes, rcvlen, 4-rcvlen);
-        } while (rcvlen < 4);
+        readFully(mIn, lenbytes);
         // Parse the received bytes into an integer
         int replylen = ByteBuffer.wrap(lenbytes).getInt();
-        logger.fine("transceive: Reply has " + replylen + " bytes");
+        try {
+            checkFrameLength(replylen);
+        } catch (IOException e) {
+            // The rest of the stream cannot be split into messages anymore
+            log.severe("receive", "Closing connection: {0}", e.getMessage());
+            mSocket.close();
+            throw e;
+        }
+        log.fine("receive", "Reply has {0,number,#} bytes", replylen);
 
         // Receive the body of the reply (again, in a loop to make sure we get it all)
         byte[] replyBytes = new byte[replylen];
-        rcvlen = 0;
-        do {
-            rcvlen += in.read(replyBytes, rcvlen, replylen-rcvlen);
-        } while (rcvlen < replylen);
+        readFully(mIn, replyBytes);
 
         // Return received bytes
-        logger.fine("transceive: Reply received, returning");
+        log.fine("receive", "Reply received, returning");
         return replyBytes;
     }
 
+    /**
+     * Check the length prefix of a received message before allocating memory for it
+     * @param length The length
+     * @return The length
+     * @throws IOException If the length is negative or exceeds {@link Config#getMaxFrameSize()}
+     */
+    static int checkFrameLength(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid reply length " + length);
+        } else if (length > Config.getMaxFrameSize()) {
+            throw new IOException("Reply length " + length + " exceeds the maximum of " + Config.getMaxFrameSize());
+        }
+        return length;
+    }
+
+    /**
+     * Read from a stream until a buffer is full
+     * @param in The stream to read from
+     * @param buffer The buffer to fill
+     * @throws EOFException If the server closed the connection before the buffer was full
+     * @throws IOException If the underlying socket throws it, e.g. because no data was received within
+     *                     {@link Config#getReadTimeout()}
+     */
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int rcvlen = 0;
+        while (rcvlen < buffer.length) {
+            int read = in.read(buffer, rcvlen, buffer.length - rcvlen);
+            if (read < 0) {
+                throw new EOFException("Connection closed after " + rcvlen + " of " + buffer.length + " bytes");
+            }
+            rcvlen += read;
+        }
+    }
+
     @Override
     public void close() throws IOException {
         if (mSocket.isConnected()) {
-            logger.fine("close: Closing open socket");
+            log.fine("close", "Closing open socket");
             mSocket.close();
         } else {
-            logger.warning("close: Trying to close socket that is not open");
+            log.warning("close", "Trying to close socket that is not open");
         }
     }
 
     @Override
     public boolean isOpen() {
-        return mSocket.isConnected();
+        return mSocket.isConnected() && !mSocket.isClosed();
     }
 }
@@ -0,0 +1,130 @@
+package de.velcommuta.denul.networking;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import de.velcommuta.denul.data.TokenPair;
+
+/**
+ * Result of retrieving a value from the server with {@link Protocol#getValue(TokenPair)}. If the value was retrieved,
+ * it is a read-only view of the value inside the reply of the server, so that large values, like data blocks
+ * containing GPS tracks, are not copied. Otherwise, it holds the reason for the failure, one of the GET_FAIL_*
+ * constants of {@link Protocol}.
+ */
+public class Value {
+    private final ByteBuffer mBuffer;
+    private final byte[] mStatus;
+
+    /**
+     * Constructor
+     * @param buffer The value, or null if the retrieval failed
+     * @param status One of the GET_FAIL_* constants, or null if the value was retrieved
+     */
+    private Value(ByteBuffer buffer, byte[] status) {
+        mBuffer = buffer;
+        mStatus = status;
+    }
+
+
+    /**
+     * Create a Value for data that was retrieved
+     * @param buffer The data, from its position to its limit. It is not copied and must not be modified afterwards.
+     * @return The Value
+     */
+    public static Value of(ByteBuffer buffer) {
+        assert buffer != null;
+        return new Value(buffer.slice().asReadOnlyBuffer(), null);
+    }
+
+
+    /**
+     * Create a Value for a failed retrieval
+     * @param status One of the GET_FAIL_* constants of {@link Protocol}
+     * @return The Value
+     */
+    public static Value failed(byte[] status) {
+        return new Value(null, status);
+    }
+
+
+    /**
+     * Check if the value was retrieved
+     * @return true if the value was retrieved, false if the retrieval failed
+     */
+    public boolean isPresent() {
+        return mBuffer != null;
+    }
+
+
+    /**
+     * Getter for the reason of a failed retrieval. As {@link Protocol#GET_FAIL_KEY_NOT_TAKEN} is null, check
+     * {@link #isPresent()} first.
+     * @return One of the GET_FAIL_* constants of {@link Protocol}, or null if the value was retrieved
+     */
+    public byte[] getStatus() {
+        return mStatus;
+    }
+
+
+    /**
+     * Getter for the length of the value
+     * @return The length of the value in bytes, or 0 if the retrieval failed
+     */
+    public int size() {
+        return mBuffer != null ? mBuffer.remaining() : 0;
+    }
+
+
+    /**
+     * Get a read-only ByteBuffer over the value. Every call returns a new ByteBuffer, positioned at the start of the
+     * value, so that several readers do not interfere with each other.
+     * @return The ByteBuffer, or null if the retrieval failed
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer != null ? mBuffer.duplicate() : null;
+    }
+
+
+    /**
+     * Get an InputStream reading the value
+     * @return The InputStream, or null if the retrieval failed
+     */
+    public InputStream getInputStream() {
+        if (mBuffer == null) return null;
+        final ByteBuffer buffer = mBuffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                if (!buffer.hasRemaining()) return -1;
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+
+
+            @Override
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
+
+
+    /**
+     * Copy the value into a byte[], in the format returned by {@link Protocol#get(TokenPair)}
+     * @return A copy of the value, or the GET_FAIL_* constant if the retrieval failed
+     */
+    public byte[] toByteArray() {
+        if (mBuffer == null) return mStatus;
+        byte[] rv = new byte[mBuffer.remaining()];
+        mBuffer.duplicate().get(rv);
+        return rv;
+    }
+}
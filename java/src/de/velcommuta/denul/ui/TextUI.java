@@ -6,16 +6,23 @@ import de.velcommuta.denul.data.Shareable;
 import de.velcommuta.denul.data.StudyRequest;
 import de.velcommuta.denul.database.Database;
 import de.velcommuta.denul.database.SQLiteDatabase;
+import de.velcommuta.denul.database.StudyStatistics;
+import de.velcommuta.denul.export.ExportFormat;
+import de.velcommuta.denul.export.TrackExporter;
 import de.velcommuta.denul.networking.DNSVerifier;
 import de.velcommuta.denul.networking.HttpsVerifier;
 import de.velcommuta.denul.util.AsyncKeyGenerator;
+import de.velcommuta.denul.util.Config;
 import de.velcommuta.denul.util.StudyManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.KeyPair;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 
@@ -372,7 +379,8 @@ public class TextUI {
         }
         int i = 1;
         for (StudyRequest req : sr) {
-            println(i + "  " + req.name + " (" + StudyManager.getStudyParticipants(req, mDatabase).size() + " Participants, " + mDatabase.getDataByStudyID(req.id).size() + " data entries)");
+            StudyStatistics stats = mDatabase.getStudyStatistics(req.id);
+            println(i + "  " + req.name + " (" + stats.getParticipants() + " Participants, " + stats.getSessions() + " data entries)");
             i = i+1;
         }
         println("");
@@ -389,33 +397,72 @@ public class TextUI {
         }
         // select now contains the number of the selected study
         // TODO Check for new data is a debugging helper, this should happen automagically
-        int action = readSelection("Please select an action:", new String[] {"(debug) Check for new data", "View Data", "Delete Study", "Return to main menu"});
+        int action = readSelection("Please select an action:", new String[] {"(debug) Check for new data", "View Data", "Export Data", "Delete Study", "Return to main menu"});
         if (action == 0) { // Update data
             StudyManager.updateStudyData(mDatabase, sr.get(select -1));
+            // There is no daemon draining the revocation queue in the background here
+            StudyManager.revokeQueued(mDatabase);
             println("Data updated");
             // Recursively return to the study list
         } else if (action == 1) { // View data
             List<Shareable> shares = mDatabase.getDataByStudyID(sr.get(select -1).id);
             for (Shareable shr: shares) {
-                println(shr.toString());
+                println(shr);
             }
-        } else if (action == 2) { // Delete Study
+        } else if (action == 2) { // Export data
+            exportData(sr.get(select - 1));
+        } else if (action == 3) { // Delete Study
             if (yes("Are you sure? This cannot be undone, and all data will be deleted.")) {
                 StudyManager.deleteStudy(sr.get(select - 1), mDatabase);
                 println("Study deleted");
             }
-        } else if (action == 3) { // Return to main menu
+        } else if (action == 4) { // Return to main menu
             return;
         }
         viewActiveStudies();
     }
 
 
+    /**
+     * Export the data of a study into files
+     * @param req The study
+     */
+    private void exportData(StudyRequest req) {
+        ExportFormat[] formats = ExportFormat.values();
+        String[] names = new String[formats.length];
+        for (int i = 0; i < formats.length; i++) {
+            names[i] = formats[i].name() + " (." + formats[i].getExtension() + ")";
+        }
+        ExportFormat format = formats[readSelection("Please select the export format:", names)];
+        // The options are in the order of the Shareable.GRANULARITY_* constants
+        int granularity = readSelection("Please select the level of detail:", new String[] {"Fine (all coordinates)", "Coarse", "Very coarse"});
+        File directory = new File(readLine("Please enter the directory to export the data to"));
+        try {
+            int tracks = new TrackExporter(Config.getDatabaseFile(), format, granularity).exportStudy(req.id, directory);
+            println("Exported " + tracks + " tracks to " + directory.getAbsolutePath());
+        } catch (IOException e) {
+            println("Export failed: " + e.getMessage());
+        }
+    }
+
+
     /**
      * View settings
      */
     public void viewSettings() {
-        println("NotImplemented");
+        println("");
+        println("        Settings:");
+        println("Configuration file: " + Config.getConfigFile().getAbsolutePath());
+        for (Map.Entry<String, String> setting : Config.getAll().entrySet()) {
+            println(setting.getKey() + " = " + setting.getValue());
+        }
+        println("");
+        int action = readSelection("Please select an action:", new String[] {"Reload configuration", "Return to main menu"});
+        if (action == 0) {
+            Config.reload();
+            println("Configuration reloaded");
+            viewSettings();
+        }
     }
 
 
@@ -1,14 +1,13 @@
 package de.velcommuta.denul.util;
 
 import de.velcommuta.denul.crypto.ECDHKeyExchange;
-import de.velcommuta.denul.crypto.RSA;
 
 import java.security.KeyPair;
-import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 
 /**
- * Asynchronously generate cryptographic keys in the background
+ * Asynchronously generate cryptographic keys in the background. Keys are taken from the default {@link KeyPool} if
+ * available, and generated on its executor otherwise.
  */
 public class AsyncKeyGenerator {
     /**
@@ -20,16 +19,7 @@ public class AsyncKeyGenerator {
      * Code based in part on http://stackoverflow.com/a/27955299/1232833
      */
     public static FutureTask<KeyPair> generateRSA(final int bitness) {
-        FutureTask<KeyPair> task = new FutureTask<>(
-                new Callable<KeyPair>() {
-                    @Override
-                    public KeyPair call() throws Exception {
-                        return RSA.generateRSAKeypair(bitness);
-                    }
-                }
-        );
-        new Thread(task).start();
-        return task;
+        return KeyPool.getDefault().getRSAKeypair(bitness);
     }
 
 
@@ -41,17 +31,6 @@ public class AsyncKeyGenerator {
      * Code based in part on http://stackoverflow.com/a/27955299/1232833
      */
     public static FutureTask<ECDHKeyExchange> generateECDH() {
-        FutureTask<ECDHKeyExchange> task = new FutureTask<>(
-                new Callable<ECDHKeyExchange>() {
-                    @Override
-                    public ECDHKeyExchange call() throws Exception {
-                        // Technically, it's overkill to do this in a background task, as the generation takes <1 second
-                        // on a somewhat modern machine, but we'll do it anyway
-                        return new ECDHKeyExchange();
-                    }
-                }
-        );
-        new Thread(task).start();
-        return task;
+        return KeyPool.getDefault().getECDHKeyExchange();
     }
 }
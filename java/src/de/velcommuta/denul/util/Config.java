@@ -1,15 +1,304 @@
 package de.velcommuta.denul.util;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
 /**
- * Provides configuration data and settings
+ * Provides configuration data and settings.
+ *
+ * Every setting has a key (e.g. "server.port") and a default value. The defaults can be overridden, in increasing
+ * order of precedence, by
+ * - a properties file, "denul.properties" in the working directory unless a different file is specified using the
+ *   system property "denul.config" or the environment variable DENUL_CONFIG
+ * - environment variables, using the key in upper case with dots replaced by underscores, prefixed with DENUL_
+ *   (e.g. DENUL_SERVER_PORT)
+ * - system properties, using the key prefixed with "denul." (e.g. -Ddenul.server.port=5566)
+ *
+ * The getters always return the values of the most recently loaded configuration, so changes made using
+ * {@link #reload()} are picked up by the next operation using the setting, without restarting the application.
  */
 public class Config {
+    private static final Logger logger = Logger.getLogger(Config.class.getName());
+
+    // Keys of the settings
+    public static final String SERVER_HOST = "server.host";
+    public static final String SERVER_PORT = "server.port";
+    public static final String CONNECT_TIMEOUT = "connection.connect_timeout";
+    public static final String READ_TIMEOUT = "connection.read_timeout";
+    public static final String CONNECT_RETRIES = "connection.retries";
+    public static final String RETRY_BACKOFF = "connection.retry_backoff";
+    public static final String BREAKER_THRESHOLD = "connection.breaker_threshold";
+    public static final String BREAKER_COOLDOWN = "connection.breaker_cooldown";
+    public static final String PIPELINE_DEPTH = "connection.pipeline_depth";
+    public static final String MAX_FRAME_SIZE = "connection.max_frame_size";
+    public static final String CRYPTO_THREADS = "crypto.threads";
+    public static final String KEX_BATCH_SIZE = "study.kex_batch_size";
+    public static final String DATABASE_FILE = "database.file";
+    public static final String DATABASE_BUSY_TIMEOUT = "database.busy_timeout";
+    public static final String DATABASE_BATCH_SIZE = "database.batch_size";
+    public static final String DATABASE_LEVELS_OF_DETAIL = "database.levels_of_detail";
+    public static final String DAEMON_CONCURRENCY = "daemon.concurrency";
+    public static final String DAEMON_VIRTUAL_THREADS = "daemon.virtual_threads";
+    public static final String DAEMON_DEFAULT_INTERVAL = "daemon.default_interval";
+    public static final String DAEMON_JITTER = "daemon.jitter";
+    public static final String DAEMON_RESCAN_INTERVAL = "daemon.rescan_interval";
+    public static final String DAEMON_REVOCATION_INTERVAL = "daemon.revocation_interval";
+    public static final String REVOCATION_BATCH_SIZE = "revocation.batch_size";
+    public static final String POLL_MAX_BACKOFF = "poll.max_backoff";
+    public static final String POLL_COALESCE_WINDOW = "poll.coalesce_window";
+    public static final String POLL_SESSION_SIZE = "poll.session_size";
+    public static final String METRICS_FILE = "metrics.file";
+    public static final String METRICS_INTERVAL = "metrics.interval";
+    public static final String METRICS_JMX = "metrics.jmx";
+    public static final String TRACE_FILE = "trace.file";
+    public static final String TRACE_MAX_SIZE = "trace.max_size";
+    public static final String TRACE_FILES = "trace.files";
+    public static final String LOG_RATE_LIMIT = "log.rate_limit";
+    public static final String EXPORT_THREADS = "export.threads";
+    public static final String KEYPOOL_RSA_BITNESS = "keypool.rsa_bitness";
+    public static final String KEYPOOL_RSA_TARGET = "keypool.rsa_target";
+    public static final String KEYPOOL_ECDH_TARGET = "keypool.ecdh_target";
+    public static final String KEYPOOL_FILE = "keypool.file";
+    public static final String KEYPOOL_KEY_FILE = "keypool.key_file";
+
+    // Default values of the settings
+    private static final Map<String, String> sDefaults = new LinkedHashMap<>();
+    static {
+        sDefaults.put(SERVER_HOST, "denul.velcommuta.de");
+        sDefaults.put(SERVER_PORT, "5566");
+        sDefaults.put(CONNECT_TIMEOUT, "10000");
+        sDefaults.put(READ_TIMEOUT, "60000");
+        sDefaults.put(CONNECT_RETRIES, "3");
+        sDefaults.put(RETRY_BACKOFF, "1000");
+        sDefaults.put(BREAKER_THRESHOLD, "5");
+        sDefaults.put(BREAKER_COOLDOWN, "30000");
+        sDefaults.put(PIPELINE_DEPTH, "32");
+        sDefaults.put(MAX_FRAME_SIZE, String.valueOf(64 * 1024 * 1024));
+        sDefaults.put(CRYPTO_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()));
+        sDefaults.put(KEX_BATCH_SIZE, "64");
+        sDefaults.put(DATABASE_FILE, "data.db");
+        sDefaults.put(DATABASE_BUSY_TIMEOUT, "5000");
+        sDefaults.put(DATABASE_BATCH_SIZE, "1000");
+        sDefaults.put(DATABASE_LEVELS_OF_DETAIL, "true");
+        sDefaults.put(DAEMON_CONCURRENCY, "4");
+        sDefaults.put(DAEMON_VIRTUAL_THREADS, "false");
+        sDefaults.put(DAEMON_DEFAULT_INTERVAL, "3600");
+        sDefaults.put(DAEMON_JITTER, "10");
+        sDefaults.put(DAEMON_RESCAN_INTERVAL, "300");
+        sDefaults.put(DAEMON_REVOCATION_INTERVAL, "60");
+        sDefaults.put(REVOCATION_BATCH_SIZE, "500");
+        sDefaults.put(POLL_MAX_BACKOFF, "8");
+        sDefaults.put(POLL_COALESCE_WINDOW, "300");
+        sDefaults.put(POLL_SESSION_SIZE, "16");
+        sDefaults.put(METRICS_FILE, "");
+        sDefaults.put(METRICS_INTERVAL, "60");
+        sDefaults.put(METRICS_JMX, "true");
+        sDefaults.put(TRACE_FILE, "");
+        sDefaults.put(TRACE_MAX_SIZE, "16384");
+        sDefaults.put(TRACE_FILES, "3");
+        sDefaults.put(LOG_RATE_LIMIT, "10");
+        sDefaults.put(EXPORT_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()));
+        sDefaults.put(KEYPOOL_RSA_BITNESS, "4096");
+        sDefaults.put(KEYPOOL_RSA_TARGET, "2");
+        sDefaults.put(KEYPOOL_ECDH_TARGET, "4");
+        sDefaults.put(KEYPOOL_FILE, "keypool.bin");
+        sDefaults.put(KEYPOOL_KEY_FILE, "keypool.key");
+    }
+
+    // The currently active configuration. Replaced as a whole on reload, so readers never see a partial update
+    private static volatile Properties sProperties;
+
+    // Modification time of the configuration file when it was last loaded
+    private static volatile long sLoadedModified;
+
+    // Listeners to notify after a reload
+    private static final List<Listener> sListeners = new LinkedList<>();
+
+    /**
+     * Listener interface for components that need to react to configuration changes, e.g. to resize thread pools
+     */
+    public interface Listener {
+        /**
+         * Called after the configuration has been reloaded
+         */
+        void onConfigReloaded();
+    }
+
+    static {
+        sProperties = load();
+    }
+
+    /**
+     * Reload the configuration from the configuration file, the environment and the system properties, and notify
+     * all registered {@link Listener}s
+     */
+    public static void reload() {
+        sProperties = load();
+        List<Listener> listeners;
+        synchronized (sListeners) {
+            listeners = new LinkedList<>(sListeners);
+        }
+        for (Listener l : listeners) {
+            l.onConfigReloaded();
+        }
+        logger.info("reload: Configuration reloaded");
+    }
+
+
+    /**
+     * Reload the configuration if the configuration file has been changed since it was last loaded
+     * @return true if the configuration was reloaded, false otherwise
+     */
+    public static boolean reloadIfModified() {
+        if (getConfigFile().lastModified() == sLoadedModified) return false;
+        reload();
+        return true;
+    }
+
+
+    /**
+     * Register a listener to be notified after the configuration has been reloaded
+     * @param listener The listener
+     */
+    public static void addListener(Listener listener) {
+        synchronized (sListeners) {
+            sListeners.add(listener);
+        }
+    }
+
+
+    /**
+     * Unregister a listener, so that it is no longer notified and can be garbage collected
+     * @param listener The listener
+     */
+    public static void removeListener(Listener listener) {
+        synchronized (sListeners) {
+            sListeners.remove(listener);
+        }
+    }
+
+
+    /**
+     * Getter for the configuration file
+     * @return The configuration file. The file does not need to exist.
+     */
+    public static File getConfigFile() {
+        String path = System.getProperty("denul.config");
+        if (path == null) path = System.getenv("DENUL_CONFIG");
+        if (path == null) path = "denul.properties";
+        return new File(path);
+    }
+
+
+    /**
+     * Get the effective values of all settings, e.g. for display
+     * @return A Map from the keys of all settings to their current values
+     */
+    public static Map<String, String> getAll() {
+        Properties props = sProperties;
+        Map<String, String> rv = new LinkedHashMap<>();
+        for (String key : sDefaults.keySet()) {
+            rv.put(key, props.getProperty(key));
+        }
+        return rv;
+    }
+
+
+    /**
+     * Load the configuration from all sources
+     * @return The merged configuration
+     */
+    private static Properties load() {
+        Properties rv = new Properties();
+        for (Map.Entry<String, String> e : sDefaults.entrySet()) {
+            rv.setProperty(e.getKey(), e.getValue());
+        }
+        // Read the configuration file, if it exists
+        File file = getConfigFile();
+        sLoadedModified = file.lastModified();
+        if (file.isFile()) {
+            Properties fromFile = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                fromFile.load(in);
+            } catch (IOException e) {
+                logger.severe("load: Could not read configuration file " + file + ", ignoring it: " + e);
+            }
+            for (String key : fromFile.stringPropertyNames()) {
+                if (sDefaults.containsKey(key)) {
+                    rv.setProperty(key, fromFile.getProperty(key).trim());
+                } else {
+                    logger.warning("load: Unknown setting " + key + " in " + file + ", ignoring");
+                }
+            }
+        }
+        // Apply environment variables and system properties
+        for (String key : sDefaults.keySet()) {
+            String env = System.getenv("DENUL_" + key.toUpperCase().replace('.', '_'));
+            if (env != null) rv.setProperty(key, env.trim());
+            String prop = System.getProperty("denul." + key);
+            if (prop != null) rv.setProperty(key, prop.trim());
+        }
+        return rv;
+    }
+
+
+    /**
+     * Get a String setting
+     * @param key The key of the setting
+     * @return The value
+     */
+    private static String getString(String key) {
+        return sProperties.getProperty(key);
+    }
+
+
+    /**
+     * Get an integer setting. Invalid values are replaced by the default.
+     * @param key The key of the setting
+     * @param min The minimum valid value
+     * @return The value
+     */
+    private static int getInt(String key, int min) {
+        String value = sProperties.getProperty(key);
+        try {
+            int rv = Integer.parseInt(value);
+            if (rv >= min) return rv;
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        logger.warning("getInt: Invalid value '" + value + "' for " + key + ", using default");
+        return Integer.parseInt(sDefaults.get(key));
+    }
+
+
+    /**
+     * Get a boolean setting. Invalid values are replaced by the default.
+     * @param key The key of the setting
+     * @return The value
+     */
+    private static boolean getBoolean(String key) {
+        String value = sProperties.getProperty(key);
+        if (value.equalsIgnoreCase("true")) return true;
+        if (value.equalsIgnoreCase("false")) return false;
+        logger.warning("getBoolean: Invalid value '" + value + "' for " + key + ", using default");
+        return Boolean.parseBoolean(sDefaults.get(key));
+    }
+
+
     /**
      * Getter for the server the client should connect to
      * @return The DNS name of the server to connect to
      */
     public static String getServerHost() {
-        return "denul.velcommuta.de";
+        return getString(SERVER_HOST);
     }
 
     /**
@@ -17,6 +306,311 @@ public class Config {
      * @return The port the server is running on
      */
     public static int getServerPort() {
-        return 5566;
+        return getInt(SERVER_PORT, 1);
+    }
+
+    /**
+     * Getter for the timeout for establishing a connection to the server
+     * @return The timeout, in milliseconds
+     */
+    public static int getConnectTimeout() {
+        return getInt(CONNECT_TIMEOUT, 0);
+    }
+
+    /**
+     * Getter for the timeout for waiting for a reply from the server
+     * @return The timeout, in milliseconds, or 0 to wait indefinitely
+     */
+    public static int getReadTimeout() {
+        return getInt(READ_TIMEOUT, 0);
+    }
+
+    /**
+     * Getter for the number of times establishing a connection to the server, or an idempotent request over it, is
+     * retried before giving up
+     * @return The number of retries
+     */
+    public static int getConnectRetries() {
+        return getInt(CONNECT_RETRIES, 0);
+    }
+
+    /**
+     * Getter for the delay before the first retry of a failed connection attempt or request. The delay is doubled for
+     * every further retry.
+     * @return The delay, in milliseconds
+     */
+    public static int getRetryBackoff() {
+        return getInt(RETRY_BACKOFF, 0);
+    }
+
+    /**
+     * Getter for the number of consecutive failed requests after which requests to the server are rejected without
+     * contacting it
+     * @return The number of failures
+     */
+    public static int getBreakerThreshold() {
+        return getInt(BREAKER_THRESHOLD, 1);
+    }
+
+    /**
+     * Getter for the time for which requests to the server are rejected once {@link #getBreakerThreshold()} requests
+     * failed in a row
+     * @return The time, in milliseconds
+     */
+    public static int getBreakerCooldown() {
+        return getInt(BREAKER_COOLDOWN, 0);
+    }
+
+    /**
+     * Getter for the maximum number of requests sent over a pipelined connection before their replies have arrived
+     * @return The number of requests
+     */
+    public static int getPipelineDepth() {
+        return getInt(PIPELINE_DEPTH, 1);
+    }
+
+    /**
+     * Getter for the maximum length of a message received from the server. Longer messages are rejected before any
+     * memory is allocated for them, so that a corrupted length cannot exhaust the heap.
+     * @return The length, in bytes
+     */
+    public static int getMaxFrameSize() {
+        return getInt(MAX_FRAME_SIZE, 1024);
+    }
+
+    /**
+     * Getter for the number of worker threads used for parallel cryptographic operations
+     * @return The number of threads
+     */
+    public static int getCryptoThreads() {
+        return getInt(CRYPTO_THREADS, 1);
+    }
+
+    /**
+     * Getter for the number of StudyJoinRequests that are processed and inserted into the database as one batch
+     * @return The batch size
+     */
+    public static int getKexBatchSize() {
+        return getInt(KEX_BATCH_SIZE, 1);
+    }
+
+    /**
+     * Getter for the file of the local database
+     * @return The filename of the database
+     */
+    public static String getDatabaseFile() {
+        return getString(DATABASE_FILE);
+    }
+
+    /**
+     * Getter for the time the database waits for a lock held by another connection before failing
+     * @return The timeout, in milliseconds
+     */
+    public static int getDatabaseBusyTimeout() {
+        return getInt(DATABASE_BUSY_TIMEOUT, 0);
+    }
+
+    /**
+     * Getter for the number of rows the database inserts in one batch
+     * @return The batch size
+     */
+    public static int getDatabaseBatchSize() {
+        return getInt(DATABASE_BATCH_SIZE, 1);
+    }
+
+    /**
+     * Getter for the flag indicating if the levels of detail of GPS tracks are computed when they are stored
+     * @return true if the levels of detail are computed, false if tracks are only stored in full
+     */
+    public static boolean getDatabaseLevelsOfDetail() {
+        return getBoolean(DATABASE_LEVELS_OF_DETAIL);
+    }
+
+    /**
+     * Getter for the maximum number of studies the daemon polls concurrently
+     * @return The number of concurrent polls
+     */
+    public static int getDaemonConcurrency() {
+        return getInt(DAEMON_CONCURRENCY, 1);
+    }
+
+    /**
+     * Getter for whether the daemon runs every poll on its own virtual thread instead of a pool of
+     * {@link #getDaemonConcurrency()} threads. Only has an effect if the JVM supports virtual threads.
+     * @return true if virtual threads should be used, false otherwise
+     */
+    public static boolean getDaemonVirtualThreads() {
+        return getBoolean(DAEMON_VIRTUAL_THREADS);
+    }
+
+    /**
+     * Getter for the interval in which the daemon polls studies that do not request a specific update frequency
+     * @return The interval, in seconds
+     */
+    public static int getDaemonDefaultInterval() {
+        return getInt(DAEMON_DEFAULT_INTERVAL, 1);
+    }
+
+    /**
+     * Getter for the random variation of the poll intervals of the daemon, which spreads the polls of studies with
+     * the same interval over time
+     * @return The maximum variation, in percent of the interval
+     */
+    public static int getDaemonJitter() {
+        return getInt(DAEMON_JITTER, 0);
+    }
+
+    /**
+     * Getter for the interval in which the daemon checks the database for added or deleted studies and the
+     * configuration file for changes
+     * @return The interval, in seconds
+     */
+    public static int getDaemonRescanInterval() {
+        return getInt(DAEMON_RESCAN_INTERVAL, 1);
+    }
+
+    /**
+     * Getter for the interval in which the daemon sends the queued revocations of key blocks to the server
+     * @return The interval, in seconds
+     */
+    public static int getDaemonRevocationInterval() {
+        return getInt(DAEMON_REVOCATION_INTERVAL, 1);
+    }
+
+    /**
+     * Getter for the number of queued revocations that are read from the database and sent to the server as one batch
+     * @return The batch size
+     */
+    public static int getRevocationBatchSize() {
+        return getInt(REVOCATION_BATCH_SIZE, 1);
+    }
+
+    /**
+     * Getter for the maximum factor by which the poll interval of a study that does not receive any data is extended
+     * beyond the interval derived from its requested update frequency
+     * @return The maximum backoff factor
+     */
+    public static int getPollMaxBackoff() {
+        return getInt(POLL_MAX_BACKOFF, 1);
+    }
+
+    /**
+     * Getter for the time window within which studies that become due are polled together, using one connection
+     * @return The window, in seconds
+     */
+    public static int getPollCoalesceWindow() {
+        return getInt(POLL_COALESCE_WINDOW, 0);
+    }
+
+    /**
+     * Getter for the maximum number of studies polled using one connection
+     * @return The number of studies
+     */
+    public static int getPollSessionSize() {
+        return getInt(POLL_SESSION_SIZE, 1);
+    }
+
+    /**
+     * Getter for the file the metrics are periodically written to
+     * @return The filename, or an empty String if the metrics should not be written to a file
+     */
+    public static String getMetricsFile() {
+        return getString(METRICS_FILE);
+    }
+
+    /**
+     * Getter for the interval in which the metrics are written to the metrics file
+     * @return The interval, in seconds
+     */
+    public static int getMetricsInterval() {
+        return getInt(METRICS_INTERVAL, 1);
+    }
+
+    /**
+     * Getter for the setting whether the metrics should be exposed via JMX
+     * @return true if the metrics should be exposed, false otherwise
+     */
+    public static boolean getMetricsJMX() {
+        return getBoolean(METRICS_JMX);
+    }
+
+    /**
+     * Getter for the file the trace of the study polls is written to
+     * @return The filename, or an empty String if tracing is disabled
+     */
+    public static String getTraceFile() {
+        return getString(TRACE_FILE);
+    }
+
+    /**
+     * Getter for the size at which the trace file is rotated
+     * @return The size, in kilobytes
+     */
+    public static int getTraceMaxSize() {
+        return getInt(TRACE_MAX_SIZE, 1);
+    }
+
+    /**
+     * Getter for the number of rotated trace files that are kept in addition to the current one
+     * @return The number of files
+     */
+    public static int getTraceFiles() {
+        return getInt(TRACE_FILES, 0);
+    }
+
+    /**
+     * Getter for the maximum number of times the same warning or error is logged per minute by a {@link Log}
+     * @return The limit, or 0 if messages are not rate-limited
+     */
+    public static int getLogRateLimit() {
+        return getInt(LOG_RATE_LIMIT, 0);
+    }
+
+    /**
+     * Getter for the number of participants whose data is exported in parallel
+     * @return The number of threads
+     */
+    public static int getExportThreads() {
+        return getInt(EXPORT_THREADS, 1);
+    }
+
+    /**
+     * Getter for the bitness of the RSA keys kept ready in the {@link KeyPool}
+     * @return The RSA key size, in bits
+     */
+    public static int getKeyPoolRSABitness() {
+        return getInt(KEYPOOL_RSA_BITNESS, 1024);
+    }
+
+    /**
+     * Getter for the number of RSA keypairs the {@link KeyPool} should keep ready
+     * @return The target number of RSA keypairs
+     */
+    public static int getKeyPoolRSATarget() {
+        return getInt(KEYPOOL_RSA_TARGET, 0);
+    }
+
+    /**
+     * Getter for the number of ECDH keypairs the {@link KeyPool} should keep ready
+     * @return The target number of ECDH keypairs
+     */
+    public static int getKeyPoolECDHTarget() {
+        return getInt(KEYPOOL_ECDH_TARGET, 0);
+    }
+
+    /**
+     * Getter for the file the {@link KeyPool} persists unused keys to on shutdown
+     * @return The filename of the key pool file
+     */
+    public static String getKeyPoolFile() {
+        return getString(KEYPOOL_FILE);
+    }
+
+    /**
+     * Getter for the file containing the key used to encrypt the {@link KeyPool} file
+     * @return The filename of the key pool key file
+     */
+    public static String getKeyPoolKeyFile() {
+        return getString(KEYPOOL_KEY_FILE);
     }
 }
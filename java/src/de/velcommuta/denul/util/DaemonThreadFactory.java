@@ -0,0 +1,27 @@
+package de.velcommuta.denul.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadFactory creating named daemon threads, so that idle worker pools do not keep the application alive
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String mPrefix;
+    private final AtomicInteger mCounter = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param prefix The prefix to use for the thread names. Threads will be named prefix-1, prefix-2, ...
+     */
+    public DaemonThreadFactory(String prefix) {
+        mPrefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, mPrefix + "-" + mCounter.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
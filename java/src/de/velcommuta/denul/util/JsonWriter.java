@@ -0,0 +1,415 @@
+package de.velcommuta.denul.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer. Values are written to the underlying Writer as they are added, so arbitrarily large documents
+ * can be written without building them in memory first. Numbers are formatted into a reused buffer instead of
+ * creating a String per value.
+ *
+ * Usage:
+ * <pre>
+ * writer.beginObject().name("Path").beginArray().value(1.5).value(2.5).endArray().endObject();
+ * </pre>
+ */
+public class JsonWriter implements Closeable, Flushable {
+    // States of the currently open objects and arrays
+    private static final int EMPTY_OBJECT    = 0;
+    private static final int NONEMPTY_OBJECT = 1;
+    private static final int EMPTY_ARRAY     = 2;
+    private static final int NONEMPTY_ARRAY  = 3;
+    private static final int DANGLING_NAME   = 4;
+    private static final int EMPTY_DOCUMENT  = 5;
+    private static final int NONEMPTY_DOCUMENT = 6;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // Largest magnitude of an integral double that is written without exponent
+    private static final double MAX_PLAIN_INTEGRAL = 1e15;
+
+    private final Writer mWriter;
+    private final boolean mPretty;
+    private int[] mStack = new int[16];
+    private int mDepth = 0;
+    private final char[] mNumber = new char[32];
+    private final StringBuilder mFloat = new StringBuilder(32);
+
+    /**
+     * Constructor for a writer producing compact JSON
+     * @param writer The Writer to write to
+     */
+    public JsonWriter(Writer writer) {
+        this(writer, false);
+    }
+
+
+    /**
+     * Constructor
+     * @param writer The Writer to write to
+     * @param pretty True if every value should go on its own line, indented by two spaces per level, false for compact
+     *               output
+     */
+    public JsonWriter(Writer writer, boolean pretty) {
+        assert writer != null;
+        mWriter = writer;
+        mPretty = pretty;
+        mStack[mDepth++] = EMPTY_DOCUMENT;
+    }
+
+
+    /**
+     * Constructor for a writer producing UTF-8 encoded, compact JSON on an OutputStream. The stream is buffered.
+     * @param out The OutputStream to write to
+     */
+    public JsonWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), false);
+    }
+
+
+    /**
+     * Begin a new object
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        mWriter.write('{');
+        return this;
+    }
+
+
+    /**
+     * End the current object
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter endObject() throws IOException {
+        return closeScope(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+
+    /**
+     * Begin a new array
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        mWriter.write('[');
+        return this;
+    }
+
+
+    /**
+     * End the current array
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter endArray() throws IOException {
+        return closeScope(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+
+    /**
+     * Write the name of the next value of the current object
+     * @param name The name
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter name(String name) throws IOException {
+        assert name != null;
+        int state = peek();
+        if (state == NONEMPTY_OBJECT) {
+            mWriter.write(',');
+        } else if (state != EMPTY_OBJECT) {
+            throw new IllegalStateException("Names are only allowed in objects");
+        }
+        newline();
+        writeString(name);
+        mWriter.write(mPretty ? ": " : ":");
+        mStack[mDepth - 1] = DANGLING_NAME;
+        return this;
+    }
+
+
+    /**
+     * Write a String value
+     * @param value The value, may be null
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+
+    /**
+     * Write a long value
+     * @param value The value
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+
+    /**
+     * Write a double value. NaN and infinite values cannot be represented in JSON and are written as null.
+     * @param value The value
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) return nullValue();
+        beforeValue();
+        if (value == Math.rint(value) && Math.abs(value) < MAX_PLAIN_INTEGRAL) {
+            // Integral values (e.g. timestamps) are common and can be formatted like longs
+            if (value == 0 && Double.doubleToRawLongBits(value) != 0) mWriter.write('-');
+            writeLong((long) value);
+            mWriter.write(".0");
+        } else {
+            mFloat.setLength(0);
+            mFloat.append(value);
+            writeFloat();
+        }
+        return this;
+    }
+
+
+    /**
+     * Write a float value, using the shortest representation of the float (rather than of the equivalent double).
+     * NaN and infinite values cannot be represented in JSON and are written as null.
+     * @param value The value
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter value(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) return nullValue();
+        beforeValue();
+        mFloat.setLength(0);
+        mFloat.append(value);
+        writeFloat();
+        return this;
+    }
+
+
+    /**
+     * Write a boolean value
+     * @param value The value
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        mWriter.write(value ? "true" : "false");
+        return this;
+    }
+
+
+    /**
+     * Write a null value
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        mWriter.write("null");
+        return this;
+    }
+
+
+    /**
+     * Write a line break. Only allowed between top-level values, e.g. to write newline-delimited JSON.
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    public JsonWriter lineBreak() throws IOException {
+        if (mDepth != 1) throw new IllegalStateException("Line breaks are only allowed between top-level values");
+        mWriter.write('\n');
+        mStack[0] = EMPTY_DOCUMENT;
+        return this;
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+
+    /**
+     * Close the writer and the underlying Writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+
+
+    /**
+     * Prepare the output for a value, writing separators and indentation as needed
+     * @throws IOException If the underlying Writer throws it
+     */
+    private void beforeValue() throws IOException {
+        switch (peek()) {
+            case EMPTY_DOCUMENT:
+                mStack[mDepth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                mStack[mDepth - 1] = NONEMPTY_ARRAY;
+                newline();
+                break;
+            case NONEMPTY_ARRAY:
+                mWriter.write(',');
+                newline();
+                break;
+            case DANGLING_NAME:
+                mStack[mDepth - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("Only one top-level value is allowed per line");
+            default:
+                throw new IllegalStateException("Values in objects need a name");
+        }
+    }
+
+
+    /**
+     * Close the current object or array
+     * @param empty The state of the object or array if it has no values
+     * @param nonempty The state of the object or array if it has values
+     * @param bracket The closing bracket
+     * @return This writer
+     * @throws IOException If the underlying Writer throws it
+     */
+    private JsonWriter closeScope(int empty, int nonempty, char bracket) throws IOException {
+        int state = peek();
+        if (state != empty && state != nonempty) throw new IllegalStateException("Nesting problem");
+        mDepth--;
+        if (state == nonempty) newline();
+        mWriter.write(bracket);
+        return this;
+    }
+
+
+    /**
+     * Push a new state on the stack, growing it if needed
+     * @param state The state
+     */
+    private void push(int state) {
+        if (mDepth == mStack.length) mStack = Arrays.copyOf(mStack, mDepth * 2);
+        mStack[mDepth++] = state;
+    }
+
+
+    /**
+     * Get the state of the innermost open object or array
+     * @return The state
+     */
+    private int peek() {
+        return mStack[mDepth - 1];
+    }
+
+
+    /**
+     * Write a line break and the indentation of the current level, if pretty printing is enabled
+     * @throws IOException If the underlying Writer throws it
+     */
+    private void newline() throws IOException {
+        if (!mPretty) return;
+        mWriter.write('\n');
+        for (int i = 1; i < mDepth; i++) {
+            mWriter.write("  ");
+        }
+    }
+
+
+    /**
+     * Write a long without creating a String
+     * @param value The value
+     * @throws IOException If the underlying Writer throws it
+     */
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            mWriter.write("-9223372036854775808");
+            return;
+        }
+        int pos = mNumber.length;
+        boolean negative = value < 0;
+        if (negative) value = -value;
+        do {
+            mNumber[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (negative) mNumber[--pos] = '-';
+        mWriter.write(mNumber, pos, mNumber.length - pos);
+    }
+
+
+    /**
+     * Write the contents of the float formatting buffer
+     * @throws IOException If the underlying Writer throws it
+     */
+    private void writeFloat() throws IOException {
+        int length = mFloat.length();
+        mFloat.getChars(0, length, mNumber, 0);
+        mWriter.write(mNumber, 0, length);
+    }
+
+
+    /**
+     * Write a quoted and escaped String. Runs of characters that need no escaping are written in one piece.
+     * @param value The String
+     * @throws IOException If the underlying Writer throws it
+     */
+    private void writeString(String value) throws IOException {
+        mWriter.write('"');
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            if (i > start) mWriter.write(value, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    mWriter.write("\\\"");
+                    break;
+                case '\\':
+                    mWriter.write("\\\\");
+                    break;
+                case '\n':
+                    mWriter.write("\\n");
+                    break;
+                case '\r':
+                    mWriter.write("\\r");
+                    break;
+                case '\t':
+                    mWriter.write("\\t");
+                    break;
+                default:
+                    mWriter.write("\\u00");
+                    mWriter.write(HEX[c >> 4]);
+                    mWriter.write(HEX[c & 0xF]);
+            }
+        }
+        if (length > start) mWriter.write(value, start, length - start);
+        mWriter.write('"');
+    }
+}
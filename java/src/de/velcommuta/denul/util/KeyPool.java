@@ -0,0 +1,489 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.crypto.AES;
+import de.velcommuta.denul.crypto.ECDHKeyExchange;
+import de.velcommuta.denul.crypto.FileOperation;
+import de.velcommuta.denul.crypto.RSA;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.crypto.BadPaddingException;
+
+/**
+ * Pool of pre-computed RSA and ECDH keypairs. The pool tries to keep a target number of keypairs of each type ready
+ * and refills itself in the background whenever a keypair is taken out, so that creating a study does not have to
+ * wait for an RSA key generation. Unused keypairs can be persisted to an encrypted file and loaded again on the next
+ * start. Every keypair is handed out at most once - loading the file deletes it.
+ * The key pool file is encrypted and authenticated with a random key stored in a separate key file, see
+ * {@link #getStorageKey(File)}. This protects the private keys if the key pool file alone leaves the machine, e.g. in a
+ * backup or a copied working directory, and detects tampering with it. Both files are only readable by their owner,
+ * but the encryption offers no protection against anyone who can read the files of the user running the client.
+ * The pool will not start generating keys until {@link #refill()} is called or the first keypair is requested.
+ */
+public class KeyPool {
+    private static final Logger logger = Logger.getLogger(KeyPool.class.getName());
+
+    // Version of the file format used by store() and load()
+    private static final int FILE_VERSION = 1;
+    // Additional authenticated data for the encryption of the key pool file
+    private static final byte[] FILE_AAD = "denul-keypool".getBytes(StandardCharsets.UTF_8);
+
+    private static KeyPool sDefault;
+
+    private final ExecutorService mExecutor;
+    private final int mRSABitness;
+    private final int mRSATarget;
+    private final int mECDHTarget;
+
+    private final BlockingQueue<KeyPair> mRSAKeys = new LinkedBlockingQueue<>();
+    private final BlockingQueue<KeyPair> mECDHKeys = new LinkedBlockingQueue<>();
+    // Number of refill operations that are queued or running
+    private final AtomicInteger mRSAPending = new AtomicInteger();
+    private final AtomicInteger mECDHPending = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param executor The {@link ExecutorService} to generate keys on
+     * @param rsaBitness The bitness of the RSA keys to keep in the pool
+     * @param rsaTarget The number of RSA keypairs to keep ready
+     * @param ecdhTarget The number of ECDH keypairs to keep ready
+     */
+    public KeyPool(ExecutorService executor, int rsaBitness, int rsaTarget, int ecdhTarget) {
+        assert executor != null;
+        assert rsaTarget >= 0;
+        assert ecdhTarget >= 0;
+        mExecutor = executor;
+        mRSABitness = rsaBitness;
+        mRSATarget = rsaTarget;
+        mECDHTarget = ecdhTarget;
+    }
+
+
+    /**
+     * Get the shared default instance, configured using {@link Config}. The default pool uses one daemon worker thread
+     * per available processor.
+     * @return The default KeyPool
+     */
+    public static synchronized KeyPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new KeyPool(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new DaemonThreadFactory("KeyPool")),
+                    Config.getKeyPoolRSABitness(), Config.getKeyPoolRSATarget(), Config.getKeyPoolECDHTarget());
+        }
+        return sDefault;
+    }
+
+
+    /**
+     * Getter for the executor used by this pool
+     * @return The ExecutorService
+     */
+    public ExecutorService getExecutor() {
+        return mExecutor;
+    }
+
+
+    /**
+     * Get an RSA keypair with the bitness configured for this pool. Call {@link FutureTask#isDone()} to determine if
+     * the keypair is available, and {@link FutureTask#get()} to retrieve it (will block until it is available)
+     * @return A {@link FutureTask} which will return an RSA keypair
+     */
+    public FutureTask<KeyPair> getRSAKeypair() {
+        return getRSAKeypair(mRSABitness);
+    }
+
+
+    /**
+     * Get an RSA keypair. If the bitness matches the one configured for this pool, a pre-computed keypair is used if
+     * available. Otherwise, the keypair is generated on the executor of the pool.
+     * @param bitness Bitstrength of the keypair
+     * @return A {@link FutureTask} which will return an RSA keypair
+     */
+    public FutureTask<KeyPair> getRSAKeypair(final int bitness) {
+        if (bitness != mRSABitness) {
+            return submit(new Callable<KeyPair>() {
+                @Override
+                public KeyPair call() throws Exception {
+                    return RSA.generateRSAKeypair(bitness);
+                }
+            });
+        }
+        FutureTask<KeyPair> task = take(mRSAKeys, new Callable<KeyPair>() {
+            @Override
+            public KeyPair call() throws Exception {
+                // If a refill finished while we were waiting for the executor, use its result
+                KeyPair pair = mRSAKeys.poll();
+                return pair != null ? pair : RSA.generateRSAKeypair(bitness);
+            }
+        });
+        refill();
+        return task;
+    }
+
+
+    /**
+     * Get an ECDH key exchange initialized with a fresh keypair
+     * @return A {@link FutureTask} which will return an ECDHKeyExchange
+     */
+    public FutureTask<ECDHKeyExchange> getECDHKeyExchange() {
+        final KeyPair pair = mECDHKeys.poll();
+        FutureTask<ECDHKeyExchange> task = new FutureTask<>(new Callable<ECDHKeyExchange>() {
+            @Override
+            public ECDHKeyExchange call() throws Exception {
+                if (pair != null) return new ECDHKeyExchange(pair);
+                // If a refill finished while we were waiting for the executor, use its result
+                KeyPair refilled = mECDHKeys.poll();
+                return refilled != null ? new ECDHKeyExchange(refilled) : new ECDHKeyExchange();
+            }
+        });
+        if (pair != null) {
+            // Keypair is already available, initializing the key exchange with it is cheap
+            task.run();
+        } else {
+            mExecutor.execute(task);
+        }
+        refill();
+        return task;
+    }
+
+
+    /**
+     * Getter for the number of ready RSA keypairs
+     * @return The number of RSA keypairs in the pool
+     */
+    public int getAvailableRSAKeypairs() {
+        return mRSAKeys.size();
+    }
+
+
+    /**
+     * Getter for the number of ready ECDH keypairs
+     * @return The number of ECDH keypairs in the pool
+     */
+    public int getAvailableECDHKeypairs() {
+        return mECDHKeys.size();
+    }
+
+
+    /**
+     * Schedule the generation of as many keypairs as are required to reach the target numbers. Returns immediately.
+     */
+    public synchronized void refill() {
+        while (mRSAKeys.size() + mRSAPending.get() < mRSATarget) {
+            mRSAPending.incrementAndGet();
+            schedule(mRSAKeys, mRSAPending, new Callable<KeyPair>() {
+                @Override
+                public KeyPair call() throws Exception {
+                    return RSA.generateRSAKeypair(mRSABitness);
+                }
+            });
+        }
+        while (mECDHKeys.size() + mECDHPending.get() < mECDHTarget) {
+            mECDHPending.incrementAndGet();
+            schedule(mECDHKeys, mECDHPending, new Callable<KeyPair>() {
+                @Override
+                public KeyPair call() throws Exception {
+                    return new ECDHKeyExchange().getKeypair();
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Load keypairs from an encrypted key pool file into the pool and delete the file afterwards, to ensure that no
+     * keypair is used twice
+     * @param file The key pool file
+     * @param key The 256 bit AES key the file was encrypted with
+     * @return true if keypairs were loaded, false if the file did not exist or could not be read
+     */
+    public boolean load(File file, byte[] key) {
+        assert file != null;
+        assert key != null;
+        if (!file.isFile()) return false;
+        try {
+            byte[] plain = AES.decryptAES(Files.readAllBytes(file.toPath()), key, FILE_AAD);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+            if (in.readInt() != FILE_VERSION) {
+                logger.severe("load: Unknown file version, ignoring file");
+                return false;
+            }
+            // Keys of a different bitness are read, but not added to the pool
+            int bitness = in.readInt();
+            List<KeyPair> rsa = readKeyPairs(in, KeyFactory.getInstance("RSA", "BC"));
+            if (bitness == mRSABitness) {
+                mRSAKeys.addAll(rsa);
+            }
+            mECDHKeys.addAll(readKeyPairs(in, KeyFactory.getInstance("ECDH", "BC")));
+            logger.info("load: Loaded " + mRSAKeys.size() + " RSA and " + mECDHKeys.size() + " ECDH keypairs");
+            return true;
+        } catch (BadPaddingException e) {
+            logger.severe("load: Key pool file failed authentication, ignoring it");
+            return false;
+        } catch (IOException | GeneralSecurityException e) {
+            logger.severe("load: Could not read key pool file: " + e);
+            return false;
+        } finally {
+            if (!FileOperation.secureDelete(file)) {
+                logger.severe("load: Could not delete key pool file");
+            }
+        }
+    }
+
+
+    /**
+     * Remove all ready keypairs from the pool and store them into an encrypted key pool file
+     * @param file The key pool file. Will be replaced if it exists, and is only readable by its owner.
+     * @param key The 256 bit AES key to encrypt the file with
+     * @return true if the keypairs were stored, false otherwise
+     */
+    public boolean store(File file, byte[] key) {
+        assert file != null;
+        assert key != null;
+        List<KeyPair> rsa = new LinkedList<>();
+        List<KeyPair> ecdh = new LinkedList<>();
+        mRSAKeys.drainTo(rsa);
+        mECDHKeys.drainTo(ecdh);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mRSABitness);
+            writeKeyPairs(out, rsa);
+            writeKeyPairs(out, ecdh);
+            out.flush();
+            byte[] encrypted = AES.encryptAES(bytes.toByteArray(), key, FILE_AAD);
+            if (encrypted == null) {
+                logger.severe("store: Encryption failed");
+                return false;
+            }
+            writePrivate(file.toPath(), encrypted);
+            return true;
+        } catch (IOException e) {
+            logger.severe("store: Could not write key pool file: " + e);
+            return false;
+        }
+    }
+
+
+    /**
+     * Load the keypairs from the key pool file, start refilling the pool and make sure the unused keypairs are stored
+     * again when the JVM shuts down
+     * @param file The key pool file
+     * @param key The 256 bit AES key to encrypt the file with
+     */
+    public void persistTo(final File file, final byte[] key) {
+        load(file, key);
+        refill();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store(file, key);
+            }
+        }, "KeyPool-store"));
+    }
+
+
+    /**
+     * Read the key used to encrypt the key pool file from a file, generating and saving a new random key if the file
+     * does not exist yet. The key file is created readable by its owner only. On file systems supporting POSIX
+     * permissions, a key file that grants any permissions to its group or to other users is refused, as the key pool
+     * would no longer be protected against other local users.
+     * @param keyfile The file containing the key
+     * @return The 256 bit AES key, or null if the file could not be read or written, or is accessible to other users
+     */
+    public static byte[] getStorageKey(File keyfile) {
+        assert keyfile != null;
+        Path path = keyfile.toPath();
+        try {
+            if (keyfile.isFile()) {
+                if (!isPrivate(path)) {
+                    logger.severe("getStorageKey: Key file " + keyfile + " is accessible to other users, refusing "
+                            + "to use it. Restrict its permissions to the owner (chmod 600) or delete it.");
+                    return null;
+                }
+                byte[] key = Files.readAllBytes(path);
+                if (key.length == 32) return key;
+                logger.severe("getStorageKey: Key file has incorrect length, replacing it");
+            }
+            byte[] key = AES.generateAES256Key();
+            writePrivate(path, key);
+            return key;
+        } catch (IOException e) {
+            logger.severe("getStorageKey: Could not access key file: " + e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Helper function to check that a file grants no permissions to its group or to other users
+     * @param path The file
+     * @return true if only the owner can access the file, or if the file system does not support POSIX permissions
+     * @throws IOException If the permissions could not be read
+     */
+    private static boolean isPrivate(Path path) throws IOException {
+        if (Files.getFileAttributeView(path, PosixFileAttributeView.class) == null) return true;
+        for (PosixFilePermission permission : Files.getPosixFilePermissions(path)) {
+            if (!permission.name().startsWith("OWNER_")) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Helper function to write a file that only its owner may read and write. An existing file is replaced, as
+     * creating a new file is the only way to avoid that its content is readable by others before the permissions are
+     * changed.
+     * @param path The file
+     * @param data The content of the file
+     * @throws IOException If the file could not be written
+     */
+    private static void writePrivate(Path path, byte[] data) throws IOException {
+        Files.deleteIfExists(path);
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+        }
+        Files.write(path, data);
+    }
+
+
+    /**
+     * Helper function to take a keypair from a queue, or to compute it on the executor if the queue is empty
+     * @param queue The queue to take the keypair from
+     * @param fallback The Callable used to compute the keypair if the queue is empty
+     * @return A FutureTask which will return the keypair
+     */
+    private FutureTask<KeyPair> take(BlockingQueue<KeyPair> queue, Callable<KeyPair> fallback) {
+        final KeyPair pair = queue.poll();
+        if (pair != null) {
+            // Keypair is already available, return a completed task
+            FutureTask<KeyPair> task = new FutureTask<>(new Callable<KeyPair>() {
+                @Override
+                public KeyPair call() throws Exception {
+                    return pair;
+                }
+            });
+            task.run();
+            return task;
+        }
+        return submit(fallback);
+    }
+
+
+    /**
+     * Helper function to run a Callable on the executor of the pool
+     * @param callable The Callable
+     * @return The FutureTask wrapping the callable
+     */
+    private FutureTask<KeyPair> submit(Callable<KeyPair> callable) {
+        FutureTask<KeyPair> task = new FutureTask<>(callable);
+        mExecutor.execute(task);
+        return task;
+    }
+
+
+    /**
+     * Helper function to schedule the generation of a keypair for the pool
+     * @param queue The queue to add the generated keypair to
+     * @param pending The counter of pending operations for that queue, which will be decremented afterwards
+     * @param generator The Callable generating the keypair
+     */
+    private void schedule(final BlockingQueue<KeyPair> queue, final AtomicInteger pending,
+                          final Callable<KeyPair> generator) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        KeyPair pair = generator.call();
+                        if (pair != null) {
+                            queue.add(pair);
+                        } else {
+                            logger.severe("schedule: Keypair generation failed");
+                        }
+                    } catch (Exception e) {
+                        logger.severe("schedule: Keypair generation failed: " + e);
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.severe("schedule: Executor rejected keypair generation");
+            pending.decrementAndGet();
+        }
+    }
+
+
+    /**
+     * Helper function to serialize a List of KeyPairs
+     * @param out The DataOutputStream to write to
+     * @param pairs The KeyPairs
+     * @throws IOException If the underlying stream throws it
+     */
+    private static void writeKeyPairs(DataOutputStream out, List<KeyPair> pairs) throws IOException {
+        out.writeInt(pairs.size());
+        for (KeyPair pair : pairs) {
+            byte[] pub = pair.getPublic().getEncoded();
+            byte[] priv = pair.getPrivate().getEncoded();
+            out.writeInt(pub.length);
+            out.write(pub);
+            out.writeInt(priv.length);
+            out.write(priv);
+        }
+    }
+
+
+    /**
+     * Helper function to deserialize a List of KeyPairs written by {@link #writeKeyPairs(DataOutputStream, List)}
+     * @param in The DataInputStream to read from
+     * @param factory The KeyFactory to use to decode the keys
+     * @return The KeyPairs
+     * @throws IOException If the underlying stream throws it
+     * @throws GeneralSecurityException If the keys could not be decoded
+     */
+    private static List<KeyPair> readKeyPairs(DataInputStream in, KeyFactory factory)
+            throws IOException, GeneralSecurityException {
+        int count = in.readInt();
+        List<KeyPair> rv = new LinkedList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] pub = new byte[in.readInt()];
+            in.readFully(pub);
+            byte[] priv = new byte[in.readInt()];
+            in.readFully(priv);
+            rv.add(new KeyPair(factory.generatePublic(new X509EncodedKeySpec(pub)),
+                    factory.generatePrivate(new PKCS8EncodedKeySpec(priv))));
+        }
+        return rv;
+    }
+}
@@ -0,0 +1,183 @@
+package de.velcommuta.denul.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thin facade over a {@link Logger} for code on the hot paths. Messages are only built if their level is enabled, take
+ * {@link java.text.MessageFormat} parameters ("Reply has {0} bytes") instead of being concatenated by the caller, and
+ * pass the source method explicitly, so the logging framework does not need to walk the stack to find it.
+ *
+ * Warnings and errors are rate-limited: each message (identified by its method and unformatted text) is logged at most
+ * {@link Config#getLogRateLimit()} times per minute. The number of suppressed messages is appended to the next message
+ * that is logged after the minute is over.
+ *
+ * Messages are logged as "method: message", like the rest of the application.
+ */
+public class Log {
+    // Length of the rate limiting window, in milliseconds
+    private static final long WINDOW = 60 * 1000;
+
+    private final Logger mLogger;
+    private final String mClass;
+    private final ConcurrentMap<String, Limiter> mLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Rate limiting state of a single message
+     */
+    private static class Limiter {
+        long windowStart;
+        int count;
+        int suppressed;
+    }
+
+    /**
+     * Constructor
+     * @param cls The class to log for
+     */
+    private Log(Class<?> cls) {
+        mClass = cls.getName();
+        mLogger = Logger.getLogger(mClass);
+    }
+
+
+    /**
+     * Get a Log for a class. Like the Loggers it wraps, it should be kept in a static final field.
+     * @param cls The class
+     * @return A new Log
+     */
+    public static Log getLog(Class<?> cls) {
+        return new Log(cls);
+    }
+
+
+    /**
+     * Check if FINE messages are logged. Use this to guard the computation of expensive parameters.
+     * @return true if FINE messages are logged, false otherwise
+     */
+    public boolean isFineEnabled() {
+        return mLogger.isLoggable(Level.FINE);
+    }
+
+
+    /**
+     * Log a FINE message
+     * @param method The name of the calling method
+     * @param msg The message
+     */
+    public void fine(String method, String msg) {
+        if (mLogger.isLoggable(Level.FINE)) log(Level.FINE, method, msg, null);
+    }
+
+
+    /**
+     * Log a FINE message with one parameter
+     * @param method The name of the calling method
+     * @param msg The message, referencing the parameter as {0}
+     * @param p0 The parameter
+     */
+    public void fine(String method, String msg, Object p0) {
+        if (mLogger.isLoggable(Level.FINE)) log(Level.FINE, method, msg, new Object[] {p0});
+    }
+
+
+    /**
+     * Log a FINE message with two parameters
+     * @param method The name of the calling method
+     * @param msg The message, referencing the parameters as {0} and {1}
+     * @param p0 The first parameter
+     * @param p1 The second parameter
+     */
+    public void fine(String method, String msg, Object p0, Object p1) {
+        if (mLogger.isLoggable(Level.FINE)) log(Level.FINE, method, msg, new Object[] {p0, p1});
+    }
+
+
+    /**
+     * Log an INFO message
+     * @param method The name of the calling method
+     * @param msg The message, referencing the parameters as {0}, {1}, ...
+     * @param params The parameters
+     */
+    public void info(String method, String msg, Object... params) {
+        if (mLogger.isLoggable(Level.INFO)) log(Level.INFO, method, msg, params);
+    }
+
+
+    /**
+     * Log a rate-limited WARNING message
+     * @param method The name of the calling method
+     * @param msg The message, referencing the parameters as {0}, {1}, ...
+     * @param params The parameters
+     */
+    public void warning(String method, String msg, Object... params) {
+        if (mLogger.isLoggable(Level.WARNING)) limited(Level.WARNING, method, msg, params);
+    }
+
+
+    /**
+     * Log a rate-limited SEVERE message
+     * @param method The name of the calling method
+     * @param msg The message, referencing the parameters as {0}, {1}, ...
+     * @param params The parameters
+     */
+    public void severe(String method, String msg, Object... params) {
+        if (mLogger.isLoggable(Level.SEVERE)) limited(Level.SEVERE, method, msg, params);
+    }
+
+
+    /**
+     * Log a message if its rate limit allows it
+     * @param level The level of the message
+     * @param method The name of the calling method
+     * @param msg The message
+     * @param params The parameters of the message
+     */
+    private void limited(Level level, String method, String msg, Object[] params) {
+        int limit = Config.getLogRateLimit();
+        if (limit == 0) {
+            log(level, method, msg, params);
+            return;
+        }
+        String key = method + msg;
+        Limiter l = mLimiters.get(key);
+        if (l == null) {
+            Limiter created = new Limiter();
+            l = mLimiters.putIfAbsent(key, created);
+            if (l == null) l = created;
+        }
+        int suppressed;
+        synchronized (l) {
+            long now = System.currentTimeMillis();
+            if (now - l.windowStart >= WINDOW) {
+                l.windowStart = now;
+                l.count = 0;
+            }
+            if (l.count >= limit) {
+                l.suppressed++;
+                return;
+            }
+            l.count++;
+            suppressed = l.suppressed;
+            l.suppressed = 0;
+        }
+        if (suppressed > 0) {
+            msg = msg + " (" + suppressed + " similar messages suppressed)";
+        }
+        log(level, method, msg, params);
+    }
+
+
+    /**
+     * Pass a message to the Logger
+     * @param level The level of the message
+     * @param method The name of the calling method
+     * @param msg The message
+     * @param params The parameters of the message, or null
+     */
+    private void log(Level level, String method, String msg, Object[] params) {
+        mLogger.logp(level, mClass, method, method + ": " + msg, params);
+    }
+}
@@ -1,5 +1,12 @@
 package de.velcommuta.denul.util;
 
+import de.velcommuta.denul.data.Shareable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
 /**
  * Wrapper functions for text output
  */
@@ -21,4 +28,22 @@ public class Output {
         assert line != null;
         System.out.print(line);
     }
+
+    /**
+     * Print the JSON representation of a Shareable, followed by a linebreak. The representation is streamed to the
+     * output instead of being built as a String first.
+     * @param shareable The Shareable
+     */
+    public static void println(Shareable shareable) {
+        assert shareable != null;
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        try {
+            shareable.writeJson(new JsonWriter(out, true));
+            out.write(System.lineSeparator());
+            // Only flush, System.out must stay open
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Could not print data: " + e);
+        }
+    }
 }
@@ -0,0 +1,214 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when each study should be polled. This class only does the bookkeeping and does not perform any polls or
+ * keep time itself; all times are passed in as milliseconds.
+ *
+ * The interval of a study starts at its base interval, derived from the update frequencies requested in its
+ * {@link StudyRequest.DataRequest}s. Every poll that returns no data doubles the interval, up to
+ * {@link Config#getPollMaxBackoff()} times the base interval. Polls that return data set the interval to the expected
+ * time until the next data arrives, estimated from an exponentially weighted moving average of the observed arrival
+ * rate, but never shorter than the base interval. Studies that become due within {@link Config#getPollCoalesceWindow()}
+ * of each other are returned together, so that they can be polled using one connection.
+ */
+public class PollScheduler {
+    // Weight of the newest observation in the moving average of the arrival rate
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private final Map<Long, Entry> mEntries = new HashMap<>();
+    private final Random mRandom = new Random();
+
+    /**
+     * Scheduling state of a single study
+     */
+    private static class Entry {
+        StudyRequest study;
+        long base;
+        long interval;
+        long due;
+        long lastPoll;
+        // Moving average of the arrival rate, in items per millisecond. Negative if nothing has been observed yet
+        double rate = -1;
+        boolean polling = false;
+    }
+
+    /**
+     * Compute the base poll interval of a study, using the shortest update frequency of its DataRequests, or
+     * {@link Config#getDaemonDefaultInterval()} if none of them specify one
+     * @param req The study
+     * @return The interval, in milliseconds
+     */
+    public static long getBaseInterval(StudyRequest req) {
+        long hours = 0;
+        for (StudyRequest.DataRequest data : req.requests) {
+            if (data.frequency != null && data.frequency > 0 && (hours == 0 || data.frequency < hours)) {
+                hours = data.frequency;
+            }
+        }
+        if (hours == 0) return TimeUnit.SECONDS.toMillis(Config.getDaemonDefaultInterval());
+        return TimeUnit.HOURS.toMillis(hours);
+    }
+
+
+    /**
+     * Add a study. Its first poll is scheduled at a random time within its base interval, to spread the polls of
+     * studies added at the same time.
+     * @param req The study
+     * @param now The current time
+     */
+    public synchronized void add(StudyRequest req, long now) {
+        if (mEntries.containsKey(req.id)) return;
+        Entry e = new Entry();
+        e.study = req;
+        e.base = getBaseInterval(req);
+        e.interval = e.base;
+        e.lastPoll = now;
+        e.due = now + (long) (mRandom.nextDouble() * e.base);
+        mEntries.put(req.id, e);
+    }
+
+
+    /**
+     * Remove a study
+     * @param id The ID of the study
+     */
+    public synchronized void remove(long id) {
+        mEntries.remove(id);
+    }
+
+
+    /**
+     * Remove all studies not contained in a Set of IDs
+     * @param ids The IDs of the studies to keep
+     */
+    public synchronized void retainAll(Set<Long> ids) {
+        mEntries.keySet().retainAll(ids);
+    }
+
+
+    /**
+     * Getter for the number of scheduled studies
+     * @return The number of studies
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+
+    /**
+     * Getter for the current interval of a study
+     * @param id The ID of the study
+     * @return The interval in milliseconds, or -1 if the study is unknown
+     */
+    public synchronized long getInterval(long id) {
+        Entry e = mEntries.get(id);
+        return e == null ? -1 : e.interval;
+    }
+
+
+    /**
+     * Get the time at which the next study becomes due
+     * @return The time, or Long.MAX_VALUE if no study is waiting to be polled
+     */
+    public synchronized long getNextDue() {
+        long rv = Long.MAX_VALUE;
+        for (Entry e : mEntries.values()) {
+            if (!e.polling && e.due < rv) rv = e.due;
+        }
+        return rv;
+    }
+
+
+    /**
+     * Take all studies that are due for polling, including those that will become due within the coalescing window,
+     * and mark them as being polled. The studies are grouped into sessions of at most
+     * {@link Config#getPollSessionSize()} studies, each of which should be polled using one connection.
+     * @param now The current time
+     * @return A List of sessions, each of which is a List of studies, ordered by due time. Empty if no study is due.
+     */
+    public synchronized List<List<StudyRequest>> takeDue(long now) {
+        List<Entry> due = new ArrayList<>();
+        boolean anyDue = false;
+        long window = TimeUnit.SECONDS.toMillis(Config.getPollCoalesceWindow());
+        for (Entry e : mEntries.values()) {
+            if (e.polling) continue;
+            if (e.due <= now) anyDue = true;
+            if (e.due <= now + window) due.add(e);
+        }
+        // Only pull studies forward if a connection needs to be opened anyway
+        if (!anyDue) return Collections.emptyList();
+        Collections.sort(due, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(a.due, b.due);
+            }
+        });
+        int sessionSize = Config.getPollSessionSize();
+        List<List<StudyRequest>> rv = new ArrayList<>();
+        List<StudyRequest> session = null;
+        for (Entry e : due) {
+            e.polling = true;
+            if (session == null || session.size() >= sessionSize) {
+                session = new ArrayList<>(sessionSize);
+                rv.add(session);
+            }
+            session.add(e.study);
+        }
+        return rv;
+    }
+
+
+    /**
+     * Record the result of a poll and schedule the next poll of the study
+     * @param id The ID of the study
+     * @param received The number of new items received, or a negative value if the poll failed
+     * @param now The current time
+     */
+    public synchronized void onPolled(long id, int received, long now) {
+        Entry e = mEntries.get(id);
+        if (e == null) return; // Removed while being polled
+        e.polling = false;
+        if (received < 0) {
+            // Poll failed, retry after the base interval without changing the statistics
+            e.due = now + jitter(Math.min(e.interval, e.base));
+            return;
+        }
+        // Update the moving average of the arrival rate
+        long elapsed = Math.max(1, now - e.lastPoll);
+        double rate = (double) received / elapsed;
+        e.rate = e.rate < 0 ? rate : EWMA_WEIGHT * rate + (1 - EWMA_WEIGHT) * e.rate;
+        e.lastPoll = now;
+        long max = e.base * Config.getPollMaxBackoff();
+        if (received == 0) {
+            // Back off
+            e.interval = Math.min(max, e.interval * 2);
+        } else {
+            // Wait until the next item is expected to have arrived
+            e.interval = Math.max(e.base, Math.min(max, (long) (1 / e.rate)));
+        }
+        e.due = now + jitter(e.interval);
+    }
+
+
+    /**
+     * Apply the random variation configured in {@link Config#getDaemonJitter()} to an interval
+     * @param interval The interval, in milliseconds
+     * @return The varied interval, in milliseconds
+     */
+    private long jitter(long interval) {
+        double jitter = Config.getDaemonJitter() / 100.0;
+        return Math.max(0, (long) (interval * (1 + jitter * (2 * mRandom.nextDouble() - 1))));
+    }
+}
@@ -0,0 +1,36 @@
+package de.velcommuta.denul.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Semaphore whose number of permits can be changed while it is in use, e.g. to follow a limit in the {@link Config}
+ */
+public class ResizableSemaphore extends Semaphore {
+    private static final long serialVersionUID = 1L;
+
+    private int mPermits;
+
+    /**
+     * Constructor
+     * @param permits The initial number of permits
+     */
+    public ResizableSemaphore(int permits) {
+        super(permits);
+        mPermits = permits;
+    }
+
+
+    /**
+     * Change the number of permits. Holders of permits are not affected by a reduction, but new permits are only
+     * handed out once enough of them were released.
+     * @param permits The new number of permits
+     */
+    public synchronized void resize(int permits) {
+        if (permits > mPermits) {
+            release(permits - mPermits);
+        } else if (permits < mPermits) {
+            reducePermits(mPermits - permits);
+        }
+        mPermits = permits;
+    }
+}
@@ -0,0 +1,202 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.database.Database;
+import de.velcommuta.denul.database.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs polls of studies (see {@link StudyManager#updateStudyData(Database, List)}) in the background, each using its
+ * own database connection and its own connection to the server. At most {@link Config#getDaemonConcurrency()} tasks
+ * run at once.
+ *
+ * In the platform mode, the tasks run on a fixed-size pool of that many threads. In the virtual mode, which requires
+ * a JVM supporting virtual threads, every task runs on its own virtual thread and a semaphore enforces the limit. A
+ * poll spends most of its time waiting for the server, which costs no platform thread on a virtual thread, so the
+ * limit can be raised to hundreds of concurrent polls.
+ */
+public class StudyFetchExecutor {
+    private static final Log log = Log.getLog(StudyFetchExecutor.class);
+
+    private final String mDatabaseFile;
+    private final ExecutorService mExecutor;
+    // Limit of concurrently running tasks in the virtual mode, null in the platform mode
+    private final ResizableSemaphore mLimit;
+    // Listener following changes of the limit, unregistered on shutdown
+    private final Config.Listener mListener;
+
+    /**
+     * Constructor, using the virtual mode if {@link Config#getDaemonVirtualThreads()} is set and the JVM supports it
+     * @param databaseFile The file of the SQLite database containing the studies
+     */
+    public StudyFetchExecutor(String databaseFile) {
+        this(databaseFile, Config.getDaemonVirtualThreads());
+    }
+
+
+    /**
+     * Constructor
+     * @param databaseFile The file of the SQLite database containing the studies
+     * @param virtual true to use the virtual mode if the JVM supports it, false to use the platform mode
+     */
+    public StudyFetchExecutor(String databaseFile, boolean virtual) {
+        assert databaseFile != null;
+        mDatabaseFile = databaseFile;
+        if (virtual && !ThreadPools.hasVirtualThreads()) {
+            log.warning("StudyFetchExecutor", "Virtual threads are not supported by this JVM, using platform threads");
+            virtual = false;
+        }
+        if (virtual) {
+            mExecutor = ThreadPools.newTaskExecutor("StudyFetchExecutor", Config.getDaemonConcurrency());
+            mLimit = new ResizableSemaphore(Config.getDaemonConcurrency());
+        } else {
+            mExecutor = Executors.newFixedThreadPool(Config.getDaemonConcurrency(),
+                    new DaemonThreadFactory("StudyFetchExecutor"));
+            mLimit = null;
+        }
+        mListener = new Config.Listener() {
+            @Override
+            public void onConfigReloaded() {
+                if (mLimit != null) {
+                    mLimit.resize(Config.getDaemonConcurrency());
+                } else {
+                    ThreadPools.resize((ThreadPoolExecutor) mExecutor, Config.getDaemonConcurrency());
+                }
+            }
+        };
+        Config.addListener(mListener);
+    }
+
+
+    /**
+     * Check if the tasks run on virtual threads
+     * @return true in the virtual mode, false in the platform mode
+     */
+    public boolean isVirtual() {
+        return mLimit != null;
+    }
+
+
+    /**
+     * Poll a List of studies in the background, using one connection to the server
+     * @param session The studies
+     * @return A future for the number of new participants and data items that were received for each study, in the
+     * order of the input
+     */
+    public Future<List<Integer>> submit(final List<StudyRequest> session) {
+        return mExecutor.submit(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() throws InterruptedException {
+                acquire();
+                try {
+                    Database db = new SQLiteDatabase(mDatabaseFile);
+                    try {
+                        return StudyManager.updateStudyData(db, session);
+                    } finally {
+                        db.close();
+                    }
+                } finally {
+                    release();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Poll every study of a List in its own task and wait for all of them to finish
+     * @param reqs The studies
+     * @return The number of new participants and data items that were received for each study, in the order of the
+     * input, or -1 for studies whose poll failed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public List<Integer> fetchAll(List<StudyRequest> reqs) throws InterruptedException {
+        List<Future<List<Integer>>> futures = new ArrayList<>(reqs.size());
+        for (StudyRequest req : reqs) {
+            futures.add(submit(Collections.singletonList(req)));
+        }
+        List<Integer> rv = new ArrayList<>(reqs.size());
+        for (Future<List<Integer>> future : futures) {
+            try {
+                rv.add(future.get().get(0));
+            } catch (ExecutionException e) {
+                log.severe("fetchAll", "Polling study FAILED: {0}", e.getCause());
+                rv.add(-1);
+            }
+        }
+        return rv;
+    }
+
+
+    /**
+     * Run a task in the background, subject to the same limit as the polls
+     * @param task The task
+     */
+    public void execute(final Runnable task) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    task.run();
+                } finally {
+                    release();
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Stop accepting new tasks. Tasks that were already submitted are still run, but no longer follow changes of
+     * {@link Config#getDaemonConcurrency()}.
+     */
+    public void shutdown() {
+        Config.removeListener(mListener);
+        mExecutor.shutdown();
+    }
+
+
+    /**
+     * Wait for all tasks to finish after {@link #shutdown()}
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return true if all tasks finished, false if the timeout elapsed before
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+
+    /**
+     * Wait until another task may run, in the virtual mode
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private void acquire() throws InterruptedException {
+        if (mLimit != null) mLimit.acquire();
+    }
+
+
+    /**
+     * Let the next task run, in the virtual mode
+     */
+    private void release() {
+        if (mLimit != null) mLimit.release();
+    }
+}
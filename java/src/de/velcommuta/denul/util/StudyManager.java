@@ -6,21 +6,136 @@ import de.velcommuta.denul.crypto.SHA256IdentifierDerivation;
 import de.velcommuta.denul.crypto.SharingEncryption;
 import de.velcommuta.denul.data.*;
 import de.velcommuta.denul.database.Database;
+import de.velcommuta.denul.database.PollJournalEntry;
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.MetricsRegistry;
+import de.velcommuta.denul.metrics.Span;
+import de.velcommuta.denul.metrics.Tracer;
+import de.velcommuta.denul.networking.AsyncProtocol;
+import de.velcommuta.denul.networking.AsyncProtocolAdapter;
 import de.velcommuta.denul.networking.Connection;
+import de.velcommuta.denul.networking.ConnectionFactory;
+import de.velcommuta.denul.networking.FramedConnection;
+import de.velcommuta.denul.networking.MeteredConnection;
+import de.velcommuta.denul.networking.MeteredProtocol;
+import de.velcommuta.denul.networking.PipelinedConnection;
 import de.velcommuta.denul.networking.ProtobufProtocol;
 import de.velcommuta.denul.networking.Protocol;
+import de.velcommuta.denul.networking.ResilientConnection;
+import de.velcommuta.denul.networking.StudyJoinCallback;
 import de.velcommuta.denul.networking.TLSConnection;
+import de.velcommuta.denul.networking.Value;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Class providing static functions to perform study management. All-in-one solution for network- and database side of
  * study management, data retrieval, and so on
  */
 public class StudyManager {
-    private static final Logger logger = Logger.getLogger(ProtobufProtocol.class.getName());
+    private static final Log log = Log.getLog(StudyManager.class);
+
+    // Data blocks that were announced by a key block but were no longer on the server, e.g. because they were revoked
+    private static final Counter sMissingData = MetricsRegistry.getDefault().counter("retrieve.data_block.missing");
+    // Data blocks that were already stored, e.g. because an earlier poll was interrupted before updating the counters
+    private static final Counter sDuplicateData = MetricsRegistry.getDefault().counter("retrieve.data_block.duplicate");
+    // Key blocks whose queued revocation was sent to the server
+    private static final Counter sRevoked = MetricsRegistry.getDefault().counter("revoke.key_block.sent");
+    // Data blocks that were left unfinished in the poll journal by an earlier poll
+    private static final Counter sResumed = MetricsRegistry.getDefault().counter("retrieve.data_block.resumed");
+
+    // Executor for overlapping network I/O with decryption, created on first use
+    private static Executor sExecutor;
+
+    // Factory for connections to the server, defaults to TLS connections to the server configured in Config
+    private static ConnectionFactory sConnectionFactory = new ConnectionFactory() {
+        @Override
+        public Connection openConnection() throws IOException {
+            return new TLSConnection(Config.getServerHost(), Config.getServerPort());
+        }
+    };
+
+    /**
+     * Set the factory used to open connections to the server
+     * @param factory The {@link ConnectionFactory}
+     */
+    public static void setConnectionFactory(ConnectionFactory factory) {
+        assert factory != null;
+        sConnectionFactory = factory;
+    }
+
+
+    /**
+     * Open a connection to the server. Failed connections are re-established and idempotent requests are retried, see
+     * {@link ResilientConnection}. Connections exchanging frames, like the {@link TLSConnection}, are pipelined, so that
+     * the concurrent requests of {@link #process(Database, Protocol, long, List, int)} and
+     * {@link #revokeQueued(Database, Protocol)} are in flight at the same time.
+     * @return The connected Connection
+     * @throws IOException If no connection could be established
+     */
+    private static Connection openConnection() throws IOException {
+        return new ResilientConnection(new ConnectionFactory() {
+            @Override
+            public Connection openConnection() throws IOException {
+                Connection connection = sConnectionFactory.openConnection();
+                if (connection instanceof FramedConnection) {
+                    connection = new PipelinedConnection((FramedConnection) connection);
+                }
+                return new MeteredConnection(connection);
+            }
+        });
+    }
+
+
+    /**
+     * Set the executor used to overlap the retrieval of data blocks with their decryption
+     * @param executor The Executor
+     */
+    public static synchronized void setExecutor(Executor executor) {
+        assert executor != null;
+        sExecutor = executor;
+    }
+
+
+    /**
+     * Get the executor used to overlap the retrieval of data blocks with their decryption. Defaults to an executor
+     * running every task on a virtual thread if they are supported, see {@link ThreadPools#newTaskExecutor(String, int)}.
+     * Otherwise, the pool it falls back to is resized to {@link Config#getPipelineDepth()} when the configuration is
+     * reloaded.
+     * @return The Executor
+     */
+    private static synchronized Executor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = ThreadPools.newTaskExecutor("StudyManager", Config.getPipelineDepth());
+            if (sExecutor instanceof ThreadPoolExecutor) {
+                final ThreadPoolExecutor pool = (ThreadPoolExecutor) sExecutor;
+                Config.addListener(new Config.Listener() {
+                    @Override
+                    public void onConfigReloaded() {
+                        ThreadPools.resize(pool, Config.getPipelineDepth());
+                    }
+                });
+            }
+        }
+        return sExecutor;
+    }
+
+
+    /**
+     * Create the Protocol used to communicate with the server
+     * @return A new, unconnected Protocol
+     */
+    private static Protocol newProtocol() {
+        return new MeteredProtocol(new ProtobufProtocol());
+    }
+
 
     /**
      * Register a Study on the server and add it to the local database
@@ -31,8 +146,8 @@ public class StudyManager {
     public static boolean registerStudy(StudyRequest req, Database db) {
         try {
             // Establish connection to the server
-            Connection c = new TLSConnection(Config.getServerHost(), Config.getServerPort());
-            Protocol p = new ProtobufProtocol();
+            Connection c = openConnection();
+            Protocol p = newProtocol();
             p.connect(c);
 
             // Register study
@@ -62,13 +177,13 @@ public class StudyManager {
      */
     public static boolean deleteStudy(StudyRequest req, Database db) {
         try {
-            Connection c = new TLSConnection(Config.getServerHost(), Config.getServerPort());
-            Protocol p = new ProtobufProtocol();
+            Connection c = openConnection();
+            Protocol p = newProtocol();
             p.connect(c);
 
             int rv = p.deleteStudy(req);
             if (rv == Protocol.SDEL_FAIL_NO_CONNECTION) {
-                logger.severe("deleteStudy: FAIL NO CONNECTION");
+                log.severe("deleteStudy", "FAIL NO CONNECTION");
                 return false;
             }
             db.deleteStudy(req);
@@ -107,18 +222,7 @@ public class StudyManager {
      * @param db The database to use
      */
     public static void updateAllStudyData(Database db) {
-        try {
-            Connection c = new TLSConnection(Config.getServerHost(), Config.getServerPort());
-            Protocol p = new ProtobufProtocol();
-            p.connect(c);
-            for (StudyRequest req : getMyStudies(db)) {
-                updateStudyData(db, req, p);
-            }
-            p.disconnect();
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new IllegalArgumentException("Network error");
-        }
+        updateStudyData(db, getMyStudies(db));
     }
 
 
@@ -126,13 +230,41 @@ public class StudyManager {
      * Retrieve new data for a specific study
      * @param db The database to use
      * @param req The study
+     * @return The number of new participants and data items that were received
      */
-    public static void updateStudyData(Database db, StudyRequest req) {
-        try {
-            Connection c = new TLSConnection(Config.getServerHost(), Config.getServerPort());
-            Protocol p = new ProtobufProtocol();
-            p.connect(c);
-            updateStudyData(db, req, p);
+    public static int updateStudyData(Database db, StudyRequest req) {
+        return updateStudyData(db, Collections.singletonList(req)).get(0);
+    }
+
+
+    /**
+     * Retrieve new data for a List of studies, using a single connection to the server
+     * @param db The database to use
+     * @param reqs The studies
+     * @return The number of new participants and data items that were received for each study, in the order of the
+     * input
+     */
+    // The tracing spans only time the statements they enclose and are not referenced inside them
+    @SuppressWarnings("try")
+    public static List<Integer> updateStudyData(Database db, List<StudyRequest> reqs) {
+        Tracer tracer = Tracer.getDefault();
+        try (Span session = tracer.start("session").arg("studies", reqs.size())) {
+            Protocol p = null;
+            try {
+                try (Span connect = tracer.start("connect")) {
+                    Connection c = openConnection();
+                    p = newProtocol();
+                    p.connect(c);
+                }
+                List<Integer> rv = new ArrayList<>(reqs.size());
+                for (StudyRequest req : reqs) {
+                    rv.add(updateStudyData(db, req, p));
+                }
+                return rv;
+            } finally {
+                // Also if a study failed, so that the connection and its reader thread are not leaked
+                if (p != null) p.disconnect();
+            }
         } catch (IOException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("Network error");
@@ -145,31 +277,147 @@ public class StudyManager {
      * @param db The database to use
      * @param req The study to update
      * @param p The connected {@link Protocol} instance to use
+     * @return The number of new participants and data items that were received
      * @throws IOException If the Protocol throws it
      */
-    private static void updateStudyData(Database db, StudyRequest req, Protocol p) throws IOException {
+    private static int updateStudyData(final Database db, final StudyRequest req, Protocol p) throws IOException {
         // Retrieve StudyID from database
-        long studyid = db.getStudyIDByQueueIdentifier(req.queue);
+        final long studyid = db.getStudyIDByQueueIdentifier(req.queue);
         assert studyid >= 0;
-        // Look for new registrations for the study
-        for (StudyJoinRequest studyjoin: p.getStudyJoinRequests(req)) {
-            // Derive keys
-            KeySet partner = req.performKex(studyjoin);
-            // Add to database
-            db.addParticipant(partner, studyid);
+        Tracer tracer = Tracer.getDefault();
+        try (Span span = tracer.start("study").arg("study", studyid)) {
+            int joined;
+            // StudyJoin decryption runs on the decryptor pool, while key exchanges are performed on this thread
+            try (Span join = tracer.start("join").arg("study", studyid)) {
+                joined = join(db, req, studyid, p);
+                join.arg("participants", joined);
+            }
+            // Retrieve data for all study participants
+            List<KeySet> participants = db.getParticipantsForStudy(studyid);
+            span.arg("participants", participants.size());
+            // Finish the work of an earlier poll of the study first
+            int resumed = resume(db, p, studyid, participants);
+            return joined + resumed + retrieve(db, p, studyid, participants, 1);
         }
-        // Retrieve data for all study participants
-        retrieve(db, p, db.getParticipantsForStudy(studyid));
+    }
+
 
+    /**
+     * Retrieve and process the new registrations for a study
+     * @param db The database to use
+     * @param req The study
+     * @param studyid The database ID of the study
+     * @param p The connected {@link Protocol} instance to use
+     * @return The number of new participants
+     */
+    private static int join(final Database db, final StudyRequest req, final long studyid, Protocol p) {
+        // Look for new registrations for the study. Registrations are collected into batches as soon as they have been
+        // decrypted, while the remaining registrations are still being decrypted in the background. The key exchanges
+        // for each batch are performed in parallel and the new participants are inserted in a single transaction.
+        final int batchSize = Config.getKexBatchSize();
+        final List<StudyJoinRequest> batch = new ArrayList<>(batchSize);
+        int joined = p.getStudyJoinRequests(req, new StudyJoinCallback() {
+            @Override
+            public void onStudyJoinRequest(StudyJoinRequest studyjoin) {
+                batch.add(studyjoin);
+                if (batch.size() >= batchSize) {
+                    addParticipants(db, req, studyid, batch);
+                    batch.clear();
+                }
+            }
+        });
+        addParticipants(db, req, studyid, batch);
+        if (joined < 0) {
+            log.severe("join", "Retrieving StudyJoinRequests failed");
+            joined = 0;
+        }
+        return joined;
     }
 
+    /**
+     * Perform the key exchanges for a batch of StudyJoinRequests and add the resulting participants to the database
+     * @param db The database to use
+     * @param req The study the requests belong to
+     * @param studyid The database ID of the study
+     * @param batch The StudyJoinRequests
+     */
+    // The tracing spans only time the statements they enclose and are not referenced inside them
+    @SuppressWarnings("try")
+    private static void addParticipants(Database db, StudyRequest req, long studyid, List<StudyJoinRequest> batch) {
+        if (batch.isEmpty()) return;
+        Tracer tracer = Tracer.getDefault();
+        // Derive keys
+        List<KeySet> participants = new ArrayList<>(batch.size());
+        try (Span span = tracer.start("kex").arg("study", studyid).arg("participants", batch.size())) {
+            for (KeySet ks : req.performKex(batch)) {
+                if (ks != null) {
+                    participants.add(ks);
+                } else {
+                    log.severe("addParticipants", "Key exchange failed, skipping participant");
+                }
+            }
+        }
+        // Add to database
+        try (Span span = tracer.start("db.add_participants").arg("study", studyid).arg("participants", participants.size())) {
+            db.addParticipants(participants, studyid);
+        }
+    }
+
+
+    /**
+     * Finish processing the data blocks that an earlier poll of a study announced in the poll journal, but did not
+     * finish processing, e.g. because the process was terminated. Entries of participants that are not in the given
+     * list cannot be attributed to anyone, so they are removed from the journal without fetching their data blocks.
+     * @param db The database to use
+     * @param p The protocol to use
+     * @param studyid The database ID of the study
+     * @param participants The participants of the study
+     * @return The number of data items that were retrieved
+     */
+    static int resume(Database db, Protocol p, long studyid, List<KeySet> participants) {
+        List<PollJournalEntry> journal = db.getPollJournal(studyid);
+        if (journal.isEmpty()) return 0;
+        Map<Long, KeySet> owners = new HashMap<>();
+        for (KeySet ks : participants) {
+            owners.put((long) ks.getID(), ks);
+        }
+        List<PollJournalEntry> unknown = new LinkedList<>();
+        Iterator<PollJournalEntry> it = journal.iterator();
+        while (it.hasNext()) {
+            PollJournalEntry entry = it.next();
+            KeySet owner = owners.get(entry.getParticipant());
+            if (owner == null) {
+                unknown.add(entry);
+                it.remove();
+            } else {
+                entry.getData().setOwner(owner);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            log.warning("resume", "Removing {0} unfinished data blocks of unknown participants of study {1}",
+                    unknown.size(), studyid);
+            db.finishPollJournal(unknown);
+        }
+        if (journal.isEmpty()) return 0;
+        log.info("resume", "Resuming {0} unfinished data blocks of study {1}", journal.size(), studyid);
+        sResumed.inc(journal.size());
+        return process(db, p, studyid, journal, 0);
+    }
+
+
     /**
      * Recursively retrieve all available data for a List of KeySets (i.e. study participants)
      * @param db The database to use
      * @param p The protocol to use
+     * @param studyid The database ID of the study the participants belong to, for tracing
      * @param participants The keysets to query
+     * @param round The number of the retrieval round, starting at 1. Every round retrieves at most one data item per
+     *              participant, and participants who had data are queried again in the next round.
+     * @return The number of data items that were retrieved
      */
-    private static void retrieve(Database db, Protocol p, List<KeySet> participants) {
+    // The tracing spans only time the statements they enclose and are not referenced inside them
+    @SuppressWarnings("try")
+    private static int retrieve(Database db, Protocol p, long studyid, List<KeySet> participants, int round) {
         // List of TokenPairs to query
         List<TokenPair> query = new LinkedList<>();
         // Map from TokenPairs to associated KeySets
@@ -186,92 +434,272 @@ public class StudyManager {
             buffer.put(tokens, ks);
         }
         // Abort if no queries need to be sent
-        if (query.size() == 0) return;
-        // Retrieve data
-        Map<TokenPair, byte[]> result = p.getMany(query);
-        // Prepare List of tokens to revoke
-        List<TokenPair> revoke = new LinkedList<>();
-        // Prepare List of tokens to retrieve
-        List<TokenPair> retrieve = new LinkedList<>();
-        // List of KeySets that need to be queried again, because they had results
-        List<KeySet> requery = new LinkedList<>();
-        // Prepare Map from TokenPairs to DataBlocks
-        Map<TokenPair, DataBlock> blocks = new HashMap<>();
-        // Iterate through results
-        for (TokenPair pair : result.keySet()) {
-            byte[] value = result.get(pair);
-            if (value == Protocol.GET_FAIL_KEY_FMT || value == Protocol.GET_FAIL_NO_CONNECTION || value == Protocol.GET_FAIL_PROTOCOL_ERROR) {
-                // Protocol error, ignore
-                logger.severe("retrieve: GET of key block FAILED - No connection or other error");
-                continue;
-            } else if (value == Protocol.GET_FAIL_KEY_NOT_TAKEN) {
-                // No value under this key, ignore
-                continue;
+        if (query.size() == 0) return 0;
+        Tracer tracer = Tracer.getDefault();
+        try (Span span = tracer.start("retrieve").arg("study", studyid).arg("round", round)
+                .arg("participants", participants.size())) {
+            // Retrieve data
+            Map<TokenPair, byte[]> result;
+            try (Span get = tracer.start("get.keys").arg("study", studyid).arg("round", round).arg("keys", query.size())) {
+                result = p.getMany(query);
             }
-            // If this statement is reached, value is a key block
-            // Retrieve matching KeySet
-            KeySet ks = buffer.get(pair);
+            // Journal of the data blocks announced by the key blocks
+            List<PollJournalEntry> journal = new LinkedList<>();
+            // List of KeySets that need to be queried again, because they had results
+            List<KeySet> requery = new LinkedList<>();
+            // List of KeySets whose counters changed
+            List<KeySet> used = new LinkedList<>();
+            // Iterate through results
+            try (Span decrypt = tracer.start("decrypt.keys").arg("study", studyid).arg("round", round)) {
+                for (TokenPair pair : result.keySet()) {
+                    byte[] value = result.get(pair);
+                    if (value == Protocol.GET_FAIL_KEY_FMT || value == Protocol.GET_FAIL_NO_CONNECTION || value == Protocol.GET_FAIL_PROTOCOL_ERROR) {
+                        // Protocol error, ignore
+                        log.severe("retrieve", "GET of key block FAILED - No connection or other error");
+                        continue;
+                    } else if (value == Protocol.GET_FAIL_KEY_NOT_TAKEN) {
+                        // No value under this key, ignore
+                        continue;
+                    }
+                    // If this statement is reached, value is a key block
+                    // Retrieve matching KeySet
+                    KeySet ks = buffer.get(pair);
 
-            if (Arrays.equals(value, new byte[] {0x42})) {
-                // Encountered revocation, do nothing
-                continue;
+                    if (Arrays.equals(value, new byte[] {0x42})) {
+                        // Encountered revocation, do nothing
+                        continue;
+                    }
+                    // Decrypt to DataBlock
+                    DataBlock data = enc.decryptKeysAndIdentifier(value, ks);
+                    // Increment counters
+                    ks = deriv.notifyInboundIdentifierUsed(ks);
+                    used.add(ks);
+                    if (data == null) {
+                        // Decryption failed, ignore - false positive or other weird stuff going on
+                        log.warning("retrieve", "Decryption of key block FAILED");
+                        continue;
+                    }
+                    data.setOwner(ks);
+                    // Decryption was successful
+                    // Journal the data block, so it is fetched and the key block is revoked even if this poll fails
+                    journal.add(new PollJournalEntry(ks.getID(), pair, data));
+                    requery.add(ks);
+                }
+                decrypt.arg("keys", used.size());
             }
-            // Decrypt to DataBlock
-            DataBlock data = enc.decryptKeysAndIdentifier(value, ks);
-            if (data == null) {
-                // Decryption failed, ignore - false positive or other weird stuff going on
-                logger.severe("retrieve: Decryption of key block FAILED");
-                // Increment counters
-                ks = deriv.notifyInboundIdentifierUsed(ks);
-                // Write changes to database
-                db.updateParticipant(ks);
-                continue;
+            // Write changed counters to database, together with the journal. From now on, the data blocks can only be
+            // found through the journal.
+            try (Span update = tracer.start("db.update_participants").arg("study", studyid).arg("round", round)
+                    .arg("participants", used.size())) {
+                db.updateParticipants(used, journal);
+            }
+            int received = process(db, p, studyid, journal, round);
+            // If any KeySets need to be queried again, do so now
+            if (requery.size() != 0) {
+                received += retrieve(db, p, studyid, requery, round + 1);
+            }
+            return received;
+        }
+    }
+
+
+    /**
+     * Process the entries of the poll journal: Fetch their data blocks and store the contained data. The state of the
+     * entries is saved in the journal after every step, so an interrupted poll can continue where it stopped. Once the
+     * data of an entry is stored, the entry is removed from the journal and the revocation of its key block is queued,
+     * to be sent by {@link #revokeQueued(Database)}. Entries whose data blocks cannot be fetched due to connection
+     * problems are kept in the journal. A data block that was stored, but whose entry was not removed yet, is stored
+     * again when the poll is resumed, which the database recognizes as a duplicate.
+     * @param db The database to use
+     * @param p The protocol to use
+     * @param studyid The database ID of the study the entries belong to, for tracing
+     * @param journal The journal entries. Their data blocks need to have their owner set.
+     * @param round The number of the retrieval round, or 0 if an interrupted poll is resumed, for tracing
+     * @return The number of data items that were retrieved
+     */
+    // The tracing spans only time the statements they enclose and are not referenced inside them
+    @SuppressWarnings("try")
+    private static int process(Database db, Protocol p, long studyid, List<PollJournalEntry> journal, int round) {
+        if (journal.isEmpty()) return 0;
+        final SharingEncryption enc = new AESSharingEncryption();
+        Tracer tracer = Tracer.getDefault();
+        Executor executor = getExecutor();
+        AsyncProtocol ap = new AsyncProtocolAdapter(p, executor);
+        // Fetch the data blocks that have not been fetched yet, and decrypt every data block as soon as it is available,
+        // while the remaining data blocks are still being fetched
+        final List<PollJournalEntry> entries = new ArrayList<>(journal);
+        // The size of the data block of each entry, or -1 if fetching it failed, with the reason in status. Only these
+        // are kept, so that the received messages can be freed as soon as their data blocks are decrypted.
+        final int[] sizes = new int[entries.size()];
+        final byte[][] status = new byte[entries.size()][];
+        List<CompletableFuture<Shareable>> decrypted = new ArrayList<>(entries.size());
+        try (Span fetch = tracer.start("fetch.data").arg("study", studyid).arg("round", round)
+                .arg("items", entries.size())) {
+            for (int i = 0; i < entries.size(); i++) {
+                final int index = i;
+                final PollJournalEntry entry = entries.get(i);
+                CompletableFuture<Value> value;
+                if (entry.getState() == PollJournalEntry.STATE_PENDING) {
+                    byte[] identifier = entry.getData().getIdentifier();
+                    value = ap.getValue(new TokenPair(identifier, identifier));
+                } else {
+                    value = CompletableFuture.completedFuture(Value.of(ByteBuffer.wrap(entry.getData().getCiphertext())));
+                }
+                decrypted.add(value.thenApplyAsync(new Function<Value, Shareable>() {
+                    @Override
+                    public Shareable apply(Value value) {
+                        if (!value.isPresent()) {
+                            sizes[index] = -1;
+                            status[index] = value.getStatus();
+                            return null;
+                        }
+                        sizes[index] = value.size();
+                        // The ciphertext is kept in the journal until the data is stored, so it has to be copied once
+                        if (entry.getState() == PollJournalEntry.STATE_PENDING) entry.getData().setCiphertext(value.getBuffer());
+                        return enc.decryptShareable(entry.getData());
+                    }
+                }, executor).handle(new BiFunction<Shareable, Throwable, Shareable>() {
+                    @Override
+                    public Shareable apply(Shareable shareable, Throwable throwable) {
+                        if (throwable == null) return shareable;
+                        // Only this entry failed, keep it in the journal to retry it with the next poll
+                        log.severe("process", "Processing data block FAILED: {0}", throwable);
+                        sizes[index] = -1;
+                        status[index] = Protocol.GET_FAIL_PROTOCOL_ERROR;
+                        return null;
+                    }
+                }));
+            }
+            // Failures are handled per entry above, so waiting for the entries never throws
+            for (CompletableFuture<Shareable> future : decrypted) {
+                future.join();
             }
-            // Increment counters
-            ks = deriv.notifyInboundIdentifierUsed(ks);
-            // Write changes to database
-            db.updateParticipant(ks);
-            data.setOwner(ks);
-            // Decryption was successful
-            // Add to revocation list to remove it from server
-            revoke.add(pair);
-            // Prepare querying
-            TokenPair data_pair = new TokenPair(data.getIdentifier(), data.getIdentifier());
-            retrieve.add(data_pair);
-            // Add to blocks map so we can later retrieve the encryption key from the data block
-            blocks.put(data_pair, data);
         }
-        // If we have to perform any revocations, do so now
-        if (revoke.size() > 0) p.delMany(revoke);
-        if (retrieve.size() == 0) return;
-        // We appearently have some more queries to perform
-        result = p.getMany(retrieve);
-        for (TokenPair ident : result.keySet()) {
-            byte[] value = result.get(ident);
-            if (value == Protocol.GET_FAIL_KEY_FMT || value == Protocol.GET_FAIL_NO_CONNECTION || value == Protocol.GET_FAIL_PROTOCOL_ERROR) {
-                // Protocol error, ignore
-                logger.severe("retrieve: Retrieval of data block FAILED - No connection or other weird error");
+        // Entries that are done, either because their data was stored or because there is no data to store
+        List<PollJournalEntry> finished = new LinkedList<>();
+        // Entries whose data block was fetched by this call
+        List<PollJournalEntry> fetched = new LinkedList<>();
+        List<Shareable> shareables = new LinkedList<>();
+        // Size of the data block of each shareable, for the statistics of the study
+        List<Integer> shareableSizes = new LinkedList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            PollJournalEntry entry = entries.get(i);
+            if (sizes[i] < 0 && status[i] == Protocol.GET_FAIL_KEY_NOT_TAKEN) {
+                // No value under this key, nothing to store
+                sMissingData.inc();
+                log.fine("process", "Retrieval of data block FAILED - Key not taken");
+                finished.add(entry);
                 continue;
-            } else if (value == Protocol.GET_FAIL_KEY_NOT_TAKEN) {
-                // No value under this key, ignore
-                logger.severe("retrieve: Retrieval of data block FAILED - Key not taken");
+            } else if (sizes[i] < 0) {
+                // Protocol error, keep the entry to retry with the next poll
+                log.severe("process", "Retrieval of data block FAILED - No connection or other weird error");
                 continue;
             }
-            // We seem to have retrieved a data block
-            DataBlock block = blocks.get(ident);
-            block.setCiphertext(value);
-            Shareable sh = enc.decryptShareable(block);
+            if (entry.getState() == PollJournalEntry.STATE_PENDING) {
+                // We seem to have retrieved a data block
+                entry.setState(PollJournalEntry.STATE_FETCHED);
+                fetched.add(entry);
+            }
+            Shareable sh = decrypted.get(i).join();
             if (sh != null) {
-                // Decryption successful, write to Databases
-                db.addShareable(sh);
+                shareables.add(sh);
+                shareableSizes.add(sizes[i]);
             } else {
-                logger.severe("retrieve: Decryption of data block FAILED");
+                log.warning("process", "Decryption of data block FAILED");
+            }
+            finished.add(entry);
+        }
+        try (Span update = tracer.start("db.journal").arg("study", studyid).arg("round", round)
+                .arg("items", fetched.size())) {
+            db.updatePollJournal(fetched);
+        }
+        // Decryption successful, write to Databases
+        try (Span commit = tracer.start("db.add_data").arg("study", studyid).arg("round", round)
+                .arg("items", shareables.size())) {
+            Iterator<Integer> size = shareableSizes.iterator();
+            for (Shareable sh : shareables) {
+                if (!db.addShareable(sh, size.next())) {
+                    sDuplicateData.inc();
+                    log.info("process", "Ignoring data block that was already received");
+                }
+            }
+            // Only now that the data is stored, the key blocks may be revoked
+            db.finishPollJournal(finished);
+        }
+        return shareables.size();
+    }
+
+
+    /**
+     * Send the queued revocations of key blocks to the server, using a new connection
+     * @param db The database to use
+     * @return The number of key blocks that were revoked
+     */
+    // The tracing spans only time the statements they enclose and are not referenced inside them
+    @SuppressWarnings("try")
+    public static int revokeQueued(Database db) {
+        // Do not connect if there is nothing to do
+        if (db.getQueuedRevocations(1).isEmpty()) return 0;
+        Tracer tracer = Tracer.getDefault();
+        try (Span session = tracer.start("session").arg("studies", 0)) {
+            Protocol p = null;
+            try {
+                try (Span connect = tracer.start("connect")) {
+                    Connection c = openConnection();
+                    p = newProtocol();
+                    p.connect(c);
+                }
+                return revokeQueued(db, p);
+            } finally {
+                if (p != null) p.disconnect();
             }
-            requery.add(block.getOwner());
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("Network error");
         }
-        // If any KeySets need to be queried again, do so now
-        if (requery.size() != 0) {
-            retrieve(db, p, requery);
+    }
+
+
+    /**
+     * Send the queued revocations of key blocks to the server, in batches of {@link Config#getRevocationBatchSize()}.
+     * Revocations that fail due to connection problems stay in the queue, to be retried later.
+     * @param db The database to use
+     * @param p The connected {@link Protocol} instance to use
+     * @return The number of key blocks that were revoked
+     */
+    // The tracing spans only time the statements they enclose and are not referenced inside them
+    @SuppressWarnings("try")
+    private static int revokeQueued(Database db, Protocol p) {
+        // Send the revocations of a batch without waiting for each other
+        AsyncProtocol ap = new AsyncProtocolAdapter(p, getExecutor());
+        int batchSize = Config.getRevocationBatchSize();
+        Tracer tracer = Tracer.getDefault();
+        int revoked = 0;
+        while (true) {
+            Map<Long, TokenPair> queued = db.getQueuedRevocations(batchSize);
+            if (queued.isEmpty()) break;
+            Map<TokenPair, Integer> result;
+            try (Span del = tracer.start("del").arg("keys", queued.size())) {
+                result = ap.delMany(new ArrayList<>(queued.values())).join();
+            }
+            List<Long> done = new ArrayList<>(queued.size());
+            for (Map.Entry<Long, TokenPair> e : queued.entrySet()) {
+                Integer rv = result.get(e.getValue());
+                if (rv == null || rv == Protocol.DEL_FAIL_NO_CONNECTION || rv == Protocol.DEL_FAIL_PROTOCOL_ERROR) {
+                    continue;
+                }
+                // Other failures will not go away by retrying, e.g. if the key block was already revoked
+                if (rv == Protocol.DEL_OK) revoked++;
+                done.add(e.getKey());
+            }
+            db.removeQueuedRevocations(done);
+            sRevoked.inc(done.size());
+            if (done.size() < queued.size()) {
+                log.warning("revokeQueued", "Revocation of {0} key blocks FAILED, keeping them queued",
+                        queued.size() - done.size());
+                break;
+            }
         }
+        return revoked;
     }
 }
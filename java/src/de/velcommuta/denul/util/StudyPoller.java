@@ -0,0 +1,221 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.database.Database;
+import de.velcommuta.denul.database.SQLiteDatabase;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Polls all studies in the database for new data in the background. The times at which the studies are polled are
+ * determined by a {@link PollScheduler}. Studies that are due at about the same time are polled together using one
+ * connection, and at most {@link Config#getDaemonConcurrency()} such sessions run concurrently on a
+ * {@link StudyFetchExecutor}, each using its own database connection. The database is periodically rescanned for added
+ * and deleted studies, and the revocations of key blocks queued by the polls are periodically sent to the server.
+ */
+public class StudyPoller {
+    private static final Logger logger = Logger.getLogger(StudyPoller.class.getName());
+
+    // Interval in which the scheduler is checked for due studies, in milliseconds
+    private static final long DISPATCH_INTERVAL = 1000;
+
+    private final String mDatabaseFile;
+    private final ScheduledExecutorService mScheduler;
+    private final StudyFetchExecutor mWorkers;
+    private final PollScheduler mPollScheduler = new PollScheduler();
+    private volatile boolean mRunning = false;
+    // Set while the revocation queue is being drained, so at most one worker drains it at a time
+    private final AtomicBoolean mRevoking = new AtomicBoolean(false);
+
+    /**
+     * Constructor
+     * @param databaseFile The file of the SQLite database containing the studies
+     */
+    public StudyPoller(String databaseFile) {
+        assert databaseFile != null;
+        mDatabaseFile = databaseFile;
+        // The scheduler thread only hands the polls over to the workers, so a single thread is sufficient
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("StudyPoller-Scheduler"));
+        // Every study is part of at most one queued or running session, so the queue is bounded by the number of
+        // studies
+        mWorkers = new StudyFetchExecutor(databaseFile);
+    }
+
+
+    /**
+     * Start polling. The first poll of every study happens at a random time within its interval.
+     */
+    public synchronized void start() {
+        assert !mRunning;
+        mRunning = true;
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Config.reloadIfModified();
+                    rescan();
+                } catch (RuntimeException e) {
+                    // An exception would cancel all further rescans
+                    logger.severe("rescan: Rescan failed: " + e);
+                }
+            }
+        }, 0, Config.getDaemonRescanInterval(), TimeUnit.SECONDS);
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dispatch();
+                } catch (RuntimeException e) {
+                    logger.severe("dispatch: Dispatch failed: " + e);
+                }
+            }
+        }, DISPATCH_INTERVAL, DISPATCH_INTERVAL, TimeUnit.MILLISECONDS);
+        long revocationInterval = Config.getDaemonRevocationInterval();
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRevoking.compareAndSet(false, true)) return;
+                try {
+                    mWorkers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            revoke();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    mRevoking.set(false);
+                    logger.severe("revoke: Dispatch failed: " + e);
+                }
+            }
+        }, revocationInterval, revocationInterval, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Stop polling and wait for running polls to finish
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return true if all polls finished, false if the timeout elapsed before
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        mRunning = false;
+        mScheduler.shutdownNow();
+        mWorkers.shutdown();
+        return mWorkers.awaitTermination(timeout, unit);
+    }
+
+
+    /**
+     * Getter for the number of studies that are currently scheduled
+     * @return The number of studies
+     */
+    public int getScheduledStudyCount() {
+        return mRunning ? mPollScheduler.size() : 0;
+    }
+
+
+    /**
+     * Getter for the {@link PollScheduler} deciding when the studies are polled
+     * @return The PollScheduler
+     */
+    public PollScheduler getPollScheduler() {
+        return mPollScheduler;
+    }
+
+
+    /**
+     * Synchronize the scheduled studies with the studies in the database
+     */
+    void rescan() {
+        List<StudyRequest> studies;
+        Database db = new SQLiteDatabase(mDatabaseFile);
+        try {
+            studies = db.getStudyRequests();
+        } finally {
+            db.close();
+        }
+        if (studies == null) {
+            logger.severe("rescan: Could not read studies from the database");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Set<Long> present = new HashSet<>();
+        for (StudyRequest req : studies) {
+            present.add(req.id);
+            mPollScheduler.add(req, now);
+        }
+        // Stop polling deleted studies
+        mPollScheduler.retainAll(present);
+    }
+
+
+    /**
+     * Hand all due studies over to the workers
+     */
+    private void dispatch() {
+        for (final List<StudyRequest> session : mPollScheduler.takeDue(System.currentTimeMillis())) {
+            mWorkers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    poll(session);
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Send the queued revocations of key blocks to the server
+     */
+    private void revoke() {
+        try {
+            if (!mRunning) return;
+            Database db = new SQLiteDatabase(mDatabaseFile);
+            try {
+                int revoked = StudyManager.revokeQueued(db);
+                if (revoked > 0) logger.fine("revoke: Revoked " + revoked + " key blocks");
+            } catch (RuntimeException e) {
+                // The revocations stay queued for the next attempt
+                logger.severe("revoke: Revoking key blocks failed: " + e);
+            } finally {
+                db.close();
+            }
+        } finally {
+            mRevoking.set(false);
+        }
+    }
+
+
+    /**
+     * Poll a List of studies using one connection and report the results to the scheduler
+     * @param session The studies to poll
+     */
+    private void poll(List<StudyRequest> session) {
+        long start = System.currentTimeMillis();
+        List<Integer> received = null;
+        if (mRunning) {
+            Database db = new SQLiteDatabase(mDatabaseFile);
+            try {
+                received = StudyManager.updateStudyData(db, session);
+                logger.fine("poll: Polled " + session.size() + " studies in " + (System.currentTimeMillis() - start) + "ms");
+            } catch (RuntimeException e) {
+                // Keep polling, the next attempt may succeed
+                logger.severe("poll: Polling " + session.size() + " studies failed: " + e);
+            } finally {
+                db.close();
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < session.size(); i++) {
+            mPollScheduler.onPolled(session.get(i).id, received != null ? received.get(i) : -1, now);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.velcommuta.denul.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Helper functions for creating the shared worker pools of the application
+ */
+public class ThreadPools {
+    /**
+     * Create a fixed-size pool of daemon threads for cryptographic operations. The pool is sized according to
+     * {@link Config#getCryptoThreads()} and resized when the configuration is reloaded.
+     * @param name The name prefix for the threads of the pool
+     * @return The pool
+     */
+    public static ThreadPoolExecutor newCryptoPool(String name) {
+        final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(Config.getCryptoThreads(),
+                new DaemonThreadFactory(name));
+        Config.addListener(new Config.Listener() {
+            @Override
+            public void onConfigReloaded() {
+                resize(pool, Config.getCryptoThreads());
+            }
+        });
+        return pool;
+    }
+
+
+    /**
+     * Resize a fixed-size pool
+     * @param pool The pool
+     * @param threads The new number of threads
+     */
+    public static void resize(ThreadPoolExecutor pool, int threads) {
+        assert threads > 0;
+        // The core size may never exceed the maximum size, so the order of the updates depends on the direction
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+
+    /**
+     * Create an executor for tasks that spend most of their time waiting, e.g. for replies from the server. If the JVM
+     * supports virtual threads, every task runs on a new virtual thread. Otherwise, the tasks run on a fixed-size pool
+     * of daemon threads.
+     * @param name The name prefix for the threads of the pool
+     * @param threads The number of threads of the pool, if virtual threads are not supported
+     * @return The executor
+     */
+    public static ExecutorService newTaskExecutor(String name, int threads) {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor != null) return executor;
+        return Executors.newFixedThreadPool(threads, new DaemonThreadFactory(name));
+    }
+
+
+    /**
+     * Check if the JVM supports virtual threads
+     * @return true if virtual threads are supported, false otherwise
+     */
+    public static boolean hasVirtualThreads() {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) return false;
+        executor.shutdown();
+        return true;
+    }
+
+
+    /**
+     * Create an executor running every task on a new virtual thread. Looked up by reflection, as virtual threads are
+     * only available on Java 21 and later.
+     * @return The executor, or null if virtual threads are not supported
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // Not available, or a preview feature that is not enabled
+            return null;
+        }
+    }
+}
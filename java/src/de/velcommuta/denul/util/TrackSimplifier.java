@@ -0,0 +1,377 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.Shareable;
+
+/**
+ * Simplifies GPS tracks given as primitive arrays of timestamps (in milliseconds), latitudes and longitudes. Points are
+ * first decimated by time, keeping at most one point per minimum interval, and then simplified geometrically, using
+ * either the Douglas-Peucker or the Visvalingam-Whyatt algorithm. The first and last point are always kept.
+ *
+ * Distances are computed on an equirectangular projection around the first point, which is accurate enough for the
+ * extent of a single track.
+ */
+public class TrackSimplifier {
+    public static final int DOUGLAS_PEUCKER = 0;
+    public static final int VISVALINGAM     = 1;
+
+    // Mean earth radius, in meters
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    // Presets for the granularities a study can request
+    private static final TrackSimplifier sFine = new TrackSimplifier(DOUGLAS_PEUCKER, 0, 0);
+    private static final TrackSimplifier sCoarse = new TrackSimplifier(DOUGLAS_PEUCKER, 10, 5000);
+    private static final TrackSimplifier sVeryCoarse = new TrackSimplifier(DOUGLAS_PEUCKER, 100, 60000);
+
+    private final int mAlgorithm;
+    private final double mTolerance;
+    private final long mMinInterval;
+
+    /**
+     * Constructor
+     * @param algorithm The geometric simplification, either {@link #DOUGLAS_PEUCKER} or {@link #VISVALINGAM}
+     * @param tolerance The tolerance, in meters, or 0 to disable the geometric simplification. Douglas-Peucker keeps
+     *                  all points that are further than this from the simplified track, Visvalingam-Whyatt removes
+     *                  all points whose triangle with their neighbours has an area below tolerance^2 / 2.
+     * @param minInterval The minimum time between two points, in milliseconds, or 0 to disable the decimation
+     */
+    public TrackSimplifier(int algorithm, double tolerance, long minInterval) {
+        assert algorithm == DOUGLAS_PEUCKER || algorithm == VISVALINGAM;
+        assert tolerance >= 0 && minInterval >= 0;
+        mAlgorithm = algorithm;
+        mTolerance = tolerance;
+        mMinInterval = minInterval;
+    }
+
+
+    /**
+     * Get the simplifier for a granularity
+     * @param granularity One of the Shareable.GRANULARITY_* constants
+     * @return The simplifier. The one for {@link Shareable#GRANULARITY_FINE} keeps all points.
+     */
+    public static TrackSimplifier forGranularity(int granularity) {
+        switch (granularity) {
+            case Shareable.GRANULARITY_FINE:
+                return sFine;
+            case Shareable.GRANULARITY_COARSE:
+                return sCoarse;
+            case Shareable.GRANULARITY_VERY_COARSE:
+                return sVeryCoarse;
+            default:
+                throw new IllegalArgumentException("Unknown granularity " + granularity);
+        }
+    }
+
+
+    /**
+     * Compute the levels of detail of the points of a track. The points of the track simplified for
+     * {@link Shareable#GRANULARITY_COARSE} have at least that level, and the points of that track simplified further
+     * for {@link Shareable#GRANULARITY_VERY_COARSE} have that level, so the levels are nested: the track at a
+     * granularity consists of the points with at least that level.
+     * @param time The timestamps of the points, in milliseconds
+     * @param lat The latitudes of the points
+     * @param lon The longitudes of the points
+     * @param count The number of points
+     * @return The level of each point, one of the Shareable.GRANULARITY_* constants
+     */
+    public static byte[] computeLevels(double[] time, double[] lat, double[] lon, int count) {
+        byte[] rv = new byte[count];
+        int[] points = identity(count);
+        int n = sCoarse.select(time, lat, lon, points, count);
+        for (int i = 0; i < n; i++) {
+            rv[points[i]] = Shareable.GRANULARITY_COARSE;
+        }
+        n = sVeryCoarse.select(time, lat, lon, points, n);
+        for (int i = 0; i < n; i++) {
+            rv[points[i]] = Shareable.GRANULARITY_VERY_COARSE;
+        }
+        return rv;
+    }
+
+
+    /**
+     * Simplify a track in place. The kept points are moved to the front of the arrays, in their original order.
+     * @param time The timestamps of the points, in milliseconds
+     * @param lat The latitudes of the points
+     * @param lon The longitudes of the points
+     * @param count The number of points
+     * @return The number of kept points
+     */
+    public int simplify(double[] time, double[] lat, double[] lon, int count) {
+        assert time.length >= count && lat.length >= count && lon.length >= count;
+        int[] points = identity(count);
+        int n = select(time, lat, lon, points, count);
+        // The kept indices are ascending, so the points can be moved forward without overwriting unread points
+        for (int i = 0; i < n; i++) {
+            int p = points[i];
+            time[i] = time[p];
+            lat[i] = lat[p];
+            lon[i] = lon[p];
+        }
+        return n;
+    }
+
+
+    /**
+     * Select the points to keep from a subset of the points of a track
+     * @param time The timestamps of all points
+     * @param lat The latitudes of all points
+     * @param lon The longitudes of all points
+     * @param points The ascending indices of the points in the subset. The indices of the kept points are moved to
+     *               the front.
+     * @param n The number of points in the subset
+     * @return The number of kept points
+     */
+    private int select(double[] time, double[] lat, double[] lon, int[] points, int n) {
+        if (mMinInterval > 0) n = decimate(time, points, n, mMinInterval);
+        if (mTolerance > 0 && n > 2) {
+            // Project the points to meters
+            double[] x = new double[n];
+            double[] y = new double[n];
+            double scale = Math.toRadians(1) * EARTH_RADIUS;
+            double cos = Math.cos(Math.toRadians(lat[points[0]]));
+            for (int i = 0; i < n; i++) {
+                x[i] = lon[points[i]] * scale * cos;
+                y[i] = lat[points[i]] * scale;
+            }
+            boolean[] keep = mAlgorithm == DOUGLAS_PEUCKER
+                    ? douglasPeucker(x, y, n, mTolerance)
+                    : visvalingam(x, y, n, mTolerance * mTolerance / 2);
+            int kept = 0;
+            for (int i = 0; i < n; i++) {
+                if (keep[i]) points[kept++] = points[i];
+            }
+            n = kept;
+        }
+        return n;
+    }
+
+
+    /**
+     * Keep at most one point per interval, starting with the first point. The last point is always kept.
+     * @param time The timestamps of all points
+     * @param points The indices of the points to decimate. The indices of the kept points are moved to the front.
+     * @param n The number of points
+     * @param minInterval The minimum time between two kept points
+     * @return The number of kept points
+     */
+    private static int decimate(double[] time, int[] points, int n, long minInterval) {
+        if (n <= 2) return n;
+        int kept = 1;
+        double last = time[points[0]];
+        for (int i = 1; i < n - 1; i++) {
+            double t = time[points[i]];
+            if (t - last >= minInterval) {
+                points[kept++] = points[i];
+                last = t;
+            }
+        }
+        points[kept++] = points[n - 1];
+        return kept;
+    }
+
+
+    /**
+     * Douglas-Peucker simplification, using an explicit stack instead of recursion
+     * @param x The projected x coordinates, in meters
+     * @param y The projected y coordinates, in meters
+     * @param n The number of points
+     * @param tolerance The maximum distance of a removed point from the simplified track, in meters
+     * @return For each point, whether it is kept
+     */
+    private static boolean[] douglasPeucker(double[] x, double[] y, int n, double tolerance) {
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        double tolerance2 = tolerance * tolerance;
+        // Every split keeps one more point and pushes two segments (two ints each), so the stack never overflows
+        int[] stack = new int[4 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double max = 0;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d = segmentDistance2(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (d > max) {
+                    max = d;
+                    index = i;
+                }
+            }
+            if (index != -1 && max > tolerance2) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+        return keep;
+    }
+
+
+    /**
+     * Visvalingam-Whyatt simplification, repeatedly removing the point with the smallest effective area using a
+     * binary heap, in O(n log n)
+     * @param x The projected x coordinates, in meters
+     * @param y The projected y coordinates, in meters
+     * @param n The number of points
+     * @param minArea The minimum effective area of a kept point, in square meters
+     * @return For each point, whether it is kept
+     */
+    private static boolean[] visvalingam(double[] x, double[] y, int n, double minArea) {
+        boolean[] keep = new boolean[n];
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        double[] area = new double[n];
+        // Heap of the inner points, ordered by area, and the position of each point in the heap
+        int[] heap = new int[n];
+        int[] position = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            keep[i] = true;
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+        for (int i = 1; i < n - 1; i++) {
+            area[i] = triangleArea(x, y, i - 1, i, i + 1);
+            heap[size] = i;
+            position[i] = size;
+            size++;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, position, area, size, i);
+        }
+        while (size > 0) {
+            int p = heap[0];
+            if (area[p] >= minArea) break;
+            // Remove the point with the smallest area from the heap and the track
+            size--;
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(heap, position, area, size, 0);
+            keep[p] = false;
+            int before = prev[p];
+            int after = next[p];
+            next[before] = after;
+            prev[after] = before;
+            // Update the neighbours. Their area is at least the removed one, so that points are removed in order.
+            if (before > 0) {
+                area[before] = Math.max(area[p], triangleArea(x, y, prev[before], before, after));
+                update(heap, position, area, size, position[before]);
+            }
+            if (after < n - 1) {
+                area[after] = Math.max(area[p], triangleArea(x, y, before, after, next[after]));
+                update(heap, position, area, size, position[after]);
+            }
+        }
+        return keep;
+    }
+
+
+    /**
+     * Restore the heap property for an element whose key changed in either direction
+     * @param heap The heap
+     * @param position The positions of the points in the heap
+     * @param area The keys
+     * @param size The size of the heap
+     * @param i The position of the changed element
+     */
+    private static void update(int[] heap, int[] position, double[] area, int size, int i) {
+        while (i > 0 && area[heap[(i - 1) / 2]] > area[heap[i]]) {
+            swap(heap, position, i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+        siftDown(heap, position, area, size, i);
+    }
+
+
+    /**
+     * Move an element of the heap down until both children are larger
+     * @param heap The heap
+     * @param position The positions of the points in the heap
+     * @param area The keys
+     * @param size The size of the heap
+     * @param i The position of the element
+     */
+    private static void siftDown(int[] heap, int[] position, double[] area, int size, int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && area[heap[left]] < area[heap[smallest]]) smallest = left;
+            if (right < size && area[heap[right]] < area[heap[smallest]]) smallest = right;
+            if (smallest == i) return;
+            swap(heap, position, i, smallest);
+            i = smallest;
+        }
+    }
+
+
+    /**
+     * Swap two elements of the heap
+     * @param heap The heap
+     * @param position The positions of the points in the heap
+     * @param i The position of the first element
+     * @param j The position of the second element
+     */
+    private static void swap(int[] heap, int[] position, int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+        position[heap[i]] = i;
+        position[heap[j]] = j;
+    }
+
+
+    /**
+     * Compute the area of the triangle of three points
+     * @param x The x coordinates
+     * @param y The y coordinates
+     * @param a The index of the first point
+     * @param b The index of the second point
+     * @param c The index of the third point
+     * @return The area
+     */
+    private static double triangleArea(double[] x, double[] y, int a, int b, int c) {
+        return Math.abs((x[b] - x[a]) * (y[c] - y[a]) - (x[c] - x[a]) * (y[b] - y[a])) / 2;
+    }
+
+
+    /**
+     * Compute the squared distance of a point from a line segment
+     * @param px The x coordinate of the point
+     * @param py The y coordinate of the point
+     * @param ax The x coordinate of the start of the segment
+     * @param ay The y coordinate of the start of the segment
+     * @param bx The x coordinate of the end of the segment
+     * @param by The y coordinate of the end of the segment
+     * @return The squared distance
+     */
+    private static double segmentDistance2(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        double t = length2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / length2;
+        t = Math.max(0, Math.min(1, t));
+        double ex = ax + t * dx - px;
+        double ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+
+    /**
+     * Create an array containing 0 to count - 1
+     * @param count The length of the array
+     * @return The array
+     */
+    private static int[] identity(int count) {
+        int[] rv = new int[count];
+        for (int i = 0; i < count; i++) {
+            rv[i] = i;
+        }
+        return rv;
+    }
+}
@@ -2,6 +2,7 @@ package de.velcommuta.denul.crypto;
 
 import junit.framework.TestCase;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -47,6 +48,35 @@ public class AESTest extends TestCase {
         }
     }
 
+    /**
+     * Test decryption of data spanning several chunks from a slice of a ByteBuffer
+     */
+    public void testDecryptionFromBuffer() {
+        byte[] key = AES.generateAES256Key();
+        byte[] aad = new byte[32];
+        byte[] message = new byte[200 * 1024];
+        new Random().nextBytes(message);
+        byte[] ciphertext = AES.encryptAES(message, key, aad);
+        // Embed the ciphertext in a larger array
+        byte[] reply = new byte[ciphertext.length + 10];
+        System.arraycopy(ciphertext, 0, reply, 7, ciphertext.length);
+        ByteBuffer buffer = ByteBuffer.wrap(reply, 7, ciphertext.length).asReadOnlyBuffer();
+        try {
+            assertTrue(Arrays.equals(message, AES.decryptAES(buffer, key, aad)));
+            assertEquals(7, buffer.position());
+        } catch (BadPaddingException e) {
+            fail("Exception occured during decryption");
+        }
+        // Changing the last chunk must be detected
+        reply[reply.length - 100]++;
+        try {
+            AES.decryptAES(buffer, key, aad);
+            fail("Decryption of a changed message did not fail");
+        } catch (BadPaddingException e) {
+            assertTrue("Exception was raised", true);
+        }
+    }
+
     /**
      * Test if the decryption really fails with a different key
      */
@@ -81,6 +111,22 @@ public class AESTest extends TestCase {
         }
     }
 
+    /**
+     * Test if the decryption raises an exception if the message is too short to contain the IV and the tag
+     */
+    public void testDecryptionFailWithTruncatedMessage() {
+        byte[] key = AES.generateAES256Key();
+        byte[] ciphertext = AES.encryptAES(new byte[0], key);
+        for (int length : new int[] {0, 15, 16, ciphertext.length - 1}) {
+            try {
+                AES.decryptAES(ByteBuffer.wrap(ciphertext, 0, length), key, null);
+                fail("No exception was raised during decryption of " + length + " bytes");
+            } catch (BadPaddingException e) {
+                assertTrue(true);
+            }
+        }
+    }
+
     /**
      * Test if the decryption raises an exception if the _IV_ was changed
      */
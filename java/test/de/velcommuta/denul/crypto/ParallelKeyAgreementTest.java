@@ -0,0 +1,64 @@
+package de.velcommuta.denul.crypto;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.velcommuta.denul.data.KeySet;
+
+/**
+ * Test cases for the parallel key agreement
+ */
+public class ParallelKeyAgreementTest extends TestCase {
+    /**
+     * Test that the parallel key agreement derives the same KeySets as the regular key exchange on the other end
+     */
+    public void testParallelAgreement() {
+        ECDHKeyExchange local = new ECDHKeyExchange();
+        List<ECDHKeyExchange> remotes = new LinkedList<>();
+        List<byte[]> kexdata = new LinkedList<>();
+        for (int i = 0; i < 20; i++) {
+            ECDHKeyExchange remote = new ECDHKeyExchange();
+            remotes.add(remote);
+            kexdata.add(remote.getPublicKexData());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParallelKeyAgreement agreement = new ParallelKeyAgreement(local.getKeypair(), executor);
+            List<KeySet> keys = agreement.agree(kexdata, true);
+            assertEquals(remotes.size(), keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                // Perform the other end of the exchange
+                KeyExchange remote = remotes.get(i);
+                assertTrue(remote.putPartnerKexData(local.getPublicKexData()));
+                KeySet remoteKeys = new HKDFKeyExpansion(remote.getAgreedKey()).expand(false);
+                assertNotNull(keys.get(i));
+                assertEquals(remoteKeys.fingerprint(), keys.get(i).fingerprint());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Test that invalid key data only fails the affected entry
+     */
+    public void testInvalidKeyData() {
+        ParallelKeyAgreement agreement = new ParallelKeyAgreement(new ECDHKeyExchange().getKeypair());
+        List<byte[]> kexdata = new LinkedList<>();
+        kexdata.add(new ECDHKeyExchange().getPublicKexData());
+        kexdata.add(new byte[] {0x00, 0x01});
+        kexdata.add(null);
+        kexdata.add(new ECDHKeyExchange().getPublicKexData());
+        List<KeySet> keys = agreement.agree(kexdata, true);
+        assertEquals(4, keys.size());
+        assertNotNull(keys.get(0));
+        assertNull(keys.get(1));
+        assertNull(keys.get(2));
+        assertNotNull(keys.get(3));
+    }
+}
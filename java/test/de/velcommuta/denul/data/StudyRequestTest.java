@@ -2,12 +2,16 @@ package de.velcommuta.denul.data;
 
 import de.velcommuta.denul.crypto.ECDHKeyExchange;
 import de.velcommuta.denul.crypto.RSA;
+import de.velcommuta.denul.metrics.Counter;
+import de.velcommuta.denul.metrics.MetricsRegistry;
 import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
 import de.velcommuta.denul.util.AsyncKeyGenerator;
 import de.velcommuta.denul.util.FormatHelper;
 import junit.framework.TestCase;
 
 import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
@@ -50,6 +54,28 @@ public class StudyRequestTest extends TestCase {
         assertEquals(req2, req2);
     }
 
+    /**
+     * Test that joins using another key exchange than Curve25519 are rejected and counted, without affecting the
+     * other joins of the batch
+     */
+    public void testPerformKexUnsupportedAlgorithm() {
+        StudyRequest req = getRandomStudyRequest();
+        ECDHKeyExchange participant = new ECDHKeyExchange();
+        StudyJoinRequest supported = new StudyJoinRequest();
+        supported.kexpub = participant.getPublicKexData();
+        supported.kexalgo = StudyJoinRequest.KEX_ALGO.KEX_ECDH_CURVE25519;
+        StudyJoinRequest unsupported = new StudyJoinRequest();
+        unsupported.kexpub = participant.getPublicKexData();
+        unsupported.kexalgo = StudyJoinRequest.KEX_ALGO.KEX_UNKNOWN;
+        Counter counter = MetricsRegistry.getDefault().counter("studyjoin.kex.unsupported");
+        long before = counter.getCount();
+        List<KeySet> keys = req.performKex(Arrays.asList(supported, unsupported));
+        assertEquals(2, keys.size());
+        assertNotNull(keys.get(0));
+        assertNull(keys.get(1));
+        assertEquals(before + 1, counter.getCount());
+    }
+
     /**
      * Helper function to generate a random String
      * @return A random string
@@ -1,11 +1,16 @@
 package de.velcommuta.denul.database;
 
 import de.velcommuta.denul.data.*;
+import de.velcommuta.denul.util.Config;
 import junit.framework.TestCase;
 import org.junit.After;
 import org.junit.Before;
 
 import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.*;
 
 /**
@@ -112,6 +117,51 @@ public class SQLiteDatabaseTest extends TestCase {
         assertEquals(mDB.getParticipantsForStudy(rv+1).size(), 0);
     }
 
+    /**
+     * Test if adding multiple study participants in one transaction works
+     */
+    public void testInsertMultipleParticipants() {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long rv = mDB.addStudyRequest(req);
+        List<KeySet> keys = new LinkedList<>();
+        for (int i = 0; i < 10; i++) {
+            byte[] key1 = new byte[32];
+            byte[] key2 = new byte[32];
+            byte[] ctr1 = new byte[32];
+            byte[] ctr2 = new byte[32];
+            new Random().nextBytes(key1);
+            new Random().nextBytes(key2);
+            new Random().nextBytes(ctr1);
+            new Random().nextBytes(ctr2);
+            keys.add(new KeySet(key1, key2, ctr1, ctr2, true));
+        }
+        List<Long> ids = mDB.addParticipants(keys, rv);
+        assertEquals(keys.size(), ids.size());
+        // Ensure the IDs match the KeySets
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals((long) ids.get(i), mDB.getParticipantIDByKeySet(keys.get(i)));
+        }
+        assertEquals(keys.size(), mDB.getParticipantsForStudy(rv).size());
+        // Ensure that an insert that fails halfway through does not add any participants
+        List<KeySet> broken = new LinkedList<>(keys);
+        broken.add(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true) {
+            @Override
+            public byte[] getInboundCtr() {
+                return null;
+            }
+        });
+        try {
+            mDB.addParticipants(broken, rv);
+            fail("Insert of invalid KeySet should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(keys.size(), mDB.getParticipants().size());
+        // Ensure the database is still usable after the failed transaction
+        assertEquals(1, mDB.addParticipants(keys.subList(0, 1), rv).size());
+    }
+
+
     /**
      * Test the insert of location data
      */
@@ -161,6 +211,373 @@ public class SQLiteDatabaseTest extends TestCase {
         assertEquals(first.getPosition(), track.getPosition());
     }
 
+    /**
+     * Test streaming the tracks of a participant, including tracks without coordinates
+     * @throws IOException Never, as the TrackSink does not throw it
+     */
+    public void testStreamGPSTracks() throws IOException {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long study = mDB.addStudyRequest(req);
+        long part = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        long other = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        GPSTrack track = getRandomGPSTrack();
+        Location loc = new Location();
+        loc.setLatitude(2);
+        loc.setLongitude(3);
+        loc.setTime(11);
+        track.getPosition().add(loc);
+        mDB.addGPSTrack(track, part);
+        mDB.addGPSTrack(new GPSTrack(new LinkedList<Location>(), "empty", GPSTrack.VALUE_RUNNING, 2, 3, "GMT"), part);
+        mDB.addGPSTrack(getRandomGPSTrack(), other);
+        final List<GPSTrack> tracks = new LinkedList<>();
+        int count = mDB.streamGPSTracksByParticipantID(part, new TrackSink() {
+            @Override
+            public void beginTrack(GPSTrack track) {
+                tracks.add(track);
+            }
+
+            @Override
+            public void location(double time, double latitude, double longitude) {
+                Location loc = new Location();
+                loc.setTime(time);
+                loc.setLatitude(latitude);
+                loc.setLongitude(longitude);
+                tracks.get(tracks.size() - 1).getPosition().add(loc);
+            }
+
+            @Override
+            public void endTrack() {
+            }
+        });
+        assertEquals(2, count);
+        assertEquals(2, tracks.size());
+        assertEquals(track.getSessionName(), tracks.get(0).getSessionName());
+        assertEquals(track.getDescription(), tracks.get(0).getDescription());
+        assertEquals(track.getPosition(), tracks.get(0).getPosition());
+        assertEquals(part, tracks.get(0).getOwner());
+        assertEquals("empty", tracks.get(1).getSessionName());
+        assertEquals(0, tracks.get(1).getPosition().size());
+    }
+
+    /**
+     * Test streaming GPS tracks at a coarser level of detail
+     */
+    public void testStreamLevelsOfDetail() throws IOException {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long study = mDB.addStudyRequest(req);
+        long part = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        // A straight line of 1000 coordinates, one second and roughly one meter apart
+        List<Location> locations = new LinkedList<>();
+        for (int i = 0; i < 1000; i++) {
+            Location loc = new Location();
+            loc.setLatitude(50 + i * 0.00001);
+            loc.setLongitude(8);
+            loc.setTime(i * 1000);
+            locations.add(loc);
+        }
+        mDB.addGPSTrack(new GPSTrack(locations, "line", GPSTrack.VALUE_RUNNING, 0, 999000, "GMT"), part);
+        assertEquals(1000, countLocations(part, Shareable.GRANULARITY_FINE));
+        int coarse = countLocations(part, Shareable.GRANULARITY_COARSE);
+        int veryCoarse = countLocations(part, Shareable.GRANULARITY_VERY_COARSE);
+        assertTrue(coarse >= 2 && coarse < 1000);
+        assertTrue(veryCoarse >= 2 && veryCoarse <= coarse);
+
+        // Without precomputed levels, all coordinates are returned
+        System.setProperty("denul." + Config.DATABASE_LEVELS_OF_DETAIL, "false");
+        Config.reload();
+        try {
+            long other = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true),
+                    study);
+            mDB.addGPSTrack(new GPSTrack(locations, "line", GPSTrack.VALUE_RUNNING, 0, 999000, "GMT"), other);
+            assertEquals(1000, countLocations(other, Shareable.GRANULARITY_VERY_COARSE));
+        } finally {
+            System.clearProperty("denul." + Config.DATABASE_LEVELS_OF_DETAIL);
+            Config.reload();
+        }
+    }
+
+
+    /**
+     * Count the coordinates streamed for a participant at a level of detail
+     * @param participant The database ID of the participant
+     * @param granularity The level of detail, one of the Shareable.GRANULARITY_* constants
+     * @return The number of coordinates
+     * @throws IOException Never
+     */
+    private int countLocations(long participant, int granularity) throws IOException {
+        final int[] count = new int[1];
+        mDB.streamGPSTracksByParticipantID(participant, granularity, new TrackSink() {
+            @Override
+            public void beginTrack(GPSTrack track) {
+            }
+
+            @Override
+            public void location(double time, double latitude, double longitude) {
+                count[0]++;
+            }
+
+            @Override
+            public void endTrack() {
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Test region and time range queries over the coordinates of a study
+     */
+    public void testRegionQuery() {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long study = mDB.addStudyRequest(req);
+        long part = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        long otherStudy = mDB.addStudyRequest(StudyRequestTest.getRandomStudyRequest());
+        long other = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), otherStudy);
+        // A grid of coordinates with a timestamp per coordinate
+        List<Location> grid = new LinkedList<>();
+        for (int lat = 0; lat < 10; lat++) {
+            for (int lon = 0; lon < 10; lon++) {
+                Location loc = new Location();
+                loc.setLatitude(50 + lat * 0.001);
+                loc.setLongitude(8 + lon * 0.001);
+                loc.setTime(1451606400000.0 + lat * 10 + lon);
+                grid.add(loc);
+            }
+        }
+        mDB.addGPSTrack(new GPSTrack(grid, "grid", GPSTrack.VALUE_RUNNING, 0, 1, "GMT"), part);
+        mDB.addGPSTrack(getRandomGPSTrack(), part);
+        mDB.addGPSTrack(new GPSTrack(grid, "other", GPSTrack.VALUE_RUNNING, 0, 1, "GMT"), other);
+
+        // A 3x4 region over all time, which does not include the random track or the other study
+        List<GPSTrack> tracks = mDB.getGPSTracksInRegion(study, 50.002, 50.004, 8.0005, 8.0035, 0, Double.MAX_VALUE);
+        assertEquals(1, tracks.size());
+        assertEquals("grid", tracks.get(0).getSessionName());
+        assertEquals(part, tracks.get(0).getOwner());
+        assertEquals(9, tracks.get(0).getPosition().size());
+        for (Location loc : tracks.get(0).getPosition()) {
+            assertTrue(loc.getLatitude() >= 50.002 && loc.getLatitude() <= 50.004);
+            assertTrue(loc.getLongitude() >= 8.0005 && loc.getLongitude() <= 8.0035);
+        }
+
+        // The same region, restricted to the first row of the grid by the time range. The timestamps are closer
+        // together than the precision of the index, so this also checks the exact comparison.
+        tracks = mDB.getGPSTracksInRegion(study, 50.0, 50.009, 8.0, 8.009, 1451606400000.0, 1451606400009.0);
+        assertEquals(1, tracks.size());
+        assertEquals(10, tracks.get(0).getPosition().size());
+
+        // The whole world contains both tracks of the study
+        tracks = mDB.getGPSTracksInRegion(study, -90, 90, -180, 180, 0, Double.MAX_VALUE);
+        assertEquals(2, tracks.size());
+        assertEquals(101, tracks.get(0).getPosition().size() + tracks.get(1).getPosition().size());
+
+        // Deleting a study removes its coordinates from the index
+        mDB.deleteStudy(req);
+        assertEquals(0, mDB.getGPSTracksInRegion(study, -90, 90, -180, 180, 0, Double.MAX_VALUE).size());
+        assertEquals(1, mDB.getGPSTracksInRegion(otherStudy, -90, 90, -180, 180, 0, Double.MAX_VALUE).size());
+    }
+
+    /**
+     * Test aggregate queries over the sessions of a study
+     */
+    public void testAggregateSessions() {
+        long study = mDB.addStudyRequest(StudyRequestTest.getRandomStudyRequest());
+        long part = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        long other = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        long otherStudy = mDB.addStudyRequest(StudyRequestTest.getRandomStudyRequest());
+        long outsider = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), otherStudy);
+        long day = SessionAggregate.MILLIS_PER_DAY;
+        long start = 16800 * day;
+        List<Location> none = new LinkedList<>();
+        // part: two runs on the first day, a ride on the second day
+        mDB.addGPSTrack(new GPSTrack(none, "a", GPSTrack.VALUE_RUNNING, start + 1000, start + 2000, "GMT", 10f), part);
+        mDB.addGPSTrack(new GPSTrack(none, "b", GPSTrack.VALUE_RUNNING, start + 5000, start + 8000, "GMT", 20f), part);
+        mDB.addGPSTrack(new GPSTrack(none, "c", GPSTrack.VALUE_CYCLING, start + day, start + day + 4000, "GMT", 100f), part);
+        // other: a run on the second day, and one long before the time range
+        mDB.addGPSTrack(new GPSTrack(none, "d", GPSTrack.VALUE_RUNNING, start + day + 10, start + day + 510, "GMT", 5f), other);
+        mDB.addGPSTrack(new GPSTrack(none, "e", GPSTrack.VALUE_RUNNING, 0, 1000, "GMT", 7f), other);
+        // A participant of another study
+        mDB.addGPSTrack(new GPSTrack(none, "f", GPSTrack.VALUE_RUNNING, start, start + 1000, "GMT", 1f), outsider);
+
+        // Tracks per participant and day
+        List<SessionAggregate> rv = mDB.aggregateSessions(study, start, start + 2 * day,
+                SessionAggregate.BY_PARTICIPANT | SessionAggregate.BY_DAY);
+        assertEquals(3, rv.size());
+        assertEquals(new SessionAggregate(part, 16800, -1, 2, 30, 4000, 1000, 3000), rv.get(0));
+        assertEquals(new SessionAggregate(part, 16801, -1, 1, 100, 4000, 4000, 4000), rv.get(1));
+        assertEquals(new SessionAggregate(other, 16801, -1, 1, 5, 500, 500, 500), rv.get(2));
+        assertEquals(2000, rv.get(0).getMeanDuration());
+
+        // Distance per mode of transportation, over all time
+        rv = mDB.aggregateSessions(study, 0, Long.MAX_VALUE, SessionAggregate.BY_MODE);
+        assertEquals(2, rv.size());
+        assertEquals(new SessionAggregate(-1, -1, GPSTrack.VALUE_RUNNING, 4, 42, 5500, 500, 3000), rv.get(0));
+        assertEquals(new SessionAggregate(-1, -1, GPSTrack.VALUE_CYCLING, 1, 100, 4000, 4000, 4000), rv.get(1));
+
+        // Session durations of the whole study in the time range
+        rv = mDB.aggregateSessions(study, start, start + 2 * day, 0);
+        assertEquals(1, rv.size());
+        assertEquals(new SessionAggregate(-1, -1, -1, 4, 135, 8500, 500, 4000), rv.get(0));
+
+        // Empty time range
+        assertEquals(0, mDB.aggregateSessions(study, 1, 2, 0).size());
+        assertEquals(0, mDB.aggregateSessions(study, 1, 2, SessionAggregate.BY_PARTICIPANT).size());
+    }
+
+    /**
+     * Test that the statistics of a study follow the inserted participants and data
+     * @throws SQLException If the statistics table cannot be dropped
+     */
+    public void testStudyStatistics() throws SQLException {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long study = mDB.addStudyRequest(req);
+        StudyStatistics stats = mDB.getStudyStatistics(study);
+        assertEquals(0, stats.getParticipants());
+        assertEquals(0, stats.getSessions());
+
+        long part = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        List<KeySet> keys = new LinkedList<>();
+        for (int i = 0; i < 3; i++) {
+            keys.add(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true));
+        }
+        mDB.addParticipants(keys, study);
+        long otherStudy = mDB.addStudyRequest(StudyRequestTest.getRandomStudyRequest());
+        long other = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), otherStudy);
+
+        long before = System.currentTimeMillis();
+        mDB.addGPSTrack(getRandomGPSTrack(), part);
+        GPSTrack track = getRandomGPSTrack();
+        track.getPosition().add(track.getPosition().get(0));
+        track.setOwner((int) part);
+        mDB.addShareable(track, 1234);
+        mDB.addGPSTrack(getRandomGPSTrack(), other);
+        stats = mDB.getStudyStatistics(study);
+        assertEquals(study, stats.getStudy());
+        assertEquals(4, stats.getParticipants());
+        assertEquals(2, stats.getSessions());
+        assertEquals(3, stats.getPoints());
+        assertEquals(1234, stats.getBytes());
+        assertTrue(stats.getLastReceived() >= before && stats.getLastReceived() <= System.currentTimeMillis());
+        assertEquals(1, mDB.getStudyStatistics(otherStudy).getSessions());
+
+        // A failed insert does not change the statistics
+        try {
+            mDB.addGPSTrack(getRandomGPSTrack(), 9999);
+            fail("Track of an unknown participant inserted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(2, mDB.getStudyStatistics(study).getSessions());
+
+        // Databases without statistics get them computed when they are opened
+        mDB.close();
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:test.db");
+        connection.createStatement().execute("DROP TABLE " + SQLContract.Statistics.TABLE_NAME + ";");
+        connection.close();
+        mDB = new SQLiteDatabase("test.db");
+        stats = mDB.getStudyStatistics(study);
+        assertEquals(4, stats.getParticipants());
+        assertEquals(2, stats.getSessions());
+        assertEquals(3, stats.getPoints());
+        assertEquals(0, stats.getBytes());
+
+        // Deleting the study deletes its statistics
+        mDB.deleteStudy(req);
+        assertEquals(0, mDB.getStudyStatistics(study).getParticipants());
+        assertEquals(1, mDB.getStudyStatistics(otherStudy).getParticipants());
+    }
+
+    /**
+     * Test that a shareable that is delivered again is only stored once per participant
+     */
+    public void testDuplicateShareable() {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long study = mDB.addStudyRequest(req);
+        long part = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        long other = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        byte[] hash = new byte[32];
+        hash[0] = 1;
+
+        GPSTrack track = getRandomGPSTrack();
+        track.setOwner((int) part);
+        track.setContentHash(hash);
+        assertTrue(mDB.addShareable(track, 100));
+        assertFalse(mDB.addShareable(track, 100));
+        // The same content from another participant, and tracks without a content hash, are not duplicates
+        track.setOwner((int) other);
+        assertTrue(mDB.addShareable(track, 100));
+        track = getRandomGPSTrack();
+        track.setOwner((int) part);
+        assertTrue(mDB.addShareable(track, 100));
+        assertTrue(mDB.addShareable(track, 100));
+
+        assertEquals(3, mDB.getGPSTracksByParticipantID(part).size());
+        assertEquals(1, mDB.getGPSTracksByParticipantID(other).size());
+        StudyStatistics stats = mDB.getStudyStatistics(study);
+        assertEquals(4, stats.getSessions());
+        assertEquals(400, stats.getBytes());
+
+        // The unique index survives reopening the database
+        mDB.close();
+        mDB = new SQLiteDatabase("test.db");
+        track = getRandomGPSTrack();
+        track.setOwner((int) part);
+        track.setContentHash(hash);
+        assertFalse(mDB.addShareable(track, 100));
+        assertEquals(4, mDB.getStudyStatistics(study).getSessions());
+    }
+
+    /**
+     * Test the poll journal and the queue of revocations its finished entries are moved to
+     */
+    public void testPollJournal() {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long study = mDB.addStudyRequest(req);
+        long part = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        byte[] ctr = new byte[32];
+        ctr[0] = 1;
+        KeySet keys = new KeySet(new byte[32], new byte[32], ctr, new byte[32], true, (int) part);
+        List<PollJournalEntry> journal = new LinkedList<>();
+        for (byte i = 0; i < 3; i++) {
+            TokenPair keyBlock = new TokenPair(new byte[] {i}, new byte[] {i, i});
+            journal.add(new PollJournalEntry(part, keyBlock, new DataBlock(new byte[] {i, i, i}, new byte[] {i, 0})));
+        }
+        mDB.updateParticipants(Collections.singletonList(keys), journal);
+        assertEquals(1, mDB.getParticipantsForStudy(study).get(0).getInboundCtr()[0]);
+
+        // Fetch the data block of the first entry
+        journal.get(0).getData().setCiphertext(new byte[] {42});
+        journal.get(0).setState(PollJournalEntry.STATE_FETCHED);
+        mDB.updatePollJournal(journal.subList(0, 1));
+        List<PollJournalEntry> read = mDB.getPollJournal(study);
+        assertEquals(3, read.size());
+        assertEquals(journal.get(0).getID(), read.get(0).getID());
+        assertEquals(part, read.get(0).getParticipant());
+        assertEquals(PollJournalEntry.STATE_FETCHED, read.get(0).getState());
+        assertTrue(Arrays.equals(new byte[] {42}, read.get(0).getData().getCiphertext()));
+        assertEquals(PollJournalEntry.STATE_PENDING, read.get(1).getState());
+        assertNull(read.get(1).getData().getCiphertext());
+        assertTrue(Arrays.equals(new byte[] {1, 1, 1}, read.get(1).getData().getKey()));
+        assertTrue(Arrays.equals(new byte[] {1, 0}, read.get(1).getData().getIdentifier()));
+        assertTrue(Arrays.equals(new byte[] {1, 1}, read.get(1).getKeyBlock().getRevocation()));
+
+        // Finished entries are moved to the revocation queue, in order
+        mDB.finishPollJournal(journal.subList(0, 2));
+        assertEquals(1, mDB.getPollJournal(study).size());
+        Map<Long, TokenPair> queued = mDB.getQueuedRevocations(1);
+        assertEquals(1, queued.size());
+        assertTrue(Arrays.equals(new byte[] {0}, queued.values().iterator().next().getIdentifier()));
+        queued = mDB.getQueuedRevocations(10);
+        assertEquals(2, queued.size());
+        mDB.removeQueuedRevocations(Collections.singletonList(queued.keySet().iterator().next()));
+        queued = mDB.getQueuedRevocations(10);
+        assertEquals(1, queued.size());
+        assertTrue(Arrays.equals(new byte[] {1, 1}, queued.values().iterator().next().getRevocation()));
+
+        // Deleting the study deletes its journal, but not the queued revocations
+        mDB.deleteStudy(req);
+        assertEquals(0, mDB.getPollJournal(study).size());
+        assertEquals(1, mDB.getQueuedRevocations(10).size());
+    }
+
     /**
      * Helper function to create a random GPS track
      * @return A random GPS track
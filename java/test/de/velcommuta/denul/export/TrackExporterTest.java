@@ -0,0 +1,171 @@
+package de.velcommuta.denul.export;
+
+import de.velcommuta.denul.data.GPSTrack;
+import de.velcommuta.denul.data.KeySet;
+import de.velcommuta.denul.data.Location;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.database.SQLiteDatabase;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test cases for the export of study data
+ */
+public class TrackExporterTest extends TestCase {
+    private static final String DATABASE = "export-test.db";
+    private static final int PARTICIPANTS = 3;
+    private static final int POINTS = 20000;
+
+    private File mDirectory;
+    private long mStudy;
+    private List<Long> mParticipants = new ArrayList<>();
+
+    /**
+     * Setup function, creating a study with a number of participants, each of which has a track with coordinates and
+     * a track without coordinates
+     */
+    @Before
+    public void setUp() {
+        mDirectory = new File("export-test");
+        SQLiteDatabase db = new SQLiteDatabase(DATABASE);
+        mStudy = db.addStudyRequest(StudyRequestTest.getRandomStudyRequest());
+        for (int p = 0; p < PARTICIPANTS; p++) {
+            long id = db.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), mStudy);
+            mParticipants.add(id);
+            List<Location> locations = new ArrayList<>(POINTS);
+            for (int i = 0; i < POINTS; i++) {
+                Location loc = new Location();
+                loc.setTime(i);
+                loc.setLatitude(50 + i / 1e6);
+                loc.setLongitude(8 + p);
+                locations.add(loc);
+            }
+            GPSTrack track = new GPSTrack(locations, "run, \"long\"", GPSTrack.VALUE_RUNNING, 0, 1, "GMT+1", 1000.0f);
+            track.setDescription("line\nbreak");
+            db.addGPSTrack(track, id);
+            db.addGPSTrack(new GPSTrack(new LinkedList<Location>(), "empty", GPSTrack.VALUE_CYCLING, 2, 3, "GMT"), id);
+        }
+        db.close();
+    }
+
+
+    /**
+     * Teardown function, deleting the database and the exported files
+     */
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                assertTrue(f.delete());
+            }
+        }
+        mDirectory.delete();
+        assertTrue(new File(DATABASE).delete());
+    }
+
+
+    /**
+     * Test the CSV export
+     * @throws IOException If the export fails
+     */
+    public void testCsv() throws IOException {
+        TrackExporter exporter = new TrackExporter(DATABASE, ExportFormat.CSV);
+        assertEquals(2 * PARTICIPANTS, exporter.exportStudy(mStudy, mDirectory));
+        for (long id : mParticipants) {
+            List<String> lines = readLines(exporter.getFile(mDirectory, id));
+            assertEquals(CsvTrackWriter.HEADER, lines.get(0));
+            assertTrue(lines.get(1).contains("," + id + ",\"run, \"\"long\"\"\",0,0,1,GMT+1,1000.0,0.0,50.0,"));
+            assertTrue(lines.get(lines.size() - 1).endsWith(",empty,1,2,3,GMT,0.0,,,"));
+            assertEquals(POINTS + 2, lines.size());
+        }
+    }
+
+
+    /**
+     * Test the NDJSON export
+     * @throws IOException If the export fails
+     */
+    public void testNdjson() throws IOException {
+        TrackExporter exporter = new TrackExporter(DATABASE, ExportFormat.NDJSON);
+        assertEquals(2 * PARTICIPANTS, exporter.exportStudy(mStudy, mDirectory));
+        for (long id : mParticipants) {
+            List<String> lines = readLines(exporter.getFile(mDirectory, id));
+            assertEquals(2, lines.size());
+            assertTrue(lines.get(0).contains("\"owner\":" + id + ",\"name\":\"run, \\\"long\\\"\""));
+            assertTrue(lines.get(0).contains("\"description\":\"line\\nbreak\""));
+            assertTrue(lines.get(0).contains("\"path\":[[0.0,50.0,"));
+            assertTrue(lines.get(1).endsWith("\"description\":null,\"path\":[]}"));
+        }
+    }
+
+
+    /**
+     * Test the columnar export
+     * @throws IOException If the export fails
+     */
+    public void testColumnar() throws IOException {
+        TrackExporter exporter = new TrackExporter(DATABASE, ExportFormat.COLUMNAR);
+        assertEquals(2 * PARTICIPANTS, exporter.exportStudy(mStudy, mDirectory));
+        for (int p = 0; p < PARTICIPANTS; p++) {
+            long id = mParticipants.get(p);
+            int points = 0;
+            int tracks = 0;
+            try (ColumnarTrackReader reader = new ColumnarTrackReader(new FileInputStream(exporter.getFile(mDirectory, id)))) {
+                while (reader.next()) {
+                    if (reader.getType() == ColumnarTrackWriter.BLOCK_POINTS) {
+                        assertTrue(reader.getRows() <= ColumnarTrackWriter.POINT_BLOCK_SIZE);
+                        for (int i = 0; i < reader.getRows(); i++) {
+                            assertEquals((double) points + i, reader.getTimes()[i]);
+                            assertEquals(8.0 + p, reader.getLongitudes()[i]);
+                        }
+                        points += reader.getRows();
+                    } else {
+                        assertEquals(ColumnarTrackWriter.BLOCK_TRACKS, reader.getType());
+                        assertEquals(2, reader.getRows());
+                        assertEquals(id, reader.getOwners()[0]);
+                        assertEquals(POINTS, reader.getPointCounts()[0]);
+                        assertEquals(0, reader.getPointCounts()[1]);
+                        assertEquals("line\nbreak", reader.getDescriptions()[0]);
+                        assertNull(reader.getDescriptions()[1]);
+                        assertEquals("empty", reader.getNames()[1]);
+                        tracks += reader.getRows();
+                    }
+                }
+            }
+            assertEquals(POINTS, points);
+            assertEquals(2, tracks);
+        }
+    }
+
+
+    /**
+     * Read the lines of a gzip-compressed text file
+     * @param file The file
+     * @return The lines
+     * @throws IOException If reading fails
+     */
+    private static List<String> readLines(File file) throws IOException {
+        List<String> rv = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                rv.add(line);
+            }
+        }
+        return rv;
+    }
+}
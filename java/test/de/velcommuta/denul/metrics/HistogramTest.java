@@ -0,0 +1,66 @@
+package de.velcommuta.denul.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the histogram
+ */
+public class HistogramTest extends TestCase {
+    /**
+     * Test that every value lies within the bounds of its bucket, and that the buckets are accurate to within 1/16
+     */
+    public void testBuckets() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long v : values) {
+            int bucket = Histogram.getBucket(v);
+            assertTrue(Histogram.getUpperBound(bucket) >= v);
+            if (bucket > 0) assertTrue(Histogram.getUpperBound(bucket - 1) < v);
+            assertTrue(Histogram.getUpperBound(bucket) - v <= v / 16);
+        }
+    }
+
+
+    /**
+     * Test the statistics of a uniform distribution
+     */
+    public void testPercentiles() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getPercentile(0.5));
+        for (int i = 1; i <= 10000; i++) {
+            h.record(i);
+        }
+        assertEquals(10000, h.getCount());
+        assertEquals(10000, h.getMax());
+        assertEquals(5000, h.getMean());
+        assertEquals(5000, h.getPercentile(0.5), 5000 / 16);
+        assertEquals(9900, h.getPercentile(0.99), 9900 / 16);
+        assertEquals(10000, h.getPercentile(1));
+    }
+
+
+    /**
+     * Test that concurrent updates are not lost
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public void testConcurrentRecord() throws InterruptedException {
+        final Histogram h = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        h.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(40000, h.getCount());
+        assertEquals(9999, h.getMax());
+        assertEquals(4L * 9999 * 10000 / 2, h.getSum());
+    }
+}
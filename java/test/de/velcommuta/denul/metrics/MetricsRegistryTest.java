@@ -0,0 +1,60 @@
+package de.velcommuta.denul.metrics;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Test cases for the metrics registry and its export
+ */
+public class MetricsRegistryTest extends TestCase {
+    /**
+     * Test that metrics are created once and reported in the snapshot
+     */
+    public void testSnapshot() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("a.count").inc();
+        registry.counter("a.count").inc(2);
+        assertSame(registry.histogram("b.latency"), registry.histogram("b.latency"));
+        registry.histogram("b.latency").record(100);
+        registry.gauge("c.value", new Gauge() {
+            @Override
+            public long getValue() {
+                return 42;
+            }
+        });
+        Map<String, Long> snapshot = registry.snapshot();
+        assertEquals(3, (long) snapshot.get("a.count"));
+        assertEquals(1, (long) snapshot.get("b.latency.count"));
+        assertEquals(100, (long) snapshot.get("b.latency.max"));
+        assertEquals(42, (long) snapshot.get("c.value"));
+    }
+
+
+    /**
+     * Test writing the metrics to a file
+     * @throws IOException If writing or reading the file fails
+     */
+    public void testWriteFile() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("b").inc();
+        registry.counter("a").inc(5);
+        StringWriter w = new StringWriter();
+        registry.writeTo(w);
+        assertEquals("a 5\nb 1\n", w.toString());
+        File file = File.createTempFile("metrics", ".txt");
+        try {
+            MetricsExporter.writeFile(registry, file);
+            // Replacing an existing file must work as well
+            registry.counter("b").inc();
+            MetricsExporter.writeFile(registry, file);
+            assertEquals("a 5\nb 2\n", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+}
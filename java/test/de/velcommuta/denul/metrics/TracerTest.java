@@ -0,0 +1,139 @@
+package de.velcommuta.denul.metrics;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Test cases for the tracing
+ */
+public class TracerTest extends TestCase {
+    private File mFile;
+
+    /**
+     * Setup function, creating a temporary trace file
+     * @throws IOException If the file cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("trace", ".json");
+    }
+
+
+    /**
+     * Teardown function, deleting the trace files
+     */
+    @After
+    public void tearDown() {
+        for (int i = 1; i <= 2; i++) {
+            new File(mFile.getPath() + "." + i).delete();
+        }
+        mFile.delete();
+    }
+
+
+    /**
+     * Test that spans are written as complete events with their arguments
+     * @throws IOException If reading the trace fails
+     */
+    public void testSpans() throws IOException {
+        Tracer tracer = new Tracer(mFile.getPath(), 1024 * 1024, 2);
+        try (Span outer = tracer.start("study").arg("study", 7)) {
+            try (Span inner = tracer.start("get.keys").arg("name", "a \"quoted\" value")) {
+                inner.arg("keys", 3);
+            }
+            outer.arg("participants", 12);
+        }
+        tracer.close();
+        String trace = read(mFile);
+        assertTrue(trace.startsWith("[\n"));
+        assertTrue(trace.endsWith("\n]\n"));
+        // The inner span ends first and is written first
+        int inner = trace.indexOf("\"name\":\"get.keys\"");
+        int outer = trace.indexOf("\"name\":\"study\"");
+        assertTrue(inner > 0 && outer > inner);
+        assertTrue(trace.contains("\"args\":{\"name\":\"a \\\"quoted\\\" value\",\"keys\":3}"));
+        assertTrue(trace.contains("\"args\":{\"study\":7,\"participants\":12}"));
+        assertTrue(trace.contains("\"ph\":\"X\""));
+        assertTrue(trace.contains("\"tid\":" + Thread.currentThread().getId()));
+    }
+
+
+    /**
+     * Test that nothing is written while tracing is disabled
+     * @throws IOException If reading the trace fails
+     */
+    public void testDisabled() throws IOException {
+        Tracer tracer = new Tracer("", 1024, 2);
+        Span span = tracer.start("study").arg("study", 1);
+        assertSame(Span.NOOP, span);
+        span.close();
+        tracer.configure(mFile.getPath(), 1024, 2);
+        tracer.start("enabled").close();
+        tracer.configure("", 1024, 2);
+        tracer.start("disabled").close();
+        String trace = read(mFile);
+        assertTrue(trace.contains("enabled"));
+        assertFalse(trace.contains("disabled"));
+    }
+
+
+    /**
+     * Test the rotation of the trace file
+     * @throws IOException If reading the trace fails
+     */
+    public void testRotation() throws IOException {
+        Tracer tracer = new Tracer(mFile.getPath(), 200, 2);
+        for (int i = 0; i < 20; i++) {
+            tracer.start("span" + i).close();
+        }
+        tracer.close();
+        File first = new File(mFile.getPath() + ".1");
+        File second = new File(mFile.getPath() + ".2");
+        assertTrue(first.exists());
+        assertTrue(second.exists());
+        assertFalse(new File(mFile.getPath() + ".3").exists());
+        // Every file is a complete trace on its own, and the newest span is in the current file
+        for (File f : new File[] {mFile, first, second}) {
+            String trace = read(f);
+            assertTrue(trace.startsWith("[\n") && trace.endsWith("\n]\n"));
+        }
+        assertTrue(read(mFile).contains("span19"));
+        assertTrue(mFile.length() < 200 + 200);
+    }
+
+
+    /**
+     * Test that the trace of a previous run is kept as a rotated file instead of being overwritten
+     * @throws IOException If reading the trace fails
+     */
+    public void testRestart() throws IOException {
+        Tracer tracer = new Tracer(mFile.getPath(), 1024 * 1024, 2);
+        tracer.start("first-run").close();
+        tracer.close();
+        tracer = new Tracer(mFile.getPath(), 1024 * 1024, 2);
+        tracer.start("second-run").close();
+        tracer.close();
+        String previous = read(new File(mFile.getPath() + ".1"));
+        assertTrue(previous.contains("first-run"));
+        assertTrue(previous.startsWith("[\n") && previous.endsWith("\n]\n"));
+        String current = read(mFile);
+        assertTrue(current.contains("second-run"));
+        assertFalse(current.contains("first-run"));
+    }
+
+
+    /**
+     * Read a file into a String
+     * @param file The file
+     * @return The contents
+     * @throws IOException If reading fails
+     */
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+}
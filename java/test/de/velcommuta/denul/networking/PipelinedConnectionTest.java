@@ -0,0 +1,203 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.crypto.SHA256IdentifierDerivation;
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.data.TokenPair;
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.ThreadPools;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Test cases for the PipelinedConnection and the AsyncProtocolAdapter, running against the stand-in server
+ */
+public class PipelinedConnectionTest extends TestCase {
+    private StandInServer mServer;
+    private ExecutorService mExecutor;
+
+    /**
+     * Setup function
+     */
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer();
+        mExecutor = ThreadPools.newTaskExecutor("PipelinedConnectionTest", 16);
+    }
+
+
+    /**
+     * Teardown function
+     */
+    @After
+    public void tearDown() {
+        System.clearProperty("denul." + Config.PIPELINE_DEPTH);
+        Config.reload();
+        mExecutor.shutdownNow();
+        mServer.shutdown();
+        mServer = null;
+    }
+
+
+    /**
+     * Helper function to get an AsyncProtocol connected through a PipelinedConnection
+     * @return The AsyncProtocol
+     * @throws IOException If the connection fails
+     */
+    private AsyncProtocol connect() throws IOException {
+        Connection c = new PipelinedConnection((FramedConnection) mServer.getConnectionFactory().openConnection());
+        Protocol p = new ProtobufProtocol();
+        assertEquals(Protocol.CONNECT_OK, p.connect(c));
+        return new AsyncProtocolAdapter(p, mExecutor);
+    }
+
+
+    /**
+     * Test that the replies of many concurrent requests are matched to the right requests
+     * @throws IOException If the connection fails
+     */
+    public void testGetMany() throws IOException {
+        AsyncProtocol p = connect();
+        List<DataBlock> blocks = new ArrayList<>();
+        List<TokenPair> pairs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+            pairs.add(pair);
+            blocks.add(new DataBlock(new byte[32], ("value" + i).getBytes(), pair.getIdentifier()));
+        }
+        for (int rv : p.putMany(blocks).join().values()) {
+            assertEquals(Protocol.PUT_OK, rv);
+        }
+        // Add a key that is not on the server
+        pairs.add(new SHA256IdentifierDerivation().generateRandomIdentifier());
+        Map<TokenPair, byte[]> values = p.getMany(pairs).join();
+        assertEquals(201, values.size());
+        for (int i = 0; i < 200; i++) {
+            assertTrue(Arrays.equals(("value" + i).getBytes(), values.get(pairs.get(i))));
+        }
+        assertEquals(Protocol.GET_FAIL_KEY_NOT_TAKEN, values.get(pairs.get(200)));
+        p.disconnect();
+    }
+
+
+    /**
+     * Test that concurrent requests through a ResilientConnection are in flight at the same time if it wraps a
+     * PipelinedConnection, and are still matched to the right replies if it does not
+     * @throws IOException If the connection fails
+     */
+    public void testResilientConnection() throws IOException {
+        List<TokenPair> pairs = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+            pairs.add(pair);
+            mServer.put(pair.getIdentifier(), ("value" + i).getBytes());
+        }
+        mServer.setLatency(100);
+        for (final boolean pipelined : new boolean[] {false, true}) {
+            final ConnectionFactory factory = mServer.getConnectionFactory();
+            Protocol p = new ProtobufProtocol();
+            assertEquals(Protocol.CONNECT_OK, p.connect(new ResilientConnection(new ConnectionFactory() {
+                @Override
+                public Connection openConnection() throws IOException {
+                    Connection c = factory.openConnection();
+                    return pipelined ? new PipelinedConnection((FramedConnection) c) : c;
+                }
+            })));
+            long start = System.nanoTime();
+            Map<TokenPair, byte[]> values = new AsyncProtocolAdapter(p, mExecutor).getMany(pairs).join();
+            long millis = (System.nanoTime() - start) / 1000000L;
+            for (int i = 0; i < 16; i++) {
+                assertTrue(Arrays.equals(("value" + i).getBytes(), values.get(pairs.get(i))));
+            }
+            if (pipelined) {
+                assertTrue("Pipelined requests took " + millis + "ms", millis < 800);
+            } else {
+                assertTrue("Serial requests took only " + millis + "ms", millis >= 1600);
+            }
+            p.disconnect();
+        }
+    }
+
+
+    /**
+     * Test that the pipeline depth of an open connection follows reloads of the configuration
+     * @throws IOException If the connection fails
+     */
+    public void testDepthFollowsReload() throws IOException {
+        System.setProperty("denul." + Config.PIPELINE_DEPTH, "1");
+        Config.reload();
+        List<TokenPair> pairs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+            pairs.add(pair);
+            mServer.put(pair.getIdentifier(), ("value" + i).getBytes());
+        }
+        AsyncProtocol p = connect();
+        mServer.setLatency(100);
+        // One request at a time
+        long start = System.nanoTime();
+        assertEquals(4, p.getMany(pairs).join().size());
+        long millis = (System.nanoTime() - start) / 1000000L;
+        assertTrue("Requests with depth 1 took only " + millis + "ms", millis >= 400);
+        // All requests at once
+        System.setProperty("denul." + Config.PIPELINE_DEPTH, "8");
+        Config.reload();
+        start = System.nanoTime();
+        assertEquals(4, p.getMany(pairs).join().size());
+        millis = (System.nanoTime() - start) / 1000000L;
+        assertTrue("Requests with depth 8 took " + millis + "ms", millis < 300);
+        p.disconnect();
+    }
+
+
+    /**
+     * Test the study operations through the AsyncProtocol
+     * @throws IOException If the connection fails
+     * @throws IllegalBlockSizeException If RSA feels like it
+     */
+    public void testStudyLifecycle() throws IOException, IllegalBlockSizeException {
+        AsyncProtocol p = connect();
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+        assertEquals(Protocol.REG_OK, (int) p.registerStudy(req).join());
+        assertEquals(1, p.listRegisteredStudies().join().size());
+        new SyntheticParticipant(req).join(mServer);
+        assertEquals(1, p.getStudyJoinRequests(req).join().size());
+        assertEquals(Protocol.SDEL_OK, (int) p.deleteStudy(req).join());
+        p.disconnect();
+    }
+
+
+    /**
+     * Test that requests fail instead of hanging if the server closes the connection
+     * @throws IOException If the connection fails
+     * @throws InterruptedException If interrupted while waiting for a reply
+     */
+    public void testDisconnect() throws IOException, InterruptedException {
+        PipelinedConnection c = new PipelinedConnection(
+                (FramedConnection) mServer.getConnectionFactory().openConnection());
+        Protocol p = new ProtobufProtocol();
+        assertEquals(Protocol.CONNECT_OK, p.connect(c));
+        mServer.setDisconnectRate(1.0);
+        try {
+            c.submit(new byte[] {1}).get();
+            fail("Request did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertFalse(c.isOpen());
+        // Requests submitted after the failure fail immediately
+        assertEquals(Protocol.GET_FAIL_NO_CONNECTION,
+                new AsyncProtocolAdapter(p, mExecutor).get(new SHA256IdentifierDerivation().generateRandomIdentifier()).join());
+    }
+}
@@ -0,0 +1,70 @@
+package de.velcommuta.denul.networking;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.logging.Logger;
+
+/**
+ * An unencrypted TCP connection using the same framing as the {@link TLSConnection}. Only intended for talking to the
+ * {@link StandInServer} in tests and benchmarks.
+ */
+public class PlainConnection implements FramedConnection {
+    private static final Logger logger = Logger.getLogger(PlainConnection.class.getName());
+
+    private Socket mSocket;
+    private DataInputStream mIn;
+    private DataOutputStream mOut;
+
+    /**
+     * Establish an unencrypted TCP connection
+     * @param host Either the IP or the FQDN of the server to connect to
+     * @param port The port number to connect to
+     * @throws IOException If the underlying socket throws it
+     */
+    public PlainConnection(String host, int port) throws IOException {
+        logger.fine("PlainConnection: Establishing connection to " + host + ":" + port);
+        mSocket = new Socket(host, port);
+        mSocket.setTcpNoDelay(true);
+        mIn = new DataInputStream(mSocket.getInputStream());
+        mOut = new DataOutputStream(mSocket.getOutputStream());
+    }
+
+    /**
+     * Send a message and wait for its reply. Synchronized, so that the requests of several threads sharing the
+     * connection are not interleaved. Use a {@link PipelinedConnection} to have them in flight at the same time.
+     * @param message the byte[] to be sent
+     * @return The byte[] that was returned
+     * @throws IOException If the underlying socket throws it
+     */
+    @Override
+    public synchronized byte[] transceive(byte[] message) throws IOException {
+        send(message);
+        return receive();
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+        mOut.writeInt(message.length);
+        mOut.write(message);
+        mOut.flush();
+    }
+
+    @Override
+    public byte[] receive() throws IOException {
+        byte[] reply = new byte[TLSConnection.checkFrameLength(mIn.readInt())];
+        mIn.readFully(reply);
+        return reply;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mSocket.isConnected() && !mSocket.isClosed();
+    }
+}
@@ -0,0 +1,293 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.crypto.SHA256IdentifierDerivation;
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.TokenPair;
+import de.velcommuta.denul.util.Config;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for the ResilientConnection
+ */
+public class ResilientConnectionTest extends TestCase {
+    // Number of connections opened by the FlakyFactory
+    private int mOpened;
+    // Number of requests the connections of the FlakyFactory fail before answering
+    private int mFailures;
+    // Number of requests sent to the connections of the FlakyFactory
+    private int mRequests;
+
+    /**
+     * Factory for connections that fail the first mFailures requests and echo all further requests
+     */
+    private final ConnectionFactory mFactory = new ConnectionFactory() {
+        @Override
+        public Connection openConnection() throws IOException {
+            mOpened++;
+            return new Connection() {
+                @Override
+                public byte[] transceive(byte[] message) throws IOException {
+                    mRequests++;
+                    if (mFailures > 0) {
+                        mFailures--;
+                        throw new IOException("Simulated failure");
+                    }
+                    return message;
+                }
+
+                @Override
+                public void close() {
+                }
+
+                @Override
+                public boolean isOpen() {
+                    return true;
+                }
+            };
+        }
+    };
+
+    /**
+     * Setup function
+     */
+    @Before
+    public void setUp() {
+        mOpened = 0;
+        mFailures = 0;
+        mRequests = 0;
+        System.setProperty("denul." + Config.CONNECT_RETRIES, "2");
+        System.setProperty("denul." + Config.RETRY_BACKOFF, "1");
+        System.setProperty("denul." + Config.BREAKER_THRESHOLD, "3");
+        System.setProperty("denul." + Config.BREAKER_COOLDOWN, "100");
+        Config.reload();
+    }
+
+
+    /**
+     * Teardown function
+     */
+    @After
+    public void tearDown() {
+        System.clearProperty("denul." + Config.CONNECT_RETRIES);
+        System.clearProperty("denul." + Config.RETRY_BACKOFF);
+        System.clearProperty("denul." + Config.BREAKER_THRESHOLD);
+        System.clearProperty("denul." + Config.BREAKER_COOLDOWN);
+        Config.reload();
+    }
+
+
+    /**
+     * Test that idempotent requests are retried on a new connection, and the listener is notified of it
+     * @throws IOException If the test fails
+     */
+    public void testRetryIdempotent() throws IOException {
+        final int[] reconnects = new int[1];
+        ResilientConnection c = new ResilientConnection(mFactory);
+        c.setReconnectListener(new ResilientConnection.ReconnectListener() {
+            @Override
+            public void onReconnect(Connection connection) {
+                reconnects[0]++;
+            }
+        });
+        mFailures = 2;
+        byte[] message = new byte[] {1, 2, 3};
+        assertTrue(Arrays.equals(message, c.transceive(message, true)));
+        assertEquals(3, mRequests);
+        assertEquals(3, mOpened);
+        assertEquals(2, reconnects[0]);
+        // More failures than retries
+        mFailures = 3;
+        try {
+            c.transceive(message, true);
+            fail("Request did not fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        c.close();
+        assertFalse(c.isOpen());
+    }
+
+
+    /**
+     * Test that other requests are not retried, but the connection is re-established for the next request
+     * @throws IOException If the test fails
+     */
+    public void testNoRetry() throws IOException {
+        ResilientConnection c = new ResilientConnection(mFactory);
+        mFailures = 1;
+        byte[] message = new byte[] {1, 2, 3};
+        try {
+            c.transceive(message);
+            fail("Request did not fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(1, mRequests);
+        assertTrue(c.isOpen());
+        assertTrue(Arrays.equals(message, c.transceive(message)));
+        assertEquals(2, mOpened);
+        c.close();
+    }
+
+
+    /**
+     * Test that the circuit breaker rejects requests after too many failures and lets them through after the cooldown
+     * @throws IOException If the test fails
+     * @throws InterruptedException If interrupted while waiting for the cooldown
+     */
+    public void testCircuitBreaker() throws IOException, InterruptedException {
+        ResilientConnection c = new ResilientConnection(mFactory);
+        mFailures = 3;
+        byte[] message = new byte[] {1, 2, 3};
+        try {
+            c.transceive(message, true);
+            fail("Request did not fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(c.isBreakerOpen());
+        // Rejected without contacting the server
+        try {
+            c.transceive(message, true);
+            fail("Request was not rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(3, mRequests);
+        // After the cooldown, a failing request opens the breaker again
+        Thread.sleep(150);
+        assertFalse(c.isBreakerOpen());
+        mFailures = 1;
+        try {
+            c.transceive(message);
+            fail("Request did not fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(c.isBreakerOpen());
+        // A successful request closes it
+        Thread.sleep(150);
+        assertTrue(Arrays.equals(message, c.transceive(message)));
+        assertFalse(c.isBreakerOpen());
+        c.close();
+    }
+
+
+    /**
+     * Test that the half-open circuit breaker lets a single request through while the requests of other threads are
+     * rejected until it has finished
+     * @throws IOException If the test fails
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void testHalfOpenBreaker() throws IOException, InterruptedException {
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ResilientConnection c = new ResilientConnection(new ConnectionFactory() {
+            @Override
+            public Connection openConnection() throws IOException {
+                return new Connection() {
+                    @Override
+                    public byte[] transceive(byte[] message) throws IOException {
+                        requests.incrementAndGet();
+                        if (failing.get()) throw new IOException("Simulated failure");
+                        try {
+                            // Keep the probe in flight until the other threads were rejected
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return message;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+
+                    @Override
+                    public boolean isOpen() {
+                        return true;
+                    }
+                };
+            }
+        });
+        final byte[] message = new byte[] {1, 2, 3};
+        try {
+            c.transceive(message, true);
+            fail("Request did not fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertTrue(c.isBreakerOpen());
+        assertEquals(3, requests.get());
+        Thread.sleep(150);
+        failing.set(false);
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (Arrays.equals(message, c.transceive(message))) succeeded.incrementAndGet();
+                    } catch (IOException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        for (int i = 0; i < 100 && rejected.get() < 3; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, rejected.get());
+        assertTrue(c.isBreakerOpen());
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, succeeded.get());
+        assertEquals(4, requests.get());
+        assertFalse(c.isBreakerOpen());
+        c.close();
+    }
+
+
+    /**
+     * Test the ProtobufProtocol against a server that drops connections, which must repeat its handshake on every new
+     * connection
+     * @throws IOException If the connection fails
+     */
+    public void testProtocolReconnect() throws IOException {
+        System.setProperty("denul." + Config.CONNECT_RETRIES, "10");
+        System.setProperty("denul." + Config.BREAKER_THRESHOLD, "20");
+        Config.reload();
+        StandInServer server = new StandInServer();
+        try {
+            Protocol p = new ProtobufProtocol();
+            assertEquals(Protocol.CONNECT_OK, p.connect(new ResilientConnection(server.getConnectionFactory())));
+            TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+            byte[] value = "test".getBytes();
+            assertEquals(Protocol.PUT_OK, p.put(new DataBlock(new byte[32], value, pair.getIdentifier())));
+            server.setDisconnectRate(0.3);
+            for (int i = 0; i < 20; i++) {
+                assertTrue(Arrays.equals(value, p.get(pair)));
+            }
+            p.disconnect();
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,607 @@
+package de.velcommuta.denul.networking;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import de.velcommuta.denul.crypto.RSA;
+import de.velcommuta.denul.networking.protobuf.c2s.C2S;
+import de.velcommuta.denul.networking.protobuf.meta.MetaMessage;
+import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
+import de.velcommuta.denul.util.DaemonThreadFactory;
+import de.velcommuta.libvicbf.VICBF;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * In-process stand-in for the Denul server, for use in tests and benchmarks. Speaks the same length-prefixed
+ * {@link MetaMessage.Wrapper} protocol as the real server (over plain TCP on the loopback interface instead of TLS) and
+ * implements the key-value store including the VICBF sent in the ServerHello, as well as study registration, listing,
+ * joining and deletion. Latency, bandwidth and error rates can be configured to simulate a remote server.
+ */
+public class StandInServer {
+    private static final Logger logger = Logger.getLogger(StandInServer.class.getName());
+
+    // Length of the keys of the key-value store and of the study queue identifiers
+    private static final int KEY_LENGTH = 32;
+    private static final int QUEUE_LENGTH = 16;
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor;
+    private final Random mRandom = new Random(0);
+
+    // Server state, guarded by this
+    private final Map<ByteString, byte[]> mStore = new HashMap<>();
+    private final Map<ByteString, StudyMessage.StudyWrapper> mStudies = new LinkedHashMap<>();
+    private final Map<ByteString, PublicKey> mStudyKeys = new HashMap<>();
+    private final Map<ByteString, List<byte[]>> mStudyJoins = new HashMap<>();
+    private final VICBF mVICBF;
+
+    // Simulation parameters
+    private volatile int mLatency = 0;
+    private volatile long mBandwidth = 0;
+    private volatile double mErrorRate = 0.0;
+    private volatile double mDisconnectRate = 0.0;
+
+    // Statistics
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    /**
+     * Start a new server on an ephemeral port on the loopback interface, using a VICBF with 10000 slots
+     * @throws IOException If the server socket could not be opened
+     */
+    public StandInServer() throws IOException {
+        this(10000);
+    }
+
+
+    /**
+     * Start a new server on an ephemeral port on the loopback interface
+     * @param vicbfSlots The number of slots of the VICBF. Should be chosen according to the number of keys that will be
+     *                   stored, to keep the false positive rate low
+     * @throws IOException If the server socket could not be opened
+     */
+    public StandInServer(int vicbfSlots) throws IOException {
+        mVICBF = new VICBF(vicbfSlots, 3);
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        mExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("StandInServer"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+
+    /**
+     * Getter for the port the server is listening on
+     * @return The port
+     */
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+
+    /**
+     * Get a {@link ConnectionFactory} that opens connections to this server
+     * @return The ConnectionFactory
+     */
+    public ConnectionFactory getConnectionFactory() {
+        return new ConnectionFactory() {
+            @Override
+            public Connection openConnection() throws IOException {
+                return new PlainConnection(InetAddress.getLoopbackAddress().getHostAddress(), getPort());
+            }
+        };
+    }
+
+
+    /**
+     * Stop the server and close all connections
+     */
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            logger.warning("shutdown: IOException while closing server socket, ignoring");
+        }
+        mExecutor.shutdownNow();
+    }
+
+
+    /**
+     * Seed the random number generator used to decide which requests fail, to make runs with error or disconnect
+     * rates reproducible. The generator is seeded with 0 by default.
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        mRandom.setSeed(seed);
+    }
+
+
+    /**
+     * Set the latency added to every request
+     * @param millis The latency, in milliseconds
+     */
+    public void setLatency(int millis) {
+        mLatency = millis;
+    }
+
+
+    /**
+     * Set the simulated bandwidth. The transfer time of every request and reply is added to the latency.
+     * @param bytesPerSecond The bandwidth in bytes per second, or 0 for unlimited bandwidth
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        mBandwidth = bytesPerSecond;
+    }
+
+
+    /**
+     * Set the probability with which a request is answered with the generic failure status code of the reply type
+     * (e.g. GET_FAIL_UNKNOWN)
+     * @param rate The error rate, between 0 and 1
+     */
+    public void setErrorRate(double rate) {
+        mErrorRate = rate;
+    }
+
+
+    /**
+     * Set the probability with which the server closes the connection instead of answering a request
+     * @param rate The disconnect rate, between 0 and 1
+     */
+    public void setDisconnectRate(double rate) {
+        mDisconnectRate = rate;
+    }
+
+
+    /**
+     * Getter for the number of requests the server has answered
+     * @return The number of requests
+     */
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+
+    /**
+     * Getter for the number of bytes received by the server, including the length headers
+     * @return The number of bytes
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+
+    /**
+     * Getter for the number of bytes sent by the server, including the length headers
+     * @return The number of bytes
+     */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+
+    /**
+     * Store a value directly, bypassing the network. Used to set up synthetic data for tests and benchmarks.
+     * @param key The key
+     * @param value The value
+     * @return true if the value was stored, false if the key was already taken
+     */
+    public synchronized boolean put(byte[] key, byte[] value) {
+        ByteString k = ByteString.copyFrom(key);
+        if (mStore.containsKey(k)) return false;
+        mStore.put(k, value);
+        mVICBF.insert(key);
+        return true;
+    }
+
+
+    /**
+     * Add a StudyJoin message to the queue of a study directly, bypassing the network
+     * @param queue The queue identifier of the study
+     * @param message The encrypted StudyJoin message
+     * @return true if the message was added, false if no study with that queue identifier exists
+     */
+    public synchronized boolean join(byte[] queue, byte[] message) {
+        List<byte[]> joins = mStudyJoins.get(ByteString.copyFrom(queue));
+        if (joins == null) return false;
+        joins.add(message);
+        return true;
+    }
+
+
+    /**
+     * Check if a value is stored under a key
+     * @param key The key
+     * @return true if the key is taken, false otherwise
+     */
+    public synchronized boolean contains(byte[] key) {
+        return mStore.containsKey(ByteString.copyFrom(key));
+    }
+
+
+    /**
+     * Accept connections until the server socket is closed
+     */
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!mServerSocket.isClosed()) {
+                    logger.severe("acceptLoop: IOException while accepting connection: " + e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Serve a single client connection until it is closed. The replies are sent by a separate thread once their
+     * simulated network delay has passed, so that a client sending several requests without waiting for the replies
+     * (see {@link PipelinedConnection}) waits for the latency only once, like over a real network.
+     * @param socket The socket of the client
+     */
+    private void serve(final Socket socket) {
+        ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("StandInServer-Sender"));
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            // Time (in System.nanoTime) at which the simulated link finishes transferring the previous reply
+            long linkFree = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                // Read the length-prefixed request
+                final byte[] request = new byte[in.readInt()];
+                in.readFully(request);
+                if (mRandom.nextDouble() < mDisconnectRate) {
+                    logger.fine("serve: Simulating disconnect");
+                    break;
+                }
+                final byte[] reply = handle(request).toByteArray();
+                // The link transfers one message at a time, the latency applies to all of them at once
+                long now = System.nanoTime();
+                linkFree = Math.max(now, linkFree) + getTransferTime(request.length + reply.length + 8);
+                long due = linkFree + mLatency * 1000000L;
+                sender.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            out.write(ByteBuffer.allocate(4).putInt(reply.length).array());
+                            out.write(reply);
+                            out.flush();
+                            mRequests.incrementAndGet();
+                            mBytesReceived.addAndGet(request.length + 4);
+                            mBytesSent.addAndGet(reply.length + 4);
+                        } catch (IOException e) {
+                            // Client closed the connection
+                        }
+                    }
+                }, due - now, TimeUnit.NANOSECONDS);
+            }
+        } catch (EOFException | SocketException e) {
+            // Client closed the connection
+        } catch (IOException e) {
+            logger.severe("serve: IOException: " + e);
+        } finally {
+            sender.shutdownNow();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+
+    /**
+     * Get the time the simulated link needs to transfer a request and its reply
+     * @param bytes The number of bytes transferred
+     * @return The transfer time, in nanoseconds
+     */
+    private long getTransferTime(int bytes) {
+        long bandwidth = mBandwidth;
+        return bandwidth > 0 ? (bytes * 1000000000L) / bandwidth : 0;
+    }
+
+
+    /**
+     * Check if a simulated error should be returned for the current request
+     * @return true if an error should be returned, false otherwise
+     */
+    private boolean simulateError() {
+        return mRandom.nextDouble() < mErrorRate;
+    }
+
+
+    /**
+     * Handle a single request and compute the reply
+     * @param request The serialized request Wrapper
+     * @return The reply Wrapper
+     */
+    private MetaMessage.Wrapper handle(byte[] request) {
+        MetaMessage.Wrapper.Builder reply = MetaMessage.Wrapper.newBuilder();
+        MetaMessage.Wrapper wrapper;
+        try {
+            wrapper = MetaMessage.Wrapper.parseFrom(request);
+        } catch (InvalidProtocolBufferException e) {
+            logger.severe("handle: Could not parse Wrapper, returning empty reply");
+            return reply.build();
+        }
+        if (wrapper.hasClientHello()) {
+            reply.setServerHello(handleClientHello());
+        } else if (wrapper.hasGet()) {
+            reply.setGetReply(handleGet(wrapper.getGet()));
+        } else if (wrapper.hasStore()) {
+            reply.setStoreReply(handleStore(wrapper.getStore()));
+        } else if (wrapper.hasDelete()) {
+            reply.setDeleteReply(handleDelete(wrapper.getDelete()));
+        } else if (wrapper.hasStudyListQuery()) {
+            reply.setStudyListReply(handleStudyList());
+        } else if (wrapper.hasStudyWrapper()) {
+            StudyMessage.StudyWrapper sw = wrapper.getStudyWrapper();
+            if (sw.getType() == StudyMessage.StudyWrapper.MessageType.MSG_STUDYCREATE) {
+                reply.setStudyCreateReply(handleStudyCreate(sw));
+            } else if (sw.getType() == StudyMessage.StudyWrapper.MessageType.MSG_STUDYJOINQUERY) {
+                reply.setStudyJoinQueryReply(handleStudyJoinQuery(sw));
+            } else if (sw.getType() == StudyMessage.StudyWrapper.MessageType.MSG_STUDYDELETE) {
+                reply.setStudyDeleteReply(handleStudyDelete(sw));
+            } else {
+                logger.severe("handle: Unknown StudyWrapper type, returning empty reply");
+            }
+        } else {
+            logger.severe("handle: Unknown message type, returning empty reply");
+        }
+        return reply.build();
+    }
+
+
+    /**
+     * Handle a ClientHello
+     * @return A ServerHello containing the compressed VICBF
+     */
+    private synchronized C2S.ServerHello handleClientHello() {
+        C2S.ServerHello.Builder hello = C2S.ServerHello.newBuilder();
+        hello.setOpcode(C2S.ServerHello.ClientHelloReplyCode.CLIENT_HELLO_OK);
+        hello.setServerProto("1.0");
+        hello.setData(ByteString.copyFrom(compress(mVICBF.serialize())));
+        return hello.build();
+    }
+
+
+    /**
+     * Handle a Get
+     * @param get The Get message
+     * @return The GetReply
+     */
+    private synchronized C2S.GetReply handleGet(C2S.Get get) {
+        C2S.GetReply.Builder reply = C2S.GetReply.newBuilder();
+        reply.setKey(get.getKey());
+        if (simulateError()) {
+            reply.setOpcode(C2S.GetReply.GetReplyCode.GET_FAIL_UNKNOWN);
+        } else if (get.getKey().size() != KEY_LENGTH) {
+            reply.setOpcode(C2S.GetReply.GetReplyCode.GET_FAIL_KEY_FMT);
+        } else if (!mStore.containsKey(get.getKey())) {
+            reply.setOpcode(C2S.GetReply.GetReplyCode.GET_FAIL_UNKNOWN_KEY);
+        } else {
+            reply.setOpcode(C2S.GetReply.GetReplyCode.GET_OK);
+            reply.setValue(ByteString.copyFrom(mStore.get(get.getKey())));
+        }
+        return reply.build();
+    }
+
+
+    /**
+     * Handle a Store. Stores for keys of the length of a queue identifier are treated as StudyJoin messages.
+     * @param store The Store message
+     * @return The StoreReply
+     */
+    private synchronized C2S.StoreReply handleStore(C2S.Store store) {
+        C2S.StoreReply.Builder reply = C2S.StoreReply.newBuilder();
+        reply.setKey(store.getKey());
+        if (simulateError()) {
+            reply.setOpcode(C2S.StoreReply.StoreReplyCode.STORE_FAIL_UNKNOWN);
+        } else if (store.getKey().size() == QUEUE_LENGTH) {
+            if (join(store.getKey().toByteArray(), store.getValue().toByteArray())) {
+                reply.setOpcode(C2S.StoreReply.StoreReplyCode.STORE_OK);
+            } else {
+                reply.setOpcode(C2S.StoreReply.StoreReplyCode.STORE_FAIL_UNKNOWN);
+            }
+        } else if (store.getKey().size() != KEY_LENGTH) {
+            reply.setOpcode(C2S.StoreReply.StoreReplyCode.STORE_FAIL_KEY_FMT);
+        } else if (put(store.getKey().toByteArray(), store.getValue().toByteArray())) {
+            reply.setOpcode(C2S.StoreReply.StoreReplyCode.STORE_OK);
+        } else {
+            reply.setOpcode(C2S.StoreReply.StoreReplyCode.STORE_FAIL_KEY_TAKEN);
+        }
+        return reply.build();
+    }
+
+
+    /**
+     * Handle a Delete
+     * @param delete The Delete message
+     * @return The DeleteReply
+     */
+    private synchronized C2S.DeleteReply handleDelete(C2S.Delete delete) {
+        C2S.DeleteReply.Builder reply = C2S.DeleteReply.newBuilder();
+        reply.setKey(delete.getKey());
+        byte[] key = delete.getKey().toByteArray();
+        if (simulateError()) {
+            reply.setOpcode(C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_UNKNOWN);
+        } else if (key.length != KEY_LENGTH) {
+            reply.setOpcode(C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_KEY_FMT);
+        } else if (!mStore.containsKey(delete.getKey())) {
+            reply.setOpcode(C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_NOT_FOUND);
+        } else if (!ProtobufProtocol.checkAuthenticator(key, delete.getAuth().toByteArray())) {
+            reply.setOpcode(C2S.DeleteReply.DeleteReplyCode.DELETE_FAIL_AUTH);
+        } else {
+            mStore.remove(delete.getKey());
+            mVICBF.remove(key);
+            reply.setOpcode(C2S.DeleteReply.DeleteReplyCode.DELETE_OK);
+        }
+        return reply.build();
+    }
+
+
+    /**
+     * Handle a StudyListQuery
+     * @return The StudyListReply containing all registered studies
+     */
+    private synchronized StudyMessage.StudyListReply handleStudyList() {
+        StudyMessage.StudyListReply.Builder reply = StudyMessage.StudyListReply.newBuilder();
+        reply.addAllStudylist(mStudies.values());
+        return reply.build();
+    }
+
+
+    /**
+     * Handle a StudyCreate. The verification data is not checked.
+     * @param sw The StudyWrapper containing the StudyCreate message
+     * @return The StudyCreateReply
+     */
+    private synchronized StudyMessage.StudyCreateReply handleStudyCreate(StudyMessage.StudyWrapper sw) {
+        StudyMessage.StudyCreateReply.Builder reply = StudyMessage.StudyCreateReply.newBuilder();
+        StudyMessage.StudyCreate create;
+        try {
+            create = StudyMessage.StudyCreate.parseFrom(sw.getMessage());
+        } catch (InvalidProtocolBufferException e) {
+            reply.setQueueIdentifier(ByteString.EMPTY);
+            reply.setStatus(StudyMessage.StudyCreateReply.CreateStatus.CREATE_UNKNOWN);
+            return reply.build();
+        }
+        ByteString queue = create.getQueueIdentifier();
+        reply.setQueueIdentifier(queue);
+        PublicKey pubkey = RSA.decodePublicKey(create.getPublicKey().toByteArray());
+        if (simulateError()) {
+            reply.setStatus(StudyMessage.StudyCreateReply.CreateStatus.CREATE_UNKNOWN);
+        } else if (queue.size() != QUEUE_LENGTH) {
+            reply.setStatus(StudyMessage.StudyCreateReply.CreateStatus.CREATE_FAIL_BAD_IDENTIFIER);
+        } else if (pubkey == null
+                || !RSA.verify(sw.getMessage().toByteArray(), sw.getSignature().toByteArray(), pubkey)) {
+            reply.setStatus(StudyMessage.StudyCreateReply.CreateStatus.CREATE_FAIL_SIGNATURE);
+        } else if (mStudies.containsKey(queue)) {
+            reply.setStatus(StudyMessage.StudyCreateReply.CreateStatus.CREATE_FAIL_IDENTIFIER_TAKEN);
+        } else {
+            mStudies.put(queue, sw);
+            mStudyKeys.put(queue, pubkey);
+            mStudyJoins.put(queue, new LinkedList<byte[]>());
+            reply.setStatus(StudyMessage.StudyCreateReply.CreateStatus.CREATE_OK);
+        }
+        return reply.build();
+    }
+
+
+    /**
+     * Handle a StudyJoinQuery. Returned StudyJoin messages are removed from the server.
+     * @param sw The StudyWrapper containing the StudyJoinQuery message
+     * @return The StudyJoinQueryReply
+     */
+    private synchronized StudyMessage.StudyJoinQueryReply handleStudyJoinQuery(StudyMessage.StudyWrapper sw) {
+        StudyMessage.StudyJoinQueryReply.Builder reply = StudyMessage.StudyJoinQueryReply.newBuilder();
+        StudyMessage.StudyJoinQuery query;
+        try {
+            query = StudyMessage.StudyJoinQuery.parseFrom(sw.getMessage());
+        } catch (InvalidProtocolBufferException e) {
+            reply.setStatus(StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_UNKNOWN);
+            return reply.build();
+        }
+        ByteString queue = query.getQueueIdentifier();
+        if (simulateError()) {
+            reply.setStatus(StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_UNKNOWN);
+        } else if (!mStudies.containsKey(queue)) {
+            reply.setStatus(StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_FAIL_NOT_FOUND);
+        } else if (!RSA.verify(sw.getMessage().toByteArray(), sw.getSignature().toByteArray(), mStudyKeys.get(queue))) {
+            reply.setStatus(StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_FAIL_SIGNATURE);
+        } else {
+            List<byte[]> joins = mStudyJoins.get(queue);
+            for (byte[] join : joins) {
+                reply.addMessage(ByteString.copyFrom(join));
+            }
+            joins.clear();
+            reply.setStatus(StudyMessage.StudyJoinQueryReply.QueryStatus.STATUS_OK);
+        }
+        return reply.build();
+    }
+
+
+    /**
+     * Handle a StudyDelete
+     * @param sw The StudyWrapper containing the StudyDelete message
+     * @return The StudyDeleteReply
+     */
+    private synchronized StudyMessage.StudyDeleteReply handleStudyDelete(StudyMessage.StudyWrapper sw) {
+        StudyMessage.StudyDeleteReply.Builder reply = StudyMessage.StudyDeleteReply.newBuilder();
+        StudyMessage.StudyDelete delete;
+        try {
+            delete = StudyMessage.StudyDelete.parseFrom(sw.getMessage());
+        } catch (InvalidProtocolBufferException e) {
+            reply.setStatus(StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_UNKNOWN);
+            return reply.build();
+        }
+        ByteString queue = delete.getQueueIdentifier();
+        if (simulateError()) {
+            reply.setStatus(StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_UNKNOWN);
+        } else if (!mStudies.containsKey(queue)) {
+            reply.setStatus(StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_FAIL_BAD_IDENT);
+        } else if (!RSA.verify(sw.getMessage().toByteArray(), sw.getSignature().toByteArray(), mStudyKeys.get(queue))) {
+            reply.setStatus(StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_FAIL_BAD_SIG);
+        } else {
+            mStudies.remove(queue);
+            mStudyKeys.remove(queue);
+            mStudyJoins.remove(queue);
+            reply.setStatus(StudyMessage.StudyDeleteReply.DeleteStatus.DELETE_OK);
+        }
+        return reply.build();
+    }
+
+
+    /**
+     * Compress data using zlib, as expected by the client for the VICBF
+     * @param data The data to compress
+     * @return The compressed data
+     */
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int len = deflater.deflate(buffer);
+        deflater.end();
+        byte[] rv = new byte[len];
+        System.arraycopy(buffer, 0, rv, 0, len);
+        return rv;
+    }
+}
@@ -0,0 +1,312 @@
+package de.velcommuta.denul.networking;
+
+import de.velcommuta.denul.crypto.SHA256IdentifierDerivation;
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.GPSTrack;
+import de.velcommuta.denul.data.KeySet;
+import de.velcommuta.denul.data.Shareable;
+import de.velcommuta.denul.data.StudyJoinRequest;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.data.TokenPair;
+import de.velcommuta.denul.database.PollJournalEntry;
+import de.velcommuta.denul.database.SQLiteDatabase;
+import de.velcommuta.denul.util.Config;
+import de.velcommuta.denul.util.StudyManager;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test cases for the stand-in server, running the ProtobufProtocol and the StudyManager against it
+ */
+public class StandInServerTest extends TestCase {
+    private StandInServer mServer;
+
+    /**
+     * Setup function
+     */
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer();
+    }
+
+
+    /**
+     * Teardown function
+     */
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+        mServer = null;
+        System.clearProperty("denul." + Config.MAX_FRAME_SIZE);
+        Config.reload();
+    }
+
+
+    /**
+     * Helper function to get a connected Protocol instance
+     * @return The connected Protocol
+     * @throws IOException If the connection fails
+     */
+    private Protocol connect() throws IOException {
+        Protocol p = new ProtobufProtocol();
+        assertEquals(Protocol.CONNECT_OK, p.connect(mServer.getConnectionFactory().openConnection()));
+        return p;
+    }
+
+
+    /**
+     * Test storing, retrieving and revoking a value, including the error cases
+     * @throws IOException If the connection fails
+     */
+    public void testPutGetRevoke() throws IOException {
+        Protocol p = connect();
+        TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+        byte[] value = "test".getBytes();
+        // Key not yet taken
+        assertEquals(Protocol.GET_FAIL_KEY_NOT_TAKEN, p.get(pair));
+        // Store and retrieve
+        assertEquals(Protocol.PUT_OK, p.put(new DataBlock(new byte[32], value, pair.getIdentifier())));
+        assertEquals(Protocol.PUT_FAIL_KEY_TAKEN, p.put(new DataBlock(new byte[32], value, pair.getIdentifier())));
+        assertTrue(Arrays.equals(value, p.get(pair)));
+        // Deleting a key that is not on the server must fail
+        assertEquals(Protocol.DEL_FAIL_KEY_NOT_TAKEN, p.del(new SHA256IdentifierDerivation().generateRandomIdentifier()));
+        // Revoke
+        assertEquals(Protocol.REV_OK, p.revoke(pair));
+        assertTrue(Arrays.equals(new byte[] {0x42}, p.get(pair)));
+        p.disconnect();
+    }
+
+
+    /**
+     * Test retrieving a large value without copying it
+     * @throws IOException If the connection fails
+     */
+    public void testGetValue() throws IOException {
+        Protocol p = connect();
+        TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+        byte[] value = new byte[1024 * 1024];
+        new Random().nextBytes(value);
+        assertEquals(Protocol.PUT_OK, p.put(new DataBlock(new byte[32], value, pair.getIdentifier())));
+        Value v = p.getValue(pair);
+        assertTrue(v.isPresent());
+        assertNull(v.getStatus());
+        assertEquals(value.length, v.size());
+        assertTrue(v.getBuffer().isReadOnly());
+        assertEquals(ByteBuffer.wrap(value), v.getBuffer());
+        byte[] streamed = new byte[value.length];
+        InputStream in = v.getInputStream();
+        new DataInputStream(in).readFully(streamed);
+        assertEquals(-1, in.read());
+        assertTrue(Arrays.equals(value, streamed));
+        // Every reader starts at the beginning of the value
+        assertEquals(value[0] & 0xff, v.getInputStream().read());
+        assertTrue(Arrays.equals(value, v.toByteArray()));
+        // Failures carry the status
+        v = p.getValue(new SHA256IdentifierDerivation().generateRandomIdentifier());
+        assertFalse(v.isPresent());
+        assertEquals(Protocol.GET_FAIL_KEY_NOT_TAKEN, v.getStatus());
+        assertNull(v.getBuffer());
+        p.disconnect();
+    }
+
+
+    /**
+     * Test that replies longer than the maximum frame size are rejected
+     * @throws IOException If the connection fails
+     */
+    public void testMaxFrameSize() throws IOException {
+        System.setProperty("denul." + Config.MAX_FRAME_SIZE, "4096");
+        Config.reload();
+        Protocol p = connect();
+        TokenPair small = new SHA256IdentifierDerivation().generateRandomIdentifier();
+        TokenPair large = new SHA256IdentifierDerivation().generateRandomIdentifier();
+        assertEquals(Protocol.PUT_OK, p.put(new DataBlock(new byte[32], new byte[1024], small.getIdentifier())));
+        assertEquals(Protocol.PUT_OK, p.put(new DataBlock(new byte[32], new byte[8192], large.getIdentifier())));
+        assertEquals(1024, p.getValue(small).size());
+        assertEquals(Protocol.GET_FAIL_NO_CONNECTION, p.get(large));
+        p.disconnect();
+    }
+
+
+    /**
+     * Test registering, listing, joining and deleting a study
+     * @throws IOException If the connection fails
+     * @throws IllegalBlockSizeException If RSA feels like it
+     */
+    public void testStudyLifecycle() throws IOException, IllegalBlockSizeException {
+        Protocol p = connect();
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+        assertEquals(Protocol.REG_OK, p.registerStudy(req));
+        List<StudyRequest> studies = p.listRegisteredStudies();
+        assertEquals(1, studies.size());
+        assertTrue(Arrays.equals(req.queue, studies.get(0).queue));
+        // Join the study
+        new SyntheticParticipant(req).join(mServer);
+        new SyntheticParticipant(req).join(mServer);
+        List<StudyJoinRequest> joins = p.getStudyJoinRequests(req);
+        assertEquals(2, joins.size());
+        // Join requests are removed from the server once they have been retrieved
+        assertEquals(0, p.getStudyJoinRequests(req).size());
+        // Delete the study
+        assertEquals(Protocol.SDEL_OK, p.deleteStudy(req));
+        assertEquals(0, p.listRegisteredStudies().size());
+        p.disconnect();
+    }
+
+
+    /**
+     * Test that injected errors are reported to the client
+     * @throws IOException If the connection fails
+     */
+    public void testErrorRate() throws IOException {
+        Protocol p = connect();
+        mServer.setErrorRate(1.0);
+        TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+        assertEquals(Protocol.PUT_FAIL_PROTOCOL_ERROR, p.put(new DataBlock(new byte[32], new byte[1], pair.getIdentifier())));
+        assertFalse(mServer.contains(pair.getIdentifier()));
+        p.disconnect();
+    }
+
+
+    /**
+     * Test that the injected latency is applied to every request
+     * @throws IOException If the connection fails
+     */
+    public void testLatency() throws IOException {
+        Protocol p = connect();
+        mServer.setLatency(50);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            TokenPair pair = new SHA256IdentifierDerivation().generateRandomIdentifier();
+            assertEquals(Protocol.PUT_OK, p.put(new DataBlock(new byte[32], new byte[1], pair.getIdentifier())));
+        }
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        p.disconnect();
+    }
+
+
+    /**
+     * Test a full study update using the StudyManager: Participants join, share data, and the data is retrieved into
+     * the database
+     * @throws IllegalBlockSizeException If RSA feels like it
+     */
+    public void testStudyManagerUpdate() throws IllegalBlockSizeException {
+        SQLiteDatabase db = new SQLiteDatabase("test.db");
+        try {
+            StudyManager.setConnectionFactory(mServer.getConnectionFactory());
+            StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+            assertTrue(StudyManager.registerStudy(req, db));
+            // Create participants and join the study
+            List<SyntheticParticipant> participants = new LinkedList<>();
+            for (int i = 0; i < 10; i++) {
+                SyntheticParticipant participant = new SyntheticParticipant(req);
+                participant.join(mServer);
+                participants.add(participant);
+            }
+            StudyManager.updateStudyData(db, req);
+            List<KeySet> keys = StudyManager.getStudyParticipants(req, db);
+            assertEquals(participants.size(), keys.size());
+            // Share two tracks per participant
+            for (SyntheticParticipant participant : participants) {
+                participant.share(mServer, SyntheticParticipant.getSerializedTrack(10));
+                participant.share(mServer, SyntheticParticipant.getSerializedTrack(20));
+            }
+            StudyManager.updateStudyData(db, req);
+            List<GPSTrack> tracks = db.getGPSTracksByStudyID(db.getStudyIDByQueueIdentifier(req.queue));
+            assertEquals(2 * participants.size(), tracks.size());
+            // Polling again must not return any new data
+            StudyManager.updateStudyData(db, req);
+            assertEquals(2 * participants.size(), db.getGPSTracks().size());
+        } finally {
+            db.close();
+            File f = new File("test.db");
+            if (f.isFile()) {
+                assertTrue(f.delete());
+            }
+        }
+    }
+
+
+    /**
+     * Test that a study update that is interrupted after fetching the data blocks is resumed by the next update,
+     * without fetching the data blocks again
+     * @throws IllegalBlockSizeException If RSA feels like it
+     */
+    public void testStudyManagerResume() throws IllegalBlockSizeException {
+        final boolean[] crash = {false};
+        // Simulates the process being terminated while the data is stored
+        SQLiteDatabase db = new SQLiteDatabase("test.db") {
+            @Override
+            public boolean addShareable(Shareable sh, long bytes) {
+                if (crash[0]) throw new IllegalStateException("Simulated crash");
+                return super.addShareable(sh, bytes);
+            }
+        };
+        try {
+            StudyManager.setConnectionFactory(mServer.getConnectionFactory());
+            StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+            assertTrue(StudyManager.registerStudy(req, db));
+            List<SyntheticParticipant> participants = new LinkedList<>();
+            for (int i = 0; i < 5; i++) {
+                SyntheticParticipant participant = new SyntheticParticipant(req);
+                participant.join(mServer);
+                participants.add(participant);
+            }
+            StudyManager.updateStudyData(db, req);
+            for (SyntheticParticipant participant : participants) {
+                participant.share(mServer, SyntheticParticipant.getSerializedTrack(10));
+            }
+            long study = db.getStudyIDByQueueIdentifier(req.queue);
+            crash[0] = true;
+            try {
+                StudyManager.updateStudyData(db, req);
+                fail("Simulated crash did not happen");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+            crash[0] = false;
+            // The counters of the participants have been advanced, but the fetched data blocks are in the journal
+            List<PollJournalEntry> journal = db.getPollJournal(study);
+            assertEquals(participants.size(), journal.size());
+            for (PollJournalEntry entry : journal) {
+                assertEquals(PollJournalEntry.STATE_FETCHED, entry.getState());
+                assertTrue(mServer.contains(entry.getKeyBlock().getIdentifier()));
+            }
+            assertEquals(0, db.getGPSTracksByStudyID(study).size());
+
+            // The next update stores the data and queues the revocations of the key blocks
+            StudyManager.updateStudyData(db, req);
+            assertEquals(participants.size(), db.getGPSTracksByStudyID(study).size());
+            assertEquals(0, db.getPollJournal(study).size());
+            assertEquals(participants.size(), db.getQueuedRevocations(Integer.MAX_VALUE).size());
+            for (PollJournalEntry entry : journal) {
+                assertTrue(mServer.contains(entry.getKeyBlock().getIdentifier()));
+            }
+            assertEquals(participants.size(), StudyManager.revokeQueued(db));
+            assertEquals(0, db.getQueuedRevocations(Integer.MAX_VALUE).size());
+            for (PollJournalEntry entry : journal) {
+                assertFalse(mServer.contains(entry.getKeyBlock().getIdentifier()));
+            }
+            assertEquals(0, StudyManager.revokeQueued(db));
+        } finally {
+            db.close();
+            File f = new File("test.db");
+            if (f.isFile()) {
+                assertTrue(f.delete());
+            }
+        }
+    }
+}
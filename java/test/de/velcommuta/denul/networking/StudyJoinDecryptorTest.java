@@ -0,0 +1,96 @@
+package de.velcommuta.denul.networking;
+
+import com.google.protobuf.ByteString;
+import de.velcommuta.denul.crypto.ECDHKeyExchange;
+import de.velcommuta.denul.crypto.RSA;
+import de.velcommuta.denul.data.StudyJoinRequest;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
+import junit.framework.TestCase;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test cases for the parallel StudyJoin decryption
+ */
+public class StudyJoinDecryptorTest extends TestCase {
+    /**
+     * Test that the parallel decryption returns all valid requests in the order of the input and skips invalid ones
+     * @throws IllegalBlockSizeException If RSA feels like it
+     */
+    public void testDecryptOrdered() throws IllegalBlockSizeException {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+        List<byte[]> messages = new LinkedList<>();
+        List<byte[]> kexdata = new LinkedList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] kex = new ECDHKeyExchange().getPublicKexData();
+            kexdata.add(kex);
+            messages.add(getEncryptedJoin(req, req.queue, kex));
+            if (i % 5 == 0) {
+                // Add some garbage and a join for a different queue, which should both be skipped
+                messages.add(new byte[] {0x00, 0x01, 0x02});
+                messages.add(getEncryptedJoin(req, new byte[16], kex));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            StudyJoinDecryptor decryptor = new StudyJoinDecryptor(executor);
+            List<StudyJoinRequest> joins = decryptor.decrypt(req, messages);
+            assertEquals(kexdata.size(), joins.size());
+            for (int i = 0; i < joins.size(); i++) {
+                assertTrue(Arrays.equals(kexdata.get(i), joins.get(i).kexpub));
+                assertTrue(Arrays.equals(req.queue, joins.get(i).queue));
+                assertEquals(StudyJoinRequest.KEX_ALGO.KEX_ECDH_CURVE25519, joins.get(i).kexalgo);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Test that the streaming variant passes the requests to the callback on the calling thread
+     * @throws IllegalBlockSizeException If RSA feels like it
+     */
+    public void testDecryptCallback() throws IllegalBlockSizeException {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+        List<byte[]> messages = new LinkedList<>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(getEncryptedJoin(req, req.queue, new ECDHKeyExchange().getPublicKexData()));
+        }
+        final Thread caller = Thread.currentThread();
+        final List<StudyJoinRequest> received = new LinkedList<>();
+        int count = StudyJoinDecryptor.getDefault().decrypt(req, messages, new StudyJoinCallback() {
+            @Override
+            public void onStudyJoinRequest(StudyJoinRequest request) {
+                assertSame(caller, Thread.currentThread());
+                received.add(request);
+            }
+        });
+        assertEquals(5, count);
+        assertEquals(5, received.size());
+    }
+
+
+    /**
+     * Helper function to create an encrypted StudyJoin message
+     * @param req The StudyRequest to encrypt for
+     * @param queue The queue identifier to put into the message
+     * @param kex The public key exchange data
+     * @return The encrypted StudyJoin message
+     * @throws IllegalBlockSizeException If RSA feels like it
+     */
+    private static byte[] getEncryptedJoin(StudyRequest req, byte[] queue, byte[] kex) throws IllegalBlockSizeException {
+        StudyMessage.StudyJoin.Builder join = StudyMessage.StudyJoin.newBuilder();
+        join.setQueueIdentifier(ByteString.copyFrom(queue));
+        join.setKexAlgorithm(StudyMessage.StudyJoin.KexAlgo.KEX_ECDH_CURVE25519);
+        join.setKexData(ByteString.copyFrom(kex));
+        return RSA.encryptRSA(join.build().toByteArray(), req.pubkey);
+    }
+}
@@ -0,0 +1,111 @@
+package de.velcommuta.denul.networking;
+
+import com.google.protobuf.ByteString;
+import de.velcommuta.denul.crypto.AES;
+import de.velcommuta.denul.crypto.AESSharingEncryption;
+import de.velcommuta.denul.crypto.ECDHKeyExchange;
+import de.velcommuta.denul.crypto.HKDFKeyExpansion;
+import de.velcommuta.denul.crypto.IdentifierDerivation;
+import de.velcommuta.denul.crypto.KeyExchange;
+import de.velcommuta.denul.crypto.RSA;
+import de.velcommuta.denul.crypto.SHA256IdentifierDerivation;
+import de.velcommuta.denul.crypto.SharingEncryption;
+import de.velcommuta.denul.data.DataBlock;
+import de.velcommuta.denul.data.KeySet;
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.TokenPair;
+import de.velcommuta.denul.data.proto.DataContainer;
+import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
+
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * A simulated study participant, performing the same operations as the Android app: Joining a study and sharing data
+ * with it. Used to populate a {@link StandInServer} with data in tests and benchmarks.
+ */
+public class SyntheticParticipant {
+    private final StudyRequest mStudy;
+    private final KeyExchange mKex;
+    private final KeySet mKeys;
+
+    private final IdentifierDerivation mDeriv = new SHA256IdentifierDerivation();
+    private final SharingEncryption mEnc = new AESSharingEncryption();
+
+    /**
+     * Constructor. Performs the key exchange with the study.
+     * @param study The study to participate in
+     */
+    public SyntheticParticipant(StudyRequest study) {
+        mStudy = study;
+        mKex = new ECDHKeyExchange();
+        mKex.putPartnerKexData(study.exchange.getPublicKexData());
+        mKeys = new HKDFKeyExpansion(mKex.getAgreedKey()).expand(false);
+    }
+
+
+    /**
+     * Getter for the KeySet of the participant
+     * @return The KeySet
+     */
+    public KeySet getKeys() {
+        return mKeys;
+    }
+
+
+    /**
+     * Join the study by uploading the StudyJoin message to the study queue
+     * @param server The server to join on
+     * @throws IllegalBlockSizeException If the public key of the study is too short for the StudyJoin message
+     */
+    public void join(StandInServer server) throws IllegalBlockSizeException {
+        StudyMessage.StudyJoin.Builder join = StudyMessage.StudyJoin.newBuilder();
+        join.setQueueIdentifier(ByteString.copyFrom(mStudy.queue));
+        join.setKexAlgorithm(StudyMessage.StudyJoin.KexAlgo.KEX_ECDH_CURVE25519);
+        join.setKexData(ByteString.copyFrom(mKex.getPublicKexData()));
+        boolean joined = server.join(mStudy.queue, RSA.encryptRSA(join.build().toByteArray(), mStudy.pubkey));
+        assert joined;
+    }
+
+
+    /**
+     * Share data with the study by uploading a key block and a data block
+     * @param server The server to share on
+     * @param data The serialized DataContainer.Wrapper to share
+     */
+    public void share(StandInServer server, byte[] data) {
+        // Encrypt the data block under a fresh key and identifier
+        byte[] key = AES.generateAES256Key();
+        byte[] identifier = mDeriv.generateRandomIdentifier().getIdentifier();
+        byte[] ciphertext = AES.encryptAES(data, key, identifier);
+        // Encrypt the key block for the study
+        TokenPair outbound = mDeriv.generateOutboundIdentifier(mKeys);
+        byte[] keyblock = mEnc.encryptKeysAndIdentifier(new DataBlock(key, identifier), mKeys);
+        mDeriv.notifyOutboundIdentifierUsed(mKeys);
+        boolean stored = server.put(identifier, ciphertext) && server.put(outbound.getIdentifier(), keyblock);
+        assert stored;
+    }
+
+
+    /**
+     * Get a serialized DataContainer.Wrapper containing a running track with the specified number of points
+     * @param points The number of points of the track
+     * @return The serialized Wrapper
+     */
+    public static byte[] getSerializedTrack(int points) {
+        DataContainer.Track.Builder track = DataContainer.Track.newBuilder();
+        long timestamp = 1450000000000L;
+        for (int i = 0; i < points; i++) {
+            track.addTrack(DataContainer.Track.Entry.newBuilder()
+                    .setLat(49.877 + i * 0.0001)
+                    .setLng(8.654 + i * 0.0001)
+                    .setTimestamp(timestamp + i * 1000L));
+        }
+        track.setName("Synthetic");
+        track.setMode(DataContainer.Track.ModeOfTransport.MODE_RUNNING);
+        track.setTimestampStart(timestamp);
+        track.setTimestampEnd(timestamp + points * 1000L);
+        track.setTimezone("Europe/Berlin");
+        track.setDistance(points * 10.0f);
+        return DataContainer.Wrapper.newBuilder().setTrack(track).build().toByteArray();
+    }
+}
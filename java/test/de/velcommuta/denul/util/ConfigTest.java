@@ -0,0 +1,129 @@
+package de.velcommuta.denul.util;
+
+import junit.framework.TestCase;
+import org.junit.After;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Test cases for the configuration
+ */
+public class ConfigTest extends TestCase {
+    private File mFile;
+
+    /**
+     * Teardown function, restoring the default configuration
+     */
+    @After
+    public void tearDown() {
+        System.clearProperty("denul.config");
+        System.clearProperty("denul." + Config.SERVER_PORT);
+        System.clearProperty("denul." + Config.KEX_BATCH_SIZE);
+        if (mFile != null) {
+            assertTrue(mFile.delete());
+            mFile = null;
+        }
+        Config.reload();
+    }
+
+
+    /**
+     * Helper function to write a configuration file and point the configuration to it
+     * @param content The content of the file
+     * @throws IOException If writing the file fails
+     */
+    private void writeConfigFile(String content) throws IOException {
+        mFile = File.createTempFile("denul-config", ".properties");
+        try (Writer w = new FileWriter(mFile)) {
+            w.write(content);
+        }
+        System.setProperty("denul.config", mFile.getAbsolutePath());
+    }
+
+
+    /**
+     * Test that settings are read from the configuration file, and that system properties take precedence
+     * @throws IOException If writing the configuration file fails
+     */
+    public void testPrecedence() throws IOException {
+        writeConfigFile("server.host = localhost\nserver.port = 1234\n");
+        Config.reload();
+        assertEquals("localhost", Config.getServerHost());
+        assertEquals(1234, Config.getServerPort());
+        System.setProperty("denul." + Config.SERVER_PORT, "4321");
+        // The change only becomes visible after reloading
+        assertEquals(1234, Config.getServerPort());
+        Config.reload();
+        assertEquals(4321, Config.getServerPort());
+        assertEquals("localhost", Config.getServerHost());
+    }
+
+
+    /**
+     * Test that invalid values are replaced by the default
+     */
+    public void testInvalidValue() {
+        System.setProperty("denul." + Config.KEX_BATCH_SIZE, "0");
+        Config.reload();
+        assertEquals(64, Config.getKexBatchSize());
+        System.setProperty("denul." + Config.KEX_BATCH_SIZE, "many");
+        Config.reload();
+        assertEquals(64, Config.getKexBatchSize());
+        System.setProperty("denul." + Config.KEX_BATCH_SIZE, "128");
+        Config.reload();
+        assertEquals(128, Config.getKexBatchSize());
+    }
+
+
+    /**
+     * Test that listeners are notified on reload, and that the crypto pools are resized
+     */
+    public void testReloadResizesPools() {
+        final int[] calls = {0};
+        Config.addListener(new Config.Listener() {
+            @Override
+            public void onConfigReloaded() {
+                calls[0]++;
+            }
+        });
+        Config.reload();
+        assertEquals(1, calls[0]);
+        ThreadPoolExecutor pool = ThreadPools.newCryptoPool("ConfigTest");
+        try {
+            System.setProperty("denul." + Config.CRYPTO_THREADS, "3");
+            Config.reload();
+            assertEquals(3, pool.getCorePoolSize());
+            assertEquals(3, pool.getMaximumPoolSize());
+            System.setProperty("denul." + Config.CRYPTO_THREADS, "1");
+            Config.reload();
+            assertEquals(1, pool.getCorePoolSize());
+            assertEquals(1, pool.getMaximumPoolSize());
+        } finally {
+            System.clearProperty("denul." + Config.CRYPTO_THREADS);
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Test that removed listeners are no longer notified, e.g. those of a StudyFetchExecutor that was shut down
+     */
+    public void testRemoveListener() {
+        final int[] calls = {0};
+        Config.Listener listener = new Config.Listener() {
+            @Override
+            public void onConfigReloaded() {
+                calls[0]++;
+            }
+        };
+        Config.addListener(listener);
+        Config.reload();
+        Config.removeListener(listener);
+        Config.reload();
+        assertEquals(1, calls[0]);
+    }
+}
@@ -0,0 +1,147 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.GPSTrack;
+import de.velcommuta.denul.data.Location;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Test cases for the streaming JSON writer
+ */
+public class JsonWriterTest extends TestCase {
+    /**
+     * Test compact output of nested values
+     * @throws IOException Never
+     */
+    public void testCompact() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("a").value(1);
+        writer.name("b").beginArray().value(true).nullValue().value((String) null).endArray();
+        writer.name("c").beginObject().endObject();
+        writer.name("d").beginArray().endArray();
+        writer.endObject();
+        assertEquals("{\"a\":1,\"b\":[true,null,null],\"c\":{},\"d\":[]}", out.toString());
+    }
+
+
+    /**
+     * Test the formatting of numbers
+     * @throws IOException Never
+     */
+    public void testNumbers() throws IOException {
+        double[] doubles = {0.0, -0.0, 1.0, -17.0, 1.5, 0.1, 50.123456789, -8.5e-7, 1.4e15, 1.7976931348623157e308,
+                1234567890123.0, Double.MIN_VALUE};
+        for (double d : doubles) {
+            StringWriter out = new StringWriter();
+            new JsonWriter(out).value(d);
+            // The output must be parseable as exactly the same value
+            assertEquals(Double.doubleToLongBits(d), Double.doubleToLongBits(Double.parseDouble(out.toString())));
+        }
+        assertEquals("1234567890123.0", format(1234567890123.0));
+        assertEquals("-0.0", format(-0.0));
+        assertEquals("null", format(Double.NaN));
+        assertEquals("null", format(Double.POSITIVE_INFINITY));
+
+        StringWriter out = new StringWriter();
+        new JsonWriter(out).beginArray().value(Long.MIN_VALUE).value(Long.MAX_VALUE).value(0L).value(-42L)
+                .value(0.1f).endArray();
+        assertEquals("[-9223372036854775808,9223372036854775807,0,-42,0.1]", out.toString());
+    }
+
+
+    /**
+     * Test the escaping of strings
+     * @throws IOException Never
+     */
+    public void testStrings() throws IOException {
+        StringWriter out = new StringWriter();
+        new JsonWriter(out).value("plain \"quoted\" back\\slash\nline\ttab\u0001 ä");
+        assertEquals("\"plain \\\"quoted\\\" back\\\\slash\\nline\\ttab\\u0001 ä\"", out.toString());
+    }
+
+
+    /**
+     * Test pretty printing and newline-delimited output
+     * @throws IOException Never
+     */
+    public void testLayout() throws IOException {
+        StringWriter out = new StringWriter();
+        new JsonWriter(out, true).beginObject().name("a").beginArray().value(1).value(2).endArray().endObject();
+        assertEquals("{\n  \"a\": [\n    1,\n    2\n  ]\n}", out.toString());
+
+        out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject().endObject().lineBreak();
+        writer.value(1).lineBreak();
+        assertEquals("{}\n1\n", out.toString());
+    }
+
+
+    /**
+     * Test that invalid documents are rejected
+     * @throws IOException Never
+     */
+    public void testInvalid() throws IOException {
+        JsonWriter writer = new JsonWriter(new StringWriter());
+        writer.beginObject();
+        try {
+            writer.value(1);
+            fail("Value without name accepted");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        try {
+            writer.endArray();
+            fail("Mismatched bracket accepted");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        writer.endObject();
+        try {
+            writer.value(1);
+            fail("Second top-level value accepted");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+
+    /**
+     * Test the JSON representation of a GPSTrack
+     */
+    public void testGPSTrack() {
+        List<Location> locations = new ArrayList<>();
+        Location loc = new Location();
+        loc.setLatitude(50.5);
+        loc.setLongitude(8.25);
+        loc.setTime(1000);
+        locations.add(loc);
+        GPSTrack track = new GPSTrack(locations, "name", GPSTrack.VALUE_CYCLING, 1, 2, "GMT", 12.5f);
+        assertEquals("{\n  \"Owner\": -1,\n  \"Start\": 1,\n  \"End\": 2,\n  \"Timezone\": \"GMT\",\n" +
+                "  \"Mode of Transportation\": \"cycling\",\n  \"Distance\": 12.5,\n  \"Path\": [\n    {\n" +
+                "      \"Latitude\": 50.5,\n      \"Longitude\": 8.25,\n      \"Timestamp\": 1000.0\n    }\n  ]\n}",
+                track.toString());
+        track = new GPSTrack(new LinkedList<Location>(), "name", GPSTrack.VALUE_RUNNING, 1, 2, "GMT");
+        assertTrue(track.toString().endsWith("\"Path\": []\n}"));
+    }
+
+
+    /**
+     * Format a double using a JsonWriter
+     * @param value The value
+     * @return The JSON representation
+     * @throws IOException Never
+     */
+    private static String format(double value) throws IOException {
+        StringWriter out = new StringWriter();
+        new JsonWriter(out).value(value);
+        return out.toString();
+    }
+}
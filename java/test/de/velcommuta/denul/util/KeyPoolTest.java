@@ -0,0 +1,165 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.crypto.AES;
+import de.velcommuta.denul.crypto.ECDHKeyExchange;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Test cases for the KeyPool
+ */
+public class KeyPoolTest extends TestCase {
+    private static final String POOL_FILE = "keypool-test.bin";
+    private static final String KEY_FILE = "keypool-test.key";
+
+    private ExecutorService mExecutor;
+
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        for (String name : new String[] {POOL_FILE, KEY_FILE}) {
+            File f = new File(name);
+            if (f.isFile()) {
+                assertTrue(f.delete());
+            }
+        }
+    }
+
+
+    /**
+     * Test that the pool fills up to its targets and hands out distinct keypairs
+     * @throws Exception If something goes wrong
+     */
+    public void testRefill() throws Exception {
+        KeyPool pool = new KeyPool(mExecutor, 1024, 2, 3);
+        // The pool must not generate keys before being asked to
+        assertEquals(0, pool.getAvailableRSAKeypairs());
+        pool.refill();
+        waitForPool(pool, 2, 3);
+        // Taking a key from a full pool must not block
+        KeyPair first = pool.getRSAKeypair().get();
+        KeyPair second = pool.getRSAKeypair().get();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertFalse(Arrays.equals(first.getPrivate().getEncoded(), second.getPrivate().getEncoded()));
+        ECDHKeyExchange kex = pool.getECDHKeyExchange().get();
+        assertNotNull(kex.getPublicKexData());
+        // The pool refills itself afterwards
+        waitForPool(pool, 2, 3);
+    }
+
+
+    /**
+     * Test that keypairs of a different bitness are generated on demand
+     * @throws Exception If something goes wrong
+     */
+    public void testOtherBitness() throws Exception {
+        KeyPool pool = new KeyPool(mExecutor, 2048, 0, 0);
+        KeyPair pair = pool.getRSAKeypair(1024).get();
+        assertNotNull(pair);
+        assertEquals(0, pool.getAvailableRSAKeypairs());
+    }
+
+
+    /**
+     * Test storing and loading the pool
+     * @throws Exception If something goes wrong
+     */
+    public void testStoreLoad() throws Exception {
+        byte[] key = AES.generateAES256Key();
+        File file = new File(POOL_FILE);
+        KeyPool pool = new KeyPool(mExecutor, 1024, 1, 2);
+        pool.refill();
+        waitForPool(pool, 1, 2);
+        assertTrue(pool.store(file, key));
+        // Storing removes the keypairs from the pool
+        assertEquals(0, pool.getAvailableRSAKeypairs());
+        assertEquals(0, pool.getAvailableECDHKeypairs());
+        // Loading with the wrong key fails (and deletes the file)
+        KeyPool loaded = new KeyPool(mExecutor, 1024, 1, 2);
+        assertTrue(pool.store(file, key));
+        assertFalse(loaded.load(file, AES.generateAES256Key()));
+        assertFalse(file.isFile());
+        assertEquals(0, loaded.getAvailableRSAKeypairs());
+    }
+
+
+    /**
+     * Test that loaded keypairs are identical to the stored ones and that the file is removed after loading
+     * @throws Exception If something goes wrong
+     */
+    public void testLoadedKeysMatch() throws Exception {
+        byte[] key = AES.generateAES256Key();
+        File file = new File(POOL_FILE);
+        KeyPool pool = new KeyPool(mExecutor, 1024, 1, 1);
+        pool.refill();
+        waitForPool(pool, 1, 1);
+        KeyPool copy = new KeyPool(mExecutor, 1024, 1, 1);
+        // Get the keys out of the pool by storing, loading them into a second pool and comparing
+        assertTrue(pool.store(file, key));
+        assertTrue(copy.load(file, key));
+        assertFalse(file.isFile());
+        assertEquals(1, copy.getAvailableRSAKeypairs());
+        assertEquals(1, copy.getAvailableECDHKeypairs());
+        KeyPair rsa = copy.getRSAKeypair().get();
+        ECDHKeyExchange ecdh = copy.getECDHKeyExchange().get();
+        // The keys can be used
+        ECDHKeyExchange other = new ECDHKeyExchange();
+        assertTrue(ecdh.putPartnerKexData(other.getPublicKexData()));
+        assertTrue(other.putPartnerKexData(ecdh.getPublicKexData()));
+        assertTrue(Arrays.equals(ecdh.getAgreedKey(), other.getAgreedKey()));
+        assertEquals("RSA", rsa.getPrivate().getAlgorithm());
+        // Loading a pool with a different RSA bitness discards the RSA keys
+        KeyPool different = new KeyPool(mExecutor, 2048, 0, 0);
+        assertTrue(copy.store(file, key));
+        assertTrue(different.load(file, key));
+        assertEquals(0, different.getAvailableRSAKeypairs());
+    }
+
+
+    /**
+     * Test that the storage key is created readable by its owner only, and that a key file readable by others is
+     * refused
+     * @throws Exception If something goes wrong
+     */
+    public void testStorageKey() throws Exception {
+        File keyfile = new File(KEY_FILE);
+        byte[] key = KeyPool.getStorageKey(keyfile);
+        assertNotNull(key);
+        assertEquals(32, key.length);
+        assertTrue(Arrays.equals(key, KeyPool.getStorageKey(keyfile)));
+        if (!keyfile.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) return;
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(keyfile.toPath()));
+        Files.setPosixFilePermissions(keyfile.toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+        assertNull(KeyPool.getStorageKey(keyfile));
+        // The refused key file is left alone
+        assertTrue(keyfile.isFile());
+    }
+
+
+    /**
+     * Helper function to wait until the pool has reached the expected number of keypairs
+     * @param pool The KeyPool
+     * @param rsa Expected number of RSA keypairs
+     * @param ecdh Expected number of ECDH keypairs
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private static void waitForPool(KeyPool pool, int rsa, int ecdh) throws InterruptedException {
+        for (int i = 0; i < 600; i++) {
+            if (pool.getAvailableRSAKeypairs() == rsa && pool.getAvailableECDHKeypairs() == ecdh) return;
+            Thread.sleep(100);
+        }
+        fail("Pool did not reach target size");
+    }
+}
@@ -0,0 +1,101 @@
+package de.velcommuta.denul.util;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * Test cases for the logging facade
+ */
+public class LogTest extends TestCase {
+    private Logger mLogger;
+    private final List<LogRecord> mRecords = new ArrayList<>();
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            mRecords.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Setup function, capturing the records logged for this class
+     */
+    @Before
+    public void setUp() {
+        mLogger = Logger.getLogger(LogTest.class.getName());
+        mLogger.setUseParentHandlers(false);
+        mLogger.addHandler(mHandler);
+        mLogger.setLevel(Level.INFO);
+        mRecords.clear();
+    }
+
+
+    /**
+     * Teardown function
+     */
+    @After
+    public void tearDown() {
+        mLogger.removeHandler(mHandler);
+        mLogger.setUseParentHandlers(true);
+        mLogger.setLevel(null);
+        System.clearProperty("denul." + Config.LOG_RATE_LIMIT);
+        Config.reload();
+    }
+
+
+    /**
+     * Test that disabled levels are not logged and that parameters and the source are passed on
+     */
+    public void testLevelsAndParameters() {
+        Log log = Log.getLog(LogTest.class);
+        assertFalse(log.isFineEnabled());
+        log.fine("test", "Not logged {0}", 1);
+        assertEquals(0, mRecords.size());
+        log.info("test", "Reply has {0,number,#} bytes", 12345);
+        assertEquals(1, mRecords.size());
+        LogRecord record = mRecords.get(0);
+        assertEquals(LogTest.class.getName(), record.getSourceClassName());
+        assertEquals("test", record.getSourceMethodName());
+        assertEquals("test: Reply has 12345 bytes", new SimpleFormatter().formatMessage(record));
+    }
+
+
+    /**
+     * Test that repeated warnings are rate-limited, and that the limit can be disabled
+     */
+    public void testRateLimit() {
+        System.setProperty("denul." + Config.LOG_RATE_LIMIT, "3");
+        Config.reload();
+        Log log = Log.getLog(LogTest.class);
+        for (int i = 0; i < 10; i++) {
+            log.warning("test", "Something failed");
+        }
+        assertEquals(3, mRecords.size());
+        // Other messages have their own limit
+        log.severe("test", "Something else failed");
+        assertEquals(4, mRecords.size());
+        // Disabling the limit logs everything
+        System.setProperty("denul." + Config.LOG_RATE_LIMIT, "0");
+        Config.reload();
+        for (int i = 0; i < 10; i++) {
+            log.warning("test", "Something failed");
+        }
+        assertEquals(14, mRecords.size());
+    }
+}
@@ -0,0 +1,146 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the poll scheduling
+ */
+public class PollSchedulerTest extends TestCase {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Setup function, disabling the random variation of the intervals
+     */
+    @Before
+    public void setUp() {
+        System.setProperty("denul." + Config.DAEMON_JITTER, "0");
+        Config.reload();
+    }
+
+
+    /**
+     * Teardown function
+     */
+    @After
+    public void tearDown() {
+        System.clearProperty("denul." + Config.DAEMON_JITTER);
+        System.clearProperty("denul." + Config.POLL_SESSION_SIZE);
+        Config.reload();
+    }
+
+
+    /**
+     * Helper function to get a study with the given ID and update frequency
+     * @param id The ID of the study
+     * @param hours The update frequency in hours, or 0 for none
+     * @return The study
+     */
+    private static StudyRequest getStudy(long id, int hours) {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        req.id = id;
+        for (StudyRequest.DataRequest data : req.requests) {
+            data.frequency = hours;
+        }
+        return req;
+    }
+
+
+    /**
+     * Test the computation of the base interval from the requested update frequencies
+     */
+    public void testBaseInterval() {
+        StudyRequest req = getStudy(1, 0);
+        assertEquals(TimeUnit.SECONDS.toMillis(Config.getDaemonDefaultInterval()), PollScheduler.getBaseInterval(req));
+        StudyRequest.DataRequest hourly = new StudyRequest.DataRequest();
+        hourly.type = StudyRequest.DataRequest.TYPE_GPS;
+        hourly.granularity = StudyRequest.DataRequest.GRANULARITY_FINE;
+        hourly.frequency = 1;
+        StudyRequest.DataRequest daily = new StudyRequest.DataRequest();
+        daily.type = StudyRequest.DataRequest.TYPE_GPS;
+        daily.granularity = StudyRequest.DataRequest.GRANULARITY_COARSE;
+        daily.frequency = 24;
+        req.requests.add(daily);
+        req.requests.add(hourly);
+        assertEquals(HOUR, PollScheduler.getBaseInterval(req));
+    }
+
+
+    /**
+     * Test that studies without new data are backed off, up to the maximum backoff
+     */
+    public void testBackoff() {
+        PollScheduler scheduler = new PollScheduler();
+        scheduler.add(getStudy(1, 1), 0);
+        long now = HOUR;
+        assertEquals(1, scheduler.takeDue(now).size());
+        // Not due again while being polled
+        assertEquals(0, scheduler.takeDue(now).size());
+        long expected = HOUR;
+        for (int i = 0; i < 10; i++) {
+            scheduler.onPolled(1, 0, now);
+            expected = Math.min(expected * 2, HOUR * Config.getPollMaxBackoff());
+            assertEquals(expected, scheduler.getInterval(1));
+            assertEquals(now + expected, scheduler.getNextDue());
+            now += expected;
+            assertEquals(1, scheduler.takeDue(now).size());
+        }
+        // Receiving data resets the interval
+        scheduler.onPolled(1, 100, now);
+        assertEquals(HOUR, scheduler.getInterval(1));
+    }
+
+
+    /**
+     * Test that the interval follows the observed arrival rate
+     */
+    public void testArrivalRate() {
+        PollScheduler scheduler = new PollScheduler();
+        scheduler.add(getStudy(1, 1), 0);
+        // One item every four hours
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += 4 * HOUR;
+            scheduler.takeDue(now);
+            scheduler.onPolled(1, 1, now);
+        }
+        assertEquals(4 * HOUR, scheduler.getInterval(1));
+        // A failed poll does not change the statistics
+        scheduler.takeDue(now + 4 * HOUR);
+        scheduler.onPolled(1, -1, now + 4 * HOUR);
+        assertEquals(4 * HOUR, scheduler.getInterval(1));
+        assertEquals(now + 5 * HOUR, scheduler.getNextDue());
+    }
+
+
+    /**
+     * Test that studies which are due at about the same time are polled together, in sessions of limited size
+     */
+    public void testCoalescing() {
+        System.setProperty("denul." + Config.POLL_SESSION_SIZE, "2");
+        Config.reload();
+        PollScheduler scheduler = new PollScheduler();
+        for (int i = 0; i < 5; i++) {
+            scheduler.add(getStudy(i, 1), 0);
+        }
+        // All studies become due within the first hour, and the first one is due after the coalescing window
+        long first = scheduler.getNextDue();
+        assertTrue(scheduler.takeDue(first - 1).isEmpty());
+        List<List<StudyRequest>> sessions = scheduler.takeDue(HOUR + TimeUnit.SECONDS.toMillis(Config.getPollCoalesceWindow()));
+        assertEquals(3, sessions.size());
+        assertEquals(2, sessions.get(0).size());
+        assertEquals(2, sessions.get(1).size());
+        assertEquals(1, sessions.get(2).size());
+        assertEquals(Long.MAX_VALUE, scheduler.getNextDue());
+        // Removed studies are not scheduled again
+        scheduler.remove(0);
+        scheduler.onPolled(0, 0, HOUR);
+        assertEquals(4, scheduler.size());
+    }
+}
@@ -0,0 +1,82 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.database.SQLiteDatabase;
+import de.velcommuta.denul.networking.StandInServer;
+import de.velcommuta.denul.networking.SyntheticParticipant;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the StudyFetchExecutor
+ */
+public class StudyFetchExecutorTest extends TestCase {
+    private StandInServer mServer;
+    private File mFile;
+
+    /**
+     * Setup function
+     */
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer();
+        StudyManager.setConnectionFactory(mServer.getConnectionFactory());
+        mFile = File.createTempFile("denul-test", ".db");
+    }
+
+
+    /**
+     * Teardown function
+     */
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+        assertTrue(mFile.delete());
+    }
+
+
+    /**
+     * Test polling several studies at once, in both modes
+     * @throws IllegalBlockSizeException If RSA feels like it
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void testFetchAll() throws IllegalBlockSizeException, InterruptedException {
+        SQLiteDatabase db = new SQLiteDatabase(mFile.getAbsolutePath());
+        try {
+            List<StudyRequest> studies = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+                assertTrue(StudyManager.registerStudy(req, db));
+                studies.add(req);
+                // Study i is joined by i participants
+                for (int j = 0; j < i; j++) {
+                    new SyntheticParticipant(req).join(mServer);
+                }
+            }
+            for (boolean virtual : new boolean[] {false, true}) {
+                StudyFetchExecutor executor = new StudyFetchExecutor(mFile.getAbsolutePath(), virtual);
+                assertEquals(virtual && ThreadPools.hasVirtualThreads(), executor.isVirtual());
+                // Participants are only received once
+                List<Integer> expected = virtual ? Arrays.asList(0, 0, 0) : Arrays.asList(0, 1, 2);
+                assertEquals(expected, executor.fetchAll(studies));
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(i, StudyManager.getStudyParticipants(studies.get(i), db).size());
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
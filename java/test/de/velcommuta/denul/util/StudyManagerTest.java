@@ -3,9 +3,12 @@ package de.velcommuta.denul.util;
 import com.google.protobuf.ByteString;
 import de.velcommuta.denul.crypto.*;
 import de.velcommuta.denul.data.*;
+import de.velcommuta.denul.database.PollJournalEntry;
 import de.velcommuta.denul.database.SQLiteDatabase;
 import de.velcommuta.denul.networking.Connection;
 import de.velcommuta.denul.networking.ProtobufProtocol;
+import de.velcommuta.denul.networking.StandInServer;
+import de.velcommuta.denul.networking.SyntheticParticipant;
 import de.velcommuta.denul.networking.Protocol;
 import de.velcommuta.denul.networking.TLSConnection;
 import de.velcommuta.denul.networking.protobuf.study.StudyMessage;
@@ -17,6 +20,8 @@ import javax.crypto.IllegalBlockSizeException;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -60,6 +65,46 @@ public class StudyManagerTest extends TestCase {
     }
 
 
+    /**
+     * Test resuming a poll journal with an entry of a participant that is not known anymore, which is removed from the
+     * journal without retrieving its data, while the entries of the known participants are processed
+     * @throws IOException If the connection to the stand-in server fails
+     */
+    public void testResumeUnknownParticipant() throws IOException {
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest();
+        long study = mDB.addStudyRequest(req);
+        long known = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        long unknown = mDB.addParticipant(new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true), study);
+        KeySet keys = new KeySet(new byte[32], new byte[32], new byte[32], new byte[32], true, (int) known);
+
+        StandInServer server = new StandInServer();
+        try {
+            // Both participants shared a track, which an interrupted poll announced in the journal
+            IdentifierDerivation derive = new SHA256IdentifierDerivation();
+            List<PollJournalEntry> journal = new LinkedList<>();
+            for (long part : new long[] {known, unknown}) {
+                byte[] key = AES.generateAES256Key();
+                byte[] identifier = derive.generateRandomIdentifier().getIdentifier();
+                assertTrue(server.put(identifier, AES.encryptAES(SyntheticParticipant.getSerializedTrack(5), key, identifier)));
+                journal.add(new PollJournalEntry(part, derive.generateRandomIdentifier(), new DataBlock(key, identifier)));
+            }
+            mDB.updateParticipants(Collections.singletonList(keys), journal);
+            assertEquals(2, mDB.getPollJournal(study).size());
+
+            Protocol p = new ProtobufProtocol();
+            assertEquals(Protocol.CONNECT_OK, p.connect(server.getConnectionFactory().openConnection()));
+            // Only the track of the known participant is retrieved
+            assertEquals(1, StudyManager.resume(mDB, p, study, Collections.singletonList(keys)));
+            p.disconnect();
+        } finally {
+            server.shutdown();
+        }
+        // Both entries are finished, and the revocation of their key blocks is queued
+        assertEquals(0, mDB.getPollJournal(study).size());
+        assertEquals(2, mDB.getQueuedRevocations(10).size());
+    }
+
+
     /**
      * Test a full combination: Setting up a study, adding participants, retrieving data, and deleting the study
      * @throws IllegalBlockSizeException If RSA feels like it
@@ -0,0 +1,83 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.StudyRequest;
+import de.velcommuta.denul.data.StudyRequestTest;
+import de.velcommuta.denul.database.SQLiteDatabase;
+import de.velcommuta.denul.networking.StandInServer;
+import de.velcommuta.denul.networking.SyntheticParticipant;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+
+import javax.crypto.IllegalBlockSizeException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for the background study polling
+ */
+public class StudyPollerTest extends TestCase {
+    private StandInServer mServer;
+    private File mFile;
+
+    /**
+     * Setup function
+     */
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer();
+        StudyManager.setConnectionFactory(mServer.getConnectionFactory());
+        mFile = File.createTempFile("denul-test", ".db");
+    }
+
+
+    /**
+     * Teardown function
+     */
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+        assertTrue(mFile.delete());
+        System.clearProperty("denul." + Config.DAEMON_DEFAULT_INTERVAL);
+        Config.reload();
+    }
+
+
+    /**
+     * Test that the poller picks up studies from the database and polls them repeatedly
+     * @throws IllegalBlockSizeException If RSA feels like it
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void testPolling() throws IllegalBlockSizeException, InterruptedException {
+        System.setProperty("denul." + Config.DAEMON_DEFAULT_INTERVAL, "1");
+        Config.reload();
+        StudyRequest req = StudyRequestTest.getRandomStudyRequest(4096);
+        for (StudyRequest.DataRequest data : req.requests) {
+            data.frequency = 0;
+        }
+        SQLiteDatabase db = new SQLiteDatabase(mFile.getAbsolutePath());
+        try {
+            assertTrue(StudyManager.registerStudy(req, db));
+            StudyPoller poller = new StudyPoller(mFile.getAbsolutePath());
+            poller.start();
+            try {
+                // Participants joining while the poller is running are picked up by one of the next polls
+                for (int i = 0; i < 3; i++) {
+                    new SyntheticParticipant(req).join(mServer);
+                }
+                long deadline = System.currentTimeMillis() + 20000;
+                while (StudyManager.getStudyParticipants(req, db).size() < 3 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(100);
+                }
+                assertEquals(1, poller.getScheduledStudyCount());
+                assertEquals(3, StudyManager.getStudyParticipants(req, db).size());
+            } finally {
+                assertTrue(poller.shutdown(10, TimeUnit.SECONDS));
+            }
+            assertEquals(0, poller.getScheduledStudyCount());
+        } finally {
+            db.close();
+        }
+    }
+}
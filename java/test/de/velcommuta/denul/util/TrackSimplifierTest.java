@@ -0,0 +1,124 @@
+package de.velcommuta.denul.util;
+
+import de.velcommuta.denul.data.Shareable;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Test cases for the simplification of GPS tracks
+ */
+public class TrackSimplifierTest extends TestCase {
+    private static final int POINTS = 10000;
+
+    private double[] mTime;
+    private double[] mLat;
+    private double[] mLon;
+
+    /**
+     * Setup function, creating a track going north in a straight line with a point per second and a few meters of
+     * noise, followed by a sharp turn to the east
+     */
+    public void setUp() {
+        Random random = new Random(42);
+        mTime = new double[POINTS];
+        mLat = new double[POINTS];
+        mLon = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            mTime[i] = 1450000000000.0 + i * 1000;
+            // About 1 meter per point and 1 meter of noise
+            double noise = (random.nextDouble() - 0.5) * 0.00001;
+            if (i < POINTS / 2) {
+                mLat[i] = 50 + i * 0.00001;
+                mLon[i] = 8 + noise;
+            } else {
+                mLat[i] = 50 + (POINTS / 2) * 0.00001 + noise;
+                mLon[i] = 8 + (i - POINTS / 2) * 0.00001;
+            }
+        }
+    }
+
+
+    /**
+     * Test that Douglas-Peucker reduces the track to its corners, and keeps the noise with a small tolerance
+     */
+    public void testDouglasPeucker() {
+        int n = new TrackSimplifier(TrackSimplifier.DOUGLAS_PEUCKER, 10, 0).simplify(mTime, mLat, mLon, POINTS);
+        assertTrue(n >= 3 && n <= 5);
+        assertEquals(1450000000000.0, mTime[0]);
+        assertEquals(1450000000000.0 + (POINTS - 1) * 1000, mTime[n - 1]);
+        assertSorted(n);
+        setUp();
+        n = new TrackSimplifier(TrackSimplifier.DOUGLAS_PEUCKER, 0.01, 0).simplify(mTime, mLat, mLon, POINTS);
+        assertTrue(n > POINTS / 2);
+    }
+
+
+    /**
+     * Test that Visvalingam-Whyatt reduces the track to its corners
+     */
+    public void testVisvalingam() {
+        int n = new TrackSimplifier(TrackSimplifier.VISVALINGAM, 10, 0).simplify(mTime, mLat, mLon, POINTS);
+        // The noise adds up to the area threshold between points a few hundred meters apart
+        assertTrue(n >= 3 && n < POINTS / 50);
+        assertEquals(1450000000000.0, mTime[0]);
+        assertEquals(1450000000000.0 + (POINTS - 1) * 1000, mTime[n - 1]);
+        assertSorted(n);
+    }
+
+
+    /**
+     * Test the decimation by time
+     */
+    public void testDecimation() {
+        int n = new TrackSimplifier(TrackSimplifier.DOUGLAS_PEUCKER, 0, 10000).simplify(mTime, mLat, mLon, POINTS);
+        // One point per 10 seconds, plus the last point
+        assertEquals(POINTS / 10 + 1, n);
+        for (int i = 1; i < n - 1; i++) {
+            assertEquals(10000.0, mTime[i] - mTime[i - 1]);
+        }
+        assertEquals(1450000000000.0 + (POINTS - 1) * 1000, mTime[n - 1]);
+    }
+
+
+    /**
+     * Test that short tracks and the fine granularity are left alone
+     */
+    public void testNoSimplification() {
+        TrackSimplifier simplifier = TrackSimplifier.forGranularity(Shareable.GRANULARITY_VERY_COARSE);
+        assertEquals(0, simplifier.simplify(new double[0], new double[0], new double[0], 0));
+        assertEquals(1, simplifier.simplify(mTime, mLat, mLon, 1));
+        assertEquals(2, simplifier.simplify(mTime, mLat, mLon, 2));
+        assertEquals(POINTS, TrackSimplifier.forGranularity(Shareable.GRANULARITY_FINE).simplify(mTime, mLat, mLon, POINTS));
+    }
+
+
+    /**
+     * Test that the levels of detail are nested and match the simplifiers of the granularities
+     */
+    public void testLevels() {
+        byte[] levels = TrackSimplifier.computeLevels(mTime, mLat, mLon, POINTS);
+        int coarse = 0;
+        int veryCoarse = 0;
+        for (byte level : levels) {
+            if (level >= Shareable.GRANULARITY_COARSE) coarse++;
+            if (level >= Shareable.GRANULARITY_VERY_COARSE) veryCoarse++;
+        }
+        assertEquals(Shareable.GRANULARITY_VERY_COARSE, levels[0]);
+        assertEquals(Shareable.GRANULARITY_VERY_COARSE, levels[POINTS - 1]);
+        assertTrue(veryCoarse >= 3 && veryCoarse <= coarse && coarse < POINTS / 5);
+        int n = TrackSimplifier.forGranularity(Shareable.GRANULARITY_COARSE).simplify(mTime, mLat, mLon, POINTS);
+        assertEquals(coarse, n);
+    }
+
+
+    /**
+     * Check that the first points of the track are in chronological order
+     * @param n The number of points to check
+     */
+    private void assertSorted(int n) {
+        for (int i = 1; i < n; i++) {
+            assertTrue(mTime[i] > mTime[i - 1]);
+        }
+    }
+}